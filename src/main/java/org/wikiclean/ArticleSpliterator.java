@@ -0,0 +1,125 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Spliterator over the pages of a dump that is read sequentially, but hands out batches of pages
+ * for parallel processing. Batches are sized by the characters or bytes they hold rather than by
+ * the number of pages, since page sizes vary by orders of magnitude. The number of pages left is
+ * estimated from how much of the compressed file has been read so far.
+ */
+final class ArticleSpliterator<T> implements Spliterator<T> {
+  /** Default batch size, in characters or bytes */
+  static final int DEFAULT_BATCH_SIZE = 4 * 1024 * 1024;
+
+  // Until the first page has been read: uncompressed bytes per compressed byte and characters per
+  // page. Both are on the low side for Wikipedia dumps, so that the estimate is rather too low,
+  // which keeps the stream splitting.
+  private static final int INITIAL_COMPRESSION_RATIO = 5;
+  private static final int INITIAL_PAGE_SIZE = 8192;
+
+  private final Iterator<T> pages;
+  private final ToIntFunction<? super T> size;
+  private final long length;
+  private final LongSupplier position;
+  private final int characteristics;
+  private final int batchSize;
+  private long read = 0;
+
+  /**
+   * Creates a spliterator.
+   * @param pages pages, read sequentially
+   * @param size size of a page, in characters or bytes
+   * @param length length of the compressed file
+   * @param position number of bytes of the compressed file read so far
+   * @param ordered whether or not the pages are to be processed in order
+   * @param batchSize size of a batch
+   */
+  ArticleSpliterator(Iterator<T> pages, ToIntFunction<? super T> size, long length,
+      LongSupplier position, boolean ordered, int batchSize) {
+    this.pages = pages;
+    this.size = size;
+    this.length = length;
+    this.position = position;
+    this.characteristics = Spliterator.NONNULL | (ordered ? Spliterator.ORDERED : 0);
+    this.batchSize = batchSize;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super T> action) {
+    if (!pages.hasNext()) {
+      return false;
+    }
+    read++;
+    action.accept(pages.next());
+    return true;
+  }
+
+  @Override
+  public void forEachRemaining(Consumer<? super T> action) {
+    while (pages.hasNext()) {
+      read++;
+      action.accept(pages.next());
+    }
+  }
+
+  @Override
+  public Spliterator<T> trySplit() {
+    Object[] batch = new Object[64];
+    int n = 0;
+    long total = 0;
+    while (total < batchSize && pages.hasNext()) {
+      T page = pages.next();
+      if (n == batch.length) {
+        Object[] grown = new Object[n * 2];
+        System.arraycopy(batch, 0, grown, 0, n);
+        batch = grown;
+      }
+      batch[n++] = page;
+      total += size.applyAsInt(page);
+    }
+    if (n == 0) {
+      return null;
+    }
+    read += n;
+    return Spliterators.spliterator(batch, 0, n, characteristics | Spliterator.IMMUTABLE);
+  }
+
+  @Override
+  public long estimateSize() {
+    long consumed = position.getAsLong();
+    if (read == 0 || consumed <= 0) {
+      return Math.max(1, length * INITIAL_COMPRESSION_RATIO / INITIAL_PAGE_SIZE);
+    }
+    if (consumed >= length) {
+      return pages.hasNext() ? 1 : 0;
+    }
+    return Math.max(1, (long) ((double) read * (length - consumed) / consumed));
+  }
+
+  @Override
+  public int characteristics() {
+    return characteristics;
+  }
+}
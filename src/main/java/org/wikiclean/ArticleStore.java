@@ -0,0 +1,265 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import org.wikiclean.WikipediaMultistreamDump.LongList;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Random access to the pages of a multistream dump. The index of the dump is turned into a compact
+ * table, written once next to the index and memory-mapped afterwards, that maps page ids and
+ * titles to the stream holding the page. A lookup decompresses only that stream, and the most
+ * recently decompressed streams are cached. This class is thread-safe.
+ *
+ * <p>The table holds the stream offsets, then one sorted key per page for ids (id in the upper 32
+ * bits, stream in the lower 32 bits) and one for titles (a 40-bit title hash in the upper bits,
+ * stream in the lower 24 bits). Title hashes may collide, which is resolved by checking the titles
+ * of the candidate pages.</p>
+ */
+public class ArticleStore implements Closeable {
+  /** Default number of decompressed streams kept in memory */
+  public static final int DEFAULT_CACHE_SIZE = 64;
+
+  private static final int MAGIC = 0x57435354; // "WCST"
+  private static final int HEADER_SIZE = 12;
+  private static final int STREAM_BITS = 24;
+  private static final long STREAM_MASK = (1L << STREAM_BITS) - 1;
+
+  private final FileChannel channel;
+  private final long length;
+  private final LongBuffer offsets;
+  private final LongBuffer ids;
+  private final LongBuffer titles;
+  private final Map<Integer, List<String>> cache;
+  private final WikiClean cleaner = new WikiClean.Builder().build();
+
+  /**
+   * Opens a store, building its table next to the index if there is none yet.
+   * @param dump path to multistream dump file
+   * @param index path to index file
+   * @throws IOException if any file-related errors are encountered
+   */
+  public ArticleStore(File dump, File index) throws IOException {
+    this(dump, index, new File(index.getPath() + ".table"), DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * Opens a store, building its table if it does not exist or is older than the index.
+   * @param dump path to multistream dump file
+   * @param index path to index file
+   * @param table path to table file
+   * @param cacheSize number of decompressed streams kept in memory
+   * @throws IOException if any file-related errors are encountered
+   */
+  public ArticleStore(File dump, File index, File table, int cacheSize) throws IOException {
+    if (!table.exists() || table.lastModified() < index.lastModified()) {
+      buildTable(index, table);
+    }
+
+    ByteBuffer buffer;
+    try (FileChannel tableChannel = FileChannel.open(table.toPath(), StandardOpenOption.READ)) {
+      buffer = tableChannel.map(FileChannel.MapMode.READ_ONLY, 0, tableChannel.size());
+    }
+    if (buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not an article store table: " + table);
+    }
+    int streams = buffer.getInt(4);
+    int pages = buffer.getInt(8);
+    offsets = slice(buffer, HEADER_SIZE, streams);
+    ids = slice(buffer, HEADER_SIZE + 8L * streams, pages);
+    titles = slice(buffer, HEADER_SIZE + 8L * (streams + pages), pages);
+
+    channel = FileChannel.open(dump.toPath(), StandardOpenOption.READ);
+    length = channel.size();
+    cache = new LinkedHashMap<Integer, List<String>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, List<String>> eldest) {
+        return size() > cacheSize;
+      }
+    };
+  }
+
+  private static LongBuffer slice(ByteBuffer buffer, long position, int longs) {
+    ByteBuffer duplicate = buffer.duplicate();
+    duplicate.position((int) position);
+    duplicate.limit((int) position + 8 * longs);
+    return duplicate.slice().asLongBuffer();
+  }
+
+  /**
+   * Returns the number of pages in the store.
+   * @return the number of pages in the store
+   */
+  public int size() {
+    return ids.limit();
+  }
+
+  /**
+   * Returns the page with the given id.
+   * @param id page id
+   * @return the page, or {@code null} if there is no page with this id
+   */
+  public String get(long id) {
+    if (id < 0 || id > Integer.MAX_VALUE) {
+      return null;
+    }
+    String idString = Long.toString(id);
+    for (int i = lowerBound(ids, id << 32); i < ids.limit() && ids.get(i) >>> 32 == id; i++) {
+      for (String page : stream((int) ids.get(i))) {
+        if (cleaner.getId(page).equals(idString)) {
+          return page;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the page with the given title.
+   * @param title page title, as in the dump
+   * @return the page, or {@code null} if there is no page with this title
+   */
+  public String get(String title) {
+    long hash = hash(title);
+    for (int i = lowerBound(titles, hash << STREAM_BITS);
+         i < titles.limit() && titles.get(i) >>> STREAM_BITS == hash; i++) {
+      for (String page : stream((int) (titles.get(i) & STREAM_MASK))) {
+        if (cleaner.getTitle(page).equals(title)) {
+          return page;
+        }
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  // Returns the pages of a stream, decompressing it unless it is cached.
+  private List<String> stream(int stream) {
+    synchronized (cache) {
+      List<String> pages = cache.get(stream);
+      if (pages != null) {
+        return pages;
+      }
+    }
+    long start = offsets.get(stream);
+    long end = stream + 1 < offsets.limit() ? offsets.get(stream + 1) : length;
+    List<String> pages;
+    try {
+      pages = WikipediaMultistreamDump.decompress(channel, start, end);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    synchronized (cache) {
+      cache.put(stream, pages);
+    }
+    return pages;
+  }
+
+  // First position whose unsigned value is not less than the key.
+  private static int lowerBound(LongBuffer keys, long key) {
+    int low = 0;
+    int high = keys.limit();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (Long.compareUnsigned(keys.get(mid), key) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  // 40-bit FNV-1a hash of a title.
+  private static long hash(String title) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < title.length(); i++) {
+      hash = (hash ^ title.charAt(i)) * 0x100000001b3L;
+    }
+    return hash >>> (64 - 40);
+  }
+
+  private static void buildTable(File index, File table) throws IOException {
+    LongList offsets = new LongList();
+    LongList ids = new LongList();
+    LongList titles = new LongList();
+    WikipediaMultistreamDump.readIndex(index, (offset, id, title) -> {
+      if (offsets.size == 0 || offsets.values[offsets.size - 1] != offset) {
+        offsets.add(offset);
+      }
+      int stream = offsets.size - 1;
+      if (stream > STREAM_MASK) {
+        throw new IllegalStateException("Too many streams in index: " + index);
+      }
+      ids.add(((long) id << 32) | stream);
+      titles.add((hash(title) << STREAM_BITS) | stream);
+    });
+    long[] sortedIds = Arrays.copyOf(ids.values, ids.size);
+    long[] sortedTitles = Arrays.copyOf(titles.values, titles.size);
+    Arrays.sort(sortedIds);
+    // Titles hashes use the sign bit, so they are compared unsigned.
+    for (int i = 0; i < sortedTitles.length; i++) {
+      sortedTitles[i] ^= Long.MIN_VALUE;
+    }
+    Arrays.sort(sortedTitles);
+    for (int i = 0; i < sortedTitles.length; i++) {
+      sortedTitles[i] ^= Long.MIN_VALUE;
+    }
+
+    File tmp = new File(table.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(offsets.size);
+      out.writeInt(ids.size);
+      for (int i = 0; i < offsets.size; i++) {
+        out.writeLong(offsets.values[i]);
+      }
+      for (long id : sortedIds) {
+        out.writeLong(id);
+      }
+      for (long title : sortedTitles) {
+        out.writeLong(title);
+      }
+    }
+    if (!tmp.renameTo(table)) {
+      table.delete();
+      if (!tmp.renameTo(table)) {
+        throw new IOException("Unable to write " + table);
+      }
+    }
+  }
+}
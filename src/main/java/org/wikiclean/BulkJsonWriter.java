@@ -0,0 +1,262 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes cleaned articles in the Elasticsearch bulk format: for each article, an action line with
+ * its id followed by a source line with the selected fields, as UTF-8, and for each deleted page, a
+ * delete action line. Documents are streamed with
+ * a single {@link JsonGenerator}, without building a tree or a string per document. Writes are
+ * synchronized, so several cleaning threads may share a writer.
+ */
+public class BulkJsonWriter implements Closeable, Flushable {
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  /**
+   * Fields of the source document.
+   */
+  public enum Field {
+    /** Page id, as a number. */
+    ID("id"),
+    /** Page title. */
+    TITLE("Title"),
+    /** Cleaned article text. */
+    ARTICLE("Article"),
+    /** Article URL, made of the URL prefix and the title with spaces replaced by underscores. */
+    URL("URL");
+
+    private final String name;
+
+    Field(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Returns the name of the field in the source document.
+     * @return name of the field
+     */
+    public String jsonName() {
+      return name;
+    }
+  }
+
+  private final JsonGenerator generator;
+  private final List<Field> fields;
+  private final String index;
+  private final char[] urlPrefix;
+  private char[] url = new char[256];
+  private long documents = 0;
+
+  private BulkJsonWriter(OutputStream out, Builder builder) throws IOException {
+    this.generator = FACTORY.createGenerator(out, JsonEncoding.UTF8);
+    this.generator.setRootValueSeparator(null);
+    this.fields = Collections.unmodifiableList(new ArrayList<>(builder.fields));
+    this.index = builder.index;
+    this.urlPrefix = builder.urlPrefix.toCharArray();
+  }
+
+  /**
+   * Returns the fields written for each document, in order.
+   * @return fields written for each document
+   */
+  public List<Field> fields() {
+    return fields;
+  }
+
+  /**
+   * Writes an article.
+   * @param page page the article comes from
+   * @param article cleaned article text
+   * @throws IOException if writing fails
+   */
+  public void write(WikiPage page, String article) throws IOException {
+    write(page.id(), page.title(), article);
+  }
+
+  /**
+   * Writes an article.
+   * @param id page id
+   * @param title page title
+   * @param article cleaned article text
+   * @throws IOException if writing fails
+   */
+  public synchronized void write(long id, String title, String article) throws IOException {
+    generator.writeStartObject();
+    generator.writeObjectFieldStart("index");
+    if (index != null) {
+      generator.writeStringField("_index", index);
+    }
+    generator.writeNumberField("_id", id);
+    generator.writeEndObject();
+    generator.writeEndObject();
+    generator.writeRaw('\n');
+
+    generator.writeStartObject();
+    for (Field field : fields) {
+      generator.writeFieldName(field.name);
+      switch (field) {
+        case ID:
+          generator.writeNumber(id);
+          break;
+        case TITLE:
+          generator.writeString(title);
+          break;
+        case ARTICLE:
+          generator.writeString(article);
+          break;
+        case URL:
+          writeUrl(title);
+          break;
+      }
+    }
+    generator.writeEndObject();
+    generator.writeRaw('\n');
+    documents++;
+  }
+
+  /**
+   * Writes the deletion of a page, as an action line alone.
+   * @param id page id
+   * @throws IOException if writing fails
+   */
+  public synchronized void writeDelete(long id) throws IOException {
+    generator.writeStartObject();
+    generator.writeObjectFieldStart("delete");
+    if (index != null) {
+      generator.writeStringField("_index", index);
+    }
+    generator.writeNumberField("_id", id);
+    generator.writeEndObject();
+    generator.writeEndObject();
+    generator.writeRaw('\n');
+  }
+
+  // Writes the URL prefix and the title, with spaces replaced by underscores, from a reused buffer.
+  private void writeUrl(String title) throws IOException {
+    int length = urlPrefix.length + title.length();
+    if (url.length < length) {
+      url = new char[Math.max(length, url.length * 2)];
+    }
+    System.arraycopy(urlPrefix, 0, url, 0, urlPrefix.length);
+    title.getChars(0, title.length(), url, urlPrefix.length);
+    for (int i = urlPrefix.length; i < length; i++) {
+      if (url[i] == ' ') {
+        url[i] = '_';
+      }
+    }
+    generator.writeString(url, 0, length);
+  }
+
+  /**
+   * Returns the number of documents written.
+   * @return the number of documents written
+   */
+  public synchronized long documents() {
+    return documents;
+  }
+
+  @Override
+  public synchronized void flush() throws IOException {
+    generator.flush();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    generator.close();
+  }
+
+  public static class Builder {
+    private List<Field> fields = Arrays.asList(Field.TITLE, Field.ARTICLE, Field.URL);
+    private String index = null;
+    private String urlPrefix = "https://en.wikipedia.org/wiki/";
+
+    /**
+     * Sets the fields of the source documents, in order. By default, the title, the article and
+     * the URL are written.
+     * @param first first field
+     * @param rest further fields
+     * @return the builder, for chaining
+     */
+    public Builder withFields(Field first, Field... rest) {
+      List<Field> fields = new ArrayList<>();
+      fields.add(first);
+      for (Field field : rest) {
+        if (!fields.contains(field)) {
+          fields.add(field);
+        }
+      }
+      this.fields = fields;
+      return this;
+    }
+
+    /**
+     * Names an index in each action line. By default, the index is left to the bulk request.
+     * @param index index name
+     * @return the builder, for chaining
+     */
+    public Builder withIndex(String index) {
+      this.index = index;
+      return this;
+    }
+
+    /**
+     * Sets the prefix of article URLs, {@code https://en.wikipedia.org/wiki/} by default.
+     * @param prefix URL prefix
+     * @return the builder, for chaining
+     */
+    public Builder withUrlPrefix(String prefix) {
+      this.urlPrefix = prefix;
+      return this;
+    }
+
+    /**
+     * Builds a writer to a stream, which is closed with the writer.
+     * @param out output stream
+     * @return a writer
+     * @throws IOException if the generator cannot be created
+     */
+    public BulkJsonWriter build(OutputStream out) throws IOException {
+      return new BulkJsonWriter(out, this);
+    }
+
+    /**
+     * Builds a writer to a file, through a buffer.
+     * @param file output file
+     * @return a writer
+     * @throws IOException if the file cannot be opened
+     */
+    public BulkJsonWriter build(File file) throws IOException {
+      return new BulkJsonWriter(new BufferedOutputStream(new FileOutputStream(file), 1 << 16), this);
+    }
+  }
+}
@@ -0,0 +1,287 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bipartite index of the category memberships of pages, with a dictionary of category names.
+ * Category ids are the ranks of the names in sorted order. Both directions are kept as
+ * compressed sparse rows: the categories of the page at rank i are at [pageOffsets[i],
+ * pageOffsets[i + 1]) of an int array of category ids, and the pages of category c at
+ * [categoryOffsets[c], categoryOffsets[c + 1]) of an int array of page ids, so a membership takes
+ * 8 bytes.
+ */
+public final class CategoryIndex {
+  private static final int MAGIC = 0x57434354;
+  private static final int VERSION = 1;
+
+  private final String[] names;
+  private final int[] pageIds;
+  private final int[] pageOffsets;
+  private final int[] categoryIds;
+  private final int[] categoryOffsets;
+  private final int[] memberIds;
+
+  CategoryIndex(String[] names, int[] pageIds, int[] pageOffsets, int[] categoryIds,
+      int[] categoryOffsets, int[] memberIds) {
+    this.names = names;
+    this.pageIds = pageIds;
+    this.pageOffsets = pageOffsets;
+    this.categoryIds = categoryIds;
+    this.categoryOffsets = categoryOffsets;
+    this.memberIds = memberIds;
+  }
+
+  /**
+   * Reads an index written by {@link #write(File)}.
+   * @param file index file
+   * @return the index
+   * @throws IOException if the file cannot be read, or is not a category index
+   */
+  public static CategoryIndex read(File file) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file), 1 << 16))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a category index: " + file);
+      }
+      int categories = in.readInt();
+      int pages = in.readInt();
+      int memberships = in.readInt();
+      String[] names = new String[categories];
+      for (int i = 0; i < categories; i++) {
+        names[i] = in.readUTF();
+      }
+      return new CategoryIndex(names, readInts(in, pages), readInts(in, pages + 1),
+          readInts(in, memberships), readInts(in, categories + 1), readInts(in, memberships));
+    }
+  }
+
+  private static int[] readInts(DataInputStream in, int length) throws IOException {
+    int[] values = new int[length];
+    for (int i = 0; i < length; i++) {
+      values[i] = in.readInt();
+    }
+    return values;
+  }
+
+  /**
+   * Writes the index, replacing the file atomically once it is complete.
+   * @param file index file
+   * @throws IOException if the file cannot be written
+   */
+  public void write(File file) throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(tmp), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(names.length);
+      out.writeInt(pageIds.length);
+      out.writeInt(categoryIds.length);
+      for (String name : names) {
+        out.writeUTF(name);
+      }
+      for (int[] values : new int[][] { pageIds, pageOffsets, categoryIds, categoryOffsets,
+          memberIds }) {
+        for (int value : values) {
+          out.writeInt(value);
+        }
+      }
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Returns the number of categories.
+   * @return the number of categories
+   */
+  public int categories() {
+    return names.length;
+  }
+
+  /**
+   * Returns the number of pages in at least one category.
+   * @return the number of pages
+   */
+  public int pages() {
+    return pageIds.length;
+  }
+
+  /**
+   * Returns the number of memberships, i.e., of distinct pairs of a page and a category.
+   * @return the number of memberships
+   */
+  public int memberships() {
+    return categoryIds.length;
+  }
+
+  /**
+   * Returns the name of a category.
+   * @param category category id
+   * @return the name
+   * @throws IndexOutOfBoundsException if there is no such category
+   */
+  public String name(int category) {
+    return names[category];
+  }
+
+  /**
+   * Looks up a category by name.
+   * @param name category name, without namespace, as normalized by
+   *     {@link RedirectExtractor#normalize(String)}
+   * @return category id, or -1 if there is no such category
+   */
+  public int id(String name) {
+    int i = Arrays.binarySearch(names, name);
+    return i < 0 ? -1 : i;
+  }
+
+  /**
+   * Returns the categories of a page.
+   * @param page page id
+   * @return ids of the categories, in increasing order, empty if the page is in none
+   */
+  public int[] categories(int page) {
+    int i = Arrays.binarySearch(pageIds, page);
+    return i < 0 ? new int[0] : Arrays.copyOfRange(categoryIds, pageOffsets[i], pageOffsets[i + 1]);
+  }
+
+  /**
+   * Returns the pages of a category.
+   * @param category category id
+   * @return ids of the pages, in increasing order
+   * @throws IndexOutOfBoundsException if there is no such category
+   */
+  public int[] pages(int category) {
+    return Arrays.copyOfRange(memberIds, categoryOffsets[category],
+        categoryOffsets[category + 1]);
+  }
+
+  /**
+   * Builder for a {@code CategoryIndex}. Memberships can be added from several threads, e.g., by
+   * the workers of a {@link DumpPipeline}.
+   */
+  public static class Builder {
+    private final Map<String, Integer> ids = new HashMap<>();
+    private String[] names = new String[1024];
+    // Memberships as they are added, page id in the high half, provisional category id in the low.
+    private long[] pairs = new long[1024];
+    private int size;
+
+    /**
+     * Adds a page to a category. Repeated memberships are kept once.
+     * @param page page id
+     * @param category category name
+     * @return the builder, for chaining
+     */
+    public synchronized Builder add(int page, String category) {
+      Integer id = ids.get(category);
+      if (id == null) {
+        id = ids.size();
+        if (id == names.length) {
+          names = Arrays.copyOf(names, id * 2);
+        }
+        names[id] = category;
+        ids.put(category, id);
+      }
+      if (size == pairs.length) {
+        pairs = Arrays.copyOf(pairs, size * 2);
+      }
+      pairs[size++] = (long) page << 32 | id;
+      return this;
+    }
+
+    /**
+     * Builds the index from the memberships added so far.
+     * @return the index
+     */
+    public synchronized CategoryIndex build() {
+      int categories = ids.size();
+      Integer[] order = new Integer[categories];
+      for (int i = 0; i < categories; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> names[a].compareTo(names[b]));
+      String[] sorted = new String[categories];
+      int[] rank = new int[categories];
+      for (int i = 0; i < categories; i++) {
+        sorted[i] = names[order[i]];
+        rank[order[i]] = i;
+      }
+
+      // Sorting by page, then by category rank, puts duplicates next to each other.
+      long[] sortedPairs = new long[size];
+      for (int i = 0; i < size; i++) {
+        sortedPairs[i] = pairs[i] & 0xFFFFFFFF00000000L | rank[(int) pairs[i]];
+      }
+      Arrays.sort(sortedPairs);
+      int memberships = 0;
+      int pages = 0;
+      for (int i = 0; i < size; i++) {
+        if (i == 0 || sortedPairs[i] != sortedPairs[i - 1]) {
+          if (memberships == 0 || sortedPairs[i] >>> 32 != sortedPairs[memberships - 1] >>> 32) {
+            pages++;
+          }
+          sortedPairs[memberships++] = sortedPairs[i];
+        }
+      }
+
+      int[] pageIds = new int[pages];
+      int[] pageOffsets = new int[pages + 1];
+      int[] categoryIds = new int[memberships];
+      int[] categoryOffsets = new int[categories + 1];
+      int page = -1;
+      for (int i = 0; i < memberships; i++) {
+        if (i == 0 || sortedPairs[i] >>> 32 != sortedPairs[i - 1] >>> 32) {
+          pageIds[++page] = (int) (sortedPairs[i] >> 32);
+          pageOffsets[page] = i;
+        }
+        categoryIds[i] = (int) sortedPairs[i];
+        categoryOffsets[categoryIds[i] + 1]++;
+      }
+      pageOffsets[pages] = memberships;
+
+      // The reverse direction by counting sort, which keeps the pages of a category in order.
+      for (int c = 0; c < categories; c++) {
+        categoryOffsets[c + 1] += categoryOffsets[c];
+      }
+      int[] next = Arrays.copyOf(categoryOffsets, categories);
+      int[] memberIds = new int[memberships];
+      for (int p = 0; p < pages; p++) {
+        for (int i = pageOffsets[p]; i < pageOffsets[p + 1]; i++) {
+          memberIds[next[categoryIds[i]]++] = pageIds[p];
+        }
+      }
+      return new CategoryIndex(sorted, pageIds, pageOffsets, categoryIds, categoryOffsets,
+          memberIds);
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Consistent state of a run of a {@link DumpPipeline}, from which it can resume: the compressed
+ * block to restart decompressing from, the last page written, and the lengths of the output files
+ * once that page was written. Resuming truncates the outputs back to these lengths, decompresses
+ * from the block, and skips pages up to and including the last one written, so that no document is
+ * lost or written twice.
+ */
+public final class Checkpoint {
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  private final long bit;
+  private final long pageId;
+  private final long pages;
+  private final Map<String, Long> outputs;
+
+  Checkpoint(long bit, long pageId, long pages, Map<String, Long> outputs) {
+    this.bit = bit;
+    this.pageId = pageId;
+    this.pages = pages;
+    this.outputs = Collections.unmodifiableMap(new LinkedHashMap<>(outputs));
+  }
+
+  /**
+   * Returns the offset in the dump, in bits, of the compressed block holding the start of the last
+   * page written.
+   * @return the offset of the block in bits
+   */
+  public long bit() {
+    return bit;
+  }
+
+  /**
+   * Returns the id of the last page written.
+   * @return the id of the last page written
+   */
+  public long pageId() {
+    return pageId;
+  }
+
+  /**
+   * Returns the number of pages handed to the writer so far, over all runs.
+   * @return the number of pages written
+   */
+  public long pages() {
+    return pages;
+  }
+
+  /**
+   * Returns the lengths of the output files, by path.
+   * @return the lengths of the output files
+   */
+  public Map<String, Long> outputs() {
+    return outputs;
+  }
+
+  /**
+   * Truncates the output files to their lengths at the checkpoint, dropping whatever was written
+   * after it.
+   * @throws IOException if an output is missing or shorter than at the checkpoint
+   */
+  public void truncate() throws IOException {
+    for (Map.Entry<String, Long> output : outputs.entrySet()) {
+      File file = new File(output.getKey());
+      if (!file.exists() || file.length() < output.getValue()) {
+        throw new IOException("Output " + file + " does not match the checkpoint.");
+      }
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+        channel.truncate(output.getValue());
+      }
+    }
+  }
+
+  /**
+   * Reads a checkpoint.
+   * @param file checkpoint file
+   * @return the checkpoint
+   * @throws IOException if the file cannot be read
+   */
+  public static Checkpoint read(File file) throws IOException {
+    JsonNode root = new ObjectMapper().readTree(file);
+    if (root == null || !root.has("bit") || !root.has("pageId")) {
+      throw new IOException("Not a checkpoint: " + file);
+    }
+    Map<String, Long> outputs = new LinkedHashMap<>();
+    Iterator<Map.Entry<String, JsonNode>> fields = root.path("outputs").fields();
+    while (fields.hasNext()) {
+      Map.Entry<String, JsonNode> field = fields.next();
+      outputs.put(field.getKey(), field.getValue().asLong());
+    }
+    return new Checkpoint(root.path("bit").asLong(), root.path("pageId").asLong(),
+        root.path("pages").asLong(), outputs);
+  }
+
+  /**
+   * Writes the checkpoint, replacing the file only once the new one is on disk, together with the
+   * outputs it refers to.
+   * @param file checkpoint file
+   * @throws IOException if the file cannot be written
+   */
+  public void write(File file) throws IOException {
+    for (String output : outputs.keySet()) {
+      try (FileChannel channel = FileChannel.open(new File(output).toPath(), StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
+    }
+
+    File tmp = new File(file.getPath() + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(tmp)) {
+      JsonGenerator generator = FACTORY.createGenerator(out, JsonEncoding.UTF8);
+      generator.useDefaultPrettyPrinter();
+      generator.writeStartObject();
+      generator.writeNumberField("bit", bit);
+      generator.writeNumberField("pageId", pageId);
+      generator.writeNumberField("pages", pages);
+      generator.writeObjectFieldStart("outputs");
+      for (Map.Entry<String, Long> output : outputs.entrySet()) {
+        generator.writeNumberField(output.getKey(), output.getValue());
+      }
+      generator.writeEndObject();
+      generator.writeEndObject();
+      generator.flush();
+      out.getFD().sync();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Override
+  public String toString() {
+    return "Checkpoint{bit=" + bit + ", pageId=" + pageId + ", pages=" + pages + ", outputs="
+        + outputs + "}";
+  }
+}
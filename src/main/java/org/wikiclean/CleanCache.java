@@ -0,0 +1,516 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Persistent, content-addressed cache of cleaned markup, so that pages unchanged since an earlier
+ * dump are not cleaned again. Entries are keyed by a 128-bit hash of the revision sha1 (or of the
+ * markup when there is none) together with the configuration of the cleaner, i.e., its language,
+ * footer setting, engine and stages, and {@link WikiClean#RULES_VERSION}. The title is not part of the
+ * cached text, so cleaners with and without titles share entries.
+ *
+ * <p>Entries are appended to memory-mapped segment files in a directory, and found through an
+ * in-memory hash table rebuilt from the segments when the cache is opened. Once the segments
+ * exceed the size limit, the oldest one is evicted: entries read since they were written are
+ * appended again, and the others are dropped with the segment. Lookups run concurrently, and
+ * additions and evictions exclude them, so workers can share a cache. A lock file keeps other
+ * processes, and other caches, out of the directory.</p>
+ */
+public class CleanCache implements Closeable {
+  private static final int MAGIC = 0x57434343;
+  // Bumped whenever the layout of segments changes; the cleaning rules are in the key instead.
+  private static final int FORMAT_VERSION = 1;
+  private static final int SEGMENT_HEADER = 16;
+  // Length, and the two halves of the key.
+  private static final int RECORD_HEADER = 20;
+  // Set on the location of entries read since they were written.
+  private static final long HIT = 1L << 63;
+
+  private final File directory;
+  private final long maxBytes;
+  private final long segmentBytes;
+  private final FileChannel lockChannel;
+  private final FileLock lock;
+  private final ReadWriteLock rwlock = new ReentrantReadWriteLock();
+  private final Map<WikiClean, long[]> configurations = new HashMap<>();
+
+  // Segments from oldest to newest, by number.
+  private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+  private final Map<Integer, Segment> segmentsByNumber = new HashMap<>();
+
+  // Open-addressing table: key halves, and location as segment number << 32 | offset, or 0.
+  private long[] keys1 = new long[1 << 16];
+  private long[] keys2 = new long[1 << 16];
+  private long[] locations = new long[1 << 16];
+  private int entries = 0;
+
+  private long hits = 0;
+  private long misses = 0;
+
+  private CleanCache(File directory, Builder builder) throws IOException {
+    this.directory = directory;
+    this.maxBytes = builder.maxBytes;
+    this.segmentBytes = builder.segmentBytes;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    lockChannel = FileChannel.open(new File(directory, "lock").toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE);
+    FileLock acquired;
+    try {
+      acquired = lockChannel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      // Already open in this process.
+      acquired = null;
+    }
+    lock = acquired;
+    if (lock == null) {
+      lockChannel.close();
+      throw new IOException("Cache in use by another process: " + directory);
+    }
+
+    File[] files = directory.listFiles((dir, name) -> name.matches("segment-\\d{8}"));
+    Arrays.sort(files);
+    for (File file : files) {
+      Segment segment = Segment.open(file);
+      if (segment == null) {
+        // Not a segment, or from another version: start over.
+        file.delete();
+        continue;
+      }
+      segments.add(segment);
+      segmentsByNumber.put(segment.number, segment);
+      for (int offset = SEGMENT_HEADER; offset < segment.end; ) {
+        int length = segment.buffer.getInt(offset);
+        index(segment.buffer.getLong(offset + 4), segment.buffer.getLong(offset + 12),
+            location(segment.number, offset));
+        offset += RECORD_HEADER + length;
+      }
+    }
+  }
+
+  /**
+   * Cleans a page, or returns its cleaned text from the cache.
+   * @param cleaner cleaner
+   * @param page page to clean
+   * @return cleaned output, as {@link WikiClean#clean(WikiPage)} returns it
+   * @throws IOException if the cache cannot be written
+   */
+  public String clean(WikiClean cleaner, WikiPage page) throws IOException {
+    long[] key = key(cleaner, page);
+    String text = get(key[0], key[1]);
+    if (text == null) {
+      StringBuilder out = new StringBuilder(page.textLength() / 2);
+      cleaner.cleanMarkup(page.text(), out);
+      text = out.toString();
+      put(key[0], key[1], text);
+    }
+    return cleaner.withTitle() ? page.title() + "\n\n" + text : text;
+  }
+
+  /**
+   * Returns the number of entries.
+   * @return the number of entries
+   */
+  public int size() {
+    rwlock.readLock().lock();
+    try {
+      return entries;
+    } finally {
+      rwlock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the size of the segments.
+   * @return the size of the segments in bytes
+   */
+  public long bytes() {
+    rwlock.readLock().lock();
+    try {
+      long bytes = 0;
+      for (Segment segment : segments) {
+        bytes += segment.end;
+      }
+      return bytes;
+    } finally {
+      rwlock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the number of pages found in the cache.
+   * @return the number of hits
+   */
+  public synchronized long hits() {
+    return hits;
+  }
+
+  /**
+   * Returns the number of pages cleaned and added to the cache.
+   * @return the number of misses
+   */
+  public synchronized long misses() {
+    return misses;
+  }
+
+  @Override
+  public void close() throws IOException {
+    rwlock.writeLock().lock();
+    try {
+      for (Segment segment : segments) {
+        segment.buffer.force();
+        segment.close();
+      }
+      segments.clear();
+      lock.release();
+      lockChannel.close();
+    } finally {
+      rwlock.writeLock().unlock();
+    }
+  }
+
+  // Hash of the page content and of the configuration of the cleaner.
+  private long[] key(WikiClean cleaner, WikiPage page) {
+    long[] configuration;
+    synchronized (configurations) {
+      configuration = configurations.get(cleaner);
+      if (configuration == null) {
+        String description = FORMAT_VERSION + "|" + WikiClean.RULES_VERSION + "|" + cleaner.language()
+            + "|" + cleaner.withFooter() + "|" + cleaner.engine() + "|"
+            + (cleaner.engine() == WikiClean.Engine.REGEX ? cleaner.stages() : "");
+        configuration = hash(description, 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL);
+        configurations.put(cleaner, configuration);
+      }
+    }
+    String sha1 = page.sha1();
+    // Sha1 and markup keys cannot collide, since sha1s are short.
+    return hash(sha1.isEmpty() ? page.text() : "sha1:" + sha1, configuration[0], configuration[1]);
+  }
+
+  // Two 64-bit FNV-1a hashes with different seeds, each finished with a mixing step.
+  private static long[] hash(String s, long seed1, long seed2) {
+    long h1 = 0xcbf29ce484222325L ^ seed1;
+    long h2 = 0xcbf29ce484222325L ^ seed2;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      h1 = (h1 ^ c) * 0x100000001b3L;
+      h2 = (h2 ^ c) * 0x100000001b3L + i;
+    }
+    return new long[] { mix(h1), mix(h2) };
+  }
+
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private String get(long k1, long k2) {
+    rwlock.readLock().lock();
+    try {
+      int slot = find(k1, k2);
+      if (locations[slot] == 0) {
+        return null;
+      }
+      long location = locations[slot];
+      if ((location & HIT) == 0) {
+        // Readers only ever set the same bit.
+        locations[slot] = location | HIT;
+      }
+      Segment segment = segmentsByNumber.get(segmentOf(location));
+      int offset = offsetOf(location);
+      ByteBuffer buffer = segment.buffer.duplicate();
+      int length = buffer.getInt(offset);
+      byte[] bytes = new byte[length];
+      buffer.position(offset + RECORD_HEADER);
+      buffer.get(bytes);
+      synchronized (this) {
+        hits++;
+      }
+      return new String(bytes, StandardCharsets.UTF_8);
+    } finally {
+      rwlock.readLock().unlock();
+    }
+  }
+
+  private void put(long k1, long k2, String text) throws IOException {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    rwlock.writeLock().lock();
+    try {
+      synchronized (this) {
+        misses++;
+      }
+      if (locations[find(k1, k2)] != 0) {
+        // Added by another worker meanwhile.
+        return;
+      }
+      append(k1, k2, bytes, 0, bytes.length, false);
+      while (segments.size() > 1 && bytes() > maxBytes) {
+        evict();
+      }
+    } finally {
+      rwlock.writeLock().unlock();
+    }
+  }
+
+  // Appends a record to the newest segment, starting a new one if it does not fit.
+  private void append(long k1, long k2, byte[] bytes, int from, int length, boolean hit)
+      throws IOException {
+    Segment head = segments.peekLast();
+    if (head == null || head.end + RECORD_HEADER + length > head.capacity) {
+      int number = head == null ? 0 : head.number + 1;
+      long capacity = Math.max(segmentBytes, SEGMENT_HEADER + RECORD_HEADER + (long) length);
+      head = Segment.create(new File(directory, String.format("segment-%08d", number)), number,
+          capacity);
+      segments.add(head);
+      segmentsByNumber.put(number, head);
+    }
+    int offset = head.end;
+    head.buffer.putLong(offset + 4, k1);
+    head.buffer.putLong(offset + 12, k2);
+    ByteBuffer buffer = head.buffer.duplicate();
+    buffer.position(offset + RECORD_HEADER);
+    buffer.put(bytes, from, length);
+    // The length goes last, since it marks the record as complete.
+    head.buffer.putInt(offset, length);
+    head.end = offset + RECORD_HEADER + length;
+    head.buffer.putInt(8, head.end);
+    index(k1, k2, location(head.number, offset) | (hit ? HIT : 0));
+  }
+
+  // Drops the oldest segment, after appending again the entries read since they were written.
+  private void evict() throws IOException {
+    Segment oldest = segments.removeFirst();
+    for (int offset = SEGMENT_HEADER; offset < oldest.end; ) {
+      int length = oldest.buffer.getInt(offset);
+      long k1 = oldest.buffer.getLong(offset + 4);
+      long k2 = oldest.buffer.getLong(offset + 12);
+      int slot = find(k1, k2);
+      long location = locations[slot];
+      if ((location & ~HIT) == location(oldest.number, offset)) {
+        if ((location & HIT) != 0) {
+          byte[] bytes = new byte[length];
+          ByteBuffer buffer = oldest.buffer.duplicate();
+          buffer.position(offset + RECORD_HEADER);
+          buffer.get(bytes);
+          // Appended without the hit bit, so that it has to be read again to survive.
+          append(k1, k2, bytes, 0, length, false);
+        } else {
+          remove(slot);
+        }
+      }
+      offset += RECORD_HEADER + length;
+    }
+    segmentsByNumber.remove(oldest.number);
+    oldest.close();
+    oldest.file.delete();
+  }
+
+  private static long location(int segment, int offset) {
+    // Segment numbers start at 0, so locations are offset by one to keep 0 for empty slots.
+    return ((long) (segment + 1) << 32) | offset;
+  }
+
+  private static int segmentOf(long location) {
+    return (int) ((location & ~HIT) >>> 32) - 1;
+  }
+
+  private static int offsetOf(long location) {
+    return (int) location;
+  }
+
+  // Slot of the key, or the empty slot where it would go.
+  private int find(long k1, long k2) {
+    int mask = locations.length - 1;
+    for (int slot = (int) k1 & mask; ; slot = (slot + 1) & mask) {
+      if (locations[slot] == 0 || keys1[slot] == k1 && keys2[slot] == k2) {
+        return slot;
+      }
+    }
+  }
+
+  private void index(long k1, long k2, long location) {
+    int slot = find(k1, k2);
+    if (locations[slot] == 0) {
+      entries++;
+      if (entries * 4L > locations.length * 3L) {
+        grow();
+        slot = find(k1, k2);
+      }
+    }
+    keys1[slot] = k1;
+    keys2[slot] = k2;
+    locations[slot] = location;
+  }
+
+  // Removes a slot, moving back the entries of its cluster that would no longer be found.
+  private void remove(int slot) {
+    int mask = locations.length - 1;
+    locations[slot] = 0;
+    entries--;
+    for (int next = (slot + 1) & mask; locations[next] != 0; next = (next + 1) & mask) {
+      int home = (int) keys1[next] & mask;
+      boolean movable = slot <= next ? home <= slot || home > next : home <= slot && home > next;
+      if (movable) {
+        keys1[slot] = keys1[next];
+        keys2[slot] = keys2[next];
+        locations[slot] = locations[next];
+        locations[next] = 0;
+        slot = next;
+      }
+    }
+  }
+
+  private void grow() {
+    long[] oldKeys1 = keys1;
+    long[] oldKeys2 = keys2;
+    long[] oldLocations = locations;
+    keys1 = new long[oldLocations.length * 2];
+    keys2 = new long[oldLocations.length * 2];
+    locations = new long[oldLocations.length * 2];
+    for (int i = 0; i < oldLocations.length; i++) {
+      if (oldLocations[i] != 0) {
+        int slot = find(oldKeys1[i], oldKeys2[i]);
+        keys1[slot] = oldKeys1[i];
+        keys2[slot] = oldKeys2[i];
+        locations[slot] = oldLocations[i];
+      }
+    }
+  }
+
+  // A memory-mapped file of records, preallocated to its capacity.
+  private static final class Segment {
+    final File file;
+    final int number;
+    final long capacity;
+    final FileChannel channel;
+    final MappedByteBuffer buffer;
+    int end;
+
+    private Segment(File file, int number, FileChannel channel) throws IOException {
+      this.file = file;
+      this.number = number;
+      this.channel = channel;
+      this.capacity = channel.size();
+      this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    static Segment create(File file, int number, long capacity) throws IOException {
+      if (capacity > Integer.MAX_VALUE) {
+        throw new IOException("Entry too large for the cache.");
+      }
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+          StandardOpenOption.READ, StandardOpenOption.WRITE);
+      channel.write(ByteBuffer.allocate(1), capacity - 1);
+      Segment segment = new Segment(file, number, channel);
+      segment.buffer.putInt(0, MAGIC);
+      segment.buffer.putInt(4, FORMAT_VERSION);
+      segment.end = SEGMENT_HEADER;
+      segment.buffer.putInt(8, segment.end);
+      return segment;
+    }
+
+    // Returns null if the file is not a segment of this version.
+    static Segment open(File file) throws IOException {
+      int number = Integer.parseInt(file.getName().substring("segment-".length()));
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+      if (channel.size() < SEGMENT_HEADER || channel.size() > Integer.MAX_VALUE) {
+        channel.close();
+        return null;
+      }
+      Segment segment = new Segment(file, number, channel);
+      if (segment.buffer.getInt(0) != MAGIC || segment.buffer.getInt(4) != FORMAT_VERSION) {
+        segment.close();
+        return null;
+      }
+      // Records past the recorded end, or cut short, are dropped.
+      int end = SEGMENT_HEADER;
+      int recorded = Math.min(segment.buffer.getInt(8), (int) segment.capacity);
+      while (end + RECORD_HEADER <= recorded) {
+        int length = segment.buffer.getInt(end);
+        if (length < 0 || end + RECORD_HEADER + (long) length > recorded) {
+          break;
+        }
+        end += RECORD_HEADER + length;
+      }
+      segment.end = end;
+      return segment;
+    }
+
+    void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  public static class Builder {
+    private long maxBytes = 1024L * 1024 * 1024;
+    private long segmentBytes = 64L * 1024 * 1024;
+
+    /**
+     * Sets the size beyond which old entries are evicted, 1 GB by default.
+     * @param bytes size of the cache in bytes
+     * @return the builder, for chaining
+     */
+    public Builder withMaxBytes(long bytes) {
+      this.maxBytes = bytes;
+      return this;
+    }
+
+    /**
+     * Sets the size of each segment file, 64 MB by default. The cache grows and shrinks by
+     * segments.
+     * @param bytes size of each segment in bytes
+     * @return the builder, for chaining
+     */
+    public Builder withSegmentBytes(long bytes) {
+      this.segmentBytes = bytes;
+      return this;
+    }
+
+    /**
+     * Opens a cache, creating its directory if needed.
+     * @param directory directory of the cache
+     * @return the cache
+     * @throws IOException if the cache cannot be opened, or is in use by another process
+     */
+    public CleanCache build(File directory) throws IOException {
+      return new CleanCache(directory, this);
+    }
+  }
+}
@@ -0,0 +1,33 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+/**
+ * A single transformation of Wikipedia markup in the regex engine of {@link WikiClean}, such as
+ * removing references or tables. The built-in stages are listed in {@link WikiClean.Stage}; the
+ * stage list is assembled with {@link WikiClean.Builder#withStages}. Profiling reports identify a
+ * stage by its {@code toString()}.
+ */
+public interface CleaningStage {
+  /**
+   * Applies this stage to Wikipedia markup. Stages may be called concurrently.
+   * @param cleaner cleaner running this stage, e.g., to look up its language
+   * @param content markup as transformed by the preceding stages
+   * @return transformed markup
+   */
+  String apply(WikiClean cleaner, String content);
+}
@@ -0,0 +1,46 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.ling.SentenceUtils;
+import edu.stanford.nlp.process.DocumentPreprocessor;
+import edu.stanford.nlp.process.PTBTokenizer;
+import edu.stanford.nlp.process.TokenizerFactory;
+import org.apache.commons.io.input.CharSequenceReader;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Sentence splitter with CoreNLP's tokenizer, as {@link DocumentPreprocessor} splits plain text.
+ * The tokenizer factory, which a preprocessor otherwise sets up for every article, is made once
+ * and reused.
+ */
+public final class CoreNlpSentenceSplitter implements SentenceSplitter {
+  private final TokenizerFactory<CoreLabel> tokenizers = PTBTokenizer.coreLabelFactory();
+
+  @Override
+  public void split(CharSequence text, Consumer<String> sentences) {
+    DocumentPreprocessor dp = new DocumentPreprocessor(new CharSequenceReader(text));
+    dp.setTokenizerFactory(tokenizers);
+    for (List<HasWord> sentence : dp) {
+      sentences.accept(SentenceUtils.listToString(sentence));
+    }
+  }
+}
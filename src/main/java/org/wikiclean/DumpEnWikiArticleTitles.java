@@ -20,7 +20,7 @@ import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.ParserProperties;
-import org.wikiclean.WikiClean.WikiLanguage;
+import org.wikiclean.WikiPage.Type;
 
 import java.io.File;
 import java.io.PrintWriter;
@@ -37,6 +37,12 @@ public class DumpEnWikiArticleTitles {
 
     @Option(name = "-output", metaVar = "[path]", required = true, usage = "output path")
     String output;
+
+    @Option(name = "-index", metaVar = "[path]", usage = "also write a title index to this path")
+    File index;
+
+    @Option(name = "-redirects", metaVar = "[path]", usage = "also write the resolved redirects to this path")
+    File redirects;
   }
 
   public static void main(String[] argv) throws Exception {
@@ -51,20 +57,40 @@ public class DumpEnWikiArticleTitles {
       System.exit(-1);
     }
 
-    final WikiClean cleaner = new WikiClean.Builder().withLanguage(WikiLanguage.EN)
-        .withTitle(false).withFooter(false).build();
-
     PrintWriter writer = new PrintWriter(args.output, "UTF-8");
     WikipediaArticlesDump wikipedia = new WikipediaArticlesDump(args.input, null);
+    TitleIndex.Builder index = new TitleIndex.Builder();
+    RedirectExtractor redirects = new RedirectExtractor();
 
-    wikipedia.stream()
-        .filter(page -> !page.contains("<ns>") || page.contains("<ns>0</ns>"))
-        .filter(page -> !cleaner.clean(page).replaceAll("\\n+", " ").startsWith("#REDIRECT"))
+    // Pages are told apart without cleaning them. Redirects are only kept to be resolved.
+    PageFilter.Builder filter = new PageFilter.Builder().withNamespaces(0);
+    if (args.redirects == null) {
+      filter.withTypes(Type.ARTICLE, Type.DISAMBIGUATION);
+    }
+    wikipedia.pages(filter.build())
         .forEach(page -> {
-          writer.println(cleaner.getId(page) + "\t" +
-              cleaner.getTitle(page).replaceAll("\\n+", " "));
+          if (args.redirects != null) {
+            redirects.add(page);
+            if (page.type() != Type.ARTICLE && page.type() != Type.DISAMBIGUATION) {
+              return;
+            }
+          }
+          String title = page.title().replaceAll("\\n+", " ");
+          writer.println(page.id() + "\t" + title);
+          if (args.index != null) {
+            index.add(page.id(), title);
+          }
         });
 
     writer.close();
+    if (args.index != null) {
+      index.write(args.index);
+    }
+    if (args.redirects != null) {
+      RedirectMap map = redirects.resolve();
+      map.write(args.redirects);
+      System.err.println(map.size() + " redirects resolved, " + redirects.broken() + " broken, "
+          + redirects.cycles() + " in cycles.");
+    }
   }
 }
@@ -16,20 +16,21 @@
 
 package org.wikiclean;
 
-import edu.stanford.nlp.ling.HasWord;
-import edu.stanford.nlp.ling.SentenceUtils;
-import edu.stanford.nlp.process.DocumentPreprocessor;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.ParserProperties;
 import org.wikiclean.WikiClean.WikiLanguage;
+import org.wikiclean.WikiPage.Type;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.PrintWriter;
-import java.io.Reader;
-import java.io.StringReader;
-import java.util.List;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Simple program for dumping English Wikipedia articles to plain text, one sentence per line.
@@ -43,6 +44,12 @@ public class DumpEnWikiToParsedSentences {
 
     @Option(name = "-output", metaVar = "[path]", required = true, usage = "output path")
     String output;
+
+    @Option(name = "-threads", metaVar = "[num]", usage = "number of cleaning and splitting threads")
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    @Option(name = "-splitter", metaVar = "[type]", usage = "sentence splitter: CORENLP or RULES")
+    SentenceSplitter.Type splitter = SentenceSplitter.Type.CORENLP;
   }
 
   public static void main(String[] argv) throws Exception {
@@ -60,25 +67,46 @@ public class DumpEnWikiToParsedSentences {
     final WikiClean cleaner = new WikiClean.Builder().withLanguage(WikiLanguage.EN)
         .withTitle(false).withFooter(false).build();
 
-    PrintWriter writer = new PrintWriter(args.output, "UTF-8");
-    WikipediaArticlesDump wikipedia = new WikipediaArticlesDump(args.input, null);
-
-    wikipedia.stream()
-        .filter(page -> !page.contains("<ns>") || page.contains("<ns>0</ns>"))
-        .forEach(page -> {
-          String s = cleaner.clean(page);
-          if (s.startsWith("#REDIRECT")) return;
+    // Redirects are dropped before cleaning, from the dump's markup alone.
+    DumpPipeline pipeline = new DumpPipeline.Builder().withWorkers(args.threads)
+        .withFilter(new PageFilter.Builder().withNamespaces(0)
+            .withTypes(Type.ARTICLE, Type.DISAMBIGUATION).build()).build();
 
-          String title = cleaner.getTitle(page).replaceAll("\\n+", " ");
-          int cnt = 0;
-          Reader reader = new StringReader(s);
-          DocumentPreprocessor dp = new DocumentPreprocessor(reader);
-          for (List<HasWord> sentence : dp) {
-            writer.print(String.format("%s.%04d\t%s\n", title, cnt, SentenceUtils.listToString(sentence)));
-            cnt++;
-          }
-        });
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(args.output), StandardCharsets.UTF_8), 1 << 16)) {
+      // Workers clean and split in parallel, and the writer keeps the articles in dump order.
+      DumpPipeline.Stats stats = pipeline.run(args.input, () -> {
+        // Reused across the articles of a worker thread.
+        final SentenceSplitter splitter = args.splitter.create();
+        final StringBuilder content = new StringBuilder();
+        final StringBuilder lines = new StringBuilder();
+        final int[] count = new int[1];
+        return page -> {
+          content.setLength(0);
+          cleaner.clean(page, content);
+          lines.setLength(0);
+          count[0] = 0;
+          String title = page.title().replaceAll("\\n+", " ");
+          splitter.split(content, sentence -> appendLine(lines, title, count[0]++, sentence));
+          return lines.length() == 0 ? null : lines.toString();
+        };
+      }, lines -> {
+        try {
+          writer.write(lines);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      System.err.print(stats.report());
+    }
+  }
 
-    writer.close();
+  // Appends "title.NNNN\tsentence\n", numbering the sentences of an article from 0000.
+  static void appendLine(StringBuilder lines, String title, int count, String sentence) {
+    lines.append(title).append('.');
+    for (int bound = 1000; bound > 1 && count < bound; bound /= 10) {
+      lines.append('0');
+    }
+    lines.append(count).append('\t').append(sentence).append('\n');
   }
 }
@@ -21,9 +21,17 @@ import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.ParserProperties;
 import org.wikiclean.WikiClean.WikiLanguage;
+import org.wikiclean.WikiPage.Type;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.PrintWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
 
 /**
  * Simple program for dumping English Wikipedia articles to plain text, one article per line.
@@ -37,6 +45,36 @@ public class DumpEnWikiToPlainText {
 
     @Option(name = "-output", metaVar = "[path]", required = true, usage = "output path")
     String output;
+
+    @Option(name = "-threads", metaVar = "[num]", usage = "number of cleaning threads")
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    @Option(name = "-shards", metaVar = "[num]", usage = "number of output shards")
+    int shards = 1;
+
+    @Option(name = "-routing", metaVar = "[routing]", usage = "routing of articles to shards")
+    ShardedWriter.Routing routing = ShardedWriter.Routing.HASH;
+
+    @Option(name = "-maxBytes", metaVar = "[bytes]", usage = "size at which output files roll over")
+    long maxBytes = 0;
+
+    @Option(name = "-resume", usage = "resume from the last checkpoint of the output")
+    boolean resume = false;
+
+    @Option(name = "-cache", metaVar = "[path]", usage = "directory of the cache of cleaned articles")
+    File cache;
+
+    @Option(name = "-redirects", metaVar = "[path]", usage = "also write the resolved redirects to this path")
+    File redirects;
+
+    @Option(name = "-links", metaVar = "[path]", depends = "-titles", usage = "also write the link graph to this path")
+    File links;
+
+    @Option(name = "-titles", metaVar = "[path]", depends = "-links", usage = "title index for the ids of linked pages")
+    File titles;
+
+    @Option(name = "-categories", metaVar = "[path]", usage = "also write the category index to this path")
+    File categories;
   }
 
   public static void main(String[] argv) throws Exception {
@@ -45,6 +83,18 @@ public class DumpEnWikiToPlainText {
 
     try {
       parser.parseArgument(argv);
+      if (args.resume && (args.shards > 1 || args.maxBytes > 0)) {
+        throw new CmdLineException(parser, "-resume needs a single output file.", null);
+      }
+      if (args.links != null && (args.resume || args.cache != null)) {
+        throw new CmdLineException(parser, "-links cannot be combined with -resume or -cache.", null);
+      }
+      if (args.categories != null && args.resume) {
+        throw new CmdLineException(parser, "-categories cannot be combined with -resume.", null);
+      }
+      if (args.redirects != null && args.resume) {
+        throw new CmdLineException(parser, "-redirects cannot be combined with -resume.", null);
+      }
     } catch (CmdLineException e) {
       System.err.println(e.getMessage());
       parser.printUsage(System.err);
@@ -53,19 +103,174 @@ public class DumpEnWikiToPlainText {
 
     final WikiClean cleaner = new WikiClean.Builder().withLanguage(WikiLanguage.EN)
         .withTitle(false).withFooter(false).build();
+    // Articles unchanged since an earlier run are taken from the cache instead of cleaned again.
+    // Links are reported while cleaning, and written by the workers to the edge list.
+    try (CleanCache cache = args.cache == null ? null : new CleanCache.Builder().build(args.cache);
+        TitleIndex titles = args.titles == null ? null : TitleIndex.open(args.titles);
+        EdgeListWriter edges = args.links == null ? null : new EdgeListWriter(args.links)) {
+      // So are categories, which the workers add to the index as they go.
+      final CategoryIndex.Builder categories = args.categories == null ? null
+          : new CategoryIndex.Builder();
 
-    PrintWriter writer = new PrintWriter(args.output, "UTF-8");
-    WikipediaArticlesDump wikipedia = new WikipediaArticlesDump(args.input, null);
+      // Redirects are dropped before cleaning, from the dump's markup alone, unless they are to be
+      // resolved: then the workers collect them, and skip them.
+      final RedirectExtractor redirects = args.redirects == null ? null : new RedirectExtractor();
+      PageFilter.Builder filter = new PageFilter.Builder().withNamespaces(0);
+      if (redirects == null) {
+        filter.withTypes(Type.ARTICLE, Type.DISAMBIGUATION);
+      }
+      DumpPipeline.Builder pipeline = new DumpPipeline.Builder().withWorkers(args.threads)
+          .withFilter(filter.build());
 
-    wikipedia.stream()
-        .filter(page -> !page.contains("<ns>") || page.contains("<ns>0</ns>"))
-        .forEach(page -> {
-          String s = cleaner.clean(page).replaceAll("\\n+", " ");
-          if (s.startsWith("#REDIRECT")) return;
+      DumpPipeline.Stats stats;
+      if (args.shards == 1 && args.maxBytes == 0) {
+        // Checkpoints are taken as the output is written, and an interrupted run picks up from the last.
+        File output = new File(args.output);
+        File checkpointFile = new File(args.output + ".checkpoint");
+        Checkpoint checkpoint = null;
+        if (args.resume && checkpointFile.exists()) {
+          checkpoint = Checkpoint.read(checkpointFile);
+          checkpoint.truncate();
+          System.err.println("Resuming after page " + checkpoint.pageId() + ".");
+        }
+        // Write errors fail the run, rather than leave a checkpoint past what reached the file.
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(output, checkpoint != null), StandardCharsets.UTF_8))) {
+          stats = pipeline.withCheckpoints(checkpointFile, writer, output).withResume(checkpoint)
+              .build().run(args.input, () -> {
+                // Reused across the articles of a worker thread.
+                final StringBuilder content = new StringBuilder();
+                final Links links = edges == null ? null : new Links(titles, edges);
+                return page -> skip(redirects, page) ? null
+                    : line(cleaner, cache, links, categories, page, content).append('\n').toString();
+              }, line -> {
+                try {
+                  writer.write(line);
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              });
+        }
+      } else {
+        // Workers hand their lines straight to the shards, so there is no single writer to wait for.
+        try (ShardedWriter writer = new ShardedWriter.Builder().withShards(args.shards)
+            .withRouting(args.routing).withMaxBytes(args.maxBytes).build(new File(args.output))) {
+          stats = pipeline.build().run(args.input, () -> {
+            final StringBuilder content = new StringBuilder();
+            final Links links = edges == null ? null : new Links(titles, edges);
+            return page -> {
+              if (skip(redirects, page)) {
+                return null;
+              }
+              writer.write(page.id(),
+                  line(cleaner, cache, links, categories, page, content).append('\n').toString());
+              return null;
+            };
+          }, line -> {});
+        }
+      }
+      if (redirects != null) {
+        RedirectMap map = redirects.resolve();
+        map.write(args.redirects);
+        System.err.println(map.size() + " redirects resolved, " + redirects.broken() + " broken, "
+            + redirects.cycles() + " in cycles.");
+      }
+      if (edges != null) {
+        System.err.println(edges.edges() + " links of " + edges.pages() + " articles written.");
+      }
+      if (categories != null) {
+        CategoryIndex index = categories.build();
+        index.write(args.categories);
+        System.err.println(index.memberships() + " memberships of " + index.pages() + " articles in "
+            + index.categories() + " categories written.");
+      }
+      if (cache != null) {
+        System.err.println("Cache: " + cache.hits() + " hits, " + cache.misses() + " misses.");
+      }
 
-          writer.println(cleaner.getTitle(page).replaceAll("\\n+", " ") + "\t" + s);
-        });
+      System.err.print(stats.report());
+    }
+  }
 
-    writer.close();
+  // Collects the page if redirects are resolved, and tells whether it is not an article to write.
+  private static boolean skip(RedirectExtractor redirects, WikiPage page) {
+    if (redirects == null) {
+      return false;
+    }
+    redirects.add(page);
+    return page.type() != Type.ARTICLE && page.type() != Type.DISAMBIGUATION;
+  }
+
+  // Title, a tab, and the article on a single line.
+  private static StringBuilder line(WikiClean cleaner, CleanCache cache, Links links,
+      CategoryIndex.Builder categories, WikiPage page, StringBuilder content) throws IOException {
+    content.setLength(0);
+    content.append(page.title().replaceAll("\\n+", " ")).append('\t');
+    int start = content.length();
+    Consumer<String> members = categories == null ? null
+        : name -> categories.add((int) page.id(), name);
+    if (links != null) {
+      links.clean(cleaner, page, content, members);
+    } else if (cache == null) {
+      cleaner.clean(page, content, null, members);
+    } else {
+      content.append(cache.clean(cleaner, page));
+      if (members != null) {
+        cleaner.categories(page.text(), members);
+      }
+    }
+    foldNewlines(content, start);
+    return content;
+  }
+
+  // Cleans articles of a worker thread, and writes their links with the ids of the title index.
+  private static final class Links {
+    private final TitleIndex titles;
+    private final EdgeListWriter edges;
+    private final LinkList links = new LinkList();
+    private int[] targets = new int[64];
+
+    Links(TitleIndex titles, EdgeListWriter edges) {
+      this.titles = titles;
+      this.edges = edges;
+    }
+
+    void clean(WikiClean cleaner, WikiPage page, StringBuilder content,
+        Consumer<String> categories) throws IOException {
+      links.clear();
+      cleaner.clean(page, content, links, categories);
+      if (targets.length < links.size()) {
+        targets = new int[links.size()];
+      }
+      int count = 0;
+      for (int i = 0; i < links.size(); i++) {
+        // Links to pages that are not in the index, e.g., to other namespaces, are dropped.
+        long id = titles.id(RedirectExtractor.normalize(links.target(i)));
+        if (id >= 0) {
+          targets[count++] = (int) id;
+        }
+      }
+      edges.write((int) page.id(), targets, count);
+    }
+  }
+
+  // Replaces every run of newlines with a single space, in place, from the given position.
+  private static void foldNewlines(StringBuilder sb, int start) {
+    int j = start;
+    boolean newline = false;
+    for (int i = start; i < sb.length(); i++) {
+      char c = sb.charAt(i);
+      if (c == '\n') {
+        if (newline) {
+          continue;
+        }
+        newline = true;
+        c = ' ';
+      } else {
+        newline = false;
+      }
+      sb.setCharAt(j++, c);
+    }
+    sb.setLength(j);
   }
 }
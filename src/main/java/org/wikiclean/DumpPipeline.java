@@ -0,0 +1,742 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Processes a dump with each stage on threads of its own: decompression, splitting into pages,
+ * a pool of workers (typically cleaning the pages), and a single writer that receives the results
+ * in the order of the dump. The queues between stages are bounded by bytes rather than by number
+ * of items, so that memory use does not depend on page sizes, and a slow stage holds back the ones
+ * before it. The time each stage spends working, waiting for input and blocked on a full queue is
+ * reported when the run completes.
+ *
+ * <pre>
+ * DumpPipeline pipeline = new DumpPipeline.Builder().withWorkers(8).build();
+ * DumpPipeline.Stats stats = pipeline.run(dump, () -&gt; page -&gt; cleaner.clean(page), writer::println);
+ * System.err.println(stats.report());
+ * </pre>
+ *
+ * <p>With checkpoints, the writer periodically flushes the output and records a {@link Checkpoint},
+ * from which an interrupted run resumes without losing or duplicating documents.</p>
+ */
+public class DumpPipeline {
+  /**
+   * Stages of the pipeline.
+   */
+  public enum Stage {
+    /** Reads and decompresses the dump */
+    DECOMPRESS,
+    /** Splits the decompressed bytes into pages, and filters them */
+    SPLIT,
+    /** Runs the workers on the pages */
+    WORK,
+    /** Hands the results to the sink, in order */
+    WRITE
+  }
+
+  /**
+   * Processes a page. Each worker thread gets its own worker, so a worker may reuse buffers.
+   * @param <R> type of the result
+   */
+  public interface Worker<R> {
+    /**
+     * Processes a page.
+     * @param page page to process
+     * @return result for the sink, or {@code null} to skip the page
+     * @throws IOException if processing fails
+     */
+    R process(WikiPage page) throws IOException;
+  }
+
+  /** Default bound of each queue, in bytes */
+  public static final long DEFAULT_QUEUE_BYTES = 64L * 1024 * 1024;
+  private static final int CHUNK_SIZE = 1024 * 1024;
+
+  private final int workers;
+  private final int decompressionThreads;
+  private final long queueBytes;
+  private final PageFilter filter;
+  private final File checkpointFile;
+  private final Flushable output;
+  private final List<File> outputs;
+  private final long checkpointInterval;
+  private final Checkpoint resume;
+
+  private DumpPipeline(Builder builder) {
+    this.workers = builder.workers;
+    this.decompressionThreads = builder.decompressionThreads;
+    this.queueBytes = builder.queueBytes;
+    this.filter = builder.filter;
+    this.checkpointFile = builder.checkpointFile;
+    this.output = builder.output;
+    this.outputs = builder.outputs;
+    this.checkpointInterval = builder.checkpointInterval;
+    this.resume = builder.resume;
+  }
+
+  /**
+   * Runs the pipeline over a bz2 dump, and returns once all results have been written.
+   * @param dump path to dump file
+   * @param workerFactory creates the worker of each worker thread
+   * @param sink receives the results, on a single thread, in the order of the dump
+   * @param <R> type of the results
+   * @return statistics on the run
+   * @throws IOException if reading the dump or processing a page fails
+   */
+  public <R> Stats run(File dump, Supplier<? extends Worker<? extends R>> workerFactory,
+      Consumer<? super R> sink) throws IOException {
+    Run<R> run = new Run<>(dump, workerFactory, sink);
+    return run.execute();
+  }
+
+  private final class Run<R> {
+    private final File dump;
+    private final Supplier<? extends Worker<? extends R>> workerFactory;
+    private final Consumer<? super R> sink;
+
+    private final Stats stats = new Stats();
+    private final ByteBoundedQueue<byte[]> chunks = new ByteBoundedQueue<>(queueBytes);
+    private final ByteBoundedQueue<Sequenced<WikiPage>> pages = new ByteBoundedQueue<>(queueBytes);
+    private final OrderedBuffer<R> results = new OrderedBuffer<>(queueBytes);
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    // Offset in the file of each compressed block, in bits, by offset of its decompressed bytes.
+    private final TreeMap<Long, Long> blocks = new TreeMap<>();
+
+    Run(File dump, Supplier<? extends Worker<? extends R>> workerFactory, Consumer<? super R> sink) {
+      this.dump = dump;
+      this.workerFactory = workerFactory;
+      this.sink = sink;
+    }
+
+    Stats execute() throws IOException {
+      long start = System.nanoTime();
+      start("decompress", Stage.DECOMPRESS, this::decompress);
+      start("split", Stage.SPLIT, this::split);
+      List<Thread> workerThreads = new ArrayList<>();
+      for (int i = 0; i < workers; i++) {
+        workerThreads.add(start("worker-" + i, Stage.WORK, this::work));
+      }
+      start("write", Stage.WRITE, this::write);
+
+      try {
+        for (Thread thread : workerThreads) {
+          thread.join();
+        }
+        results.close();
+        for (Thread thread : threads) {
+          thread.join();
+        }
+      } catch (InterruptedException e) {
+        fail(e);
+        Thread.currentThread().interrupt();
+      }
+      stats.elapsed = System.nanoTime() - start;
+
+      Throwable t = failure.get();
+      if (t instanceof IOException) {
+        throw (IOException) t;
+      } else if (t instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) t).getCause();
+      } else if (t instanceof RuntimeException) {
+        throw (RuntimeException) t;
+      } else if (t instanceof Error) {
+        throw (Error) t;
+      } else if (t != null) {
+        throw new IOException(t);
+      }
+      return stats;
+    }
+
+    private Thread start(String name, Stage stage, Body body) {
+      Thread thread = new Thread(() -> {
+        long start = System.nanoTime();
+        try {
+          if (failure.get() == null) {
+            body.run();
+          }
+        } catch (InterruptedException e) {
+          // Aborted, unless nothing else failed.
+          fail(e);
+        } catch (Throwable t) {
+          fail(t);
+        } finally {
+          stats.record(stage).active.add(System.nanoTime() - start);
+        }
+      }, "wikiclean-" + name);
+      thread.setDaemon(true);
+      threads.add(thread);
+      stats.record(stage).threads++;
+      thread.start();
+      return thread;
+    }
+
+    private void fail(Throwable t) {
+      if (failure.compareAndSet(null, t)) {
+        chunks.close();
+        pages.close();
+        results.close();
+        for (Thread thread : threads) {
+          if (thread != Thread.currentThread()) {
+            thread.interrupt();
+          }
+        }
+      }
+    }
+
+    private void decompress() throws IOException, InterruptedException {
+      StageRecord record = stats.record(Stage.DECOMPRESS);
+      long firstBit = resume == null ? 0 : resume.bit();
+      try (ParallelBZip2InputStream in =
+          new ParallelBZip2InputStream(dump.toPath(), decompressionThreads, firstBit)) {
+        long offset = 0;
+        long block = -1;
+        while (true) {
+          byte[] chunk = new byte[CHUNK_SIZE];
+          int n = 0;
+          int read;
+          while (n < chunk.length && (read = in.read(chunk, n, chunk.length - n)) > 0) {
+            // A single read never spans blocks.
+            if (in.blockStart() != block) {
+              block = in.blockStart();
+              synchronized (blocks) {
+                blocks.put(offset + n, block);
+              }
+            }
+            n += read;
+          }
+          offset += n;
+          if (n == 0) {
+            break;
+          }
+          record.add(n);
+          long blocked = System.nanoTime();
+          chunks.put(n < chunk.length ? Arrays.copyOf(chunk, n) : chunk, n);
+          record.blocked.add(System.nanoTime() - blocked);
+        }
+      } finally {
+        chunks.close();
+      }
+    }
+
+    private void split() throws IOException, InterruptedException {
+      StageRecord record = stats.record(Stage.SPLIT);
+      try {
+        PageSplitter splitter = new PageSplitter(new ChunkInputStream(chunks, record));
+        long sequence = 0;
+        // Pages up to the last one written before the checkpoint were decompressed again.
+        boolean skipping = resume != null;
+        while (splitter.next()) {
+          WikiPage page = WikiPage.parse(splitter.buffer(), splitter.start(), splitter.length());
+          if (skipping) {
+            skipping = page.id() != resume.pageId();
+            continue;
+          }
+          if (!filter.test(page)) {
+            continue;
+          }
+          long bit;
+          synchronized (blocks) {
+            Map.Entry<Long, Long> block = blocks.floorEntry(splitter.offset());
+            bit = block.getValue();
+            blocks.headMap(block.getKey()).clear();
+          }
+          record.add(page.length());
+          long blocked = System.nanoTime();
+          pages.put(new Sequenced<>(sequence++, page.copy(), page.id(), bit), page.length());
+          record.blocked.add(System.nanoTime() - blocked);
+        }
+        if (skipping) {
+          throw new IOException("Page " + resume.pageId() + " of the checkpoint is not in " + dump);
+        }
+      } catch (UncheckedInterruptedException e) {
+        throw e.getCause();
+      } finally {
+        pages.close();
+      }
+    }
+
+    private void work() throws IOException, InterruptedException {
+      StageRecord record = stats.record(Stage.WORK);
+      Worker<? extends R> worker = workerFactory.get();
+      while (true) {
+        long waiting = System.nanoTime();
+        Sequenced<WikiPage> page = pages.take();
+        record.waiting.add(System.nanoTime() - waiting);
+        if (page == null) {
+          break;
+        }
+        R result = worker.process(page.value);
+        record.add(page.value.length());
+        long blocked = System.nanoTime();
+        results.put(new Sequenced<>(page.sequence, result, page.id, page.bit), page.value.length());
+        record.blocked.add(System.nanoTime() - blocked);
+      }
+    }
+
+    private void write() throws IOException, InterruptedException {
+      StageRecord record = stats.record(Stage.WRITE);
+      long written = resume == null ? 0 : resume.pages();
+      Sequenced<R> last = null;
+      long checkpointed = System.nanoTime();
+      while (true) {
+        long waiting = System.nanoTime();
+        Sequenced<R> result = results.take();
+        record.waiting.add(System.nanoTime() - waiting);
+        if (result == null) {
+          break;
+        }
+        record.add(0);
+        if (result.value != null) {
+          sink.accept(result.value);
+        }
+        last = result;
+        written++;
+        if (checkpointFile != null
+            && System.nanoTime() - checkpointed >= checkpointInterval * 1000000L) {
+          checkpoint(last, written);
+          checkpointed = System.nanoTime();
+        }
+      }
+      if (checkpointFile != null && last != null && failure.get() == null) {
+        checkpoint(last, written);
+      }
+    }
+
+    // Flushes the output, so that its length matches the results written.
+    private void checkpoint(Sequenced<R> last, long written) throws IOException {
+      output.flush();
+      Map<String, Long> lengths = new LinkedHashMap<>();
+      for (File file : outputs) {
+        lengths.put(file.getPath(), file.length());
+      }
+      new Checkpoint(last.bit, last.id, written, lengths).write(checkpointFile);
+    }
+  }
+
+  private interface Body {
+    void run() throws Exception;
+  }
+
+  private static final class Sequenced<T> {
+    final long sequence;
+    final T value;
+    // Page id, and offset in bits of the compressed block holding the start of the page.
+    final long id;
+    final long bit;
+
+    Sequenced(long sequence, T value, long id, long bit) {
+      this.sequence = sequence;
+      this.value = value;
+      this.id = id;
+      this.bit = bit;
+    }
+  }
+
+  private static final class UncheckedInterruptedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    UncheckedInterruptedException(InterruptedException e) {
+      super(e);
+    }
+
+    @Override
+    public synchronized InterruptedException getCause() {
+      return (InterruptedException) super.getCause();
+    }
+  }
+
+  // FIFO queue holding at most a number of bytes, except that a single item always fits. Once
+  // closed, the queue no longer blocks, so that stages drain when the run is aborted.
+  static final class ByteBoundedQueue<T> {
+    private final long capacity;
+    private final ArrayDeque<T> items = new ArrayDeque<>();
+    private final ArrayDeque<Long> sizes = new ArrayDeque<>();
+    private long bytes = 0;
+    private boolean closed = false;
+
+    ByteBoundedQueue(long capacity) {
+      this.capacity = capacity;
+    }
+
+    // Returns false, and drops the item, if the queue is closed.
+    synchronized boolean put(T item, long size) throws InterruptedException {
+      while (!closed && bytes > 0 && bytes + size > capacity) {
+        wait();
+      }
+      if (closed) {
+        return false;
+      }
+      items.add(item);
+      sizes.add(size);
+      bytes += size;
+      notifyAll();
+      return true;
+    }
+
+    // Returns null once the queue is closed and empty.
+    synchronized T take() throws InterruptedException {
+      while (items.isEmpty()) {
+        if (closed) {
+          return null;
+        }
+        wait();
+      }
+      bytes -= sizes.remove();
+      notifyAll();
+      return items.remove();
+    }
+
+    synchronized void close() {
+      closed = true;
+      notifyAll();
+    }
+  }
+
+  // Results by sequence number, handed out in sequence. The bound never holds back the result the
+  // writer waits for, so a slow page cannot deadlock the workers.
+  private static final class OrderedBuffer<R> {
+    private final long capacity;
+    private final Map<Long, Sequenced<R>> items = new HashMap<>();
+    private final Map<Long, Long> sizes = new HashMap<>();
+    private long next = 0;
+    private long bytes = 0;
+    private boolean closed = false;
+
+    OrderedBuffer(long capacity) {
+      this.capacity = capacity;
+    }
+
+    synchronized void put(Sequenced<R> item, long size) throws InterruptedException {
+      while (!closed && item.sequence != next && bytes > 0 && bytes + size > capacity) {
+        wait();
+      }
+      items.put(item.sequence, item);
+      sizes.put(item.sequence, size);
+      bytes += size;
+      notifyAll();
+    }
+
+    // Returns null once the buffer is closed and the next result will not come.
+    synchronized Sequenced<R> take() throws InterruptedException {
+      while (!items.containsKey(next)) {
+        if (closed) {
+          return null;
+        }
+        wait();
+      }
+      bytes -= sizes.remove(next);
+      notifyAll();
+      return items.remove(next++);
+    }
+
+    synchronized void close() {
+      closed = true;
+      notifyAll();
+    }
+  }
+
+  // Reads the decompressed chunks back as a stream, for the page splitter.
+  private static final class ChunkInputStream extends InputStream {
+    private final ByteBoundedQueue<byte[]> chunks;
+    private final StageRecord record;
+    private byte[] chunk = new byte[0];
+    private int position = 0;
+    private boolean end = false;
+
+    ChunkInputStream(ByteBoundedQueue<byte[]> chunks, StageRecord record) {
+      this.chunks = chunks;
+      this.record = record;
+    }
+
+    @Override
+    public int read() {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      while (position == chunk.length) {
+        if (end) {
+          return -1;
+        }
+        long waiting = System.nanoTime();
+        try {
+          byte[] next = chunks.take();
+          if (next == null) {
+            end = true;
+          } else {
+            chunk = next;
+            position = 0;
+          }
+        } catch (InterruptedException e) {
+          throw new UncheckedInterruptedException(e);
+        } finally {
+          record.waiting.add(System.nanoTime() - waiting);
+        }
+      }
+      int n = Math.min(len, chunk.length - position);
+      System.arraycopy(chunk, position, b, off, n);
+      position += n;
+      return n;
+    }
+  }
+
+  private static final class StageRecord {
+    int threads = 0;
+    final LongAdder active = new LongAdder();
+    final LongAdder waiting = new LongAdder();
+    final LongAdder blocked = new LongAdder();
+    final LongAdder items = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+
+    void add(long size) {
+      items.increment();
+      bytes.add(size);
+    }
+  }
+
+  /**
+   * Statistics on a run of the pipeline. Time waiting for input means that a stage is starved by
+   * the one before it; time blocked on a full queue (backpressure) means that it is held back by
+   * the one after it.
+   */
+  public static final class Stats {
+    private final Map<Stage, StageRecord> stages = new EnumMap<>(Stage.class);
+    private long elapsed;
+
+    private Stats() {
+      for (Stage stage : Stage.values()) {
+        stages.put(stage, new StageRecord());
+      }
+    }
+
+    private StageRecord record(Stage stage) {
+      return stages.get(stage);
+    }
+
+    /**
+     * Returns the wall-clock time of the run.
+     * @return the wall-clock time of the run, in nanoseconds
+     */
+    public long elapsedNanos() {
+      return elapsed;
+    }
+
+    /**
+     * Returns the number of threads of a stage.
+     * @param stage stage
+     * @return the number of threads of the stage
+     */
+    public int threads(Stage stage) {
+      return stages.get(stage).threads;
+    }
+
+    /**
+     * Returns the number of items a stage produced: chunks, pages, results, and results written.
+     * @param stage stage
+     * @return the number of items the stage produced
+     */
+    public long items(Stage stage) {
+      return stages.get(stage).items.sum();
+    }
+
+    /**
+     * Returns the number of bytes a stage produced: decompressed bytes, and page bytes for the
+     * splitter and the workers.
+     * @param stage stage
+     * @return the number of bytes the stage produced
+     */
+    public long bytes(Stage stage) {
+      return stages.get(stage).bytes.sum();
+    }
+
+    /**
+     * Returns the time the threads of a stage waited for input.
+     * @param stage stage
+     * @return the time the threads of the stage waited for input, in nanoseconds
+     */
+    public long waitingNanos(Stage stage) {
+      return stages.get(stage).waiting.sum();
+    }
+
+    /**
+     * Returns the time the threads of a stage were blocked on a full queue.
+     * @param stage stage
+     * @return the time the threads of the stage were blocked on a full queue, in nanoseconds
+     */
+    public long blockedNanos(Stage stage) {
+      return stages.get(stage).blocked.sum();
+    }
+
+    /**
+     * Returns the share of their time the threads of a stage spent working.
+     * @param stage stage
+     * @return the share of their time the threads of the stage spent working, between 0 and 1
+     */
+    public double utilization(Stage stage) {
+      StageRecord record = stages.get(stage);
+      long active = record.active.sum();
+      if (active == 0) {
+        return 0;
+      }
+      long busy = active - record.waiting.sum() - record.blocked.sum();
+      return Math.max(0, Math.min(1, (double) busy / active));
+    }
+
+    /**
+     * Returns a table of the statistics of each stage.
+     * @return a table of the statistics of each stage
+     */
+    public String report() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("%-12s %8s %12s %14s %8s %10s %10s%n", "stage", "threads", "items",
+          "bytes", "busy", "waiting", "blocked"));
+      for (Stage stage : Stage.values()) {
+        sb.append(String.format("%-12s %8d %12d %14d %7.1f%% %9.1fs %9.1fs%n", stage,
+            threads(stage), items(stage), bytes(stage), 100 * utilization(stage),
+            waitingNanos(stage) / 1e9, blockedNanos(stage) / 1e9));
+      }
+      sb.append(String.format("elapsed %.1fs%n", elapsed / 1e9));
+      return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+      return report();
+    }
+  }
+
+  public static class Builder {
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private int decompressionThreads = Runtime.getRuntime().availableProcessors();
+    private long queueBytes = DEFAULT_QUEUE_BYTES;
+    private PageFilter filter = PageFilter.ALL;
+    private File checkpointFile = null;
+    private Flushable output = null;
+    private List<File> outputs = new ArrayList<>();
+    private long checkpointInterval = 60 * 1000;
+    private Checkpoint resume = null;
+
+    /**
+     * Sets the number of worker threads, all available cores by default.
+     * @param workers number of worker threads
+     * @return the builder, for chaining
+     */
+    public Builder withWorkers(int workers) {
+      if (workers < 1) {
+        throw new IllegalArgumentException("Number of workers must be positive.");
+      }
+      this.workers = workers;
+      return this;
+    }
+
+    /**
+     * Sets the number of threads decoding bz2 blocks, all available cores by default.
+     * @param threads number of decompression threads
+     * @return the builder, for chaining
+     */
+    public Builder withDecompressionThreads(int threads) {
+      if (threads < 1) {
+        throw new IllegalArgumentException("Number of threads must be positive.");
+      }
+      this.decompressionThreads = threads;
+      return this;
+    }
+
+    /**
+     * Sets how many bytes each queue between stages holds at most.
+     * @param bytes bound of each queue, in bytes
+     * @return the builder, for chaining
+     */
+    public Builder withQueueBytes(long bytes) {
+      this.queueBytes = bytes;
+      return this;
+    }
+
+    /**
+     * Sets which pages reach the workers.
+     * @param filter which pages to process
+     * @return the builder, for chaining
+     */
+    public Builder withFilter(PageFilter filter) {
+      this.filter = filter;
+      return this;
+    }
+
+    /**
+     * Records checkpoints while the pipeline runs, and once it completes. At each checkpoint, the
+     * writer thread flushes the output, then records the lengths of the output files.
+     * @param file checkpoint file
+     * @param output output the sink writes to
+     * @param files files of the output
+     * @return the builder, for chaining
+     */
+    public Builder withCheckpoints(File file, Flushable output, File... files) {
+      this.checkpointFile = file;
+      this.output = output;
+      this.outputs = Arrays.asList(files);
+      return this;
+    }
+
+    /**
+     * Sets the time between checkpoints, one minute by default.
+     * @param millis time between checkpoints in milliseconds
+     * @return the builder, for chaining
+     */
+    public Builder withCheckpointInterval(long millis) {
+      this.checkpointInterval = millis;
+      return this;
+    }
+
+    /**
+     * Resumes an interrupted run from its last checkpoint, skipping the pages written before it.
+     * The outputs should be truncated with {@link Checkpoint#truncate()} and opened for appending.
+     * @param checkpoint checkpoint to resume from
+     * @return the builder, for chaining
+     */
+    public Builder withResume(Checkpoint checkpoint) {
+      this.resume = checkpoint;
+      return this;
+    }
+
+    public DumpPipeline build() {
+      return new DumpPipeline(this);
+    }
+  }
+}
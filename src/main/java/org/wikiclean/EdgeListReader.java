@@ -0,0 +1,142 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads an edge list written by {@link EdgeListWriter}, one page at a time. The array of targets
+ * is reused from page to page.
+ */
+public class EdgeListReader implements Closeable {
+  private final InputStream in;
+  private int source = 0;
+  private int[] targets = new int[64];
+  private int count = 0;
+
+  /**
+   * Creates a reader from a stream, which should be buffered.
+   * @param in input stream
+   * @throws IOException if the stream is not an edge list
+   */
+  public EdgeListReader(InputStream in) throws IOException {
+    this.in = in;
+    int magic = 0;
+    for (int i = 0; i < 4; i++) {
+      int b = in.read();
+      if (b < 0) {
+        throw new IOException("Not an edge list.");
+      }
+      magic = magic << 8 | b;
+    }
+    if (magic != EdgeListWriter.MAGIC || readVarint() != EdgeListWriter.VERSION) {
+      throw new IOException("Not an edge list.");
+    }
+  }
+
+  /**
+   * Creates a reader from a file.
+   * @param file edge list file
+   * @throws IOException if the file cannot be read, or is not an edge list
+   */
+  public EdgeListReader(File file) throws IOException {
+    this(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+  }
+
+  /**
+   * Reads the next page.
+   * @return false if there are no more pages
+   * @throws IOException if reading fails
+   */
+  public boolean next() throws IOException {
+    int first = in.read();
+    if (first < 0) {
+      return false;
+    }
+    int zigzag = readVarint(first);
+    source += (zigzag >>> 1) ^ -(zigzag & 1);
+    count = readVarint();
+    if (count > targets.length) {
+      targets = Arrays.copyOf(targets, Math.max(count, targets.length * 2));
+    }
+    int last = 0;
+    for (int i = 0; i < count; i++) {
+      last += readVarint();
+      targets[i] = last;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the id of the current page.
+   * @return page id
+   */
+  public int source() {
+    return source;
+  }
+
+  /**
+   * Returns the ids of the pages the current page links to, sorted, in the first {@link #count()}
+   * elements of the array.
+   * @return the ids of the linked pages
+   */
+  public int[] targets() {
+    return targets;
+  }
+
+  /**
+   * Returns the number of pages the current page links to.
+   * @return the number of links
+   */
+  public int count() {
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private int readVarint() throws IOException {
+    int b = in.read();
+    if (b < 0) {
+      throw new EOFException("Truncated edge list.");
+    }
+    return readVarint(b);
+  }
+
+  private int readVarint(int b) throws IOException {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+      b = in.read();
+      if (b < 0) {
+        throw new EOFException("Truncated edge list.");
+      }
+    }
+  }
+}
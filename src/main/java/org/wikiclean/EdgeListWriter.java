@@ -0,0 +1,126 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes a link graph as a compact edge list: for each page, its id and the sorted ids of the
+ * pages it links to, all delta-encoded as variable-length integers. Page ids are encoded as the
+ * difference from the previous page, so pages may come in any order, and most take a byte or two
+ * in dump order. Read the edge list with {@link EdgeListReader}.
+ *
+ * <p>Writes are synchronized, so the workers of a pipeline can share a writer.</p>
+ */
+public class EdgeListWriter implements Closeable {
+  static final int MAGIC = 0x57434547;
+  static final int VERSION = 1;
+
+  private final OutputStream out;
+  private int previous = 0;
+  private long pages = 0;
+  private long edges = 0;
+
+  /**
+   * Creates a writer to a stream, which should be buffered.
+   * @param out output stream
+   * @throws IOException if writing the header fails
+   */
+  public EdgeListWriter(OutputStream out) throws IOException {
+    this.out = out;
+    for (int shift = 24; shift >= 0; shift -= 8) {
+      out.write(MAGIC >>> shift);
+    }
+    writeVarint(VERSION);
+  }
+
+  /**
+   * Creates a writer to a file.
+   * @param file output file
+   * @throws IOException if the file cannot be created
+   */
+  public EdgeListWriter(File file) throws IOException {
+    this(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+  }
+
+  /**
+   * Writes the links of a page. The targets are sorted in place, and duplicates are dropped.
+   * @param source page id
+   * @param targets ids of the linked pages, all non-negative
+   * @param count number of targets
+   * @throws IOException if writing fails
+   */
+  public synchronized void write(int source, int[] targets, int count) throws IOException {
+    Arrays.sort(targets, 0, count);
+    int distinct = 0;
+    for (int i = 0; i < count; i++) {
+      if (targets[i] < 0) {
+        throw new IllegalArgumentException("Negative page id: " + targets[i]);
+      }
+      if (distinct == 0 || targets[i] != targets[distinct - 1]) {
+        targets[distinct++] = targets[i];
+      }
+    }
+
+    int delta = source - previous;
+    writeVarint((delta << 1) ^ (delta >> 31));
+    writeVarint(distinct);
+    int last = 0;
+    for (int i = 0; i < distinct; i++) {
+      writeVarint(targets[i] - last);
+      last = targets[i];
+    }
+    previous = source;
+    pages++;
+    edges += distinct;
+  }
+
+  /**
+   * Returns the number of pages written.
+   * @return the number of pages written
+   */
+  public synchronized long pages() {
+    return pages;
+  }
+
+  /**
+   * Returns the number of links written.
+   * @return the number of links written
+   */
+  public synchronized long edges() {
+    return edges;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    out.close();
+  }
+
+  private void writeVarint(int value) throws IOException {
+    while ((value & ~0x7f) != 0) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+}
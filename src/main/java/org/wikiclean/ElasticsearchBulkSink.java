@@ -0,0 +1,485 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Indexes documents into Elasticsearch with the bulk API. Documents are batched up to a number of
+ * documents or of bytes, and a fixed number of bulk requests are kept in flight. Once they all are,
+ * {@link #add} blocks, which holds back whatever feeds the sink, e.g., the writer of a
+ * {@link DumpPipeline}. Requests rejected with 429 or a 5xx status, or that fail to connect, are
+ * retried with exponential backoff, and so are single documents rejected within a bulk response.
+ * A request given up on fails the next call, while documents rejected for good, e.g., with a 400,
+ * are only reported by {@link #close()}, and the rest is still indexed; see {@link #failed(String)}.
+ *
+ * <p>The rest client allows 10 connections per host by default, which bounds the useful number of
+ * concurrent requests unless the client is configured otherwise.</p>
+ */
+public class ElasticsearchBulkSink implements Closeable {
+  private static final ContentType NDJSON = ContentType.create("application/x-ndjson",
+      StandardCharsets.UTF_8);
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final RestClient client;
+  private final String endpoint;
+  private final int maxDocuments;
+  private final long maxBytes;
+  private final int concurrentRequests;
+  private final int maxRetries;
+  private final long initialBackoff;
+
+  private final Semaphore inFlight;
+  private final ScheduledExecutorService scheduler;
+  private final AtomicReference<String> failure = new AtomicReference<>();
+  private final AtomicReference<String> rejection = new AtomicReference<>();
+  private final LongAdder documents = new LongAdder();
+  private final LongAdder failedDocuments = new LongAdder();
+  private final Set<String> failedIds = ConcurrentHashMap.newKeySet();
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+
+  private List<byte[]> batch = new ArrayList<>();
+  private long batchBytes = 0;
+  private boolean closed = false;
+
+  private ElasticsearchBulkSink(RestClient client, Builder builder) {
+    this.client = client;
+    StringBuilder path = new StringBuilder();
+    if (builder.index != null) {
+      path.append('/').append(builder.index);
+      if (builder.type != null) {
+        path.append('/').append(builder.type);
+      }
+    }
+    this.endpoint = path.append("/_bulk").toString();
+    this.maxDocuments = builder.maxDocuments;
+    this.maxBytes = builder.maxBytes;
+    this.concurrentRequests = builder.concurrentRequests;
+    this.maxRetries = builder.maxRetries;
+    this.initialBackoff = builder.initialBackoff;
+    this.inFlight = new Semaphore(concurrentRequests);
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "wikiclean-bulk-retry");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Adds a document to be indexed.
+   * @param id document id
+   * @param source document source, as UTF-8 JSON on a single line
+   * @throws IOException if an earlier request was given up on
+   */
+  public void add(String id, byte[] source) throws IOException {
+    byte[] action = actionLine("index", id);
+    byte[] document = new byte[action.length + source.length + 1];
+    System.arraycopy(action, 0, document, 0, action.length);
+    System.arraycopy(source, 0, document, action.length, source.length);
+    document[document.length - 1] = '\n';
+    addDocument(document);
+  }
+
+  /**
+   * Adds a document to be indexed.
+   * @param id document id
+   * @param source document source, as JSON on a single line
+   * @throws IOException if an earlier request was given up on
+   */
+  public void add(String id, String source) throws IOException {
+    add(id, source.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Adds the deletion of a document.
+   * @param id document id
+   * @throws IOException if an earlier request was given up on
+   */
+  public void delete(String id) throws IOException {
+    addDocument(actionLine("delete", id));
+  }
+
+  /**
+   * Adds a document already in bulk format, i.e., an action line and a source line, each ending
+   * with a newline.
+   * @param document action and source lines, as UTF-8
+   * @throws IOException if an earlier request was given up on
+   */
+  public synchronized void addDocument(byte[] document) throws IOException {
+    checkFailure();
+    if (closed) {
+      throw new IllegalStateException("Sink is closed.");
+    }
+    if (!batch.isEmpty() && batchBytes + document.length > maxBytes) {
+      flush();
+    }
+    batch.add(document);
+    batchBytes += document.length;
+    if (batch.size() >= maxDocuments || batchBytes >= maxBytes) {
+      flush();
+    }
+  }
+
+  /**
+   * Sends the documents added so far, waiting for a request slot if all are in use.
+   * @throws IOException if an earlier request was given up on
+   */
+  public synchronized void flush() throws IOException {
+    if (batch.isEmpty()) {
+      return;
+    }
+    List<byte[]> documents = batch;
+    batch = new ArrayList<>();
+    batchBytes = 0;
+    try {
+      inFlight.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a bulk request to complete.", e);
+    }
+    this.documents.add(documents.size());
+    send(documents, 0);
+  }
+
+  /**
+   * Sends the documents added so far and waits for the requests in flight to complete, e.g.,
+   * before recording what was indexed. Unlike {@link #close()}, documents that could not be indexed
+   * are not reported, see {@link #failed(String)}.
+   * @throws IOException if interrupted while waiting
+   */
+  public synchronized void await() throws IOException {
+    try {
+      flush();
+      inFlight.acquire(concurrentRequests);
+      inFlight.release(concurrentRequests);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for bulk requests to complete.", e);
+    }
+  }
+
+  /**
+   * Sends the remaining documents and waits for all requests to complete.
+   * @throws IOException if any documents could not be indexed
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      flush();
+      inFlight.acquire(concurrentRequests);
+      inFlight.release(concurrentRequests);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for bulk requests to complete.", e);
+    } finally {
+      closed = true;
+      scheduler.shutdownNow();
+    }
+    checkFailure();
+    if (rejection.get() != null) {
+      throw new IOException(failedDocuments.sum() + " documents could not be indexed: "
+          + rejection.get());
+    }
+  }
+
+  /**
+   * Returns the number of documents sent, retries not included.
+   * @return the number of documents sent
+   */
+  public long documents() {
+    return documents.sum();
+  }
+
+  /**
+   * Returns the number of documents that could not be indexed.
+   * @return the number of documents that could not be indexed
+   */
+  public long failedDocuments() {
+    return failedDocuments.sum();
+  }
+
+  /**
+   * Tells whether a document could not be indexed, once its request has completed.
+   * @param id document id
+   * @return whether the document was given up on
+   */
+  public boolean failed(String id) {
+    return failedIds.contains(id);
+  }
+
+  /**
+   * Returns the number of bulk requests sent, retries included.
+   * @return the number of bulk requests sent
+   */
+  public long requests() {
+    return requests.sum();
+  }
+
+  /**
+   * Returns the number of bulk requests retried, whole or in part.
+   * @return the number of bulk requests retried
+   */
+  public long retries() {
+    return retries.sum();
+  }
+
+  private void checkFailure() throws IOException {
+    String message = failure.get();
+    if (message != null) {
+      throw new IOException(failedDocuments.sum() + " documents could not be indexed: " + message);
+    }
+  }
+
+  // Id of a document in bulk format, from its action line.
+  private static String id(byte[] document) {
+    int end = 0;
+    while (end < document.length && document[end] != '\n') {
+      end++;
+    }
+    try {
+      JsonNode action = MAPPER.readTree(new String(document, 0, end, StandardCharsets.UTF_8));
+      return action.elements().hasNext() ? action.elements().next().path("_id").asText() : "";
+    } catch (IOException e) {
+      return "";
+    }
+  }
+
+  private static byte[] actionLine(String action, String id) {
+    byte[] quoted = JsonStringEncoder.getInstance().quoteAsUTF8(id);
+    byte[] prefix = ("{\"" + action + "\":{\"_id\":\"").getBytes(StandardCharsets.UTF_8);
+    byte[] suffix = "\"}}\n".getBytes(StandardCharsets.UTF_8);
+    byte[] line = new byte[prefix.length + quoted.length + suffix.length];
+    System.arraycopy(prefix, 0, line, 0, prefix.length);
+    System.arraycopy(quoted, 0, line, prefix.length, quoted.length);
+    System.arraycopy(suffix, 0, line, prefix.length + quoted.length, suffix.length);
+    return line;
+  }
+
+  // Sends a batch, holding a request slot until it is indexed or given up on.
+  private void send(List<byte[]> documents, int attempt) {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    for (byte[] document : documents) {
+      body.write(document, 0, document.length);
+    }
+    requests.increment();
+    client.performRequestAsync("POST", endpoint, Collections.<String, String>emptyMap(),
+        new ByteArrayEntity(body.toByteArray(), NDJSON), new ResponseListener() {
+          @Override
+          public void onSuccess(Response response) {
+            try {
+              List<byte[]> rejected = rejected(documents, response);
+              if (rejected.isEmpty()) {
+                inFlight.release();
+              } else {
+                retry(rejected, attempt, "documents rejected");
+              }
+            } catch (IOException | RuntimeException e) {
+              giveUp(documents, e.toString());
+            }
+          }
+
+          @Override
+          public void onFailure(Exception e) {
+            if (e instanceof ResponseException) {
+              int status = ((ResponseException) e).getResponse().getStatusLine().getStatusCode();
+              if (isRetryable(status)) {
+                retry(documents, attempt, "status " + status);
+              } else {
+                giveUp(documents, e.getMessage());
+              }
+            } else if (e instanceof IOException) {
+              retry(documents, attempt, e.toString());
+            } else {
+              giveUp(documents, e.toString());
+            }
+          }
+        });
+  }
+
+  private static boolean isRetryable(int status) {
+    return status == 429 || status >= 500;
+  }
+
+  // Documents of a successful bulk request that were rejected with a retryable status. Documents
+  // rejected for good are counted as failed.
+  private List<byte[]> rejected(List<byte[]> documents, Response response) throws IOException {
+    JsonNode root;
+    try (InputStream in = response.getEntity().getContent()) {
+      root = MAPPER.readTree(in);
+    }
+    List<byte[]> rejected = new ArrayList<>();
+    if (!root.path("errors").asBoolean(false)) {
+      return rejected;
+    }
+    JsonNode items = root.path("items");
+    for (int i = 0; i < items.size() && i < documents.size(); i++) {
+      JsonNode result = items.get(i).elements().hasNext() ? items.get(i).elements().next() : null;
+      int status = result == null ? 0 : result.path("status").asInt(0);
+      if (isRetryable(status)) {
+        rejected.add(documents.get(i));
+      } else if (status == 404 && items.get(i).has("delete")) {
+        // Already gone.
+        continue;
+      } else if (status >= 300) {
+        failedDocuments.increment();
+        failedIds.add(id(documents.get(i)));
+        rejection.compareAndSet(null, result.path("error").toString());
+      }
+    }
+    return rejected;
+  }
+
+  private void retry(List<byte[]> documents, int attempt, String reason) {
+    if (attempt >= maxRetries || scheduler.isShutdown()) {
+      giveUp(documents, reason + " after " + attempt + " retries");
+      return;
+    }
+    retries.increment();
+    long backoff = initialBackoff << Math.min(attempt, 20);
+    try {
+      scheduler.schedule(() -> send(documents, attempt + 1), backoff, TimeUnit.MILLISECONDS);
+    } catch (RuntimeException e) {
+      giveUp(documents, reason);
+    }
+  }
+
+  private void giveUp(List<byte[]> documents, String reason) {
+    for (byte[] document : documents) {
+      failedIds.add(id(document));
+    }
+    failedDocuments.add(documents.size());
+    failure.compareAndSet(null, reason);
+    inFlight.release();
+  }
+
+  public static class Builder {
+    private String index = null;
+    private String type = null;
+    private int maxDocuments = 1000;
+    private long maxBytes = 5L * 1024 * 1024;
+    private int concurrentRequests = 4;
+    private int maxRetries = 5;
+    private long initialBackoff = 100;
+
+    /**
+     * Sets the index documents go to, unless documents are added in bulk format naming it.
+     * @param index index name
+     * @return the builder, for chaining
+     */
+    public Builder withIndex(String index) {
+      this.index = index;
+      return this;
+    }
+
+    /**
+     * Sets the mapping type of the documents.
+     * @param type mapping type
+     * @return the builder, for chaining
+     */
+    public Builder withType(String type) {
+      this.type = type;
+      return this;
+    }
+
+    /**
+     * Sets the largest number of documents per bulk request, 1000 by default.
+     * @param documents number of documents
+     * @return the builder, for chaining
+     */
+    public Builder withMaxDocuments(int documents) {
+      this.maxDocuments = documents;
+      return this;
+    }
+
+    /**
+     * Sets the size of the body at which a bulk request is sent, 5 MB by default. A single
+     * document larger than this is sent on its own.
+     * @param bytes number of bytes
+     * @return the builder, for chaining
+     */
+    public Builder withMaxBytes(long bytes) {
+      this.maxBytes = bytes;
+      return this;
+    }
+
+    /**
+     * Sets the number of bulk requests in flight at once, 4 by default.
+     * @param requests number of requests
+     * @return the builder, for chaining
+     */
+    public Builder withConcurrentRequests(int requests) {
+      if (requests < 1) {
+        throw new IllegalArgumentException("Number of requests must be positive.");
+      }
+      this.concurrentRequests = requests;
+      return this;
+    }
+
+    /**
+     * Sets how many times a rejected request is retried, 5 by default.
+     * @param retries number of retries
+     * @return the builder, for chaining
+     */
+    public Builder withMaxRetries(int retries) {
+      this.maxRetries = retries;
+      return this;
+    }
+
+    /**
+     * Sets the wait before the first retry, doubled on each further one, 100 ms by default.
+     * @param millis wait in milliseconds
+     * @return the builder, for chaining
+     */
+    public Builder withInitialBackoff(long millis) {
+      this.initialBackoff = millis;
+      return this;
+    }
+
+    public ElasticsearchBulkSink build(RestClient client) {
+      return new ElasticsearchBulkSink(client, this);
+    }
+  }
+}
@@ -0,0 +1,278 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import org.wikiclean.DumpPipeline.Worker;
+import org.wikiclean.WikipediaMultistreamDump.LongList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+
+/**
+ * Incremental processing of a dump against a {@link RevisionState}: pages whose content is
+ * unchanged since the last run are skipped before they are cleaned, changed and new pages become
+ * upserts, and known pages that no longer pass the filter (e.g., that became redirects) become
+ * deletes. The changes that reach the sink are only recorded in the state when they are
+ * committed, which should happen once the sink has safely written them, e.g., after flushing its
+ * output, as with checkpoints. Changes lost in a failed run are then emitted again by the next.
+ *
+ * <pre>
+ * Incremental&lt;String&gt; incremental = new Incremental&lt;&gt;(state, filter);
+ * new DumpPipeline.Builder().build().run(dump,
+ *     incremental.workers(() -&gt; page -&gt; cleaner.clean(page)), incremental.sink(change -&gt; ...));
+ * out.flush();
+ * incremental.commit();
+ * </pre>
+ *
+ * <p>Adds-changes dumps only hold new and changed pages, so pages deleted from the wiki are not
+ * detected from them. After a run over a complete dump, {@link #deleteUnseen(Consumer)} deletes
+ * the pages of the state that the dump no longer has.</p>
+ *
+ * @param <R> type of the results of the workers
+ */
+public final class Incremental<R> {
+  /**
+   * Kinds of changes.
+   */
+  public enum Kind {
+    /** The page is new or changed, and comes with a result. */
+    UPSERT,
+    /** The page is to be removed. */
+    DELETE
+  }
+
+  /**
+   * A change for the sink.
+   * @param <R> type of the result
+   */
+  public static final class Change<R> {
+    private final Kind kind;
+    private final long id;
+    private final long revisionId;
+    private final String sha1;
+    private final R result;
+
+    private Change(Kind kind, long id, long revisionId, String sha1, R result) {
+      this.kind = kind;
+      this.id = id;
+      this.revisionId = revisionId;
+      this.sha1 = sha1;
+      this.result = result;
+    }
+
+    /**
+     * Returns the kind of change.
+     * @return the kind of change
+     */
+    public Kind kind() {
+      return kind;
+    }
+
+    /**
+     * Returns the page id.
+     * @return the page id
+     */
+    public long id() {
+      return id;
+    }
+
+    /**
+     * Returns the revision id of an upsert.
+     * @return the revision id, or -1 for a delete
+     */
+    public long revisionId() {
+      return revisionId;
+    }
+
+    /**
+     * Returns the result of the worker for an upsert.
+     * @return the result, or {@code null} for a delete
+     */
+    public R result() {
+      return result;
+    }
+  }
+
+  private final RevisionState state;
+  private final PageFilter filter;
+  // Pages of the dump, for finding the ones it no longer has.
+  private final BitSet seen = new BitSet();
+  private final LongAdder unchanged = new LongAdder();
+  // Changes handed to the sink since the last commit, without their results.
+  private final List<Change<R>> pending = new ArrayList<>();
+  private long upserts = 0;
+  private long deletes = 0;
+
+  /**
+   * Creates an incremental run. Pages should reach the workers unfiltered, i.e., the pipeline
+   * should keep all pages, so that pages that no longer pass the filter can be deleted.
+   * @param state state of the previous runs
+   * @param filter pages to keep
+   */
+  public Incremental(RevisionState state, PageFilter filter) {
+    this.state = state;
+    this.filter = filter;
+  }
+
+  /**
+   * Wraps workers, so that they only process new and changed pages that pass the filter.
+   * @param factory creates the worker of each worker thread
+   * @return a factory of workers returning changes
+   */
+  public Supplier<Worker<Change<R>>> workers(Supplier<? extends Worker<? extends R>> factory) {
+    return () -> {
+      Worker<? extends R> worker = factory.get();
+      return page -> process(worker, page);
+    };
+  }
+
+  /**
+   * Wraps a sink, so that each change it accepts is committed with the next {@link #commit()}.
+   * @param sink receives the changes
+   * @return a sink for the pipeline
+   */
+  public Consumer<Change<R>> sink(Consumer<? super Change<R>> sink) {
+    return change -> {
+      sink.accept(change);
+      record(change);
+    };
+  }
+
+  /**
+   * Deletes the pages of the state that were not in the dump. Only meaningful after a run over a
+   * complete dump. As for the sink, the deletes are committed with the next {@link #commit()}.
+   * @param sink receives the deletes
+   */
+  public void deleteUnseen(Consumer<? super Change<R>> sink) {
+    LongList ids = new LongList();
+    synchronized (seen) {
+      state.forEach(id -> {
+        if (!seen.get((int) id)) {
+          ids.add(id);
+        }
+      });
+    }
+    for (int i = 0; i < ids.size; i++) {
+      Change<R> change = new Change<>(Kind.DELETE, ids.values[i], -1, "", null);
+      sink.accept(change);
+      record(change);
+    }
+  }
+
+  /**
+   * Records in the state the changes accepted by the sink since the last commit. Call once the
+   * sink has safely written them.
+   * @throws IOException if the state cannot be updated
+   */
+  public void commit() throws IOException {
+    commit(id -> false);
+  }
+
+  /**
+   * Records in the state the changes accepted by the sink since the last commit, except those the
+   * sink failed to write, e.g., documents an index rejected. These are emitted again by the next
+   * run.
+   * @param failed tells, by page id, which changes the sink failed to write
+   * @throws IOException if the state cannot be updated
+   */
+  public synchronized void commit(LongPredicate failed) throws IOException {
+    for (Change<R> change : pending) {
+      if (failed.test(change.id)) {
+        continue;
+      }
+      if (change.kind == Kind.UPSERT) {
+        state.put(change.id, change.revisionId, change.sha1);
+      } else {
+        state.remove(change.id);
+      }
+    }
+    pending.clear();
+    state.flush();
+  }
+
+  /**
+   * Returns the number of changes accepted by the sink and not yet committed.
+   * @return the number of pending changes
+   */
+  public synchronized int pending() {
+    return pending.size();
+  }
+
+  /**
+   * Returns the number of upserts so far.
+   * @return the number of upserts
+   */
+  public synchronized long upserts() {
+    return upserts;
+  }
+
+  /**
+   * Returns the number of deletes so far.
+   * @return the number of deletes
+   */
+  public synchronized long deletes() {
+    return deletes;
+  }
+
+  /**
+   * Returns the number of pages skipped as unchanged so far.
+   * @return the number of unchanged pages
+   */
+  public long unchanged() {
+    return unchanged.sum();
+  }
+
+  private Change<R> process(Worker<? extends R> worker, WikiPage page) throws IOException {
+    long id = page.id();
+    if (id > 0 && id <= Integer.MAX_VALUE) {
+      synchronized (seen) {
+        seen.set((int) id);
+      }
+    }
+    if (!filter.test(page)) {
+      return state.contains(id) ? new Change<>(Kind.DELETE, id, -1, "", null) : null;
+    }
+    if (state.matches(id, page.revisionId(), page.sha1())) {
+      // Same content, possibly under a new revision id.
+      if (state.revisionId(id) != page.revisionId()) {
+        state.put(id, page.revisionId(), page.sha1());
+      }
+      unchanged.increment();
+      return null;
+    }
+    R result = worker.process(page);
+    if (result == null) {
+      return state.contains(id) ? new Change<>(Kind.DELETE, id, -1, "", null) : null;
+    }
+    return new Change<>(Kind.UPSERT, id, page.revisionId(), page.sha1(), result);
+  }
+
+  private synchronized void record(Change<R> change) {
+    pending.add(new Change<>(change.kind, change.id, change.revisionId, change.sha1, null));
+    if (change.kind == Kind.UPSERT) {
+      upserts++;
+    } else {
+      deletes++;
+    }
+  }
+}
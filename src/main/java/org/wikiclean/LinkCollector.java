@@ -0,0 +1,33 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+/**
+ * Receives the links of an article while it is cleaned, see
+ * {@link WikiClean#clean(WikiPage, Appendable, LinkCollector)}. Links are reported in the order
+ * they start in the article.
+ */
+@FunctionalInterface
+public interface LinkCollector {
+  /**
+   * Reports a link.
+   * @param target title of the linked page, as written in the markup, possibly with a section
+   * @param anchor anchor text, as it appears in the cleaned output
+   * @param offset offset of the anchor text in the cleaned output
+   */
+  void link(String target, String anchor, int offset);
+}
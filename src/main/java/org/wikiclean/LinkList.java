@@ -0,0 +1,96 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import java.util.Arrays;
+
+/**
+ * Link collector that keeps the links of an article in arrays, to be reused across the articles
+ * cleaned by a thread: {@link #clear()} it before each article.
+ */
+public final class LinkList implements LinkCollector {
+  private String[] targets = new String[64];
+  private String[] anchors = new String[64];
+  private int[] offsets = new int[64];
+  private int size = 0;
+
+  @Override
+  public void link(String target, String anchor, int offset) {
+    if (size == targets.length) {
+      targets = Arrays.copyOf(targets, size * 2);
+      anchors = Arrays.copyOf(anchors, size * 2);
+      offsets = Arrays.copyOf(offsets, size * 2);
+    }
+    targets[size] = target;
+    anchors[size] = anchor;
+    offsets[size] = offset;
+    size++;
+  }
+
+  /**
+   * Removes all links.
+   */
+  public void clear() {
+    Arrays.fill(targets, 0, size, null);
+    Arrays.fill(anchors, 0, size, null);
+    size = 0;
+  }
+
+  /**
+   * Returns the number of links.
+   * @return the number of links
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the target of a link.
+   * @param i index of the link
+   * @return title of the linked page, as written in the markup
+   */
+  public String target(int i) {
+    checkIndex(i);
+    return targets[i];
+  }
+
+  /**
+   * Returns the anchor text of a link.
+   * @param i index of the link
+   * @return anchor text, as it appears in the cleaned output
+   */
+  public String anchor(int i) {
+    checkIndex(i);
+    return anchors[i];
+  }
+
+  /**
+   * Returns the offset of the anchor text of a link in the cleaned output.
+   * @param i index of the link
+   * @return offset of the anchor text
+   */
+  public int offset(int i) {
+    checkIndex(i);
+    return offsets[i];
+  }
+
+  private void checkIndex(int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException("Link " + i + " of " + size);
+    }
+  }
+}
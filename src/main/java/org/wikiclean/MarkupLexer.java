@@ -0,0 +1,1269 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.wikiclean.WikiClean.NestedConstructsRemover.Nesting;
+import org.wikiclean.WikiClean.WikiLanguage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Single-pass cleaning engine. Instead of running one regular expression per construct over the
+ * whole article, the lexer walks the markup once, recognizes each construct at its first
+ * character and writes the surviving text through a chain of streaming filters (indentation,
+ * double HTML unescaping, tag stripping, newline folding and trimming).
+ *
+ * The lexer mirrors the semantics of the regular expression pipeline in {@link WikiClean},
+ * including the order in which the stages are applied: when it looks for the end of a construct
+ * it steps over the constructs that an earlier stage would already have removed. Pathological,
+ * improperly overlapping markup may still come out slightly differently.
+ */
+final class MarkupLexer {
+  // Stages of the regular expression pipeline, in the order they are applied. Used to decide which
+  // constructs are already gone when a later stage looks for its delimiters.
+  private static final int STAGE_REFS = 2;
+  private static final int STAGE_INTER_WIKI_LINKS = 3;
+  private static final int STAGE_PARENTHETICALS = 4;
+  private static final int STAGE_UNIT_CONVERSION = 5;
+  private static final int STAGE_IMAGE_CAPTIONS = 6;
+  private static final int STAGE_DOUBLE_BRACES = 7;
+  private static final int STAGE_HTML_COMMENTS = 8;
+  private static final int STAGE_EMPHASIS = 9;
+  private static final int STAGE_HEADINGS = 10;
+  private static final int STAGE_CATEGORY_LINKS = 11;
+  private static final int STAGE_LINKS = 12;
+  private static final int STAGE_MATH = 13;
+  private static final int STAGE_GALLERY = 14;
+  private static final int STAGE_TABLES = 17;
+
+  // Returned by the scanners for a construct that is never closed, in which case the pipeline
+  // drops everything up to the end of the article.
+  private static final int UNBALANCED = -2;
+  // Returned by the scanners after replacing the rest of the input, see Scan.splice.
+  private static final int RESTART = -3;
+
+  private static final String[] IMAGE_LABELS = { "[[File:", "[[Image:", "[[Datei" };
+
+  private final String categoryLabel;
+
+  MarkupLexer(WikiLanguage lang) {
+    this.categoryLabel = lang.equals(WikiLanguage.DE) ? "[[Kategorie:" : "[[Category:";
+  }
+
+  /**
+   * Cleans Wikipedia markup in a single scan.
+   * @param s Wikipedia markup, footer already removed
+   * @param out where the cleaned and trimmed output is appended
+   * @throws IOException if appending to the output fails
+   */
+  void clean(CharSequence s, Appendable out) throws IOException {
+    clean(s, out, null);
+  }
+
+  /**
+   * Cleans Wikipedia markup in a single scan, and reports the links of the article.
+   * @param s Wikipedia markup, footer already removed
+   * @param out where the cleaned and trimmed output is appended
+   * @param links receives the links, or null
+   * @throws IOException if appending to the output fails
+   */
+  void clean(CharSequence s, Appendable out, LinkCollector links) throws IOException {
+    Scan scan = new Scan(s, new IndentationFilter(new EntityFilter(new EntityFilter(
+        new TagFilter(new NewlineFilter(new TrimFilter(out, links)))))), links != null);
+    try {
+      scan.lex(0, s.length());
+      scan.sink.end();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  // State of a single cleaning call. The lexer itself is immutable and can be shared.
+  private final class Scan {
+    private CharSequence s;
+    private int n;
+    private final Filter sink;
+    private int depth;
+    private boolean probing;
+    private int tailFrom;
+    private int tailTo;
+    // Whether links are marked in the sink, and where the plain links that are open end.
+    private final boolean marking;
+    private int[] plainEnds = new int[4];
+    private int plainLinks;
+
+    private Scan(CharSequence s, Filter sink, boolean marking) {
+      this.s = s;
+      this.n = s.length();
+      this.sink = sink;
+      this.marking = marking;
+    }
+
+    // Lexes s[from, to) into the sink. Returns false if the rest of the article was dropped.
+    private boolean lex(int from, int to) {
+      int i = from;
+      while (i < to) {
+        char c = s.charAt(i);
+        int end = -1;
+
+        switch (c) {
+        case '&':
+          end = ampersand(i);
+          break;
+        case '<':
+          end = commentEnd(i);
+          break;
+        case '[':
+          if (i + 1 < n && s.charAt(i + 1) == '[') {
+            end = doubleBracket(i);
+          }
+          break;
+        case ']':
+          if (i + 1 < n && s.charAt(i + 1) == ']') {
+            end = i + 2;
+            closePlainLinks(i);
+          }
+          break;
+        case '{':
+          if (i + 1 < n && s.charAt(i + 1) == '{') {
+            end = convert(i);
+            if (end == -1) {
+              end = tail(braceEnd(i));
+            }
+          } else if (i + 1 < n && s.charAt(i + 1) == '|') {
+            end = tableEnd(i);
+            if (end >= 0) {
+              // Tables go after indentation, which must not see across them.
+              sink.separate();
+            }
+          }
+          break;
+        case '\'':
+          end = emphasis(i);
+          break;
+        case '=':
+          end = heading(i);
+          break;
+        case ' ':
+          end = ipaEnd(i);
+          break;
+        case '_':
+          if (startsWith(i, "__NOTOC__")) {
+            end = i + 9;
+          }
+          break;
+        default:
+          break;
+        }
+
+        if (end == UNBALANCED) {
+          return false;
+        } else if (end == RESTART) {
+          closePlainLinks(Integer.MAX_VALUE);
+          i = 0;
+          to = n;
+        } else if (end == -1) {
+          sink.put(c);
+          i++;
+        } else {
+          i = end;
+        }
+      }
+      return true;
+    }
+
+    // Lexes a nested range, such as the anchor of a link.
+    private boolean sub(int from, int to) {
+      depth++;
+      boolean complete = lex(from, to);
+      depth--;
+      return complete;
+    }
+
+    // A few regular expressions rewrite text across the boundaries of constructs handled by later
+    // stages, e.g. a heading match ending inside a link. Then the rest of the input is replaced by
+    // s[from, to) + insert + s[resume, n) and scanning restarts, which is only possible at the top.
+    private boolean splice(int from, int to, String insert, int resume) {
+      if (depth > 0 || probing) {
+        return false;
+      }
+      StringBuilder rest = new StringBuilder(to - from + insert.length() + n - resume);
+      rest.append(s, from, to).append(insert).append(s, resume, n);
+      s = rest;
+      n = rest.length();
+      return true;
+    }
+
+    // Returns the end of a construct starting at i that is transformed by a stage running before
+    // the given stage, i if there is none, or UNBALANCED if it swallows the rest of the article.
+    private int skip(int i, int stage) {
+      boolean outer = !probing;
+      probing = true;
+      int end = skipConstruct(i, stage);
+      probing = !outer;
+      return end;
+    }
+
+    private int skipConstruct(int i, int stage) {
+      char c = s.charAt(i);
+      int end = -1;
+      if (c == '&' || c == '<') {
+        end = refEnd(i);
+        if (end == -1 && stage > STAGE_HTML_COMMENTS) {
+          end = commentEnd(i);
+        }
+        if (end == -1 && stage > STAGE_MATH && c == '&') {
+          end = blockEnd(i, "&lt;math&gt;", "&lt;/math&gt;");
+        }
+        if (end == -1 && stage > STAGE_GALLERY && c == '&') {
+          end = blockEnd(i, "&lt;gallery&gt;", "&lt;/gallery&gt;");
+        }
+      } else if (c == '[' && i + 1 < n && s.charAt(i + 1) == '[') {
+        if (stage > STAGE_INTER_WIKI_LINKS) {
+          end = interWikiEnd(i);
+        }
+        if (end == -1 && stage > STAGE_IMAGE_CAPTIONS) {
+          end = imageEnd(i);
+        }
+        if (end == -1 && stage > STAGE_CATEGORY_LINKS) {
+          end = categoryEnd(i);
+        }
+        if (end == -1 && stage > STAGE_LINKS) {
+          end = linkEnd(i);
+        }
+      } else if (c == ' ' && stage > STAGE_PARENTHETICALS) {
+        end = ipaEnd(i);
+      } else if (c == '{' && i + 1 < n && s.charAt(i + 1) == '{') {
+        if (stage > STAGE_UNIT_CONVERSION) {
+          end = convertEnd(i);
+        }
+        if (end == -1 && stage > STAGE_DOUBLE_BRACES) {
+          end = braceEnd(i);
+        }
+      }
+      return end == -1 ? i : end;
+    }
+
+    private int ampersand(int i) {
+      int end = brEnd(i);
+      if (end == -1) {
+        end = refEnd(i);
+      }
+      if (end == -1) {
+        end = commentEnd(i);
+      }
+      if (end == -1) {
+        end = blockEnd(i, "&lt;math&gt;", "&lt;/math&gt;");
+        if (end == -1) {
+          end = blockEnd(i, "&lt;gallery&gt;", "&lt;/gallery&gt;");
+        }
+        if (end != -1 && rewriteHeadings(i, i, end, false) == RESTART) {
+          return RESTART;
+        }
+      }
+      return end;
+    }
+
+    // &lt;br */&gt;
+    private int brEnd(int i) {
+      if (!startsWith(i, "&lt;br")) {
+        return -1;
+      }
+      int j = i + 6;
+      while (j < n && s.charAt(j) == ' ') {
+        j++;
+      }
+      return startsWith(j, "/&gt;") ? j + 5 : -1;
+    }
+
+    // &lt;ref[^/]+/&gt; first, then &lt;ref.*?&lt;/ref&gt;
+    private int refEnd(int i) {
+      if (!startsWith(i, "&lt;ref")) {
+        return -1;
+      }
+      int j = i + 7;
+      int chars = 0;
+      while (j < n) {
+        int br = s.charAt(j) == '&' ? brEnd(j) : -1;
+        if (br != -1) {
+          j = br;
+          continue;
+        }
+        if (s.charAt(j) == '/') {
+          break;
+        }
+        chars++;
+        j++;
+      }
+      if (chars > 0 && startsWith(j, "/&gt;")) {
+        return j + 5;
+      }
+      int close = indexOf("&lt;/ref&gt;", i + 7);
+      return close == -1 ? -1 : close + 12;
+    }
+
+    // (<|&lt;|&#60;)!--.*?--(>|&gt;|&#62;)
+    private int commentEnd(int i) {
+      int j;
+      if (startsWith(i, "<!--")) {
+        j = i + 4;
+      } else if (startsWith(i, "&lt;!--")) {
+        j = i + 7;
+      } else if (startsWith(i, "&#60;!--")) {
+        j = i + 8;
+      } else {
+        return -1;
+      }
+      while ((j = indexOf("--", j)) != -1) {
+        if (startsWith(j + 2, ">")) {
+          return j + 3;
+        } else if (startsWith(j + 2, "&gt;")) {
+          return j + 6;
+        } else if (startsWith(j + 2, "&#62;")) {
+          return j + 7;
+        }
+        j++;
+      }
+      return -1;
+    }
+
+    // Case-insensitive open.*?close, used for math and gallery.
+    private int blockEnd(int i, String open, String close) {
+      if (!startsWithIgnoreCase(i, open)) {
+        return -1;
+      }
+      for (int j = i + open.length(); j + close.length() <= n; j++) {
+        if (startsWithIgnoreCase(j, close)) {
+          return j + close.length();
+        }
+      }
+      return -1;
+    }
+
+    private int doubleBracket(int i) {
+      int end = interWikiEnd(i);
+      if (end != -1) {
+        sink.put(' ');
+        return end;
+      }
+      end = tail(imageEnd(i));
+      if (end == -1) {
+        end = categoryEnd(i);
+        if (end != -1 && rewriteHeadings(i, i, end, false) == RESTART) {
+          return RESTART;
+        }
+      }
+      if (end == -1) {
+        end = link(i);
+      }
+      return end;
+    }
+
+    // \[\[[a-z\-]+:[^|\]]+\]\]
+    private int interWikiEnd(int i) {
+      int j = i + 2;
+      while (j < n && (s.charAt(j) >= 'a' && s.charAt(j) <= 'z' || s.charAt(j) == '-')) {
+        j++;
+      }
+      if (j == i + 2 || j >= n || s.charAt(j) != ':') {
+        return -1;
+      }
+      int k = j + 1;
+      while (k < n) {
+        int ref = refEnd(k);
+        if (ref != -1) {
+          k = ref;
+          continue;
+        }
+        char c = s.charAt(k);
+        if (c == '|' || c == ']') {
+          break;
+        }
+        k++;
+      }
+      return k > j + 1 && startsWith(k, "]]") ? k + 2 : -1;
+    }
+
+    private int imageEnd(int i) {
+      for (String label : IMAGE_LABELS) {
+        if (startsWith(i, label)) {
+          return nestedEnd(i + label.length(), '[', ']');
+        }
+      }
+      return -1;
+    }
+
+    // \[\[Category:([^\]]+)\]\]
+    private int categoryEnd(int i) {
+      if (!startsWith(i, categoryLabel)) {
+        return -1;
+      }
+      int from = i + categoryLabel.length();
+      int q = find(from, STAGE_CATEGORY_LINKS, ']', false);
+      return q > from && startsWith(q, "]]") ? q + 2 : -1;
+    }
+
+    // \[\[[^\]]+\|([^\]]+)\]\] is replaced by the anchor, any other [[ is simply dropped.
+    private int link(int i) {
+      int[] pipe = new int[1];
+      int q = linkClose(i, pipe);
+      if (q == -1) {
+        if (marking) {
+          openPlainLink(i);
+        }
+        return i + 2;
+      }
+      if (rewriteHeadings(i, i + 2, q, true) == RESTART) {
+        return RESTART;
+      }
+      if (marking) {
+        int target = i + 2;
+        while (s.charAt(target) != '|') {
+          target++;
+        }
+        sink.mark(linkTarget(i + 2, target));
+      }
+      if (!sub(pipe[0] + 1, q)) {
+        return UNBALANCED;
+      }
+      if (marking) {
+        sink.mark(null);
+      }
+      return q + 2;
+    }
+
+    // A link without a pipe, [[target]], leaves its text to be lexed as it comes, and is closed
+    // when its ]] is reached.
+    private void openPlainLink(int i) {
+      int j = i + 2;
+      while (j < n && s.charAt(j) != '[' && s.charAt(j) != ']' && s.charAt(j) != '|') {
+        j++;
+      }
+      if (j == i + 2 || !startsWith(j, "]]")) {
+        return;
+      }
+      if (plainLinks == plainEnds.length) {
+        plainEnds = Arrays.copyOf(plainEnds, plainLinks * 2);
+      }
+      plainEnds[plainLinks++] = j;
+      sink.mark(linkTarget(i + 2, j));
+    }
+
+    // Closes the plain links that end at or before i.
+    private void closePlainLinks(int i) {
+      while (plainLinks > 0 && plainEnds[plainLinks - 1] <= i) {
+        plainLinks--;
+        sink.mark(null);
+      }
+    }
+
+    private String linkTarget(int from, int to) {
+      return StringEscapeUtils.unescapeHtml4(StringEscapeUtils.unescapeHtml4(
+          s.subSequence(from, to).toString())).trim();
+    }
+
+    private int linkEnd(int i) {
+      int q = linkClose(i, new int[1]);
+      return q == -1 ? -1 : q + 2;
+    }
+
+    // Finds the first ] of a piped link, storing the position of the pipe that starts the anchor.
+    private int linkClose(int i, int[] pipe) {
+      int last = -1;
+      int previous = -1;
+      int j = i + 2;
+      while (j < n) {
+        int end = skip(j, STAGE_LINKS);
+        if (end == UNBALANCED) {
+          return -1;
+        }
+        if (end != j) {
+          j = end;
+          continue;
+        }
+        char c = s.charAt(j);
+        if (c == ']') {
+          break;
+        }
+        if (c == '|') {
+          previous = last;
+          last = j;
+        }
+        j++;
+      }
+      if (!startsWith(j, "]]")) {
+        return -1;
+      }
+      int p = last == j - 1 ? previous : last;
+      if (p <= i + 2) {
+        return -1;
+      }
+      pipe[0] = p;
+      return j;
+    }
+
+    // \{\{convert\|(\d+)\|([^|]+)\}\} and \{\{convert\|(\d+)\|([^|]+)\|[^}]+\}\} become "$1 $2".
+    private int convert(int i) {
+      int[] groups = new int[4];
+      int end = convertMatch(i, groups);
+      if (end == -1) {
+        return -1;
+      }
+      for (int j = groups[0]; j < groups[1]; j++) {
+        sink.put(s.charAt(j));
+      }
+      sink.put(' ');
+      return sub(groups[2], groups[3]) ? end : UNBALANCED;
+    }
+
+    private int convertEnd(int i) {
+      return convertMatch(i, new int[4]);
+    }
+
+    private int convertMatch(int i, int[] groups) {
+      if (!startsWith(i, "{{convert|")) {
+        return -1;
+      }
+      int j = i + 10;
+      while (j < n && s.charAt(j) >= '0' && s.charAt(j) <= '9') {
+        j++;
+      }
+      if (j == i + 10 || j >= n || s.charAt(j) != '|') {
+        return -1;
+      }
+      groups[0] = i + 10;
+      groups[1] = j;
+      groups[2] = j + 1;
+
+      // The unit runs up to the next pipe; the first form backtracks to the last }} before it.
+      int last = -1;
+      int pipe = j + 1;
+      while (pipe < n) {
+        int end = skip(pipe, STAGE_UNIT_CONVERSION);
+        if (end == UNBALANCED) {
+          pipe = n;
+          break;
+        }
+        if (end != pipe) {
+          pipe = end;
+          continue;
+        }
+        char c = s.charAt(pipe);
+        if (c == '|') {
+          break;
+        }
+        if (c == '}' && pipe > j + 1 && pipe + 1 < n && s.charAt(pipe + 1) == '}') {
+          last = pipe;
+        }
+        pipe++;
+      }
+      if (last != -1) {
+        groups[3] = last;
+        return last + 2;
+      }
+      if (pipe == j + 1 || pipe >= n) {
+        return -1;
+      }
+      int close = find(pipe + 1, STAGE_UNIT_CONVERSION, '}', false);
+      if (close == pipe + 1 || !startsWith(close, "}}")) {
+        return -1;
+      }
+      groups[3] = pipe;
+      return close + 2;
+    }
+
+    // " (" or " [" + {{IPA...}} + ")" or "]", then a bare " {{IPA...}}"
+    private int ipaEnd(int i) {
+      if (i + 1 >= n) {
+        return -1;
+      }
+      char c = s.charAt(i + 1);
+      if (c == '(' || c == '[') {
+        int end = ipaTemplateEnd(i + 2);
+        if (end != -1 && end < n && (s.charAt(end) == ')' || s.charAt(end) == ']')) {
+          return end + 1;
+        }
+      }
+      return ipaTemplateEnd(i + 1);
+    }
+
+    private int ipaTemplateEnd(int i) {
+      if (!startsWith(i, "{{IPA")) {
+        return -1;
+      }
+      int j = i + 5;
+      while (j < n && s.charAt(j) != '}') {
+        j++;
+      }
+      return j > i + 5 && startsWith(j, "}}") ? j + 2 : -1;
+    }
+
+    private int braceEnd(int i) {
+      return nestedEnd(i + 2, '{', '}');
+    }
+
+    // Runs the finite state machine of WikiClean.NestedConstructsRemover from cur and returns the
+    // position after the closing bracket. Unit conversions have already been rewritten at this
+    // point, so the machine reads their replacement instead. If the construct
+    // closes inside such a replacement, s[tailFrom, tailTo) is the part of it that survives.
+    private int nestedEnd(int cur, char open, char close) {
+      Nesting nesting = new Nesting(open, open, close, close);
+      int[] groups = new int[4];
+      tailFrom = tailTo = 0;
+      while (cur < n) {
+        int end = refEnd(cur);
+        if (end != -1) {
+          cur = end;
+          continue;
+        }
+        int from = cur;
+        int to = cur;
+        if (open == '{' && (end = imageEnd(cur)) != -1) {
+          // Images are gone before double braces are removed.
+          if (end == UNBALANCED) {
+            return UNBALANCED;
+          }
+          from = tailFrom;
+          to = tailTo;
+        } else if ((end = convertMatch(cur, groups)) != -1) {
+          for (int j = groups[0]; j < groups[1]; j++) {
+            nesting.next(s.charAt(j));
+          }
+          nesting.next(' ');
+          from = groups[2];
+          to = groups[3];
+        }
+        if (end == -1) {
+          if (nesting.next(s.charAt(cur))) {
+            tailFrom = tailTo = 0;
+            return cur + 1;
+          }
+          cur++;
+          continue;
+        }
+        for (int j = from; j < to; j++) {
+          int ref = refEnd(j);
+          if (ref != -1) {
+            j = ref - 1;
+          } else if (nesting.next(s.charAt(j))) {
+            tailFrom = j + 1;
+            tailTo = to;
+            return end;
+          }
+        }
+        tailFrom = tailTo = 0;
+        cur = end;
+      }
+      return UNBALANCED;
+    }
+
+    // Continues with the surviving part of a unit conversion a construct closed in, if any.
+    private int tail(int end) {
+      if (end >= 0 && tailTo > tailFrom && splice(tailFrom, tailTo, "", end)) {
+        return RESTART;
+      }
+      return end;
+    }
+
+    // Tables are removed last of all, by the same finite state machine.
+    private int tableEnd(int i) {
+      Nesting nesting = new Nesting('{', '|', '|', '}');
+      int cur = i + 2;
+      while (cur < n) {
+        int end = skip(cur, STAGE_TABLES);
+        if (end == UNBALANCED) {
+          break;
+        }
+        if (end != cur) {
+          cur = end;
+          continue;
+        }
+        if (nesting.next(s.charAt(cur))) {
+          return cur + 1;
+        }
+        cur++;
+      }
+      return UNBALANCED;
+    }
+
+    // ('''|'') is removed. Quotes separated only by constructs removed earlier form one run.
+    private int emphasis(int i) {
+      int quotes = 0;
+      int j = i;
+      int end = i;
+      while (j < n) {
+        if (s.charAt(j) == '\'') {
+          quotes++;
+          end = ++j;
+        } else {
+          int next = vanish(j, STAGE_EMPHASIS);
+          if (next == j) {
+            break;
+          }
+          j = next;
+        }
+      }
+      if (quotes % 3 == 1) {
+        sink.put('\'');
+      }
+      return end;
+    }
+
+    // =+\s?(.*?)=+ is replaced by "$1\n". This is not limited to actual headings.
+    private int heading(int i) {
+      int[] match = new int[3];
+      if (!headingMatch(i, match)) {
+        return -1;
+      }
+      int from = match[0];
+      int q = match[1];
+      if (crosses(from, q) && splice(from, q, "\n", match[2])) {
+        return RESTART;
+      }
+      if (!sub(from, q)) {
+        return UNBALANCED;
+      }
+      sink.put('\n');
+      return match[2];
+    }
+
+    // Matches the heading expression at i, storing the captured range and the end of the match.
+    private boolean headingMatch(int i, int[] match) {
+      int r = i;
+      while (r < n && s.charAt(r) == '=') {
+        r++;
+      }
+      int p = r;
+      while (p < n) {
+        int end = vanish(p, STAGE_HEADINGS);
+        if (end == p) {
+          break;
+        }
+        p = end;
+      }
+
+      int from = p;
+      int q = -1;
+      if (p < n && isWhitespace(s.charAt(p))) {
+        from = p + 1;
+        q = find(from, STAGE_HEADINGS, '=', true);
+      } else {
+        q = find(p, STAGE_HEADINGS, '=', true);
+      }
+
+      if (q == -1 || q >= n) {
+        if (r - i == 1) {
+          return false;
+        }
+        match[0] = match[1] = match[2] = r;
+        return true;
+      }
+
+      int close = q;
+      while (close < n && s.charAt(close) == '=') {
+        close++;
+      }
+      match[0] = from;
+      match[1] = q;
+      match[2] = close;
+      return true;
+    }
+
+    // Headings are processed before links, categories, math and galleries are removed. Applies
+    // a heading match that starts in s[from, to) to the input if it extends beyond to, or in any
+    // case if all is set, and restarts from i. Returns -1 if there is nothing to do.
+    private int rewriteHeadings(int i, int from, int to, boolean all) {
+      if (depth > 0 || probing) {
+        return -1;
+      }
+      int[] match = new int[3];
+      int j = from;
+      while ((j = find(j, to, STAGE_HEADINGS, '=', false)) < to) {
+        if (!headingMatch(j, match)) {
+          j++;
+        } else if (all || match[2] > to) {
+          String insert = s.subSequence(match[0], match[1]) + "\n";
+          splice(i, j, insert, match[2]);
+          return RESTART;
+        } else {
+          j = match[2];
+        }
+      }
+      return -1;
+    }
+
+    // Checks whether a construct starting in s[from, to) extends beyond it.
+    private boolean crosses(int from, int to) {
+      int j = from;
+      while (j < to) {
+        int end = skip(j, STAGE_TABLES + 1);
+        if (end == UNBALANCED || end > to) {
+          return true;
+        }
+        j = end == j ? j + 1 : end;
+      }
+      return false;
+    }
+
+    // Returns the end of a construct at i that leaves no text behind by the time the given stage
+    // runs, or i if there is none.
+    private int vanish(int i, int stage) {
+      char c = s.charAt(i);
+      if (c == '\'' && stage > STAGE_EMPHASIS) {
+        int j = i;
+        while (j < n && s.charAt(j) == '\'') {
+          j++;
+        }
+        return (j - i) % 3 == 1 ? i : j;
+      }
+      if (c == '&') {
+        int end = brEnd(i);
+        if (end != -1) {
+          return end;
+        }
+      }
+      if (c == '{' && convertEnd(i) != -1 || c == '[' && interWikiEnd(i) != -1) {
+        return i;
+      }
+      int end = skip(i, stage);
+      return end == UNBALANCED ? i : end;
+    }
+
+    // Finds the first occurrence of target as seen by the given stage, stepping over constructs
+    // removed by earlier stages. Returns n if the target does not appear, or -1 if a line ends first.
+    private int find(int from, int stage, char target, boolean line) {
+      return find(from, n, stage, target, line);
+    }
+
+    // Same as above, but only looks for target before limit.
+    private int find(int from, int limit, int stage, char target, boolean line) {
+      int j = from;
+      while (j < limit) {
+        int end = skip(j, stage);
+        if (end == UNBALANCED) {
+          return n;
+        }
+        if (end != j) {
+          j = end;
+          continue;
+        }
+        char c = s.charAt(j);
+        if (c == target) {
+          return j;
+        }
+        if (line && isLineTerminator(c)) {
+          return -1;
+        }
+        j++;
+      }
+      return n;
+    }
+
+    private boolean startsWith(int i, String prefix) {
+      if (i < 0 || i + prefix.length() > n) {
+        return false;
+      }
+      for (int k = 0; k < prefix.length(); k++) {
+        if (s.charAt(i + k) != prefix.charAt(k)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean startsWithIgnoreCase(int i, String prefix) {
+      if (i < 0 || i + prefix.length() > n) {
+        return false;
+      }
+      for (int k = 0; k < prefix.length(); k++) {
+        if (Character.toLowerCase(s.charAt(i + k)) != prefix.charAt(k)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private int indexOf(String target, int from) {
+      char first = target.charAt(0);
+      for (int j = from; j + target.length() <= n; j++) {
+        if (s.charAt(j) == first && startsWith(j, target)) {
+          return j;
+        }
+      }
+      return -1;
+    }
+  }
+
+  // Characters matched by \s in java.util.regex.
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  // Characters not matched by . in java.util.regex.
+  private static boolean isLineTerminator(char c) {
+    return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+
+  private abstract static class Filter {
+    protected final Filter next;
+
+    Filter(Filter next) {
+      this.next = next;
+    }
+
+    // Marks held back while this filter holds back the text before them.
+    private final List<String> held = new ArrayList<>();
+
+    abstract void put(char c);
+
+    // Marks the start of a link with its target, or the end of the innermost link with null, at the
+    // current place in the text.
+    void mark(String target) {
+      next.mark(target);
+    }
+
+    void hold(String target) {
+      held.add(target);
+    }
+
+    void release() {
+      if (!held.isEmpty()) {
+        for (String target : held) {
+          next.mark(target);
+        }
+        held.clear();
+      }
+    }
+
+    // Marks the place of a construct removed after this filter would have run.
+    void separate() {
+      next.separate();
+    }
+
+    void end() {
+      next.end();
+    }
+  }
+
+  // [\n\r]:\s* is replaced by a newline.
+  private static final class IndentationFilter extends Filter {
+    private char pending;
+    private boolean skipping;
+
+    IndentationFilter(Filter next) {
+      super(next);
+    }
+
+    @Override
+    void put(char c) {
+      if (skipping) {
+        if (isWhitespace(c)) {
+          return;
+        }
+        skipping = false;
+      }
+      if (pending != 0) {
+        char p = pending;
+        pending = 0;
+        if (c == ':') {
+          next.put('\n');
+          skipping = true;
+          return;
+        }
+        next.put(p);
+      }
+      release();
+      if (c == '\n' || c == '\r') {
+        pending = c;
+      } else {
+        next.put(c);
+      }
+    }
+
+    @Override
+    void mark(String target) {
+      if (pending != 0 || skipping) {
+        hold(target);
+      } else {
+        next.mark(target);
+      }
+    }
+
+    @Override
+    void separate() {
+      if (pending != 0) {
+        next.put(pending);
+        pending = 0;
+      }
+      skipping = false;
+      release();
+    }
+
+    @Override
+    void end() {
+      separate();
+      next.end();
+    }
+  }
+
+  // Streaming equivalent of StringEscapeUtils.unescapeHtml4.
+  private static final class EntityFilter extends Filter {
+    private static final int MAX_ENTITY_LENGTH = 32;
+    private final StringBuilder entity = new StringBuilder();
+
+    EntityFilter(Filter next) {
+      super(next);
+    }
+
+    @Override
+    void put(char c) {
+      if (entity.length() == 0) {
+        if (c == '&') {
+          entity.append(c);
+        } else {
+          next.put(c);
+        }
+        return;
+      }
+      if (c == ';') {
+        entity.append(c);
+        String decoded = StringEscapeUtils.unescapeHtml4(entity.toString());
+        entity.setLength(0);
+        for (int k = 0; k < decoded.length(); k++) {
+          next.put(decoded.charAt(k));
+        }
+      } else if (Character.isLetterOrDigit(c) && c < 128 || c == '#' && entity.length() == 1) {
+        entity.append(c);
+        if (entity.length() > MAX_ENTITY_LENGTH) {
+          flush();
+        }
+      } else {
+        flush();
+        put(c);
+      }
+    }
+
+    @Override
+    void mark(String target) {
+      if (entity.length() > 0) {
+        flush();
+      }
+      next.mark(target);
+    }
+
+    private void flush() {
+      next.put('&');
+      String rest = entity.substring(1);
+      entity.setLength(0);
+      for (int k = 0; k < rest.length(); k++) {
+        put(rest.charAt(k));
+      }
+    }
+
+    @Override
+    void end() {
+      if (entity.length() > 0) {
+        flush();
+      }
+      next.end();
+    }
+  }
+
+  // <[^>]+> is removed.
+  private static final class TagFilter extends Filter {
+    private final StringBuilder tag = new StringBuilder();
+
+    TagFilter(Filter next) {
+      super(next);
+    }
+
+    @Override
+    void put(char c) {
+      if (tag.length() == 0) {
+        if (c == '<') {
+          tag.append(c);
+        } else {
+          next.put(c);
+        }
+      } else if (c == '>') {
+        if (tag.length() == 1) {
+          next.put('<');
+          next.put('>');
+        }
+        tag.setLength(0);
+      } else {
+        tag.append(c);
+      }
+    }
+
+    @Override
+    void end() {
+      // No closing bracket anywhere, so none of the buffered text is a tag.
+      for (int k = 0; k < tag.length(); k++) {
+        next.put(tag.charAt(k));
+      }
+      next.end();
+    }
+  }
+
+  // [\n\r][\n\r]+ is replaced by two newlines.
+  private static final class NewlineFilter extends Filter {
+    private int run;
+    private char first;
+
+    NewlineFilter(Filter next) {
+      super(next);
+    }
+
+    @Override
+    void put(char c) {
+      if (c == '\n' || c == '\r') {
+        if (run++ == 0) {
+          first = c;
+        }
+        return;
+      }
+      flush();
+      release();
+      next.put(c);
+    }
+
+    @Override
+    void mark(String target) {
+      if (run > 0) {
+        hold(target);
+      } else {
+        next.mark(target);
+      }
+    }
+
+    private void flush() {
+      if (run == 1) {
+        next.put(first);
+      } else if (run > 1) {
+        next.put('\n');
+        next.put('\n');
+      }
+      run = 0;
+    }
+
+    @Override
+    void end() {
+      flush();
+      release();
+      next.end();
+    }
+  }
+
+  // Same as String.trim, writing into the output buffer. Also places the marked links in the
+  // output, and reports them at the end.
+  private static final class TrimFilter extends Filter {
+    private final Appendable out;
+    private final StringBuilder trailing = new StringBuilder();
+    private boolean started;
+    private final LinkCollector links;
+    private int count;
+    private final List<String> targets = new ArrayList<>();
+    private final List<String> anchors = new ArrayList<>();
+    private int[] offsets = new int[16];
+    // Links whose anchor is still being written, and the output since the first of them started.
+    private final ArrayDeque<Integer> open = new ArrayDeque<>();
+    private final StringBuilder anchor = new StringBuilder();
+    private int anchorStart;
+
+    TrimFilter(Appendable out, LinkCollector links) {
+      super(null);
+      this.out = out;
+      this.links = links;
+    }
+
+    @Override
+    void put(char c) {
+      if (c <= ' ') {
+        if (started) {
+          trailing.append(c);
+        }
+        return;
+      }
+      started = true;
+      try {
+        if (trailing.length() > 0) {
+          out.append(trailing);
+          if (links != null) {
+            for (int k = 0; k < trailing.length(); k++) {
+              capture(trailing.charAt(k));
+            }
+          }
+          trailing.setLength(0);
+        }
+        out.append(c);
+        if (links != null) {
+          capture(c);
+        }
+      } catch (IOException e) {
+        // Filters cannot throw checked exceptions, see MarkupLexer.clean.
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private void capture(char c) {
+      if (!open.isEmpty() && count >= anchorStart) {
+        anchor.append(c);
+      }
+      count++;
+    }
+
+    @Override
+    void mark(String target) {
+      if (target != null) {
+        // Whitespace before the anchor is only written if text follows.
+        int offset = started ? count + trailing.length() : count;
+        if (open.isEmpty()) {
+          anchor.setLength(0);
+          anchorStart = offset;
+        }
+        if (targets.size() == offsets.length) {
+          offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[targets.size()] = offset;
+        open.push(targets.size());
+        targets.add(target);
+        anchors.add(null);
+      } else if (!open.isEmpty()) {
+        int k = open.pop();
+        int from = offsets[k] - anchorStart;
+        anchors.set(k, anchor.substring(Math.min(from, anchor.length())));
+      }
+    }
+
+    @Override
+    void end() {
+      while (!open.isEmpty()) {
+        mark(null);
+      }
+      for (int k = 0; k < targets.size(); k++) {
+        links.link(targets.get(k), anchors.get(k), offsets[k]);
+      }
+    }
+  }
+}
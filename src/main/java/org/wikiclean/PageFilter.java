@@ -0,0 +1,99 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import org.wikiclean.WikiPage.Type;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Selects the pages a dump reader returns. The filter is applied while the dump is split into
+ * pages, before a page is copied out of the read buffer, so pages that are filtered out cost
+ * nothing beyond the scan for their fields.
+ */
+public final class PageFilter implements Predicate<WikiPage> {
+  /** Filter that keeps all pages */
+  public static final PageFilter ALL = new Builder().build();
+
+  private final int[] namespaces;
+  private final boolean withRedirects;
+  private final Set<Type> types;
+
+  private PageFilter(int[] namespaces, boolean withRedirects, Set<Type> types) {
+    this.namespaces = namespaces;
+    this.withRedirects = withRedirects;
+    this.types = types;
+  }
+
+  @Override
+  public boolean test(WikiPage page) {
+    if (!withRedirects && page.isRedirect()) {
+      return false;
+    }
+    if (namespaces != null && Arrays.binarySearch(namespaces, page.namespace()) < 0) {
+      return false;
+    }
+    return types == null || types.contains(page.type());
+  }
+
+  public static class Builder {
+    private int[] namespaces = null;
+    private boolean withRedirects = true;
+    private Set<Type> types = null;
+
+    /**
+     * Keeps only pages in the given namespaces, e.g., 0 for articles. Pages without a namespace
+     * are in namespace 0.
+     * @param namespaces namespaces to keep
+     * @return the builder, for chaining
+     */
+    public Builder withNamespaces(int... namespaces) {
+      this.namespaces = namespaces.clone();
+      Arrays.sort(this.namespaces);
+      return this;
+    }
+
+    /**
+     * Keeps or drops redirects, as marked by the {@code <redirect>} element.
+     * @param flag whether or not to keep redirects
+     * @return the builder, for chaining
+     */
+    public Builder withRedirects(boolean flag) {
+      this.withRedirects = flag;
+      return this;
+    }
+
+    /**
+     * Keeps only pages of the given types, as classified by {@link WikiPage#type()}. Unlike
+     * {@link #withRedirects}, this also recognizes redirects by the start of their markup.
+     * @param first a type to keep
+     * @param rest other types to keep
+     * @return the builder, for chaining
+     */
+    public Builder withTypes(Type first, Type... rest) {
+      this.types = EnumSet.of(first, rest);
+      return this;
+    }
+
+    public PageFilter build() {
+      return new PageFilter(namespaces, withRedirects, types);
+    }
+  }
+}
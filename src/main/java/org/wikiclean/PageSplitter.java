@@ -0,0 +1,225 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits decompressed dump XML into pages, working directly on the bytes. A page runs from the
+ * start of the line that ends with {@code <page>} to the end of the line that ends with
+ * {@code </page>}, newline included. The current page is a slice of an internal buffer that is
+ * only valid until the next call to {@link #next()}, so that nothing gets decoded or copied unless
+ * the caller asks for it.
+ */
+final class PageSplitter {
+  private static final byte[] PAGE_START = "<page>".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] PAGE_END = "</page>".getBytes(StandardCharsets.US_ASCII);
+  private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+  private final InputStream in;
+  private byte[] buffer;
+  // Start of the bytes not yet consumed, and end of the bytes read.
+  private int position = 0;
+  private int limit = 0;
+  private boolean eof = false;
+  // Number of bytes of the input dropped from the front of the buffer.
+  private long dropped = 0;
+
+  private int pageStart = 0;
+  private int pageEnd = 0;
+
+  PageSplitter(InputStream in) {
+    this(in, DEFAULT_BUFFER_SIZE);
+  }
+
+  PageSplitter(InputStream in, int bufferSize) {
+    this.in = in;
+    this.buffer = new byte[bufferSize];
+  }
+
+  /**
+   * Advances to the next page.
+   * @return whether or not there is a next page
+   * @throws IOException if any file-related errors are encountered
+   */
+  boolean next() throws IOException {
+    position = pageEnd;
+
+    // Offsets are relative to the position, since reading more may move the bytes.
+    int open = find(PAGE_START, 0);
+    if (open < 0) {
+      position = limit;
+      pageStart = pageEnd = limit;
+      return false;
+    }
+    int start = open;
+    while (start > 0 && buffer[position + start - 1] != '\n') {
+      start--;
+    }
+    int close = find(PAGE_END, open + PAGE_START.length);
+    int end = close < 0 ? limit - position : endOfLine(close + PAGE_END.length);
+
+    pageStart = position + start;
+    pageEnd = position + end;
+    return true;
+  }
+
+  /**
+   * Returns the buffer holding the current page.
+   * @return the buffer holding the current page
+   */
+  byte[] buffer() {
+    return buffer;
+  }
+
+  /**
+   * Returns the offset of the current page in the buffer.
+   * @return the offset of the current page in the buffer
+   */
+  int start() {
+    return pageStart;
+  }
+
+  /**
+   * Returns the offset of the current page in the input.
+   * @return the offset of the current page in the input
+   */
+  long offset() {
+    return dropped + pageStart;
+  }
+
+  /**
+   * Returns the length of the current page in bytes.
+   * @return the length of the current page in bytes
+   */
+  int length() {
+    return pageEnd - pageStart;
+  }
+
+  /**
+   * Returns a copy of the bytes of the current page.
+   * @return a copy of the bytes of the current page
+   */
+  byte[] bytes() {
+    return Arrays.copyOfRange(buffer, pageStart, pageEnd);
+  }
+
+  /**
+   * Decodes the current page.
+   * @return the current page
+   */
+  String page() {
+    String page = new String(buffer, pageStart, pageEnd - pageStart, StandardCharsets.UTF_8);
+    // A dump cut short after the closing tag.
+    return page.endsWith("\n") ? page : page + "\n";
+  }
+
+  // Finds a tag at the end of a line, at or after the given offset from the position.
+  private int find(byte[] tag, int from) throws IOException {
+    int i = from;
+    while (true) {
+      if (!fill(i + tag.length)) {
+        return -1;
+      }
+      int j = indexOf(tag, position + i, limit);
+      if (j < 0) {
+        // Keep looking from the bytes that may still start a tag.
+        i = Math.max(i, limit - position - tag.length + 1);
+        if (!fill(limit - position + 1)) {
+          return -1;
+        }
+        continue;
+      }
+      i = j - position;
+      if (position + i + tag.length == limit && !fill(i + tag.length + 1)) {
+        // Tag at the very end of the input.
+        return i;
+      }
+      byte next = buffer[position + i + tag.length];
+      if (next == '\n' || next == '\r') {
+        return i;
+      }
+      i++;
+    }
+  }
+
+  // Offset of the end of the line that continues at the given offset, newline included.
+  private int endOfLine(int i) throws IOException {
+    if (position + i < limit || fill(i + 1)) {
+      if (buffer[position + i] == '\n') {
+        return i + 1;
+      }
+      if (buffer[position + i] == '\r') {
+        i++;
+        if ((position + i < limit || fill(i + 1)) && buffer[position + i] == '\n') {
+          return i + 1;
+        }
+      }
+    }
+    return i;
+  }
+
+  private int indexOf(byte[] tag, int from, int to) {
+    byte first = tag[0];
+    for (int i = from, last = to - tag.length; i <= last; i++) {
+      if (buffer[i] != first) {
+        continue;
+      }
+      int k = 1;
+      while (k < tag.length && buffer[i + k] == tag[k]) {
+        k++;
+      }
+      if (k == tag.length) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // Reads until at least the given number of bytes past the position are in the buffer, or the
+  // input ends. Returns whether or not there are that many bytes.
+  private boolean fill(int needed) throws IOException {
+    while (limit - position < needed) {
+      if (eof) {
+        return false;
+      }
+      if (position + needed > buffer.length) {
+        int remaining = limit - position;
+        if (needed > buffer.length) {
+          byte[] grown = new byte[Math.max(needed, buffer.length * 2)];
+          System.arraycopy(buffer, position, grown, 0, remaining);
+          buffer = grown;
+        } else {
+          System.arraycopy(buffer, position, buffer, 0, remaining);
+        }
+        dropped += position;
+        limit = remaining;
+        position = 0;
+      }
+      int n = in.read(buffer, limit, buffer.length - limit);
+      if (n < 0) {
+        eof = true;
+      } else {
+        limit += n;
+      }
+    }
+    return true;
+  }
+}
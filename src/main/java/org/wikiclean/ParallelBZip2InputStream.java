@@ -0,0 +1,416 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import org.apache.tools.bzip2.CBZip2InputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Input stream that decompresses a bz2 file block by block on several threads. The file is
+ * scanned for the 48-bit magic numbers that start each compressed block, and every block is turned
+ * into a bz2 stream of its own that is decoded independently. The decompressed blocks are returned
+ * in the order of the file, so the stream reads exactly like a {@link CBZip2InputStream} over the
+ * same file, including files made of concatenated streams.
+ *
+ * <p>The block magic can also occur by chance inside compressed data. A block that fails to decode
+ * or to match its CRC is therefore merged with the next one and decoded again. Since such chance
+ * matches are rare, only a few are merged over before the block is reported as corrupt, which
+ * keeps a truncated or corrupt file from being decoded again and again up to its end.</p>
+ */
+public class ParallelBZip2InputStream extends InputStream {
+  private static final long BLOCK_MAGIC = 0x314159265359L;
+  private static final long END_MAGIC = 0x177245385090L;
+  private static final long MAGIC_MASK = (1L << 48) - 1;
+
+  private static final int READ_BUFFER_SIZE = 1024 * 1024;
+  // Number of blocks decompressed ahead of the reader, per thread.
+  private static final int BLOCKS_PER_THREAD = 4;
+  // Number of following segments a block that does not decode is merged with, one at a time.
+  private static final int MAX_MERGES = 2;
+
+  private static final int[] CRC_TABLE = new int[256];
+  // Values of the fourth byte from the end of a magic number, whatever its alignment, so that most
+  // bytes are ruled out with a single lookup.
+  private static final boolean[] CANDIDATES = new boolean[256];
+
+  static {
+    for (int k = 0; k < 8; k++) {
+      CANDIDATES[(int) ((BLOCK_MAGIC << k) >>> 24) & 0xff] = true;
+      CANDIDATES[(int) ((END_MAGIC << k) >>> 24) & 0xff] = true;
+    }
+    for (int i = 0; i < 256; i++) {
+      int crc = i << 24;
+      for (int j = 0; j < 8; j++) {
+        crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04c11db7 : crc << 1;
+      }
+      CRC_TABLE[i] = crc;
+    }
+  }
+
+  private final FileChannel channel;
+  private final ExecutorService executor;
+  private final int ahead;
+  private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+  private final ArrayDeque<Block> pending = new ArrayDeque<>();
+
+  // Scanner state: bytes of the current segment, from the byte holding its first bit.
+  private byte[] segment = new byte[READ_BUFFER_SIZE];
+  private int segmentLength = 0;
+  private long segmentStart = -1;
+  private boolean segmentIsBlock;
+  private long position = 0;
+  private long register = 0;
+  private boolean eof = false;
+  // Blocks starting before this bit are skipped, when resuming from a block.
+  private final long firstBit;
+
+  private byte[] current = new byte[0];
+  private int currentPosition = 0;
+  private long currentStart = -1;
+
+  /**
+   * Creates a stream decompressing on all available cores.
+   * @param path path to bz2 file
+   * @throws IOException if any file-related errors are encountered
+   */
+  public ParallelBZip2InputStream(Path path) throws IOException {
+    this(path, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a stream.
+   * @param path path to bz2 file
+   * @param threads number of decompression threads
+   * @throws IOException if any file-related errors are encountered
+   */
+  public ParallelBZip2InputStream(Path path, int threads) throws IOException {
+    this(path, threads, 0);
+  }
+
+  /**
+   * Creates a stream that starts at a block, as returned by {@link #blockStart()}, so that a long
+   * run can resume where it left off.
+   * @param path path to bz2 file
+   * @param threads number of decompression threads
+   * @param bit offset of the block in the file, in bits
+   * @throws IOException if any file-related errors are encountered
+   */
+  public ParallelBZip2InputStream(Path path, int threads, long bit) throws IOException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Number of threads must be positive.");
+    }
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+    ByteBuffer header = ByteBuffer.allocate(3);
+    channel.read(header);
+    if (header.position() < 3 || header.get(0) != 'B' || header.get(1) != 'Z' || header.get(2) != 'h') {
+      channel.close();
+      throw new IOException("Not a bz2 file: " + path);
+    }
+    channel.position(bit >>> 3);
+    position = bit >>> 3;
+    firstBit = bit;
+    executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "wikiclean-bz2");
+      thread.setDaemon(true);
+      return thread;
+    });
+    ahead = threads * BLOCKS_PER_THREAD;
+  }
+
+  /**
+   * Returns the number of bytes of the compressed file read so far.
+   * @return the number of bytes of the compressed file read so far
+   */
+  public long position() {
+    return position;
+  }
+
+  /**
+   * Returns the offset in the file, in bits, of the block the last bytes read come from. Reading
+   * resumes from there with {@link #ParallelBZip2InputStream(Path, int, long)}.
+   * @return the offset of the current block in bits, or -1 if nothing has been read
+   */
+  public long blockStart() {
+    return currentStart;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureData()) {
+      return -1;
+    }
+    return current[currentPosition++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureData()) {
+      return -1;
+    }
+    int n = Math.min(len, current.length - currentPosition);
+    System.arraycopy(current, currentPosition, b, off, n);
+    currentPosition += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return current.length - currentPosition;
+  }
+
+  @Override
+  public void close() throws IOException {
+    executor.shutdownNow();
+    pending.clear();
+    channel.close();
+  }
+
+  private boolean ensureData() throws IOException {
+    while (currentPosition == current.length) {
+      fill();
+      if (pending.isEmpty()) {
+        return false;
+      }
+      currentStart = pending.peek().segment.start;
+      current = take();
+      currentPosition = 0;
+    }
+    return true;
+  }
+
+  // Returns the decompressed next block, merging it with the following ones if it does not decode.
+  private byte[] take() throws IOException {
+    Block block = pending.remove();
+    try {
+      return block.decoded.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      Segment merged = block.segment;
+      for (int i = 0; i < MAX_MERGES; i++) {
+        fill();
+        if (pending.isEmpty()) {
+          break;
+        }
+        merged = merged.merge(pending.remove().segment);
+        try {
+          return decode(merged);
+        } catch (IOException | RuntimeException retry) {
+          // The next magic number is not a block boundary either.
+        }
+      }
+      throw new IOException("Corrupt bz2 block at bit " + block.segment.start, e.getCause());
+    }
+  }
+
+  // Scans the file for block boundaries until enough blocks are being decompressed.
+  private void fill() throws IOException {
+    while (!eof && pending.size() < ahead) {
+      buffer.clear();
+      if (channel.read(buffer) < 0) {
+        eof = true;
+        if (segmentStart >= 0) {
+          addSegment(position * 8);
+        }
+        break;
+      }
+      byte[] bytes = buffer.array();
+      for (int i = 0, n = buffer.position(); i < n; i++) {
+        scan(bytes[i]);
+      }
+    }
+  }
+
+  private void scan(byte b) {
+    if (segmentLength == segment.length) {
+      segment = Arrays.copyOf(segment, segment.length * 2);
+    }
+    segment[segmentLength++] = b;
+    register = (register << 8) | (b & 0xff);
+    position++;
+    if (position < 6 || !CANDIDATES[(int) (register >>> 24) & 0xff]) {
+      return;
+    }
+    for (int k = 7; k >= 0; k--) {
+      long magic = (register >>> k) & MAGIC_MASK;
+      long start = position * 8 - k - 48;
+      if ((magic == BLOCK_MAGIC || magic == END_MAGIC) && start >= firstBit) {
+        if (segmentStart >= 0) {
+          addSegment(start);
+        } else {
+          // Drop the stream header before the first block.
+          int first = (int) ((start >>> 3) - (position - segmentLength));
+          System.arraycopy(segment, first, segment, 0, segmentLength - first);
+          segmentLength -= first;
+        }
+        segmentStart = start;
+        segmentIsBlock = magic == BLOCK_MAGIC;
+      }
+    }
+  }
+
+  // Ends the current segment at the given bit, keeping the bytes from there on for the next one.
+  private void addSegment(long end) {
+    long firstByte = position - segmentLength;
+    int length = (int) (((end + 7) >>> 3) - firstByte);
+    Segment s = new Segment(segmentStart, end - segmentStart, Arrays.copyOf(segment, length));
+    Future<byte[]> decoded = segmentIsBlock
+        ? executor.submit(() -> decode(s)) : CompletableFuture.completedFuture(new byte[0]);
+    pending.add(new Block(s, decoded));
+
+    int next = (int) ((end >>> 3) - firstByte);
+    System.arraycopy(segment, next, segment, 0, segmentLength - next);
+    segmentLength -= next;
+  }
+
+  // Decodes a block by wrapping it in a bz2 stream of its own.
+  private static byte[] decode(Segment s) throws IOException {
+    int storedCrc = (int) s.bits(48, 32);
+
+    // "h9": the largest block size, so that any block fits. The "B", "Z" bytes are not expected.
+    BitWriter out = new BitWriter((int) (s.length / 8) + 16);
+    out.write(8, 'h');
+    out.write(8, '9');
+    long offset = 0;
+    for (; offset + 32 <= s.length; offset += 32) {
+      out.write(32, s.bits(offset, 32));
+    }
+    out.write((int) (s.length - offset), s.bits(offset, (int) (s.length - offset)));
+    out.write(16, END_MAGIC >>> 32);
+    out.write(32, END_MAGIC & 0xffffffffL);
+    // The combined CRC of a stream with a single block is that of the block.
+    out.write(32, storedCrc & 0xffffffffL);
+    out.flush();
+
+    CBZip2InputStream in = new CBZip2InputStream(
+        new ByteArrayInputStream(out.bytes, 0, out.length), false);
+    byte[] decoded = new byte[Math.max(1024, (int) (s.length / 8) * 4)];
+    int n = 0;
+    int read;
+    while ((read = in.read(decoded, n, decoded.length - n)) > 0) {
+      n += read;
+      if (n == decoded.length) {
+        decoded = Arrays.copyOf(decoded, n * 2);
+      }
+    }
+
+    int crc = 0xffffffff;
+    for (int i = 0; i < n; i++) {
+      crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ decoded[i]) & 0xff];
+    }
+    if (~crc != storedCrc) {
+      throw new IOException("CRC error in bz2 block at bit " + s.start);
+    }
+    return n == decoded.length ? decoded : Arrays.copyOf(decoded, n);
+  }
+
+  // Bits of the file from a magic number to the next one.
+  private static final class Segment {
+    final long start;
+    final long length;
+    // Bytes from the one holding the first bit.
+    final byte[] bytes;
+
+    Segment(long start, long length, byte[] bytes) {
+      this.start = start;
+      this.length = length;
+      this.bytes = bytes;
+    }
+
+    // Reads up to 32 bits, at the given offset from the start of the segment.
+    long bits(long offset, int count) {
+      if (count == 0) {
+        return 0;
+      }
+      long bit = (start & 7) + offset;
+      int first = (int) (bit >>> 3);
+      int last = (int) ((bit + count - 1) >>> 3);
+      long value = 0;
+      for (int i = first; i <= last; i++) {
+        value = (value << 8) | (bytes[i] & 0xff);
+      }
+      int trailing = (last + 1) * 8 - (int) (bit + count);
+      return (value >>> trailing) & ((1L << count) - 1);
+    }
+
+    Segment merge(Segment next) {
+      int shared = (int) ((next.start >>> 3) - (start >>> 3));
+      byte[] merged = Arrays.copyOf(bytes, shared + next.bytes.length);
+      System.arraycopy(next.bytes, 0, merged, shared, next.bytes.length);
+      return new Segment(start, length + next.length, merged);
+    }
+  }
+
+  private static final class Block {
+    final Segment segment;
+    final Future<byte[]> decoded;
+
+    Block(Segment segment, Future<byte[]> decoded) {
+      this.segment = segment;
+      this.decoded = decoded;
+    }
+  }
+
+  private static final class BitWriter {
+    byte[] bytes;
+    int length = 0;
+    long buffer = 0;
+    int buffered = 0;
+
+    BitWriter(int capacity) {
+      bytes = new byte[capacity];
+    }
+
+    // Writes up to 32 bits.
+    void write(int count, long value) {
+      buffer = (buffer << count) | value;
+      buffered += count;
+      while (buffered >= 8) {
+        buffered -= 8;
+        if (length == bytes.length) {
+          bytes = Arrays.copyOf(bytes, length * 2);
+        }
+        bytes[length++] = (byte) (buffer >>> buffered);
+      }
+    }
+
+    // Pads the last byte with zeros.
+    void flush() {
+      if (buffered > 0) {
+        write(8 - buffered, 0);
+      }
+    }
+  }
+}
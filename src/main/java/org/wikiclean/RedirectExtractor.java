@@ -0,0 +1,294 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects redirects during a pass over a dump, and resolves them into a {@link RedirectMap}.
+ * Every page of the pass is added: redirects for their targets, and all pages for their titles, to
+ * which target titles are matched. Titles are kept as 64-bit hashes, in an open-addressing table
+ * of primitive arrays, so the extractor needs 16 to 32 bytes per page and 12 per redirect.
+ *
+ * <p>Chains of redirects are followed to the page at their end. Redirects whose target is not in
+ * the pass, or that are part of a cycle, are dropped and counted.</p>
+ *
+ * <p>Pages may be added from several threads. Each thread adds to a batch of its own, merged into
+ * the tables once full, so that threads only contend once per batch. The counts and
+ * {@link #resolve()} take in all batches, and are for once the threads are done adding.</p>
+ */
+public class RedirectExtractor {
+  // States of a redirect while chains are followed.
+  private static final byte UNSEEN = 0;
+  private static final byte ON_PATH = 1;
+  private static final byte DONE = 2;
+  // Targets of dropped redirects.
+  private static final int BROKEN = -1;
+  private static final int CYCLE = -2;
+
+  // Titles: hashes, with 0 for empty slots, and page ids.
+  private long[] titles = new long[1 << 16];
+  private int[] ids = new int[1 << 16];
+  private int pages = 0;
+
+  // Redirects, in the order added: source ids and target title hashes.
+  private int[] sources = new int[1 << 12];
+  private long[] targets = new long[1 << 12];
+  private int redirects = 0;
+
+  private int broken = 0;
+  private int cycles = 0;
+
+  // Batches of the threads adding pages.
+  private final List<Batch> batches = new ArrayList<>();
+  private final ThreadLocal<Batch> batch = ThreadLocal.withInitial(() -> {
+    Batch batch = new Batch();
+    synchronized (this) {
+      batches.add(batch);
+    }
+    return batch;
+  });
+
+  // Pages added by a thread and not yet merged: title hashes, ids, and target hashes, with 0 for
+  // pages that are not redirects.
+  private static final class Batch {
+    private static final int SIZE = 1024;
+
+    final long[] titles = new long[SIZE];
+    final int[] ids = new int[SIZE];
+    final long[] targets = new long[SIZE];
+    int size = 0;
+  }
+
+  /**
+   * Returns the title a redirect target refers to, as pages are titled: without a section, with
+   * spaces for underscores, and starting with a capital letter.
+   * @param target redirect target
+   * @return normalized title
+   */
+  public static String normalize(String target) {
+    int section = target.indexOf('#');
+    String title = (section >= 0 ? target.substring(0, section) : target).replace('_', ' ').trim();
+    if (title.isEmpty() || !Character.isLowerCase(title.codePointAt(0))) {
+      return title;
+    }
+    int first = Character.charCount(title.codePointAt(0));
+    return new String(Character.toChars(Character.toUpperCase(title.codePointAt(0))))
+        + title.substring(first);
+  }
+
+  /**
+   * Adds a page of the pass.
+   * @param page page
+   */
+  public void add(WikiPage page) {
+    if (page.id() < Integer.MIN_VALUE || page.id() > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Page id out of range: " + page.id());
+    }
+    Batch batch = this.batch.get();
+    batch.titles[batch.size] = hash(page.title());
+    batch.ids[batch.size] = (int) page.id();
+    batch.targets[batch.size] = page.isRedirect() ? hash(normalize(page.redirect())) : 0;
+    if (++batch.size == Batch.SIZE) {
+      synchronized (this) {
+        merge(batch);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of pages added.
+   * @return the number of pages added
+   */
+  public synchronized int pages() {
+    mergeAll();
+    return pages;
+  }
+
+  /**
+   * Returns the number of redirects added.
+   * @return the number of redirects added
+   */
+  public synchronized int redirects() {
+    mergeAll();
+    return redirects;
+  }
+
+  /**
+   * Returns the number of redirects dropped by the last {@link #resolve()} because their target,
+   * or the end of their chain, was not in the pass.
+   * @return the number of broken redirects
+   */
+  public synchronized int broken() {
+    return broken;
+  }
+
+  /**
+   * Returns the number of redirects dropped by the last {@link #resolve()} because their chain
+   * leads into a cycle.
+   * @return the number of redirects in or into cycles
+   */
+  public synchronized int cycles() {
+    return cycles;
+  }
+
+  /**
+   * Resolves the redirects added so far.
+   * @return map from redirects to the pages their chains end at
+   */
+  public synchronized RedirectMap resolve() {
+    mergeAll();
+    // Redirects by source id, keeping the last added of each page.
+    long[] order = new long[redirects];
+    for (int i = 0; i < redirects; i++) {
+      order[i] = (long) sources[i] << 32 | i;
+    }
+    Arrays.sort(order);
+    int n = 0;
+    int[] from = new int[redirects];
+    int[] hop = new int[redirects];
+    for (int i = 0; i < redirects; i++) {
+      int index = (int) order[i];
+      if (i + 1 < redirects && sources[(int) order[i + 1]] == sources[index]) {
+        continue;
+      }
+      from[n] = sources[index];
+      hop[n++] = getTitle(targets[index]);
+    }
+    from = Arrays.copyOf(from, n);
+
+    // Each chain is walked once: redirects met on the way get the result of the walk.
+    int[] to = new int[n];
+    byte[] state = new byte[n];
+    int[] path = new int[n];
+    for (int start = 0; start < n; start++) {
+      int length = 0;
+      int current = start;
+      int result;
+      while (true) {
+        if (state[current] == DONE) {
+          result = to[current];
+          break;
+        }
+        if (state[current] == ON_PATH) {
+          result = CYCLE;
+          break;
+        }
+        state[current] = ON_PATH;
+        path[length++] = current;
+        int next = hop[current] == BROKEN ? -1 : Arrays.binarySearch(from, hop[current]);
+        if (next < 0) {
+          result = hop[current];
+          break;
+        }
+        current = next;
+      }
+      for (int i = 0; i < length; i++) {
+        to[path[i]] = result;
+        state[path[i]] = DONE;
+      }
+    }
+
+    broken = 0;
+    cycles = 0;
+    int kept = 0;
+    for (int i = 0; i < n; i++) {
+      if (to[i] == BROKEN) {
+        broken++;
+      } else if (to[i] == CYCLE) {
+        cycles++;
+      } else {
+        from[kept] = from[i];
+        to[kept++] = to[i];
+      }
+    }
+    return new RedirectMap(Arrays.copyOf(from, kept), Arrays.copyOf(to, kept));
+  }
+
+  // Adds the pages of a batch to the tables, and empties it.
+  private void merge(Batch batch) {
+    for (int i = 0; i < batch.size; i++) {
+      putTitle(batch.titles[i], batch.ids[i]);
+      if (batch.targets[i] != 0) {
+        if (redirects == sources.length) {
+          sources = Arrays.copyOf(sources, redirects * 2);
+          targets = Arrays.copyOf(targets, redirects * 2);
+        }
+        sources[redirects] = batch.ids[i];
+        targets[redirects] = batch.targets[i];
+        redirects++;
+      }
+    }
+    batch.size = 0;
+  }
+
+  private void mergeAll() {
+    for (Batch batch : batches) {
+      merge(batch);
+    }
+  }
+
+  private static long hash(String title) {
+    long hash = TitleIndex.hash(title.getBytes(StandardCharsets.UTF_8));
+    // 0 marks empty slots.
+    return hash == 0 ? 1 : hash;
+  }
+
+  private void putTitle(long title, int id) {
+    int slot = find(title);
+    if (titles[slot] == 0) {
+      titles[slot] = title;
+      pages++;
+      if (pages * 4L > titles.length * 3L) {
+        grow();
+        slot = find(title);
+      }
+    }
+    ids[slot] = id;
+  }
+
+  private int getTitle(long title) {
+    int slot = find(title);
+    return titles[slot] == 0 ? BROKEN : ids[slot];
+  }
+
+  private int find(long title) {
+    int mask = titles.length - 1;
+    for (int slot = (int) title & mask; ; slot = (slot + 1) & mask) {
+      if (titles[slot] == 0 || titles[slot] == title) {
+        return slot;
+      }
+    }
+  }
+
+  private void grow() {
+    long[] oldTitles = titles;
+    int[] oldIds = ids;
+    titles = new long[oldTitles.length * 2];
+    ids = new int[oldTitles.length * 2];
+    for (int i = 0; i < oldTitles.length; i++) {
+      if (oldTitles[i] != 0) {
+        int slot = find(oldTitles[i]);
+        titles[slot] = oldTitles[i];
+        ids[slot] = oldIds[i];
+      }
+    }
+  }
+}
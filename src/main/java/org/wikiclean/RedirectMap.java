@@ -0,0 +1,123 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Map from the id of each redirect to the id of the page it finally leads to, with chains of
+ * redirects followed to their end. Sources and targets are kept in two sorted, parallel int
+ * arrays, 8 bytes per redirect, and a target is found by binary search.
+ */
+public final class RedirectMap {
+  private static final int MAGIC = 0x57435244;
+  private static final int VERSION = 1;
+
+  private final int[] sources;
+  private final int[] targets;
+
+  RedirectMap(int[] sources, int[] targets) {
+    this.sources = sources;
+    this.targets = targets;
+  }
+
+  /**
+   * Reads a map written by {@link #write(File)}.
+   * @param file map file
+   * @return the map
+   * @throws IOException if the file cannot be read, or is not a redirect map
+   */
+  public static RedirectMap read(File file) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file), 1 << 16))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a redirect map: " + file);
+      }
+      int size = in.readInt();
+      int[] sources = new int[size];
+      int[] targets = new int[size];
+      for (int i = 0; i < size; i++) {
+        sources[i] = in.readInt();
+      }
+      for (int i = 0; i < size; i++) {
+        targets[i] = in.readInt();
+      }
+      return new RedirectMap(sources, targets);
+    }
+  }
+
+  /**
+   * Writes the map, replacing the file atomically once it is complete.
+   * @param file map file
+   * @throws IOException if the file cannot be written
+   */
+  public void write(File file) throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(tmp), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(sources.length);
+      for (int source : sources) {
+        out.writeInt(source);
+      }
+      for (int target : targets) {
+        out.writeInt(target);
+      }
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Returns the number of redirects.
+   * @return the number of redirects
+   */
+  public int size() {
+    return sources.length;
+  }
+
+  /**
+   * Returns the page a redirect finally leads to.
+   * @param id page id
+   * @return id of the target, or -1 if the page is not a redirect in this map
+   */
+  public int target(int id) {
+    int i = Arrays.binarySearch(sources, id);
+    return i < 0 ? -1 : targets[i];
+  }
+
+  /**
+   * Follows a page to where it finally leads, e.g., to normalize a link.
+   * @param id page id
+   * @return id of the target if the page is a redirect, the id itself otherwise
+   */
+  public int resolve(int id) {
+    int i = Arrays.binarySearch(sources, id);
+    return i < 0 ? id : targets[i];
+  }
+}
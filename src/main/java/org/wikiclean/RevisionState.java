@@ -0,0 +1,359 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Persistent map from page id to the revision id and sha1 of the page as last processed, so that
+ * an incremental run only re-cleans pages whose content changed. The state is a memory-mapped,
+ * open-addressing hash table with fixed 32-byte records (page id, revision id, and the 160-bit
+ * sha1), updated in place. The table is only rewritten, to a new file that replaces the old one,
+ * when it grows.
+ *
+ * <p>Methods are synchronized, so workers may look pages up while the writer updates the state.</p>
+ */
+public class RevisionState implements Closeable {
+  private static final int MAGIC = 0x57435256;
+  private static final int HEADER = 32;
+  private static final int RECORD = 32;
+  private static final int SHA1_BYTES = 20;
+  private static final int INITIAL_CAPACITY = 1 << 16;
+  // The largest table that can be mapped at once.
+  private static final int MAX_CAPACITY = 1 << 25;
+  // Page ids of empty and deleted slots.
+  private static final int EMPTY = 0;
+  private static final int DELETED = -1;
+
+  private final File file;
+  private FileChannel channel;
+  private MappedByteBuffer table;
+  private int capacity;
+  private int size;
+  private int deleted;
+
+  private RevisionState(File file) throws IOException {
+    this.file = file;
+    if (!file.exists() || file.length() == 0) {
+      create(file, INITIAL_CAPACITY);
+    }
+    map();
+  }
+
+  /**
+   * Opens a state file, creating it if it does not exist.
+   * @param file state file
+   * @return the state
+   * @throws IOException if the file cannot be read or created
+   */
+  public static RevisionState open(File file) throws IOException {
+    return new RevisionState(file);
+  }
+
+  /**
+   * Returns the number of pages in the state.
+   * @return the number of pages in the state
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Returns whether or not a page is in the state.
+   * @param id page id
+   * @return whether or not the page is in the state
+   */
+  public synchronized boolean contains(long id) {
+    return find(id) >= 0;
+  }
+
+  /**
+   * Returns the revision id of a page.
+   * @param id page id
+   * @return the revision id, or -1 if the page is not in the state
+   */
+  public synchronized long revisionId(long id) {
+    int slot = find(id);
+    return slot < 0 ? -1 : table.getLong(offset(slot) + 4);
+  }
+
+  /**
+   * Returns the sha1 of a page, in base 36 as in dumps.
+   * @param id page id
+   * @return the sha1, or {@code null} if the page is not in the state
+   */
+  public synchronized String sha1(long id) {
+    int slot = find(id);
+    if (slot < 0) {
+      return null;
+    }
+    byte[] sha1 = new byte[SHA1_BYTES];
+    for (int i = 0; i < SHA1_BYTES; i++) {
+      sha1[i] = table.get(offset(slot) + 12 + i);
+    }
+    return decode(sha1);
+  }
+
+  /**
+   * Returns whether or not a page is in the state with the given content. Pages are compared by
+   * sha1 when there is one, and by revision id otherwise.
+   * @param id page id
+   * @param revisionId revision id
+   * @param sha1 sha1 in base 36, or an empty string
+   * @return whether or not the page is unchanged
+   */
+  public synchronized boolean matches(long id, long revisionId, String sha1) {
+    int slot = find(id);
+    if (slot < 0) {
+      return false;
+    }
+    byte[] encoded = encode(sha1);
+    if (isZero(encoded)) {
+      return table.getLong(offset(slot) + 4) == revisionId;
+    }
+    for (int i = 0; i < SHA1_BYTES; i++) {
+      if (table.get(offset(slot) + 12 + i) != encoded[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds or updates a page.
+   * @param id page id
+   * @param revisionId revision id
+   * @param sha1 sha1 in base 36, or an empty string
+   * @throws IOException if the table cannot grow
+   */
+  public synchronized void put(long id, long revisionId, String sha1) throws IOException {
+    if (id <= 0 || id > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Page id out of range: " + id);
+    }
+    int slot = find(id);
+    if (slot < 0) {
+      if ((size + deleted + 1) * 4L > capacity * 3L) {
+        rehash(size + 1 > capacity / 2 ? capacity * 2 : capacity);
+      }
+      slot = insertionSlot(id);
+      if (table.getInt(offset(slot)) == DELETED) {
+        deleted--;
+      }
+      size++;
+      table.putInt(offset(slot), (int) id);
+    }
+    table.putLong(offset(slot) + 4, revisionId);
+    byte[] encoded = encode(sha1);
+    for (int i = 0; i < SHA1_BYTES; i++) {
+      table.put(offset(slot) + 12 + i, encoded[i]);
+    }
+    writeCounts();
+  }
+
+  /**
+   * Removes a page.
+   * @param id page id
+   * @return whether or not the page was in the state
+   */
+  public synchronized boolean remove(long id) {
+    int slot = find(id);
+    if (slot < 0) {
+      return false;
+    }
+    table.putInt(offset(slot), DELETED);
+    size--;
+    deleted++;
+    writeCounts();
+    return true;
+  }
+
+  /**
+   * Calls an action with the id of each page in the state, in no particular order.
+   * @param action action to call
+   */
+  public synchronized void forEach(LongConsumer action) {
+    for (int slot = 0; slot < capacity; slot++) {
+      int id = table.getInt(offset(slot));
+      if (id != EMPTY && id != DELETED) {
+        action.accept(id);
+      }
+    }
+  }
+
+  /**
+   * Writes the state to disk.
+   */
+  public synchronized void flush() {
+    table.force();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel != null) {
+      table.force();
+      channel.close();
+      channel = null;
+    }
+  }
+
+  private static int offset(int slot) {
+    return HEADER + slot * RECORD;
+  }
+
+  // Spreads sequential ids over the table.
+  private int home(long id) {
+    return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (capacity - 1);
+  }
+
+  private int find(long id) {
+    if (id <= 0 || id > Integer.MAX_VALUE) {
+      return -1;
+    }
+    for (int slot = home(id); ; slot = (slot + 1) & (capacity - 1)) {
+      int key = table.getInt(offset(slot));
+      if (key == id) {
+        return slot;
+      }
+      if (key == EMPTY) {
+        return -1;
+      }
+    }
+  }
+
+  // First deleted or empty slot on the probe sequence, for an id that is not in the table.
+  private int insertionSlot(long id) {
+    for (int slot = home(id); ; slot = (slot + 1) & (capacity - 1)) {
+      int key = table.getInt(offset(slot));
+      if (key == EMPTY || key == DELETED) {
+        return slot;
+      }
+    }
+  }
+
+  private void writeCounts() {
+    table.putInt(8, size);
+    table.putInt(12, deleted);
+  }
+
+  private void map() throws IOException {
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    table = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+    if (channel.size() < HEADER || table.getInt(0) != MAGIC) {
+      channel.close();
+      throw new IOException("Not a revision state file: " + file);
+    }
+    capacity = table.getInt(4);
+    size = table.getInt(8);
+    deleted = table.getInt(12);
+    if (Integer.bitCount(capacity) != 1 || channel.size() != offset(capacity)) {
+      channel.close();
+      throw new IOException("Corrupt revision state file: " + file);
+    }
+  }
+
+  private static void create(File file, int capacity) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER);
+    header.putInt(MAGIC).putInt(capacity).putInt(0).putInt(0).flip();
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      channel.write(header);
+      // Empty slots are all zeros.
+      channel.write(ByteBuffer.allocate(1), offset(capacity) - 1L);
+    }
+  }
+
+  // Copies the pages to a new table, dropping deleted slots, and replaces the file with it.
+  private void rehash(int newCapacity) throws IOException {
+    if (newCapacity > MAX_CAPACITY) {
+      throw new IOException("Revision state is full: " + file);
+    }
+    File tmp = new File(file.getPath() + ".tmp");
+    create(tmp, newCapacity);
+    MappedByteBuffer old = table;
+    int oldCapacity = capacity;
+    channel.close();
+
+    try (FileChannel target = FileChannel.open(tmp.toPath(), StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      table = target.map(FileChannel.MapMode.READ_WRITE, 0, target.size());
+      capacity = newCapacity;
+      byte[] record = new byte[RECORD];
+      for (int slot = 0; slot < oldCapacity; slot++) {
+        int id = old.getInt(offset(slot));
+        if (id == EMPTY || id == DELETED) {
+          continue;
+        }
+        old.position(offset(slot));
+        old.get(record);
+        table.position(offset(insertionSlot(id)));
+        table.put(record);
+      }
+      deleted = 0;
+      writeCounts();
+      table.force();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    map();
+  }
+
+  // Sha1s are 31 base 36 digits in dumps.
+  static byte[] encode(String sha1) {
+    byte[] encoded = new byte[SHA1_BYTES];
+    if (sha1 == null || sha1.isEmpty()) {
+      return encoded;
+    }
+    byte[] bytes = new BigInteger(sha1, 36).toByteArray();
+    int length = Math.min(bytes.length, SHA1_BYTES);
+    System.arraycopy(bytes, bytes.length - length, encoded, SHA1_BYTES - length, length);
+    return encoded;
+  }
+
+  static String decode(byte[] sha1) {
+    if (isZero(sha1)) {
+      return "";
+    }
+    String digits = new BigInteger(1, sha1).toString(36);
+    if (digits.length() >= 31) {
+      return digits;
+    }
+    char[] padded = new char[31];
+    Arrays.fill(padded, '0');
+    digits.getChars(0, digits.length(), padded, 31 - digits.length());
+    return new String(padded);
+  }
+
+  private static boolean isZero(byte[] bytes) {
+    for (byte b : bytes) {
+      if (b != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Lightweight sentence splitter for jobs that do not need tokenization. A sentence ends at a line
+ * break, or at a full stop, question or exclamation mark, possibly followed by closing quotes or
+ * brackets, and then by whitespace and the start of a sentence: a capital letter, a digit, or an
+ * opening quote or bracket. Full stops after common abbreviations and initials do not end
+ * sentences. Sentences are returned as they are in the text, trimmed.
+ */
+public final class RuleBasedSentenceSplitter implements SentenceSplitter {
+  // Lower-cased, without the final full stop.
+  private static final Set<String> ABBREVIATIONS = new HashSet<>(Arrays.asList("mr", "mrs", "ms",
+      "dr", "prof", "rev", "st", "mt", "ft", "jr", "sr", "gen", "col", "lt", "sgt", "gov", "sen",
+      "rep", "pres", "vs", "etc", "e.g", "i.e", "cf", "al", "ca", "approx", "no", "nos", "vol",
+      "pp", "p", "fig", "ed", "eds", "inc", "ltd", "co", "corp", "bros", "jan", "feb", "mar",
+      "apr", "jun", "jul", "aug", "sep", "sept", "oct", "nov", "dec", "u.s", "u.k", "a.d", "b.c"));
+
+  @Override
+  public void split(CharSequence text, Consumer<String> sentences) {
+    int start = 0;
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      int end;
+      if (c == '\n') {
+        end = i;
+      } else if (c == '。' || c == '！' || c == '？') {
+        end = i + 1;
+      } else if (c == '.' || c == '!' || c == '?') {
+        end = i + 1;
+        while (end < length && isClosing(text.charAt(end))) {
+          end++;
+        }
+        int next = end;
+        while (next < length && text.charAt(next) == ' ') {
+          next++;
+        }
+        if (next == end && end < length || next < length && !isStart(text.charAt(next))
+            || c == '.' && isAbbreviation(text, i)) {
+          continue;
+        }
+      } else {
+        continue;
+      }
+      emit(text, start, end, sentences);
+      start = c == '\n' ? end + 1 : end;
+      i = start - 1;
+    }
+    emit(text, start, length, sentences);
+  }
+
+  private static void emit(CharSequence text, int start, int end, Consumer<String> sentences) {
+    while (start < end && Character.isWhitespace(text.charAt(start))) {
+      start++;
+    }
+    while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+      end--;
+    }
+    if (start < end) {
+      sentences.accept(text.subSequence(start, end).toString());
+    }
+  }
+
+  private static boolean isClosing(char c) {
+    return c == '"' || c == '\'' || c == ')' || c == ']' || c == '”' || c == '’' || c == '»';
+  }
+
+  private static boolean isStart(char c) {
+    return Character.isUpperCase(c) || Character.isDigit(c) || c == '"' || c == '\'' || c == '('
+        || c == '[' || c == '“' || c == '‘' || c == '«' || c == '\n';
+  }
+
+  // Whether the full stop at the position ends an abbreviation or an initial.
+  private static boolean isAbbreviation(CharSequence text, int stop) {
+    int start = stop;
+    while (start > 0 && !Character.isWhitespace(text.charAt(start - 1))
+        && text.charAt(start - 1) != '(') {
+      start--;
+    }
+    if (start == stop) {
+      return false;
+    }
+    if (stop - start == 1 && Character.isUpperCase(text.charAt(start))) {
+      return true;
+    }
+    return ABBREVIATIONS.contains(text.subSequence(start, stop).toString().toLowerCase());
+  }
+}
@@ -0,0 +1,50 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import java.util.function.Consumer;
+
+/**
+ * Splits cleaned text into sentences. Splitters keep state between calls, e.g., a tokenizer, and
+ * are not thread-safe: each worker thread uses a splitter of its own.
+ */
+public interface SentenceSplitter {
+  /**
+   * Kinds of splitters.
+   */
+  enum Type {
+    /** CoreNLP's tokenizer and sentence splitter, with tokens separated by spaces */
+    CORENLP,
+    /** Rules over punctuation and abbreviations, keeping the text as it is */
+    RULES;
+
+    /**
+     * Creates a splitter of this kind.
+     * @return a new splitter
+     */
+    public SentenceSplitter create() {
+      return this == CORENLP ? new CoreNlpSentenceSplitter() : new RuleBasedSentenceSplitter();
+    }
+  }
+
+  /**
+   * Splits text into sentences.
+   * @param text cleaned text
+   * @param sentences receives each sentence, in order
+   */
+  void split(CharSequence text, Consumer<String> sentences);
+}
@@ -0,0 +1,409 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.wikiclean.DumpPipeline.ByteBoundedQueue;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes records to a number of shards, each with a writer thread of its own, so that downstream
+ * loaders can ingest the output in parallel. Records are routed to shards by page id or in turn.
+ * The files of a shard roll over once they reach a size limit, and a manifest lists every file
+ * with its number of records and bytes.
+ *
+ * <p>For an output path {@code out/enwiki.json}, the files are named
+ * {@code out/enwiki-SSSSS-PPPPP.json}, by shard and part, and the manifest is
+ * {@code out/enwiki.manifest.json}. Records are written as given, so each should end with a
+ * newline. A record is never split across files, and files are only created once they have a
+ * record.</p>
+ */
+public class ShardedWriter implements Closeable {
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  /**
+   * How records are assigned to shards.
+   */
+  public enum Routing {
+    /** By a hash of the page id, so that a page always goes to the same shard. */
+    HASH,
+    /** In turn, which balances the shards best. */
+    ROUND_ROBIN
+  }
+
+  private final File directory;
+  private final String name;
+  private final String extension;
+  private final Routing routing;
+  private final long maxBytes;
+  private final List<Shard> shards = new ArrayList<>();
+  private final AtomicLong next = new AtomicLong();
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+  private List<Part> parts = null;
+  private volatile boolean closed = false;
+
+  private ShardedWriter(File output, Builder builder) {
+    File parent = output.getAbsoluteFile().getParentFile();
+    this.directory = parent;
+    String file = output.getName();
+    int dot = file.lastIndexOf('.');
+    this.name = dot > 0 ? file.substring(0, dot) : file;
+    this.extension = dot > 0 ? file.substring(dot) : "";
+    this.routing = builder.routing;
+    this.maxBytes = builder.maxBytes;
+    for (int i = 0; i < builder.shards; i++) {
+      shards.add(new Shard(i, builder.queueBytes));
+    }
+  }
+
+  /**
+   * Writes a record.
+   * @param id page id, for routing
+   * @param record record, as UTF-8
+   * @throws IOException if a shard failed to write earlier records
+   * @throws IllegalStateException if the writer is closed
+   */
+  public void write(long id, byte[] record) throws IOException {
+    if (closed) {
+      throw new IllegalStateException("Writer is closed.");
+    }
+    checkFailure();
+    int shard;
+    if (routing == Routing.HASH) {
+      // Mixes the bits, since ids are often sequential.
+      shard = Math.floorMod(Long.hashCode(id * 0x9E3779B97F4A7C15L), shards.size());
+    } else {
+      shard = (int) Math.floorMod(next.getAndIncrement(), (long) shards.size());
+    }
+    boolean queued;
+    try {
+      queued = shards.get(shard).queue.put(record, record.length);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a shard.", e);
+    }
+    if (!queued) {
+      // The queues close when a shard fails, or when the writer is closed meanwhile.
+      checkFailure();
+      throw new IllegalStateException("Writer is closed.");
+    }
+  }
+
+  /**
+   * Writes a record.
+   * @param id page id, for routing
+   * @param record record
+   * @throws IOException if a shard failed to write earlier records
+   * @throws IllegalStateException if the writer is closed
+   */
+  public void write(long id, String record) throws IOException {
+    write(id, record.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Returns the number of shards.
+   * @return the number of shards
+   */
+  public int shards() {
+    return shards.size();
+  }
+
+  /**
+   * Returns the files written, by shard and part. Only available once the writer is closed.
+   * @return the files written
+   */
+  public synchronized List<Part> parts() {
+    if (parts == null) {
+      throw new IllegalStateException("Writer is not closed.");
+    }
+    return parts;
+  }
+
+  /**
+   * Returns the path of the manifest.
+   * @return the path of the manifest
+   */
+  public File manifest() {
+    return new File(directory, name + ".manifest" + extension);
+  }
+
+  /**
+   * Waits for the shards to write all records, then writes the manifest.
+   * @throws IOException if a shard failed to write, or the manifest cannot be written
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    if (parts != null) {
+      return;
+    }
+    for (Shard shard : shards) {
+      shard.queue.close();
+    }
+    try {
+      for (Shard shard : shards) {
+        shard.thread.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the shards.", e);
+    }
+    checkFailure();
+
+    List<Part> all = new ArrayList<>();
+    for (Shard shard : shards) {
+      all.addAll(shard.parts);
+    }
+    parts = Collections.unmodifiableList(all);
+    writeManifest();
+  }
+
+  private void checkFailure() throws IOException {
+    Throwable t = failure.get();
+    if (t instanceof IOException) {
+      throw new IOException("Writing a shard failed.", t);
+    } else if (t != null) {
+      throw new IOException(t);
+    }
+  }
+
+  private void fail(Throwable t) {
+    if (failure.compareAndSet(null, t)) {
+      // Nothing more is written, and producers no longer block on full queues.
+      for (Shard shard : shards) {
+        shard.queue.close();
+      }
+    }
+  }
+
+  private void writeManifest() throws IOException {
+    long records = 0;
+    long bytes = 0;
+    for (Part part : parts) {
+      records += part.records;
+      bytes += part.bytes;
+    }
+    File manifest = manifest();
+    File tmp = new File(manifest.getPath() + ".tmp");
+    try (JsonGenerator generator = FACTORY.createGenerator(tmp, JsonEncoding.UTF8)) {
+      generator.useDefaultPrettyPrinter();
+      generator.writeStartObject();
+      generator.writeNumberField("shards", shards.size());
+      generator.writeStringField("routing", routing.name());
+      generator.writeNumberField("maxBytes", maxBytes);
+      generator.writeNumberField("records", records);
+      generator.writeNumberField("bytes", bytes);
+      generator.writeArrayFieldStart("files");
+      for (Part part : parts) {
+        generator.writeStartObject();
+        generator.writeStringField("file", part.file);
+        generator.writeNumberField("shard", part.shard);
+        generator.writeNumberField("part", part.part);
+        generator.writeNumberField("records", part.records);
+        generator.writeNumberField("bytes", part.bytes);
+        generator.writeEndObject();
+      }
+      generator.writeEndArray();
+      generator.writeEndObject();
+    }
+    if (manifest.exists() && !manifest.delete() || !tmp.renameTo(manifest)) {
+      throw new IOException("Cannot write " + manifest);
+    }
+  }
+
+  private final class Shard {
+    final int index;
+    final ByteBoundedQueue<byte[]> queue;
+    final List<Part> parts = new ArrayList<>();
+    final Thread thread;
+
+    Shard(int index, long queueBytes) {
+      this.index = index;
+      this.queue = new ByteBoundedQueue<>(queueBytes);
+      this.thread = new Thread(this::run, String.format("wikiclean-shard-%d", index));
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    private void run() {
+      OutputStream out = null;
+      Part part = null;
+      try {
+        byte[] record;
+        while ((record = queue.take()) != null && failure.get() == null) {
+          if (part == null || maxBytes > 0 && part.bytes > 0 && part.bytes + record.length > maxBytes) {
+            if (out != null) {
+              out.close();
+            }
+            part = new Part(String.format("%s-%05d-%05d%s", name, index, parts.size(), extension),
+                index, parts.size());
+            parts.add(part);
+            out = new BufferedOutputStream(new FileOutputStream(new File(directory, part.file)),
+                1 << 16);
+          }
+          out.write(record);
+          part.records++;
+          part.bytes += record.length;
+        }
+        if (out != null) {
+          out.close();
+        }
+      } catch (Throwable t) {
+        fail(t);
+        try {
+          if (out != null) {
+            out.close();
+          }
+        } catch (IOException e) {
+          t.addSuppressed(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * A file of a shard.
+   */
+  public static final class Part {
+    private final String file;
+    private final int shard;
+    private final int part;
+    private long records = 0;
+    private long bytes = 0;
+
+    private Part(String file, int shard, int part) {
+      this.file = file;
+      this.shard = shard;
+      this.part = part;
+    }
+
+    /**
+     * Returns the name of the file, in the directory of the output path.
+     * @return the name of the file
+     */
+    public String file() {
+      return file;
+    }
+
+    /**
+     * Returns the shard of the file.
+     * @return the shard of the file
+     */
+    public int shard() {
+      return shard;
+    }
+
+    /**
+     * Returns the position of the file among those of its shard.
+     * @return the position of the file in its shard
+     */
+    public int part() {
+      return part;
+    }
+
+    /**
+     * Returns the number of records in the file.
+     * @return the number of records in the file
+     */
+    public long records() {
+      return records;
+    }
+
+    /**
+     * Returns the size of the file.
+     * @return the size of the file in bytes
+     */
+    public long bytes() {
+      return bytes;
+    }
+  }
+
+  public static class Builder {
+    private int shards = 1;
+    private Routing routing = Routing.HASH;
+    private long maxBytes = 0;
+    private long queueBytes = 16L * 1024 * 1024;
+
+    /**
+     * Sets the number of shards, 1 by default.
+     * @param shards number of shards
+     * @return the builder, for chaining
+     */
+    public Builder withShards(int shards) {
+      if (shards < 1) {
+        throw new IllegalArgumentException("Number of shards must be positive.");
+      }
+      this.shards = shards;
+      return this;
+    }
+
+    /**
+     * Sets how records are assigned to shards, by page id hash by default.
+     * @param routing routing
+     * @return the builder, for chaining
+     */
+    public Builder withRouting(Routing routing) {
+      this.routing = routing;
+      return this;
+    }
+
+    /**
+     * Sets the size at which files roll over. A file may be larger if a single record is. By
+     * default, or with 0, files do not roll over.
+     * @param bytes number of bytes
+     * @return the builder, for chaining
+     */
+    public Builder withMaxBytes(long bytes) {
+      this.maxBytes = bytes;
+      return this;
+    }
+
+    /**
+     * Sets how many bytes of records may wait for each shard before writes block, 16 MB by
+     * default.
+     * @param bytes number of bytes
+     * @return the builder, for chaining
+     */
+    public Builder withQueueBytes(long bytes) {
+      this.queueBytes = bytes;
+      return this;
+    }
+
+    /**
+     * Builds a writer, and starts its shard threads.
+     * @param output output path, from which file names are derived
+     * @return a writer
+     */
+    public ShardedWriter build(File output) {
+      return new ShardedWriter(output, this);
+    }
+  }
+}
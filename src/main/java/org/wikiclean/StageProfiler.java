@@ -0,0 +1,142 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates the time spent in each cleaning stage across a run, see
+ * {@link WikiClean.Builder#withProfiler}. Times are normalized by the total length of the markup
+ * cleaned, so that stages can be compared in nanoseconds per input character. A profiler can be
+ * shared by cleaners running in different threads.
+ */
+public class StageProfiler {
+  private final Map<String, LongAdder> nanos = new ConcurrentHashMap<>();
+  private final LongAdder chars = new LongAdder();
+  private final LongAdder articles = new LongAdder();
+
+  /**
+   * Class constructor.
+   */
+  public StageProfiler() {}
+
+  void addInput(int length) {
+    chars.add(length);
+    articles.increment();
+  }
+
+  void record(String stage, long elapsed) {
+    LongAdder adder = nanos.get(stage);
+    if (adder == null) {
+      adder = nanos.computeIfAbsent(stage, k -> new LongAdder());
+    }
+    adder.add(elapsed);
+  }
+
+  /**
+   * Returns the number of articles cleaned.
+   * @return number of articles cleaned
+   */
+  public long articles() {
+    return articles.sum();
+  }
+
+  /**
+   * Returns the total length of the markup cleaned, in characters.
+   * @return total length of the markup cleaned
+   */
+  public long chars() {
+    return chars.sum();
+  }
+
+  /**
+   * Returns the names of the stages that have been timed.
+   * @return names of the stages
+   */
+  public List<String> stages() {
+    return new ArrayList<>(nanos.keySet());
+  }
+
+  /**
+   * Returns the total time spent in a stage.
+   * @param stage name of the stage
+   * @return time in nanoseconds
+   */
+  public long nanos(String stage) {
+    LongAdder adder = nanos.get(stage);
+    return adder == null ? 0 : adder.sum();
+  }
+
+  /**
+   * Returns the time spent in a stage per character of markup cleaned.
+   * @param stage name of the stage
+   * @return time in nanoseconds per character
+   */
+  public double nanosPerChar(String stage) {
+    long total = chars();
+    return total == 0 ? 0 : (double) nanos(stage) / total;
+  }
+
+  /**
+   * Returns the share of the total time spent in a stage.
+   * @param stage name of the stage
+   * @return share between 0 and 1
+   */
+  public double share(String stage) {
+    long total = 0;
+    for (LongAdder adder : nanos.values()) {
+      total += adder.sum();
+    }
+    return total == 0 ? 0 : (double) nanos(stage) / total;
+  }
+
+  /**
+   * Clears all measurements.
+   */
+  public void reset() {
+    nanos.clear();
+    chars.reset();
+    articles.reset();
+  }
+
+  /**
+   * Returns a report with one line per stage, the most expensive first.
+   * @return report
+   */
+  public String report() {
+    List<String> stages = stages();
+    stages.sort((a, b) -> Long.compare(nanos(b), nanos(a)));
+
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-32s %12s %10s %7s%n", "stage", "ms", "ns/char", "share"));
+    for (String stage : stages) {
+      sb.append(String.format("%-32s %12.1f %10.3f %6.1f%%%n", stage, nanos(stage) / 1e6,
+          nanosPerChar(stage), 100 * share(stage)));
+    }
+    sb.append(String.format("%d articles, %d chars%n", articles(), chars()));
+    return sb.toString();
+  }
+
+  @Override
+  public String toString() {
+    return report();
+  }
+}
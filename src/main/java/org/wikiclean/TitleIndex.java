@@ -0,0 +1,518 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Memory-mapped index from titles to page ids and back. Titles are sorted by their UTF-8 bytes and
+ * front-coded in blocks, and two perfect hash functions, one over the titles and one over their
+ * case-normalized forms, map a title to its place in the sorted order in constant time; the
+ * title found there is compared with the one looked up, so that titles not in the index are
+ * reported as such. Page ids are looked up by binary search over a sorted array.
+ *
+ * <p>Opening an index only maps the file, so it is instant, and processes reading the same index
+ * share its pages. Lookups are thread-safe.</p>
+ */
+public class TitleIndex implements Closeable {
+  private static final int MAGIC = 0x57435449;
+  private static final int VERSION = 1;
+  private static final int HEADER = 64;
+  // Average number of keys per bucket of the perfect hash functions.
+  private static final int BUCKET_SIZE = 4;
+  // One spare slot for every this many keys.
+  private static final int SPARE_SLOTS = 20;
+
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final int size;
+  private final int blockSize;
+  private final int exactBuckets;
+  private final int normalizedBuckets;
+  private final int normalizedSize;
+  private final int blocks;
+  private final int titles;
+  private final int ids;
+  private final int sortedIds;
+  private final int sortedRanks;
+  private final int exactSeeds;
+  private final int exactRanks;
+  private final int normalizedSeeds;
+  private final int normalizedRanks;
+
+  private TitleIndex(File file) throws IOException {
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    if (channel.size() > Integer.MAX_VALUE) {
+      channel.close();
+      throw new IOException("Title index too large to map: " + file);
+    }
+    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    if (channel.size() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      channel.close();
+      throw new IOException("Not a title index: " + file);
+    }
+    size = buffer.getInt(8);
+    blockSize = buffer.getInt(12);
+    exactBuckets = buffer.getInt(16);
+    normalizedBuckets = buffer.getInt(20);
+    normalizedSize = buffer.getInt(24);
+    blocks = buffer.getInt(28);
+    titles = buffer.getInt(32);
+    ids = buffer.getInt(36);
+    sortedIds = buffer.getInt(40);
+    sortedRanks = buffer.getInt(44);
+    exactSeeds = buffer.getInt(48);
+    exactRanks = buffer.getInt(52);
+    normalizedSeeds = buffer.getInt(56);
+    normalizedRanks = buffer.getInt(60);
+  }
+
+  /**
+   * Opens a title index.
+   * @param file index file, as written by {@link Builder#write(File)}
+   * @return the index
+   * @throws IOException if the file cannot be read, or is not a title index
+   */
+  public static TitleIndex open(File file) throws IOException {
+    return new TitleIndex(file);
+  }
+
+  /**
+   * Returns the case-normalized form of a title, as {@link #idIgnoreCase(String)} compares titles:
+   * lower case, with underscores as spaces.
+   * @param title title
+   * @return normalized title
+   */
+  public static String normalize(String title) {
+    return title.replace('_', ' ').trim().toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Returns the number of titles.
+   * @return the number of titles
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the id of the page with a title.
+   * @param title title
+   * @return page id, or -1 if no page has the title
+   */
+  public long id(String title) {
+    byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+    int rank = rank(bytes, exactSeeds, exactBuckets, exactRanks, size);
+    if (rank < 0 || !Arrays.equals(bytes, title(rank))) {
+      return -1;
+    }
+    return buffer.getInt(ids + 4 * rank);
+  }
+
+  /**
+   * Returns the id of a page whose title is the same as the given one ignoring case, see
+   * {@link #normalize(String)}. Of several such pages, the one with the lowest id is returned.
+   * @param title title
+   * @return page id, or -1 if no page has the title
+   */
+  public long idIgnoreCase(String title) {
+    String normalized = normalize(title);
+    byte[] bytes = normalized.getBytes(StandardCharsets.UTF_8);
+    int rank = rank(bytes, normalizedSeeds, normalizedBuckets, normalizedRanks, normalizedSize);
+    if (rank < 0 || !normalized.equals(normalize(new String(title(rank), StandardCharsets.UTF_8)))) {
+      return -1;
+    }
+    return buffer.getInt(ids + 4 * rank);
+  }
+
+  /**
+   * Returns the title of a page.
+   * @param id page id
+   * @return title, or {@code null} if the index has no page with the id
+   */
+  public String title(long id) {
+    if (id < Integer.MIN_VALUE || id > Integer.MAX_VALUE) {
+      return null;
+    }
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int value = buffer.getInt(sortedIds + 4 * middle);
+      if (value < id) {
+        low = middle + 1;
+      } else if (value > id) {
+        high = middle - 1;
+      } else {
+        return new String(title(buffer.getInt(sortedRanks + 4 * middle)), StandardCharsets.UTF_8);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  // Place in the sorted order of the title that the perfect hash function maps the key to.
+  private int rank(byte[] key, int seeds, int buckets, int ranks, int keys) {
+    if (keys == 0) {
+      return -1;
+    }
+    long hash = hash(key);
+    int seed = buffer.getInt(seeds + 4 * bucket(hash, buckets));
+    return buffer.getInt(ranks + 4 * slot(hash, seed, keys + keys / SPARE_SLOTS + 1));
+  }
+
+  // Decodes the title at a place in the sorted order, from the start of its block.
+  private byte[] title(int rank) {
+    int position = titles + buffer.getInt(blocks + 4 * (rank / blockSize));
+    int[] cursor = { position };
+    byte[] title = new byte[readVarint(cursor)];
+    readBytes(cursor, title, 0, title.length);
+    for (int i = rank % blockSize; i > 0; i--) {
+      int shared = readVarint(cursor);
+      int suffix = readVarint(cursor);
+      byte[] next = Arrays.copyOf(title, shared + suffix);
+      readBytes(cursor, next, shared, suffix);
+      title = next;
+    }
+    return title;
+  }
+
+  private int readVarint(int[] cursor) {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = buffer.get(cursor[0]++);
+      value |= (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+
+  private void readBytes(int[] cursor, byte[] bytes, int offset, int length) {
+    for (int i = 0; i < length; i++) {
+      bytes[offset + i] = buffer.get(cursor[0]++);
+    }
+  }
+
+  // 64-bit hash of a title, also used to match redirect targets to pages.
+  static long hash(byte[] key) {
+    long h = 0xcbf29ce484222325L;
+    for (byte b : key) {
+      h = (h ^ (b & 0xff)) * 0x100000001b3L;
+    }
+    return mix(h ^ key.length);
+  }
+
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static int bucket(long hash, int buckets) {
+    return (int) Long.remainderUnsigned(hash, buckets);
+  }
+
+  private static int slot(long hash, int seed, int keys) {
+    return (int) Long.remainderUnsigned(mix(hash ^ (seed * 0x9E3779B97F4A7C15L)), keys);
+  }
+
+  // Compares UTF-8 bytes as unsigned, which orders them as the code points they encode.
+  private static int compare(byte[] a, byte[] b) {
+    int length = Math.min(a.length, b.length);
+    for (int i = 0; i < length; i++) {
+      int diff = (a[i] & 0xff) - (b[i] & 0xff);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return a.length - b.length;
+  }
+
+  // Finds a seed for each bucket, largest first, so that the keys of all buckets land on distinct
+  // slots; returns the seeds, and the key of each slot or -1. A few more slots than keys make the
+  // last buckets much quicker to place than a minimal function would.
+  private static int[][] perfectHash(long[] hashes) {
+    int keys = hashes.length;
+    int buckets = Math.max(1, keys / BUCKET_SIZE);
+    int slots = keys + keys / SPARE_SLOTS + 1;
+    int[] starts = new int[buckets + 1];
+    for (long hash : hashes) {
+      starts[bucket(hash, buckets) + 1]++;
+    }
+    int largest = 0;
+    for (int i = 1; i <= buckets; i++) {
+      largest = Math.max(largest, starts[i]);
+      starts[i] += starts[i - 1];
+    }
+    int[] members = new int[keys];
+    int[] fill = Arrays.copyOf(starts, buckets);
+    for (int key = 0; key < keys; key++) {
+      members[fill[bucket(hashes[key], buckets)]++] = key;
+    }
+
+    // Buckets by decreasing size, with a counting sort.
+    int[] bySize = new int[largest + 2];
+    for (int bucket = 0; bucket < buckets; bucket++) {
+      bySize[largest - (starts[bucket + 1] - starts[bucket]) + 1]++;
+    }
+    for (int i = 1; i < bySize.length; i++) {
+      bySize[i] += bySize[i - 1];
+    }
+    int[] order = new int[buckets];
+    for (int bucket = 0; bucket < buckets; bucket++) {
+      order[bySize[largest - (starts[bucket + 1] - starts[bucket])]++] = bucket;
+    }
+
+    int[] seeds = new int[buckets];
+    int[] keysOfSlots = new int[slots];
+    Arrays.fill(keysOfSlots, -1);
+    BitSet taken = new BitSet(slots);
+    int[] candidate = new int[largest];
+    for (int bucket : order) {
+      int from = starts[bucket];
+      int count = starts[bucket + 1] - from;
+      if (count == 0) {
+        break;
+      }
+      for (int seed = 0; ; seed++) {
+        boolean free = true;
+        for (int i = 0; i < count && free; i++) {
+          candidate[i] = slot(hashes[members[from + i]], seed, slots);
+          free = !taken.get(candidate[i]);
+          for (int j = 0; j < i && free; j++) {
+            free = candidate[j] != candidate[i];
+          }
+        }
+        if (free) {
+          seeds[bucket] = seed;
+          for (int i = 0; i < count; i++) {
+            taken.set(candidate[i]);
+            keysOfSlots[candidate[i]] = members[from + i];
+          }
+          break;
+        }
+      }
+    }
+    return new int[][] { seeds, keysOfSlots };
+  }
+
+  /**
+   * Collects titles and page ids, and writes them as an index.
+   */
+  public static class Builder {
+    private final List<Page> pages = new ArrayList<>();
+    private int blockSize = 16;
+
+    private static final class Page {
+      final byte[] title;
+      final int id;
+
+      Page(byte[] title, int id) {
+        this.title = title;
+        this.id = id;
+      }
+    }
+
+    /**
+     * Sets the number of titles in each front-coded block, 16 by default. Larger blocks make a
+     * smaller index, and lookups that decode more titles.
+     * @param blockSize titles per block
+     * @return the builder, for chaining
+     */
+    public Builder withBlockSize(int blockSize) {
+      if (blockSize < 1) {
+        throw new IllegalArgumentException("Block size must be positive.");
+      }
+      this.blockSize = blockSize;
+      return this;
+    }
+
+    /**
+     * Adds a page. Of several pages with the same title, the last one added is kept.
+     * @param id page id
+     * @param title title
+     * @return the builder, for chaining
+     */
+    public Builder add(long id, String title) {
+      if (id < Integer.MIN_VALUE || id > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Page id out of range: " + id);
+      }
+      pages.add(new Page(title.getBytes(StandardCharsets.UTF_8), (int) id));
+      return this;
+    }
+
+    /**
+     * Writes the index, replacing the file atomically once it is complete.
+     * @param file index file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file) throws IOException {
+      // Sorted by title, keeping the last of equal titles: the sort is stable.
+      List<Page> sorted = new ArrayList<>(pages);
+      sorted.sort((a, b) -> compare(a.title, b.title));
+      List<Page> kept = new ArrayList<>();
+      for (int i = 0; i < sorted.size(); i++) {
+        if (i + 1 == sorted.size() || compare(sorted.get(i).title, sorted.get(i + 1).title) != 0) {
+          kept.add(sorted.get(i));
+        }
+      }
+      int size = kept.size();
+
+      // Pages by id, as the id and the place in the sorted order packed together.
+      long[] byId = new long[size];
+      for (int rank = 0; rank < size; rank++) {
+        byId[rank] = (long) kept.get(rank).id << 32 | rank;
+      }
+      Arrays.sort(byId);
+
+      // The title with the lowest id of each case-normalized form.
+      Map<String, Integer> normalized = new HashMap<>();
+      for (long entry : byId) {
+        int rank = (int) entry;
+        normalized.putIfAbsent(normalize(new String(kept.get(rank).title, StandardCharsets.UTF_8)),
+            rank);
+      }
+      long[] exactHashes = new long[size];
+      for (int rank = 0; rank < size; rank++) {
+        exactHashes[rank] = hash(kept.get(rank).title);
+      }
+      long[] normalizedHashes = new long[normalized.size()];
+      int[] normalizedTargets = new int[normalized.size()];
+      int n = 0;
+      for (Map.Entry<String, Integer> entry : normalized.entrySet()) {
+        normalizedHashes[n] = hash(entry.getKey().getBytes(StandardCharsets.UTF_8));
+        normalizedTargets[n++] = entry.getValue();
+      }
+      int[][] exact = perfectHash(exactHashes);
+      int[][] folded = perfectHash(normalizedHashes);
+
+      File tmp = new File(file.getPath() + ".tmp");
+      int[] offsets = new int[9];
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(tmp), 1 << 16))) {
+        out.write(new byte[HEADER]);
+
+        // Front-coded titles, each block starting with a title of its own.
+        int blocks = (size + blockSize - 1) / blockSize;
+        int[] blockOffsets = new int[blocks];
+        offsets[1] = out.size();
+        byte[] previous = null;
+        for (int rank = 0; rank < size; rank++) {
+          byte[] title = kept.get(rank).title;
+          if (rank % blockSize == 0) {
+            blockOffsets[rank / blockSize] = out.size() - offsets[1];
+            writeVarint(out, title.length);
+            out.write(title);
+          } else {
+            int shared = 0;
+            while (shared < previous.length && shared < title.length
+                && previous[shared] == title[shared]) {
+              shared++;
+            }
+            writeVarint(out, shared);
+            writeVarint(out, title.length - shared);
+            out.write(title, shared, title.length - shared);
+          }
+          previous = title;
+        }
+        offsets[0] = out.size();
+        writeInts(out, blockOffsets);
+
+        offsets[2] = out.size();
+        for (Page page : kept) {
+          out.writeInt(page.id);
+        }
+        offsets[3] = out.size();
+        for (long entry : byId) {
+          out.writeInt((int) (entry >> 32));
+        }
+        offsets[4] = out.size();
+        for (long entry : byId) {
+          out.writeInt((int) entry);
+        }
+        offsets[5] = out.size();
+        writeInts(out, exact[0]);
+        offsets[6] = out.size();
+        writeInts(out, exact[1]);
+        offsets[7] = out.size();
+        writeInts(out, folded[0]);
+        offsets[8] = out.size();
+        for (int key : folded[1]) {
+          out.writeInt(key < 0 ? -1 : normalizedTargets[key]);
+        }
+        if (out.size() == Integer.MAX_VALUE) {
+          throw new IOException("Title index too large.");
+        }
+      }
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER);
+      header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(blockSize)
+          .putInt(exact[0].length).putInt(folded[0].length).putInt(normalized.size());
+      for (int i = 0; i < offsets.length; i++) {
+        header.putInt(offsets[i]);
+      }
+      header.flip();
+      try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+        channel.write(header, 0);
+        channel.force(true);
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+      while ((value & ~0x7f) != 0) {
+        out.writeByte((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      out.writeByte(value);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+      for (int value : values) {
+        out.writeInt(value);
+      }
+    }
+  }
+}
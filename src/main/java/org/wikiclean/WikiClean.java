@@ -18,12 +18,26 @@ package org.wikiclean;
 
 import org.apache.commons.lang3.StringEscapeUtils;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 /**
  * Main WikiClean class for converting Wikipedia articles to plain text.
  */
 public class WikiClean {
+  /**
+   * Version of the cleaning rules, bumped whenever a change to the rules changes the text that comes
+   * out of them. Caches of cleaned text key on it.
+   */
+  public static final int RULES_VERSION = 1;
+
   /**
    * Enumeration of supported Wikipedia languages.
    */
@@ -36,9 +50,93 @@ public class WikiClean {
     ZH
   };
 
+  /**
+   * Enumeration of cleaning engines.
+   */
+  public enum Engine {
+    /** Chain of regular expressions, one pass per construct (reference implementation) */
+    REGEX,
+    /** Single-pass lexer */
+    LEXER
+  };
+
+  /**
+   * Stages of the regex engine, in their default order.
+   */
+  public enum Stage implements CleaningStage {
+    /** References */
+    REFS(WikiClean::removeRefs),
+    /** Inter-wiki links, replaced by a space */
+    INTER_WIKI_LINKS(WikiClean::removeInterWikiLinks),
+    /** IPA pronunciations in parentheses */
+    PARENTHETICALS(WikiClean::removeParentheticals),
+    /** Unit conversion templates, replaced by their value and unit */
+    UNIT_CONVERSION(WikiClean::fixUnitConversion),
+    /** Images with their captions */
+    IMAGE_CAPTIONS((cleaner, s) -> NestedConstructsRemover.removeImageCaptions(s)),
+    /** Templates and infoboxes */
+    DOUBLE_BRACES((cleaner, s) -> NestedConstructsRemover.removeDoubleBraces(s)),
+    /** HTML comments */
+    HTML_COMMENTS(WikiClean::removeHtmlComments),
+    /** Bold and italic markup */
+    EMPHASIS(WikiClean::removeEmphasis),
+    /** Heading markup */
+    HEADINGS(WikiClean::removeHeadings),
+    /** Category links */
+    CATEGORY_LINKS(WikiClean::removeCategoryLinks),
+    /** Link markup, replaced by the anchor text */
+    LINKS(WikiClean::removeLinks),
+    /** Math elements */
+    MATH(WikiClean::removeMath),
+    /** Gallery elements */
+    GALLERY(WikiClean::removeGallery),
+    /** __NOTOC__ */
+    NO_TOC(WikiClean::removeNoToc),
+    /** Indentation markup */
+    INDENTATION(WikiClean::removeIndentation),
+    /** Tables */
+    TABLES((cleaner, s) -> NestedConstructsRemover.removeTables(s)),
+    /** HTML entities, decoded twice since some are doubly encoded */
+    HTML_ENTITIES((cleaner, s) ->
+        StringEscapeUtils.unescapeHtml4(StringEscapeUtils.unescapeHtml4(s))),
+    /** HTML tags */
+    HTML_TAGS(WikiClean::removeHtmlTags),
+    /** Runs of newlines, folded into one */
+    MULTIPLE_NEWLINES(WikiClean::compressMultipleNewlines);
+
+    private final BiFunction<WikiClean, String, String> function;
+
+    Stage(BiFunction<WikiClean, String, String> function) {
+      this.function = function;
+    }
+
+    @Override
+    public String apply(WikiClean cleaner, String content) {
+      return function.apply(cleaner, content);
+    }
+  };
+
+  // Image captions immediately followed by double braces, removed in a single pass.
+  private static final CleaningStage IMAGE_CAPTIONS_AND_DOUBLE_BRACES = new CleaningStage() {
+    @Override
+    public String apply(WikiClean cleaner, String content) {
+      return NestedConstructsRemover.removeImageCaptionsAndDoubleBraces(content);
+    }
+
+    @Override
+    public String toString() {
+      return Stage.IMAGE_CAPTIONS + "+" + Stage.DOUBLE_BRACES;
+    }
+  };
+
   private boolean withTitle;
   private boolean withFooter;
   private WikiLanguage lang;
+  private Engine engine;
+  private MarkupLexer lexer;
+  private CleaningStage[] stages;
+  private boolean defaultStages;
+  private StageProfiler profiler;
 
   // Use the builder to construct.
   private WikiClean() {}
@@ -79,6 +177,56 @@ public class WikiClean {
     return this.lang;
   }
 
+  private void setEngine(Engine engine) {
+    this.engine = engine;
+    // The lexer also finds links for the regex engine.
+    this.lexer = new MarkupLexer(lang);
+  }
+
+  /**
+   * Asks this cleaner which engine it uses.
+   * @return cleaning engine
+   */
+  public Engine engine() {
+    return this.engine;
+  }
+
+  private void setStages(List<CleaningStage> list) {
+    List<CleaningStage> fused = new ArrayList<>(list.size());
+    for (int i = 0; i < list.size(); i++) {
+      if (list.get(i) == Stage.IMAGE_CAPTIONS && i + 1 < list.size()
+          && list.get(i + 1) == Stage.DOUBLE_BRACES) {
+        fused.add(IMAGE_CAPTIONS_AND_DOUBLE_BRACES);
+        i++;
+      } else {
+        fused.add(list.get(i));
+      }
+    }
+    this.stages = fused.toArray(new CleaningStage[fused.size()]);
+    this.defaultStages = list.equals(Arrays.asList(Stage.values()));
+  }
+
+  /**
+   * Asks this cleaner which stages the regex engine runs.
+   * @return stages in the order they are applied
+   */
+  public List<CleaningStage> stages() {
+    List<CleaningStage> list = new ArrayList<>(stages.length + 1);
+    for (CleaningStage stage : stages) {
+      if (stage == IMAGE_CAPTIONS_AND_DOUBLE_BRACES) {
+        list.add(Stage.IMAGE_CAPTIONS);
+        list.add(Stage.DOUBLE_BRACES);
+      } else {
+        list.add(stage);
+      }
+    }
+    return list;
+  }
+
+  private void setProfiler(StageProfiler profiler) {
+    this.profiler = profiler;
+  }
+
   private static final String XML_START_TAG_TITLE = "<title>";
   private static final String XML_END_TAG_TITLE = "</title>";
 
@@ -120,16 +268,43 @@ public class WikiClean {
    * @return Wikipedia markup
    */
   public String getWikiMarkup(String s) {
+    return getWikiMarkup((CharSequence) s).toString();
+  }
+
+  /**
+   * Returns the Wikipedia markup of a Wikipedia article as a view over the article, without
+   * copying it.
+   * @param s Wikipedia article
+   * @return Wikipedia markup
+   */
+  public CharSequence getWikiMarkup(CharSequence s) {
     // parse out actual text of article
-    int textStart = s.indexOf(XML_START_TAG_TEXT);
-    int textEnd = s.indexOf(XML_END_TAG_TEXT, textStart);
+    int textStart = indexOf(s, XML_START_TAG_TEXT, 0);
+    int textEnd = indexOf(s, XML_END_TAG_TEXT, textStart);
 
     if (textStart == -1 || textStart + 27 > textEnd) {
       // Returning empty string is preferable to returning null to prevent NPE.
       return "";
     }
 
-    return s.substring(textStart + 27, textEnd);
+    return CharBuffer.wrap(s, textStart + 27, textEnd);
+  }
+
+  private static int indexOf(CharSequence s, String target, int from) {
+    if (s instanceof String) {
+      return ((String) s).indexOf(target, from);
+    }
+    int last = s.length() - target.length();
+    for (int i = Math.max(from, 0); i <= last; i++) {
+      int j = 0;
+      while (j < target.length() && s.charAt(i + j) == target.charAt(j)) {
+        j++;
+      }
+      if (j == target.length()) {
+        return i;
+      }
+    }
+    return -1;
   }
 
   /**
@@ -138,42 +313,250 @@ public class WikiClean {
    * @return cleaned output
    */
   public String clean(String page) {
-    String content = getWikiMarkup(page);
+    StringBuilder out = new StringBuilder(page.length() / 2);
+    try {
+      clean(page, out);
+    } catch (IOException e) {
+      // Appending to a StringBuilder does not fail.
+      throw new UncheckedIOException(e);
+    }
+    return out.toString();
+  }
 
-    if (!withFooter) {
-      content = removeFooter(content);
+  /**
+   * Cleans a Wikipedia article and appends the cleaned output, e.g., to a reused StringBuilder or
+   * to a buffered Writer.
+   * @param page Wikipedia article
+   * @param out where the cleaned output is appended
+   * @throws IOException if appending to the output fails
+   */
+  public void clean(CharSequence page, Appendable out) throws IOException {
+    if (withTitle) {
+      int start = indexOf(page, XML_START_TAG_TITLE, 0);
+      int end = indexOf(page, XML_END_TAG_TITLE, start);
+      if (start >= 0 && end >= 0) {
+        out.append(StringEscapeUtils.unescapeHtml4(page.subSequence(start + 7, end).toString()));
+      }
+      out.append("\n\n");
     }
 
-    content = removeRefs(content);
-    content = removeInterWikiLinks(content);
-    content = removeParentheticals(content);
-    content = fixUnitConversion(content);
-    content = ImageCaptionsRemover.remove(content);
-    content = DoubleBracesRemover.remove(content);
-    content = removeHtmlComments(content);
-    content = removeEmphasis(content);
-    content = removeHeadings(content);
-    content = removeCategoryLinks(content);
-    content = removeLinks(content);
-    content = removeMath(content);
-    content = removeGallery(content);
-    content = removeNoToc(content);
-    content = removeIndentation(content);
+    cleanMarkup(getWikiMarkup(page), out);
+  }
 
-    content = TableRemover.remove(content);
+  /**
+   * Cleans a Wikipedia page read from a dump.
+   * @param page Wikipedia page
+   * @return cleaned output
+   */
+  public String clean(WikiPage page) {
+    StringBuilder out = new StringBuilder(page.textLength() / 2);
+    try {
+      clean(page, out);
+    } catch (IOException e) {
+      // Appending to a StringBuilder does not fail.
+      throw new UncheckedIOException(e);
+    }
+    return out.toString();
+  }
 
-    // For some reason, some HTML entities are doubly encoded.
-    content = StringEscapeUtils.unescapeHtml4(StringEscapeUtils.unescapeHtml4(content));
-    content = removeHtmlTags(content);
+  /**
+   * Cleans a Wikipedia page read from a dump and appends the cleaned output. Only the title and the
+   * text of the page are decoded.
+   * @param page Wikipedia page
+   * @param out where the cleaned output is appended
+   * @throws IOException if appending to the output fails
+   */
+  public void clean(WikiPage page, Appendable out) throws IOException {
+    if (withTitle) {
+      out.append(page.title());
+      out.append("\n\n");
+    }
 
-    // Finally, fold multiple newlines.
-    content = compressMultipleNewlines(content);
+    cleanMarkup(page.text(), out);
+  }
 
-    if (withTitle) {
-      return getTitle(page) + "\n\n" + content.trim();
+  /**
+   * Cleans a Wikipedia page read from a dump, appends the cleaned output, and reports the links of
+   * the page, e.g., to build a link graph in the same pass. Offsets of anchors are in the output
+   * of this call, title included.
+   * @param page Wikipedia page
+   * @param out where the cleaned output is appended
+   * @param links receives the links of the page
+   * @throws IOException if appending to the output fails
+   * @throws IllegalStateException if this cleaner runs other than the default stages
+   */
+  public void clean(WikiPage page, Appendable out, LinkCollector links) throws IOException {
+    if (!withTitle) {
+      cleanMarkup(page.text(), out, links);
+      return;
+    }
+    String title = page.title();
+    out.append(title);
+    out.append("\n\n");
+    int shift = title.length() + 2;
+    cleanMarkup(page.text(), out, (target, anchor, offset) ->
+        links.link(target, anchor, offset + shift));
+  }
+
+  /**
+   * Cleans a Wikipedia page read from a dump, appends the cleaned output, and reports its links
+   * and categories, e.g., to build a link graph and a category index in the same pass.
+   * Categories are reported in the order they appear, from the whole page, since they usually
+   * follow the footer that is removed.
+   * @param page Wikipedia page
+   * @param out where the cleaned output is appended
+   * @param links receives the links of the page, or null
+   * @param categories receives the names of the categories of the page, or null
+   * @throws IOException if appending to the output fails
+   * @throws IllegalStateException if links are reported and this cleaner runs other than the
+   *     default stages
+   */
+  public void clean(WikiPage page, Appendable out, LinkCollector links,
+      Consumer<String> categories) throws IOException {
+    if (links == null) {
+      clean(page, out);
+    } else {
+      clean(page, out, links);
+    }
+    if (categories != null) {
+      categories(page.text(), categories);
+    }
+  }
+
+  /**
+   * Reports the categories of an article, i.e., the targets of its category links, with sort keys
+   * dropped and names normalized as titles. Besides the local name of the category namespace,
+   * the canonical {@code Category:} is recognized on every wiki.
+   * @param wikitext Wikipedia markup, decoded as by {@link WikiPage#text()}
+   * @param categories receives the names of the categories, in the order they appear
+   */
+  public void categories(CharSequence wikitext, Consumer<String> categories) {
+    int n = wikitext.length();
+    int i = indexOf(wikitext, "[[", 0);
+    while (i >= 0) {
+      int from = categoryStart(wikitext, i + 2);
+      if (from < 0) {
+        i = indexOf(wikitext, "[[", i + 2);
+        continue;
+      }
+      // As for CATEGORY_LINKS, the link ends at the first closing bracket.
+      int end = from;
+      while (end < n && wikitext.charAt(end) != ']') {
+        end++;
+      }
+      if (end + 1 >= n || wikitext.charAt(end + 1) != ']') {
+        i = indexOf(wikitext, "[[", from);
+        continue;
+      }
+      int pipe = from;
+      while (pipe < end && wikitext.charAt(pipe) != '|') {
+        pipe++;
+      }
+      String name = RedirectExtractor.normalize(wikitext.subSequence(from, pipe).toString());
+      if (!name.isEmpty()) {
+        categories.accept(name);
+      }
+      i = indexOf(wikitext, "[[", end + 2);
+    }
+  }
+
+  // Returns where the name starts if a category namespace, in any case, starts at i, or -1.
+  private int categoryStart(CharSequence s, int i) {
+    for (String label : CATEGORY_NAMESPACES[lang.ordinal()]) {
+      if (i + label.length() > s.length()) {
+        continue;
+      }
+      int j = 0;
+      while (j < label.length() && Character.toLowerCase(s.charAt(i + j)) == label.charAt(j)) {
+        j++;
+      }
+      if (j == label.length()) {
+        return i + j;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Cleans Wikipedia markup, i.e., the content of the text element of an article, and appends the
+   * cleaned output.
+   * @param wikitext Wikipedia markup
+   * @param out where the cleaned output is appended
+   * @throws IOException if appending to the output fails
+   */
+  public void cleanMarkup(CharSequence wikitext, Appendable out) throws IOException {
+    if (profiler != null) {
+      profiler.addInput(wikitext.length());
+    }
+
+    long start = profiler == null ? 0 : System.nanoTime();
+    int end = withFooter ? wikitext.length() : footerStart(wikitext);
+    if (profiler != null && !withFooter) {
+      start = record("FOOTER", start);
+    }
+
+    if (engine.equals(Engine.LEXER)) {
+      lexer.clean(end == wikitext.length() ? wikitext : wikitext.subSequence(0, end), out);
+      if (profiler != null) {
+        record("LEXER", start);
+      }
+    } else {
+      out.append(cleanWithRegexes(wikitext.subSequence(0, end).toString(), start));
+    }
+  }
+
+  /**
+   * Cleans Wikipedia markup, appends the cleaned output, and reports the links of the article.
+   * Links are found by the lexer whatever the engine, since the regex engine loses track of where
+   * anchors end up; with the default stages, both engines give the same output.
+   * @param wikitext Wikipedia markup
+   * @param out where the cleaned output is appended
+   * @param links receives the links of the article
+   * @throws IOException if appending to the output fails
+   * @throws IllegalStateException if this cleaner runs other than the default stages
+   */
+  public void cleanMarkup(CharSequence wikitext, Appendable out, LinkCollector links)
+      throws IOException {
+    if (!defaultStages) {
+      throw new IllegalStateException("Links can only be reported with the default stages.");
+    }
+    if (profiler != null) {
+      profiler.addInput(wikitext.length());
+    }
+
+    long start = profiler == null ? 0 : System.nanoTime();
+    int end = withFooter ? wikitext.length() : footerStart(wikitext);
+    if (profiler != null && !withFooter) {
+      start = record("FOOTER", start);
+    }
+
+    lexer.clean(end == wikitext.length() ? wikitext : wikitext.subSequence(0, end), out, links);
+    if (profiler != null) {
+      record("LEXER", start);
+    }
+  }
+
+  // The reference implementation: one pass over the article per construct.
+  private String cleanWithRegexes(String content, long start) {
+    for (CleaningStage stage : stages) {
+      content = stage.apply(this, content);
+      if (profiler != null) {
+        start = record(stage.toString(), start);
+      }
+    }
+
+    content = content.trim();
+    if (profiler != null) {
+      record("TRIM", start);
     }
+    return content;
+  }
 
-    return content.trim();
+  // Charges the time since start to a stage and returns the current time.
+  private long record(String stage, long start) {
+    long now = System.nanoTime();
+    profiler.record(stage, now - start);
+    return now;
   }
 
   private static final Pattern UNIT_CONVERSION1 =
@@ -242,58 +625,59 @@ public class WikiClean {
     return MULTIPLE_NEWLINES.matcher(s).replaceAll("\n\n");
   }
 
-  private static final Pattern FOOTER_EN1 = Pattern.compile("==\\s*See also\\s*==.*",
-      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-  private static final Pattern FOOTER_EN2 = Pattern.compile("==\\s*References\\s*==.*",
-      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-  private static final Pattern FOOTER_EN3 = Pattern.compile("==\\s*Further reading\\s*==.*",
-      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-  private static final Pattern FOOTER_EN4 = Pattern.compile("==\\s*External Links\\s*==.*",
-      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-  private static final Pattern FOOTER_EN5 = Pattern.compile("==\\s*Related pages\\s*==.*",
-      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+  // Section headings that start the footer, matched case-insensitively: ==\s*X\s*==.
+  private static final String[] FOOTERS_EN = { "See also", "References", "Further reading",
+      "External Links", "Related pages" };
+  private static final String[] FOOTERS_DE = { "Referenzen", "Weblinks", "Literatur",
+      "Einzelnachweise", "Siehe auch", "Quellen" };
+  private static final String[] FOOTERS_ZH = { "参见", "参考书目", "参考网址" };
 
-  private static final Pattern FOOTER_DE1 = Pattern.compile("==\\s*Referenzen\\s*==.*",
-      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-  private static final Pattern FOOTER_DE2 = Pattern.compile("==\\s*Weblinks\\s*==.*",
-      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-  private static final Pattern FOOTER_DE3 = Pattern.compile("==\\s*Literatur\\s*==.*",
-      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-  private static final Pattern FOOTER_DE4 = Pattern.compile("==\\s*Einzelnachweise\\s*==.*",
-      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-  private static final Pattern FOOTER_DE5 = Pattern.compile("==\\s*Siehe auch\\s*==.*",
-      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-  private static final Pattern FOOTER_DE6 = Pattern.compile("==\\s*Quellen\\s*==.*",
-      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+  private String removeFooter(String s) {
+    return s.substring(0, footerStart(s));
+  }
 
-  private static final Pattern FOOTER_ZH1 = Pattern.compile("==\\s*参见\\s*==.*",
-      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-  private static final Pattern FOOTER_ZH2 = Pattern.compile("==\\s*参考书目\\s*==.*",
-      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-  private static final Pattern FOOTER_ZH3 = Pattern.compile("==\\s*参考网址\\s*==.*",
-      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+  // Scans the headings once and returns the start of the earliest footer heading, if any.
+  private int footerStart(CharSequence s) {
+    String[] footers = lang.equals(WikiLanguage.DE) ? FOOTERS_DE :
+        lang.equals(WikiLanguage.ZH) ? FOOTERS_ZH : FOOTERS_EN;
+
+    int i = indexOf(s, "==", 0);
+    while (i != -1) {
+      int from = skipWhitespace(s, i + 2);
+      for (String footer : footers) {
+        if (regionMatchesIgnoreCase(s, from, footer)) {
+          int to = skipWhitespace(s, from + footer.length());
+          if (to + 1 < s.length() && s.charAt(to) == '=' && s.charAt(to + 1) == '=') {
+            return i;
+          }
+        }
+      }
+      i = indexOf(s, "==", i + 1);
+    }
 
-  private String removeFooter(String s) {
-    if (lang.equals(WikiLanguage.EN)) {
-      s = FOOTER_EN1.matcher(s).replaceAll("");
-      s = FOOTER_EN2.matcher(s).replaceAll("");
-      s = FOOTER_EN3.matcher(s).replaceAll("");
-      s = FOOTER_EN4.matcher(s).replaceAll("");
-      s = FOOTER_EN5.matcher(s).replaceAll("");
-    } else if (lang.equals(WikiLanguage.DE)) {
-      s = FOOTER_DE1.matcher(s).replaceAll("");
-      s = FOOTER_DE2.matcher(s).replaceAll("");
-      s = FOOTER_DE3.matcher(s).replaceAll("");
-      s = FOOTER_DE4.matcher(s).replaceAll("");
-      s = FOOTER_DE5.matcher(s).replaceAll("");
-      s = FOOTER_DE6.matcher(s).replaceAll("");
-    } else if (lang.equals(WikiLanguage.ZH)) {
-      s = FOOTER_ZH1.matcher(s).replaceAll("");
-      s = FOOTER_ZH2.matcher(s).replaceAll("");
-      s = FOOTER_ZH3.matcher(s).replaceAll("");
+    return s.length();
+  }
+
+  private static int skipWhitespace(CharSequence s, int i) {
+    while (i < s.length() && " \t\n\u000B\f\r".indexOf(s.charAt(i)) != -1) {
+      i++;
     }
+    return i;
+  }
 
-    return s;
+  // Same as Pattern.CASE_INSENSITIVE, which only folds the case of US-ASCII characters.
+  private static boolean regionMatchesIgnoreCase(CharSequence s, int i, String label) {
+    if (i + label.length() > s.length()) {
+      return false;
+    }
+    for (int j = 0; j < label.length(); j++) {
+      char c = s.charAt(i + j);
+      char d = label.charAt(j);
+      if (c != d && !(c < 128 && d < 128 && Character.toLowerCase(c) == Character.toLowerCase(d))) {
+        return false;
+      }
+    }
+    return true;
   }
 
   private static final Pattern CATEGORY_LINKS_EN = Pattern
@@ -301,6 +685,10 @@ public class WikiClean {
   private static final Pattern CATEGORY_LINKS_DE = Pattern
       .compile("\\[\\[Kategorie:([^\\]]+)\\]\\]");
 
+  // Names of the category namespace by language, in lower case, canonical name first.
+  private static final String[][] CATEGORY_NAMESPACES = {
+      { "category:" }, { "category:", "kategorie:" }, { "category:", "分类:", "分類:" } };
+
   private String removeCategoryLinks(String s) {
     if (lang.equals(WikiLanguage.EN)) {
       return CATEGORY_LINKS_EN.matcher(s).replaceAll("");
@@ -365,181 +753,190 @@ public class WikiClean {
     return INTER_WIKI_LINKS.matcher(s).replaceAll(" ");
   }
 
-  private static final class ImageCaptionsRemover {
-    private static final int DEFAULT_NO_BRACKET = 0;
-    private static final int STATE_1CLOSE_BRACKET = 1;
-    private static final int STATE_1OPEN_BRACKET = 2;
+  // Removes image captions, double braces and tables, which may all be nested, e.g., links in
+  // captions or templates in infoboxes. Each family is a filter in a chain of character filters, so
+  // the input is scanned once and every character that survives is appended once to the output.
+  static final class NestedConstructsRemover {
+    private static final String[] IMAGE_LABELS = { "[[File:", "[[Image:", "[[Datei" // We see this in de wikipedia.
+    };
 
-    private static String remove(String s) {
-      String[] labels = { "[[File:", "[[Image:", "[[Datei" // We see this in de wikipedia.
-      };
-      for (String label : labels) {
-        s = removeLabel(s, label);
-      }
-      return s;
-    }
-
-    // This method encodes a finite state machine to handle links in caption, which result in
-    // nested [[ ... [[foo]] ... ]] constructs.
-    private static String removeLabel(String s, String label) {
-      int i = s.indexOf(label);
-      while (i != -1) {
-        int state = DEFAULT_NO_BRACKET;
-        int level = 1;
-        int cur = i + label.length();
-
-        while (cur < s.length()) {
-          if (state == STATE_1OPEN_BRACKET && s.charAt(cur) == '[') {
-            level++;
-            state = DEFAULT_NO_BRACKET;
-          }
-          // If there's only one close, move back to default state.
-          if (state == STATE_1OPEN_BRACKET) {
-            state = DEFAULT_NO_BRACKET;
-          }
-          if (s.charAt(cur) == '[') {
-            state = STATE_1OPEN_BRACKET;
-          }
+    private static String removeImageCaptions(String s) {
+      return remove(s, true, false, false);
+    }
 
-          if (state == STATE_1CLOSE_BRACKET && s.charAt(cur) == ']') {
-            level--;
-            if (level == 0) {
-              break;
-            }
-            state = DEFAULT_NO_BRACKET;
-          } else {
-            // If there's only one close, move back to default state.
-            if (state == STATE_1CLOSE_BRACKET) {
-              state = DEFAULT_NO_BRACKET;
-            }
-            if (s.charAt(cur) == ']') {
-              state = STATE_1CLOSE_BRACKET;
-            }
-          }
-          cur++;
-        }
+    private static String removeDoubleBraces(String s) {
+      return remove(s, false, true, false);
+    }
+
+    private static String removeImageCaptionsAndDoubleBraces(String s) {
+      return remove(s, true, true, false);
+    }
 
-        if (cur == s.length()) {
-          return s.substring(0, i);
+    private static String removeTables(String s) {
+      return remove(s, false, false, true);
+    }
+
+    // The filters see the output of the filters before them, i.e., image captions are removed by
+    // label in turn, then double braces, then tables.
+    private static String remove(String s, boolean captions, boolean braces, boolean tables) {
+      StringBuilder out = new StringBuilder(s.length());
+      Filter filter = new Output(out);
+      if (tables) {
+        filter = new Remover("{|", '{', '|', '|', '}', filter);
+      }
+      if (braces) {
+        filter = new Remover("{{", '{', '{', '}', '}', filter);
+      }
+      if (captions) {
+        for (int i = IMAGE_LABELS.length - 1; i >= 0; i--) {
+          filter = new Remover(IMAGE_LABELS[i], '[', '[', ']', ']', filter);
         }
+      }
 
-        s = s.substring(0, i) + s.substring(cur + 1, s.length());
-        i = s.indexOf(label, i);
+      for (int i = 0; i < s.length(); i++) {
+        filter.put(s.charAt(i));
       }
+      filter.end();
+      return out.toString();
+    }
+
+    private abstract static class Filter {
+      abstract void put(char c);
 
-      return s;
+      abstract void end();
     }
-  }
 
-  private static final class DoubleBracesRemover {
-    private static final int DEFAULT_NO_BRACE = 0;
-    private static final int STATE_1CLOSE_BRACE = 1;
-    private static final int STATE_1OPEN_BRACE = 2;
+    private static final class Output extends Filter {
+      private final StringBuilder out;
 
-    // This method encodes a finite state machine to handle nested double braces (e.g., in
-    // infoboxes).
-    private static String remove(String s) {
-      int i = s.indexOf("{{");
-      while (i != -1) {
-        int state = DEFAULT_NO_BRACE;
-        int level = 1;
-        int cur = i + 2;
+      Output(StringBuilder out) {
+        this.out = out;
+      }
 
-        while (cur < s.length()) {
-          if (state == STATE_1OPEN_BRACE && s.charAt(cur) == '{') {
-            level++;
-            state = DEFAULT_NO_BRACE;
-          }
-          // If there's only one close, move back to default state.
-          if (state == STATE_1OPEN_BRACE) {
-            state = DEFAULT_NO_BRACE;
-          }
-          if (s.charAt(cur) == '{') {
-            state = STATE_1OPEN_BRACE;
+      @Override
+      void put(char c) {
+        out.append(c);
+      }
+
+      @Override
+      void end() {
+      }
+    }
+
+    // Drops everything from the label to the end of the construct it opens. The content of a
+    // construct is never passed on: it is either removed when the construct closes or, if the
+    // construct is unbalanced, everything until the end is removed.
+    private static final class Remover extends Filter {
+      private final String label;
+      private final char open1, open2, close1, close2;
+      private final Filter next;
+      private int matched = 0;
+      private Nesting nesting = null;
+
+      Remover(String label, char open1, char open2, char close1, char close2, Filter next) {
+        this.label = label;
+        this.open1 = open1;
+        this.open2 = open2;
+        this.close1 = close1;
+        this.close2 = close2;
+        this.next = next;
+      }
+
+      @Override
+      void put(char c) {
+        if (nesting != null) {
+          if (nesting.next(c)) {
+            nesting = null;
           }
+          return;
+        }
 
-          if (state == STATE_1CLOSE_BRACE && s.charAt(cur) == '}') {
-            level--;
-            if (level == 0) {
-              break;
-            }
-            state = DEFAULT_NO_BRACE;
-          } else {
-            // If there's only one close, move back to default state.
-            if (state == STATE_1CLOSE_BRACE) {
-              state = DEFAULT_NO_BRACE;
-            }
-            if (s.charAt(cur) == '}') {
-              state = STATE_1CLOSE_BRACE;
-            }
+        if (c == label.charAt(matched)) {
+          matched++;
+          if (matched == label.length()) {
+            matched = 0;
+            nesting = new Nesting(open1, open2, close1, close2);
           }
-          cur++;
+          return;
         }
 
-        if (cur == s.length()) {
-          return s.substring(0, i);
+        if (matched == 0) {
+          next.put(c);
+          return;
         }
 
-        s = s.substring(0, i) + s.substring(cur + 1, s.length());
-        i = s.indexOf("{{", i);
+        // A partial match of the label: pass on its first character and look for the label again
+        // from the second.
+        int pending = matched;
+        matched = 0;
+        next.put(label.charAt(0));
+        for (int i = 1; i < pending; i++) {
+          put(label.charAt(i));
+        }
+        put(c);
       }
 
-      return s;
+      @Override
+      void end() {
+        if (nesting == null) {
+          for (int i = 0; i < matched; i++) {
+            next.put(label.charAt(i));
+          }
+        }
+        matched = 0;
+        next.end();
+      }
     }
-  }
 
-  private static final class TableRemover {
-    private static final int DEFAULT = 0;
-    private static final int STATE_PIPE = 1;
-    private static final int STATE_1OPEN_BRACE = 2;
+    // This class encodes a finite state machine to handle nested constructs, e.g., [[ ... [[foo]]
+    // ... ]] with open and close both two characters long.
+    static final class Nesting {
+      private static final int DEFAULT = 0;
+      private static final int STATE_1CLOSE = 1;
+      private static final int STATE_1OPEN = 2;
+
+      private final char open1, open2, close1, close2;
+      private int state = DEFAULT;
+      private int level = 1;
+
+      Nesting(char open1, char open2, char close1, char close2) {
+        this.open1 = open1;
+        this.open2 = open2;
+        this.close1 = close1;
+        this.close2 = close2;
+      }
 
-    private static String remove(String s) {
-      int i = s.indexOf("{|");
-      while (i != -1) {
-        int state = DEFAULT;
-        int level = 1;
-        int cur = i + 2;
+      // Returns true once the outermost construct is closed.
+      boolean next(char c) {
+        if (state == STATE_1OPEN && c == open2) {
+          level++;
+          state = DEFAULT;
+        }
+        // If there's only one open, move back to default state.
+        if (state == STATE_1OPEN) {
+          state = DEFAULT;
+        }
+        if (c == open1) {
+          state = STATE_1OPEN;
+        }
 
-        while (cur < s.length()) {
-          if (state == STATE_1OPEN_BRACE && s.charAt(cur) == '|') {
-            level++;
-            state = DEFAULT;
+        if (state == STATE_1CLOSE && c == close2) {
+          level--;
+          if (level == 0) {
+            return true;
           }
+          state = DEFAULT;
+        } else {
           // If there's only one close, move back to default state.
-          if (state == STATE_1OPEN_BRACE) {
+          if (state == STATE_1CLOSE) {
             state = DEFAULT;
           }
-          if (s.charAt(cur) == '{') {
-            state = STATE_1OPEN_BRACE;
+          if (c == close1) {
+            state = STATE_1CLOSE;
           }
-
-          if (state == STATE_PIPE && s.charAt(cur) == '}') {
-            level--;
-            if (level == 0) {
-              break;
-            }
-            state = DEFAULT;
-          } else {
-            // If there's a pipe but no close brace, move back to default state.
-            if (state == STATE_PIPE) {
-              state = DEFAULT;
-            }
-            if (s.charAt(cur) == '|') {
-              state = STATE_PIPE;
-            }
-          }
-          cur++;
-        }
-
-        if (cur == s.length()) {
-          return s.substring(0, i);
         }
-
-        s = s.substring(0, i) + s.substring(cur + 1, s.length());
-        i = s.indexOf("{|", i);
+        return false;
       }
-
-      return s;
     }
   }
 
@@ -550,6 +947,9 @@ public class WikiClean {
     private boolean withTitle = false;
     private boolean withFooter = false;
     private WikiLanguage lang = WikiLanguage.EN;
+    private Engine engine = Engine.REGEX;
+    private List<CleaningStage> stages = new ArrayList<>(Arrays.asList(Stage.values()));
+    private StageProfiler profiler = null;
 
     /**
      * Class constructor.
@@ -586,6 +986,48 @@ public class WikiClean {
       return this;
     }
 
+    /**
+     * Sets the cleaning engine.
+     * @param engine cleaning engine
+     * @return self for method chaining
+     */
+    public Builder withEngine(Engine engine) {
+      this.engine = engine;
+      return this;
+    }
+
+    /**
+     * Sets the stages of the regex engine, in the order they are applied. Stages that are left
+     * out are disabled. The lexer engine always applies all of {@link Stage}, in their default
+     * order.
+     * @param stages stages, built-in or custom
+     * @return self for method chaining
+     */
+    public Builder withStages(CleaningStage... stages) {
+      this.stages = new ArrayList<>(Arrays.asList(stages));
+      return this;
+    }
+
+    /**
+     * Disables stages of the regex engine.
+     * @param stages stages to disable
+     * @return self for method chaining
+     */
+    public Builder withoutStages(CleaningStage... stages) {
+      this.stages.removeAll(Arrays.asList(stages));
+      return this;
+    }
+
+    /**
+     * Sets a profiler that accumulates the time spent in each stage.
+     * @param profiler profiler, or null to disable profiling
+     * @return self for method chaining
+     */
+    public Builder withProfiler(StageProfiler profiler) {
+      this.profiler = profiler;
+      return this;
+    }
+
     /**
      * Constructs the {@link WikiClean} instance.
      * @return the {@link WikiClean} instance
@@ -595,6 +1037,12 @@ public class WikiClean {
       clean.setWithTitle(withTitle);
       clean.setWithFooter(withFooter);
       clean.setLanguage(lang);
+      clean.setEngine(engine);
+      if (engine.equals(Engine.LEXER) && !stages.equals(Arrays.asList(Stage.values()))) {
+        throw new IllegalStateException("Stages can only be configured for the regex engine.");
+      }
+      clean.setStages(stages);
+      clean.setProfiler(profiler);
 
       return clean;
     }
@@ -0,0 +1,436 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A page of a Wikipedia dump. The page is kept as the UTF-8 bytes of its XML, and the positions of
+ * its fields are found in a single scan when the page is read. Fields are only decoded when they
+ * are asked for. Fields of a revision are those of the last revision of the page, the newest one.
+ */
+public final class WikiPage {
+  /**
+   * Kinds of pages, told apart without cleaning the page.
+   */
+  public enum Type {
+    /** Article in the main namespace */
+    ARTICLE,
+    /** Redirect to another page */
+    REDIRECT,
+    /** Disambiguation page in the main namespace */
+    DISAMBIGUATION,
+    /** Page outside the main namespace, e.g., a talk, user or category page */
+    NAMESPACE
+  }
+
+  // Redirect keywords in EN, DE and ZH, matched at the start of the markup ignoring ASCII case.
+  private static final byte[][] REDIRECTS = bytes("#redirect", "#weiterleitung", "#重定向");
+  // Names of disambiguation templates, matched ignoring ASCII case.
+  private static final byte[][] DISAMBIGUATIONS = bytes("disambiguation", "disambig", "disamb",
+      "dab", "hndis", "geodis", "numberdis", "letter disambiguation", "begriffsklärung",
+      "消歧义", "disambig-cleanup");
+  private static final String[] DISAMBIGUATION_TITLES = { "(disambiguation)",
+      "(Begriffsklärung)", "(消歧义)" };
+
+  private static final int TITLE = 0;
+  private static final int NAMESPACE = 1;
+  private static final int ID = 2;
+  private static final int REDIRECT = 3;
+  private static final int REVISION_ID = 4;
+  private static final int TIMESTAMP = 5;
+  private static final int SHA1 = 6;
+  private static final int TEXT = 7;
+  private static final int FIELDS = 8;
+
+  private final byte[] bytes;
+  private final int offset;
+  private final int length;
+  // Start and end of each field in the bytes, or -1 if the page does not have it.
+  private final int[] fields;
+  private final int namespace;
+
+  // Decoded on demand. Racy, but Strings are immutable, so at worst a field is decoded twice.
+  private String title;
+  private String redirect;
+  private Type type;
+
+  private WikiPage(byte[] bytes, int offset, int length, int[] fields, int namespace) {
+    this.bytes = bytes;
+    this.offset = offset;
+    this.length = length;
+    this.fields = fields;
+    this.namespace = namespace;
+  }
+
+  /**
+   * Creates a page from its XML.
+   * @param xml page XML, from {@code <page>} to {@code </page>}
+   * @return the page
+   */
+  public static WikiPage of(String xml) {
+    byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+    return parse(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Creates a page over part of a buffer, without copying it.
+   * @param buffer buffer holding the page XML
+   * @param offset start of the page in the buffer
+   * @param length length of the page in bytes
+   * @return the page
+   */
+  static WikiPage parse(byte[] buffer, int offset, int length) {
+    int[] fields = new int[2 * FIELDS];
+    Arrays.fill(fields, -1);
+    boolean revision = false;
+
+    int end = offset + length;
+    for (int i = indexOf(buffer, '<', offset, end); i >= 0; i = indexOf(buffer, '<', i + 1, end)) {
+      if (startsWith(buffer, i, end, "<title>")) {
+        i = set(fields, TITLE, buffer, i + 7, end);
+      } else if (startsWith(buffer, i, end, "<ns>")) {
+        i = set(fields, NAMESPACE, buffer, i + 4, end);
+      } else if (startsWith(buffer, i, end, "<id>")) {
+        int field = revision ? REVISION_ID : ID;
+        if (fields[2 * field] < 0) {
+          i = set(fields, field, buffer, i + 4, end);
+        }
+      } else if (startsWith(buffer, i, end, "<revision>")) {
+        // Only the last revision counts, the newest in the dumps, which list them oldest first.
+        revision = true;
+        Arrays.fill(fields, 2 * REVISION_ID, 2 * FIELDS, -1);
+      } else if (startsWith(buffer, i, end, "<timestamp>")) {
+        i = set(fields, TIMESTAMP, buffer, i + 11, end);
+      } else if (startsWith(buffer, i, end, "<sha1>")) {
+        i = set(fields, SHA1, buffer, i + 6, end);
+      } else if (startsWith(buffer, i, end, "<redirect")) {
+        int close = indexOf(buffer, '>', i, end);
+        int value = indexOf(buffer, "title=\"", i, close < 0 ? end : close);
+        if (value >= 0) {
+          fields[2 * REDIRECT] = value + 7;
+          fields[2 * REDIRECT + 1] = Math.max(value + 7, indexOf(buffer, '"', value + 7, end));
+        } else {
+          fields[2 * REDIRECT] = fields[2 * REDIRECT + 1] = i;
+        }
+      } else if (startsWith(buffer, i, end, "<text")
+          && i + 5 < end && (buffer[i + 5] == ' ' || buffer[i + 5] == '>' || buffer[i + 5] == '/')) {
+        int close = indexOf(buffer, '>', i, end);
+        if (close < 0) {
+          break;
+        }
+        if (buffer[close - 1] == '/') {
+          fields[2 * TEXT] = fields[2 * TEXT + 1] = close + 1;
+        } else {
+          // The text is escaped, so the next tag closes it.
+          i = set(fields, TEXT, buffer, close + 1, end);
+        }
+      }
+    }
+
+    return new WikiPage(buffer, offset, length, fields, parseInt(buffer, fields[2 * NAMESPACE],
+        fields[2 * NAMESPACE + 1]));
+  }
+
+  // Records a field running from the start to the next tag, and returns where the tag is.
+  private static int set(int[] fields, int field, byte[] buffer, int start, int end) {
+    int close = indexOf(buffer, '<', start, end);
+    if (close < 0) {
+      close = end;
+    }
+    fields[2 * field] = start;
+    fields[2 * field + 1] = close;
+    return close - 1;
+  }
+
+  /**
+   * Returns a copy of this page that does not share its bytes with the buffer it was read from.
+   * @return a copy of this page
+   */
+  WikiPage copy() {
+    int[] shifted = fields.clone();
+    for (int i = 0; i < shifted.length; i++) {
+      if (shifted[i] >= 0) {
+        shifted[i] -= offset;
+      }
+    }
+    WikiPage copy = new WikiPage(Arrays.copyOfRange(bytes, offset, offset + length), 0, length,
+        shifted, namespace);
+    copy.title = title;
+    copy.redirect = redirect;
+    copy.type = type;
+    return copy;
+  }
+
+  /**
+   * Returns the page id.
+   * @return the page id, or 0 if the page does not have one
+   */
+  public long id() {
+    return parseLong(bytes, fields[2 * ID], fields[2 * ID + 1]);
+  }
+
+  /**
+   * Returns the namespace of the page.
+   * @return the namespace of the page, 0 (articles) if the page does not have one
+   */
+  public int namespace() {
+    return namespace;
+  }
+
+  /**
+   * Returns the title of the page.
+   * @return the title of the page
+   */
+  public String title() {
+    if (title == null) {
+      title = StringEscapeUtils.unescapeHtml4(decode(TITLE));
+    }
+    return title;
+  }
+
+  /**
+   * Asks whether this page is a redirect, as marked by the {@code <redirect>} element.
+   * @return whether or not this page is a redirect
+   */
+  public boolean isRedirect() {
+    return fields[2 * REDIRECT] >= 0;
+  }
+
+  /**
+   * Returns the title of the page this page redirects to.
+   * @return the title of the redirect target, or an empty string if this page is not a redirect
+   */
+  public String redirect() {
+    if (redirect == null) {
+      redirect = StringEscapeUtils.unescapeHtml4(decode(REDIRECT));
+    }
+    return redirect;
+  }
+
+  /**
+   * Classifies the page from its namespace, its {@code <redirect>} element, the start of its
+   * markup and its disambiguation templates, without cleaning it.
+   * @return the kind of page
+   */
+  public Type type() {
+    if (type == null) {
+      type = classify();
+    }
+    return type;
+  }
+
+  private Type classify() {
+    if (namespace != 0) {
+      return Type.NAMESPACE;
+    }
+    if (isRedirect()) {
+      return Type.REDIRECT;
+    }
+
+    int start = fields[2 * TEXT];
+    int end = fields[2 * TEXT + 1];
+    if (start < 0) {
+      return Type.ARTICLE;
+    }
+    int i = start;
+    while (i < end && (bytes[i] == ' ' || bytes[i] == '\n' || bytes[i] == '\t' || bytes[i] == '\r')) {
+      i++;
+    }
+    for (byte[] keyword : REDIRECTS) {
+      if (regionMatchesIgnoreCase(bytes, i, end, keyword)) {
+        return Type.REDIRECT;
+      }
+    }
+
+    String title = title();
+    for (String suffix : DISAMBIGUATION_TITLES) {
+      if (title.endsWith(suffix)) {
+        return Type.DISAMBIGUATION;
+      }
+    }
+    for (i = indexOf(bytes, "{{", start, end); i >= 0; i = indexOf(bytes, "{{", i + 2, end)) {
+      int name = i + 2;
+      while (name < end && bytes[name] == ' ') {
+        name++;
+      }
+      for (byte[] template : DISAMBIGUATIONS) {
+        if (regionMatchesIgnoreCase(bytes, name, end, template)) {
+          int after = name + template.length;
+          while (after < end && bytes[after] == ' ') {
+            after++;
+          }
+          if (after < end && (bytes[after] == '|' || bytes[after] == '}')) {
+            return Type.DISAMBIGUATION;
+          }
+        }
+      }
+    }
+    return Type.ARTICLE;
+  }
+
+  /**
+   * Returns the revision id.
+   * @return the revision id, or 0 if the page does not have one
+   */
+  public long revisionId() {
+    return parseLong(bytes, fields[2 * REVISION_ID], fields[2 * REVISION_ID + 1]);
+  }
+
+  /**
+   * Returns the timestamp of the revision, e.g., "2011-12-29T20:03:41Z".
+   * @return the timestamp of the revision
+   */
+  public String timestamp() {
+    return decode(TIMESTAMP);
+  }
+
+  /**
+   * Returns the SHA-1 of the revision text, in base 36 as in the dump.
+   * @return the SHA-1 of the revision text
+   */
+  public String sha1() {
+    return decode(SHA1);
+  }
+
+  /**
+   * Returns the Wikipedia markup of the page, still XML-escaped as in the dump. This is what
+   * {@link WikiClean#cleanMarkup} expects. The markup is decoded on each call.
+   * @return Wikipedia markup
+   */
+  public String text() {
+    return decode(TEXT);
+  }
+
+  /**
+   * Returns the length of the text element in bytes, without decoding it.
+   * @return the length of the text element in bytes
+   */
+  public int textLength() {
+    return fields[2 * TEXT] < 0 ? 0 : fields[2 * TEXT + 1] - fields[2 * TEXT];
+  }
+
+  /**
+   * Returns the XML of the page, as the other dump readers return it. The XML is decoded on each
+   * call.
+   * @return page XML
+   */
+  public String xml() {
+    return new String(bytes, offset, length, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the length of the page XML in bytes.
+   * @return the length of the page XML in bytes
+   */
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public String toString() {
+    return "WikiPage[" + id() + ": " + title() + "]";
+  }
+
+  private String decode(int field) {
+    int start = fields[2 * field];
+    if (start < 0) {
+      return "";
+    }
+    return new String(bytes, start, fields[2 * field + 1] - start, StandardCharsets.UTF_8);
+  }
+
+  private static boolean startsWith(byte[] buffer, int i, int end, String prefix) {
+    if (i + prefix.length() > end) {
+      return false;
+    }
+    for (int j = 0; j < prefix.length(); j++) {
+      if (buffer[i + j] != prefix.charAt(j)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int indexOf(byte[] buffer, char c, int from, int end) {
+    for (int i = from; i < end; i++) {
+      if (buffer[i] == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int indexOf(byte[] buffer, String s, int from, int end) {
+    for (int i = from; i + s.length() <= end; i++) {
+      if (startsWith(buffer, i, end, s)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean regionMatchesIgnoreCase(byte[] buffer, int i, int end, byte[] lowerCase) {
+    if (i + lowerCase.length > end) {
+      return false;
+    }
+    for (int j = 0; j < lowerCase.length; j++) {
+      byte b = buffer[i + j];
+      if (b >= 'A' && b <= 'Z') {
+        b += 'a' - 'A';
+      }
+      if (b != lowerCase[j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static byte[][] bytes(String... strings) {
+    byte[][] bytes = new byte[strings.length][];
+    for (int i = 0; i < strings.length; i++) {
+      bytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+    }
+    return bytes;
+  }
+
+  private static int parseInt(byte[] buffer, int start, int end) {
+    return (int) parseLong(buffer, start, end);
+  }
+
+  private static long parseLong(byte[] buffer, int start, int end) {
+    if (start < 0) {
+      return 0;
+    }
+    long value = 0;
+    boolean negative = false;
+    for (int i = start; i < end; i++) {
+      byte b = buffer[i];
+      if (b == '-' && i == start) {
+        negative = true;
+      } else if (b >= '0' && b <= '9') {
+        value = value * 10 + (b - '0');
+      } else if (b != ' ' && b != '\n') {
+        break;
+      }
+    }
+    return negative ? -value : value;
+  }
+}
@@ -15,53 +15,47 @@
  */
 
 package org.wikiclean;
-import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
-import org.apache.http.ParseException;
-import org.apache.http.entity.ContentType;
-import org.apache.http.nio.entity.NStringEntity;
-import org.apache.http.util.EntityUtils;
-import org.apache.tools.bzip2.CBZip2InputStream;
-import org.elasticsearch.client.Response;
 import org.elasticsearch.client.RestClient;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.ParserProperties;
 import org.wikiclean.WikiClean.WikiLanguage;
+import org.wikiclean.WikiPage.Type;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileWriter;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 /**
- * Object for reading Wikipedia articles from a bz2-compressed dump file.
+ * Object for reading Wikipedia articles from a bz2-compressed dump file. Each iterator or stream
+ * reads the dump on its own, holding the open file and a pool of decompression threads until it is
+ * run to the end. Close streams that may stop early, e.g., with {@code limit} or {@code findFirst},
+ * or the dump itself, which closes the readers it handed out, preferably with try-with-resources.
  */
-public class WikipediaArticlesDump implements Iterable<String> {
-	private static final int DEFAULT_STRINGBUFFER_CAPACITY = 1024;
-
-	private final BufferedReader reader;
-	private final FileInputStream stream;
+public class WikipediaArticlesDump implements Iterable<String>, Closeable {
+	private final File file;
+	private final int threads;
+	private final long length;
 	private final String outputFile;
-	private String wikiTitle;
-	private String wikiArticle;
-	private long wikiID;
-	static int x = 0;
+	// Readers not yet run to the end, closed with the dump.
+	private final Set<Reader> open = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
 	/**
 	 * Class constructor.
@@ -69,19 +63,90 @@ public class WikipediaArticlesDump implements Iterable<String> {
 	 * @throws IOException if any file-related errors are encountered
 	 */
 	public WikipediaArticlesDump(File file, String outputFile) throws IOException {
-		stream = new FileInputStream(file);
-		byte[] ignoreBytes = new byte[2];
-		stream.read(ignoreBytes); // "B", "Z" bytes from commandline tools
-		reader = new BufferedReader(new InputStreamReader(new CBZip2InputStream(
-				new BufferedInputStream(stream)), "UTF8"));
+		this(file, outputFile, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Class constructor.
+	 * @param file path to dump file
+	 * @param outputFile path to output file
+	 * @param threads number of decompression threads
+	 * @throws IOException if any file-related errors are encountered
+	 */
+	public WikipediaArticlesDump(File file, String outputFile, int threads) throws IOException {
+		if (!file.isFile()) {
+			throw new FileNotFoundException(file.getPath());
+		}
+		this.file = file;
+		this.threads = threads;
+		length = file.length();
 		this.outputFile = outputFile;
 	}
 
+	/**
+	 * Closes the iterators and streams that are not yet run to the end, stopping their threads.
+	 */
+	@Override
+	public void close() {
+		for (Reader reader : open) {
+			reader.close();
+		}
+	}
+
+	// Decompresses and splits the dump for a single iterator, from the first time it is read.
+	private final class Reader {
+		private ParallelBZip2InputStream stream;
+		private PageSplitter splitter;
+		private boolean closed;
+
+		// Moves to the next page, and closes the reader at the end of the dump.
+		boolean next() throws IOException {
+			if (closed) {
+				return false;
+			}
+			if (splitter == null) {
+				open.add(this);
+				stream = new ParallelBZip2InputStream(file.toPath(), threads);
+				splitter = new PageSplitter(stream);
+			}
+			if (!splitter.next()) {
+				close();
+				return false;
+			}
+			return true;
+		}
+
+		PageSplitter splitter() {
+			return splitter;
+		}
+
+		// Number of bytes of the compressed file read so far.
+		long position() {
+			return stream == null ? 0 : stream.position();
+		}
+
+		void close() {
+			closed = true;
+			open.remove(this);
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+					// Nothing left to read.
+				}
+			}
+		}
+	}
+
 	/**
 	 * Provides an iterator over Wikipedia articles.
 	 * @return an iterator over Wikipedia articles
 	 */
 	public Iterator<String> iterator() {
+		return iterator(new Reader());
+	}
+
+	private Iterator<String> iterator(Reader reader) {
 		return new Iterator<String>() {
 			private String nextArticle = null;
 
@@ -93,7 +158,8 @@ public class WikipediaArticlesDump implements Iterable<String> {
 				try {
 					nextArticle = readNext();
 				} catch (IOException e) {
-					return false;
+					// A decode failure is not the end of the dump.
+					throw new UncheckedIOException(e);
 				}
 
 				return nextArticle!= null;
@@ -109,7 +175,7 @@ public class WikipediaArticlesDump implements Iterable<String> {
 							throw new NoSuchElementException();
 						}
 					} catch (IOException e) {
-						throw new NoSuchElementException();
+						throw new UncheckedIOException(e);
 					}
 				}
 
@@ -123,30 +189,11 @@ public class WikipediaArticlesDump implements Iterable<String> {
 			}
 
 			private String readNext() throws IOException {
-				String s;
-				StringBuilder sb = new StringBuilder(DEFAULT_STRINGBUFFER_CAPACITY);
-
-				while ((s = reader.readLine()) != null) {
-					if (s.endsWith("<page>"))
-						break;
-				}
-
-				if (s == null) {
-					stream.close();
-					reader.close();
+				if (!reader.next()) {
 					return null;
 				}
 
-				sb.append(s).append("\n");
-
-				while ((s = reader.readLine()) != null) {
-					sb.append(s).append("\n");
-
-					if (s.endsWith("</page>"))
-						break;
-				}
-
-				return sb.toString();
+				return reader.splitter().page();
 			}
 		};
 	}
@@ -156,7 +203,93 @@ public class WikipediaArticlesDump implements Iterable<String> {
 	 * @return a stream of Wikipedia articles
 	 */
 	public Stream<String> stream() {
-		return StreamSupport.stream(this.spliterator(), false);
+		return parallelStream(true).sequential();
+	}
+
+	/**
+	 * Provides a parallel stream of Wikipedia articles, in the order they appear in the dump. The
+	 * dump is still read sequentially, but articles are handed out in batches to be processed in
+	 * parallel.
+	 * @return a parallel stream of Wikipedia articles
+	 */
+	public Stream<String> parallelStream() {
+		return parallelStream(true);
+	}
+
+	/**
+	 * Provides a parallel stream of Wikipedia articles.
+	 * @param ordered whether or not the stream keeps the order of the dump; an unordered stream
+	 * lets operations such as {@code collect} or {@code limit} avoid buffering
+	 * @return a parallel stream of Wikipedia articles
+	 */
+	public Stream<String> parallelStream(boolean ordered) {
+		return parallelStream(ordered, ArticleSpliterator.DEFAULT_BATCH_SIZE);
+	}
+
+	Stream<String> parallelStream(boolean ordered, int batchSize) {
+		Reader reader = new Reader();
+		return StreamSupport.stream(
+				new ArticleSpliterator<>(iterator(reader), String::length, length, reader::position, ordered,
+						batchSize), true).onClose(reader::close);
+	}
+
+	/**
+	 * Provides a stream of Wikipedia pages, with their fields parsed in the same pass that splits
+	 * the dump into pages.
+	 * @return a stream of Wikipedia pages
+	 */
+	public Stream<WikiPage> pages() {
+		return pages(PageFilter.ALL);
+	}
+
+	/**
+	 * Provides a stream of the Wikipedia pages selected by a filter. Pages that are filtered out are
+	 * never copied out of the read buffer nor decoded.
+	 * @param filter which pages to return
+	 * @return a stream of Wikipedia pages
+	 */
+	public Stream<WikiPage> pages(PageFilter filter) {
+		Reader reader = new Reader();
+		return StreamSupport.stream(new ArticleSpliterator<>(pageIterator(reader, filter), WikiPage::length,
+				length, reader::position, true, ArticleSpliterator.DEFAULT_BATCH_SIZE), false)
+				.onClose(reader::close);
+	}
+
+	private Iterator<WikiPage> pageIterator(Reader reader, PageFilter filter) {
+		return new Iterator<WikiPage>() {
+			private WikiPage nextPage = null;
+
+			public boolean hasNext() {
+				if (nextPage == null) {
+					nextPage = readNext();
+				}
+				return nextPage != null;
+			}
+
+			public WikiPage next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				WikiPage page = nextPage;
+				nextPage = null;
+				return page;
+			}
+
+			private WikiPage readNext() {
+				try {
+					while (reader.next()) {
+						PageSplitter splitter = reader.splitter();
+						WikiPage page = WikiPage.parse(splitter.buffer(), splitter.start(), splitter.length());
+						if (filter.test(page)) {
+							return page.copy();
+						}
+					}
+					return null;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		};
 	}
 
 	private static final class Args {
@@ -165,20 +298,82 @@ public class WikipediaArticlesDump implements Iterable<String> {
 
 		@Option(name = "-lang", metaVar = "[lang]", usage = "two-letter language code")
 		String lang = "en";
+
+		@Option(name = "-output", metaVar = "[path]", forbids = "-host", usage = "bulk JSON output path")
+		File output;
+
+		@Option(name = "-host", metaVar = "[host:port]", forbids = "-output", usage = "Elasticsearch host to index into")
+		String host;
+
+		@Option(name = "-index", metaVar = "[name]", usage = "Elasticsearch index")
+		String index = "wiki";
+
+		@Option(name = "-type", metaVar = "[name]", usage = "Elasticsearch mapping type")
+		String type = "articles";
+
+		@Option(name = "-fields", metaVar = "[fields]", usage = "comma-separated fields: ID, TITLE, ARTICLE, URL")
+		String fields = "TITLE,ARTICLE,URL";
+
+		@Option(name = "-threads", metaVar = "[num]", usage = "number of cleaning threads")
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		@Option(name = "-shards", metaVar = "[num]", usage = "number of output shards")
+		int shards = 1;
+
+		@Option(name = "-routing", metaVar = "[routing]", usage = "routing of articles to shards")
+		ShardedWriter.Routing routing = ShardedWriter.Routing.HASH;
+
+		@Option(name = "-maxBytes", metaVar = "[bytes]", usage = "size at which output files roll over")
+		long maxBytes = 0;
+
+		@Option(name = "-resume", usage = "resume from the last checkpoint of the output")
+		boolean resume = false;
+
+		@Option(name = "-state", metaVar = "[path]", usage = "revision state, for only writing new and changed articles")
+		File state;
+
+		@Option(name = "-complete", depends = "-state", usage = "the input is a complete dump: delete pages it does not have")
+		boolean complete = false;
+
+		@Option(name = "-cache", metaVar = "[path]", usage = "directory of the cache of cleaned articles")
+		File cache;
+	}
+
+	// Changes written between commits of the revision state.
+	private static final int COMMIT_INTERVAL = 10000;
+
+	// Takes documents in the bulk format, and tells when they are safely written.
+	private interface DocumentSink {
+		void accept(byte[] document) throws IOException;
+
+		// Waits until the documents accepted so far are written, or given up on.
+		void sync() throws IOException;
+
+		// Whether the document of a page was given up on, once synced.
+		boolean failed(long id);
 	}
 
 	/**
-	 * Simple program prints out all cleaned articles.
+	 * Simple program that writes cleaned articles in the Elasticsearch bulk format, either to a
+	 * file or straight into an index.
 	 * @param argv command-line argument
 	 * @throws Exception if any errors are encountered
 	 */
-	public static void main(String[] argv) throws Exception, IOException {
-		long start = System.currentTimeMillis();
+	public static void main(String[] argv) throws Exception {
 		final Args args = new Args();
 		CmdLineParser parser = new CmdLineParser(args, ParserProperties.defaults().withUsageWidth(100));
 
 		try {
 			parser.parseArgument(argv);
+			if (args.output == null && args.host == null) {
+				throw new CmdLineException(parser, "Either -output or -host is required.", null);
+			}
+			if (args.resume && (args.output == null || args.shards > 1 || args.maxBytes > 0)) {
+				throw new CmdLineException(parser, "-resume needs a single output file.", null);
+			}
+			if (args.state != null && (args.resume || args.shards > 1 || args.maxBytes > 0)) {
+				throw new CmdLineException(parser, "-state needs a single output file or -host, without -resume.", null);
+			}
 		} catch (CmdLineException e) {
 			System.err.println(e.getMessage());
 			parser.printUsage(System.err);
@@ -192,114 +387,238 @@ public class WikipediaArticlesDump implements Iterable<String> {
 			lang = WikiLanguage.ZH;
 		}
 
-		PrintStream out = new PrintStream(System.out, true, "UTF-8");
-		WikiClean cleaner = new WikiClean.Builder().withLanguage(lang).build();
-
-		WikipediaArticlesDump wikipedia = new WikipediaArticlesDump(args.input,"E://Wikipedia_articles//Wikipedia_cleanXML//enwiki-20171001-pages-meta-current4.xml-p200511p352689.json");
-		//RestClient restClient = RestClient.builder(new HttpHost("131.234.28.254", 9200, "http")).build();
-		AtomicInteger cnt = new AtomicInteger();
-		FileWriter fw = new FileWriter(wikipedia.outputFile);
-		ObjectMapper mapper = new ObjectMapper();
-		ObjectNode objectNode1 = mapper.createObjectNode();
-		
-		wikipedia.stream()
-		.filter(s -> !s.contains("<ns>") || s.contains("<ns>0</ns>"))
-		.forEach(s -> {
-			wikipedia.wikiTitle = cleaner.getTitle(s);
-			wikipedia.wikiArticle = cleaner.clean(s);
-			wikipedia.wikiArticle = wikipedia.wikiArticle.replace("\n", "");
-			wikipedia.wikiArticle = wikipedia.wikiArticle.replace("*", "");
-			wikipedia.wikiArticle = wikipedia.wikiArticle.replace("(; ", "(");
-			wikipedia.wikiID = Integer.parseInt(cleaner.getId(s));
-			try {
-				if(!(wikipedia.wikiArticle.startsWith("#REDIRECT") || wikipedia.wikiArticle.startsWith("#redirect") || wikipedia.wikiArticle.startsWith("#Redirect") || wikipedia.wikiArticle.isEmpty()))
-				{
-					objectNode1.put("Title", wikipedia.wikiTitle);
-					objectNode1.put("Article", wikipedia.wikiArticle);
-					objectNode1.put("URL", "https://en.wikipedia.org/wiki/"+wikipedia.wikiTitle.replace(" ", "_"));
-					fw.write("{\"index\": {\"_id\":"+wikipedia.wikiID+"}}" + "\n");
-					fw.write(objectNode1.toString() + "\n");
+		final WikiClean cleaner = new WikiClean.Builder().withLanguage(lang).build();
+		// Articles unchanged since an earlier run are taken from the cache instead of cleaned again.
+		final CleanCache cache = args.cache == null ? null : new CleanCache.Builder().build(args.cache);
+		final BulkJsonWriter.Builder bulk = new BulkJsonWriter.Builder()
+				.withUrlPrefix("https://" + args.lang.toLowerCase() + ".wikipedia.org/wiki/");
+		String[] fields = args.fields.split(",");
+		BulkJsonWriter.Field[] rest = new BulkJsonWriter.Field[fields.length - 1];
+		for (int i = 1; i < fields.length; i++) {
+			rest[i - 1] = BulkJsonWriter.Field.valueOf(fields[i].trim().toUpperCase());
+		}
+		bulk.withFields(BulkJsonWriter.Field.valueOf(fields[0].trim().toUpperCase()), rest);
+
+		PageFilter filter = new PageFilter.Builder().withNamespaces(0).withTypes(Type.ARTICLE, Type.DISAMBIGUATION)
+				.build();
+		DumpPipeline.Builder pipeline = new DumpPipeline.Builder().withWorkers(args.threads).withFilter(filter);
+		DumpPipeline.Stats stats;
+
+		if (args.state != null) {
+			stats = incremental(args, pipeline, filter, cleaner, cache, bulk);
+		} else if (args.output != null && args.shards == 1 && args.maxBytes == 0) {
+			// Workers clean, and the writer thread streams the documents to the file, taking checkpoints
+			// from which an interrupted run picks up.
+			File checkpointFile = new File(args.output.getPath() + ".checkpoint");
+			Checkpoint checkpoint = null;
+			if (args.resume && checkpointFile.exists()) {
+				checkpoint = Checkpoint.read(checkpointFile);
+				checkpoint.truncate();
+				System.err.println("Resuming after page " + checkpoint.pageId() + ".");
+			}
+			try (BulkJsonWriter writer = bulk.build(new BufferedOutputStream(
+					new FileOutputStream(args.output, checkpoint != null), 1 << 16))) {
+				pipeline.withCheckpoints(checkpointFile, writer, args.output).withResume(checkpoint);
+				stats = pipeline.build().run(args.input, () -> page -> {
+					String article = article(cleaner, cache, page);
+					return article.isEmpty() ? null : new SimpleImmutableEntry<>(page, article);
+				}, document -> {
+					try {
+						writer.write(document.getKey(), document.getValue());
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+				System.err.println("Total of " + writer.documents() + " articles written.");
+			}
+		} else if (args.output != null) {
+			// Workers hand their documents straight to the shards, each written by a thread of its own.
+			// The files and the manifest are only complete once the writer is closed.
+			ShardedWriter written;
+			try (ShardedWriter writer = new ShardedWriter.Builder().withShards(args.shards)
+					.withRouting(args.routing).withMaxBytes(args.maxBytes).build(args.output)) {
+				written = writer;
+				stats = pipeline.build().run(args.input, () -> {
+					final DumpPipeline.Worker<byte[]> encoder = encoder(cleaner, cache, bulk);
+					return page -> {
+						byte[] document = encoder.process(page);
+						if (document != null) {
+							writer.write(page.id(), document);
+						}
+						return null;
+					};
+				}, document -> {});
+			}
+			System.err.println("Total of " + written.parts().stream().mapToLong(ShardedWriter.Part::records).sum()
+					+ " articles written to " + written.parts().size() + " files, listed in " + written.manifest() + ".");
+		} else {
+			// Closing the sink waits for the last bulk requests, so documents are counted after it.
+			ElasticsearchBulkSink indexed;
+			try (RestClient client = client(args.host);
+					ElasticsearchBulkSink sink = new ElasticsearchBulkSink.Builder().withIndex(args.index)
+							.withType(args.type).build(client)) {
+				indexed = sink;
+				stats = pipeline.build().run(args.input, () -> encoder(cleaner, cache, bulk), document -> {
+					try {
+						sink.addDocument(document);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			}
+			System.err.println("Total of " + indexed.documents() + " articles indexed.");
+		}
+		if (cache != null) {
+			System.err.println("Cache: " + cache.hits() + " hits, " + cache.misses() + " misses.");
+			cache.close();
+		}
+
+		System.err.print(stats.report());
+	}
+
+	// Cleans only new and changed pages, and writes upserts and deletes to the file or the index. As
+	// with checkpoints, the state only records changes once the output is flushed or indexed.
+	private static DumpPipeline.Stats incremental(Args args, DumpPipeline.Builder pipeline, PageFilter filter,
+			WikiClean cleaner, CleanCache cache, BulkJsonWriter.Builder bulk) throws IOException {
+		// Pages that no longer pass the filter are deleted, so all pages reach the workers.
+		pipeline.withFilter(PageFilter.ALL);
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		BulkJsonWriter deletes = bulk.build(buffer);
+
+		try (RevisionState state = RevisionState.open(args.state);
+				OutputStream out = args.output == null ? null
+						: new BufferedOutputStream(new FileOutputStream(args.output), 1 << 16);
+				RestClient client = args.output == null ? client(args.host) : null;
+				ElasticsearchBulkSink sink = client == null ? null : new ElasticsearchBulkSink.Builder()
+						.withIndex(args.index).withType(args.type).build(client)) {
+			DocumentSink documents = out != null ? fileSink(out) : indexSink(sink);
+			Incremental<byte[]> incremental = new Incremental<>(state, filter);
+			Consumer<Incremental.Change<byte[]>> changes = change -> {
+				try {
+					if (incremental.pending() >= COMMIT_INTERVAL) {
+						documents.sync();
+						incremental.commit(documents::failed);
+					}
+					if (change.kind() == Incremental.Kind.UPSERT) {
+						documents.accept(change.result());
+					} else {
+						buffer.reset();
+						deletes.writeDelete(change.id());
+						deletes.flush();
+						documents.accept(buffer.toByteArray());
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
 				}
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+			};
+
+			DumpPipeline.Stats stats = pipeline.build().run(args.input,
+					incremental.workers(() -> encoder(cleaner, cache, bulk)), incremental.sink(changes));
+			if (args.complete) {
+				incremental.deleteUnseen(changes);
+			}
+			documents.sync();
+			incremental.commit(documents::failed);
+			System.err.println(incremental.upserts() + " upserts, " + incremental.deletes() + " deletes, "
+					+ incremental.unchanged() + " unchanged articles; " + state.size() + " articles in the state.");
+			return stats;
+		}
+	}
+
+	private static DocumentSink fileSink(OutputStream out) {
+		return new DocumentSink() {
+			@Override
+			public void accept(byte[] document) throws IOException {
+				out.write(document);
+			}
+
+			@Override
+			public void sync() throws IOException {
+				out.flush();
+			}
+
+			@Override
+			public boolean failed(long id) {
+				return false;
+			}
+		};
+	}
+
+	// Documents the index rejects are left out of the state, so that the next run sends them again.
+	private static DocumentSink indexSink(ElasticsearchBulkSink sink) {
+		return new DocumentSink() {
+			@Override
+			public void accept(byte[] document) throws IOException {
+				sink.addDocument(document);
+			}
+
+			@Override
+			public void sync() throws IOException {
+				sink.await();
 			}
 
-			//System.out.println(cleaner.getTitle(s));
-			//System.out.println(cleaner.clean(s));
-			//          HttpEntity entity = null;
-			//		try {
-			//			entity = new NStringEntity(
-			//						mapper.writeValueAsString(objectNode1), ContentType.APPLICATION_JSON);
-			//		} catch (JsonProcessingException e1) {
-			//			// TODO Auto-generated catch block
-			//			e1.printStackTrace();
-			//		}
-			//          Response indexResponse;  
-			//		try {
-			//			indexResponse = restClient.performRequest(
-			//					"PUT",
-			//					"/wiki/articles/"+cleaner.getId(s),
-			//					Collections.<String, String>emptyMap(),
-			//					entity);
-			//			System.out.println("File " +cleaner.getTitle(s)+" indexed");
-			//		} catch (IOException e) {
-			//			// TODO Auto-generated catch block
-			//			e.printStackTrace();
-			//		}
-			cnt.incrementAndGet();
-			System.out.println("Copied file "+cnt);
-			//System.out.println("Count "+cnt);
-
-		});
-
-		fw.flush();
-		fw.close();
-
-		out.println("Total of " + cnt + " articles read.");
-		System.out.println("Indexing " + cnt + "documents took " +(System.currentTimeMillis() - start));
-		System.out.println("Redirected docs "+x);
-		out.close();
+			@Override
+			public boolean failed(long id) {
+				return sink.failed(Long.toString(id));
+			}
+		};
+	}
+
+	private static RestClient client(String host) {
+		String[] address = host.split(":");
+		int port = address.length > 1 ? Integer.parseInt(address[1]) : 9200;
+		return RestClient.builder(new HttpHost(address[0], port, "http")).build();
+	}
+
+	// Encodes each document into a buffer of the worker's own, for a sink that takes whole documents.
+	private static DumpPipeline.Worker<byte[]> encoder(WikiClean cleaner, CleanCache cache,
+			BulkJsonWriter.Builder bulk) {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final BulkJsonWriter writer;
+		try {
+			writer = bulk.build(buffer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return page -> {
+			String article = article(cleaner, cache, page);
+			if (article.isEmpty()) {
+				return null;
+			}
+			buffer.reset();
+			writer.write(page, article);
+			writer.flush();
+			return buffer.toByteArray();
+		};
 	}
 
+	// Cleans an article onto a single line, as the bulk export has always done.
+	private static String article(WikiClean cleaner, CleanCache cache, WikiPage page) throws IOException {
+		String text = cache == null ? cleaner.clean(page) : cache.clean(cleaner, page);
+		return text.replace("\n", "").replace("*", "").replace("(; ", "(");
+	}
+
+	/**
+	 * Writes the first 2000 pages of the dump that are articles to the output file, in the
+	 * Elasticsearch bulk format.
+	 * @throws IOException if any file-related errors are encountered
+	 */
 	public void createJsonfile() throws IOException
 	{
-		WikiLanguage lang = WikiLanguage.EN;
-		PrintStream out = new PrintStream(System.out, true, "UTF-8");
-		WikiClean cleaner = new WikiClean.Builder().withLanguage(lang).build();
-		AtomicInteger cnt = new AtomicInteger();
-		FileWriter fw = new FileWriter(new File(this.outputFile));
-		ObjectMapper mapper = new ObjectMapper();
-		ObjectNode objectNode1 = mapper.createObjectNode();
-		this.stream().limit(2000)
-		.filter(s -> !s.contains("<ns>") || s.contains("<ns>0</ns>"))
-		.forEach(s -> {
-			this.wikiTitle = cleaner.getTitle(s);
-			this.wikiArticle = cleaner.clean(s);
-			this.wikiID = Integer.parseInt(cleaner.getId(s));
-			try {
-				if(!(this.wikiArticle.startsWith("#redirect") || this.wikiArticle.startsWith("#redirect") || this.wikiArticle.startsWith("#Redirect") || this.wikiArticle.isEmpty()))
-				{
-					objectNode1.put("Title", this.wikiTitle);
-					objectNode1.put("Article", this.wikiArticle);
-					objectNode1.put("URL", "https://en.wikipedia.org/wiki/"+this.wikiTitle.replace(" ", "_"));
-					fw.write("{\"index\": {\"_id\": "+this.wikiID+"}}" + "\n");
-					fw.write(objectNode1.toString() + "\n");
-				}
-				else
-				{
-					
+		WikiClean cleaner = new WikiClean.Builder().withLanguage(WikiLanguage.EN).build();
+		PageFilter filter = new PageFilter.Builder().withNamespaces(0).withTypes(Type.ARTICLE, Type.DISAMBIGUATION)
+				.build();
+		try (BulkJsonWriter writer = new BulkJsonWriter.Builder().build(new File(this.outputFile));
+				Stream<WikiPage> stream = this.pages()) {
+			Iterator<WikiPage> pages = stream.limit(2000).filter(filter).iterator();
+			while (pages.hasNext()) {
+				WikiPage page = pages.next();
+				String article = cleaner.clean(page);
+				if (!article.isEmpty()) {
+					writer.write(page, article);
 				}
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
 			}
-			cnt.incrementAndGet();
-			System.out.println("Copied file "+cnt);
-		});
-
-		fw.flush();
-		fw.close();
-		out.close();
+			System.out.println("Total of " + writer.documents() + " articles written.");
+		}
 	}
 }
@@ -0,0 +1,336 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import org.apache.tools.bzip2.CBZip2InputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Object for reading Wikipedia articles from a multistream dump file
+ * ({@code pages-articles-multistream.xml.bz2}). Such a dump is a concatenation of independent bz2
+ * streams of about 100 pages each, and comes with an index ({@code index.txt.bz2}) whose lines
+ * hold the byte offset of the stream containing a page, the page id and the title. The streams are
+ * decompressed in parallel, while articles are still returned in the order they appear in the dump.
+ * Each iterator or stream holds the open file and a pool of decompression threads until it is run
+ * to the end. Close streams that may stop early, e.g., with {@code limit} or {@code findFirst}, or
+ * the dump itself, which closes the iterators it handed out, preferably with try-with-resources.
+ */
+public class WikipediaMultistreamDump implements Iterable<String>, Closeable {
+  // Number of streams decompressed ahead of the reader, per thread.
+  private static final int STREAMS_PER_THREAD = 4;
+
+  private final File file;
+  private final long length;
+  private final long[] offsets;
+  private final int threads;
+  // Iterators not yet run to the end, closed with the dump.
+  private final Set<Pages> open = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+  /**
+   * Class constructor, decompressing on all available cores.
+   * @param file path to dump file
+   * @param index path to index file
+   * @throws IOException if any file-related errors are encountered
+   */
+  public WikipediaMultistreamDump(File file, File index) throws IOException {
+    this(file, index, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Class constructor.
+   * @param file path to dump file
+   * @param index path to index file
+   * @param threads number of decompression threads
+   * @throws IOException if any file-related errors are encountered
+   */
+  public WikipediaMultistreamDump(File file, File index, int threads) throws IOException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Number of threads must be positive.");
+    }
+    this.file = file;
+    this.length = file.length();
+    this.offsets = readOffsets(index);
+    this.threads = threads;
+  }
+
+  /**
+   * Returns the number of bz2 streams holding pages.
+   * @return the number of bz2 streams holding pages
+   */
+  public int streams() {
+    return offsets.length;
+  }
+
+  /**
+   * Provides an iterator over Wikipedia articles.
+   * @return an iterator over Wikipedia articles
+   */
+  public Iterator<String> iterator() {
+    try {
+      return new Pages();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Provides a stream of Wikipedia articles.
+   * @return a stream of Wikipedia articles
+   */
+  public Stream<String> stream() {
+    return parallelStream(true).sequential();
+  }
+
+  /**
+   * Provides a parallel stream of Wikipedia articles, in the order they appear in the dump.
+   * @return a parallel stream of Wikipedia articles
+   */
+  public Stream<String> parallelStream() {
+    return parallelStream(true);
+  }
+
+  /**
+   * Provides a parallel stream of Wikipedia articles.
+   * @param ordered whether or not the stream keeps the order of the dump
+   * @return a parallel stream of Wikipedia articles
+   */
+  public Stream<String> parallelStream(boolean ordered) {
+    Pages pages = (Pages) iterator();
+    return StreamSupport.stream(new ArticleSpliterator<>(pages, String::length, length,
+        pages::position, ordered, ArticleSpliterator.DEFAULT_BATCH_SIZE), true)
+        .onClose(pages::close);
+  }
+
+  /**
+   * Closes the iterators and streams that are not yet run to the end, stopping their threads.
+   */
+  @Override
+  public void close() {
+    for (Pages pages : open) {
+      pages.close();
+    }
+  }
+
+  /**
+   * Receives the entries of a multistream index.
+   */
+  interface IndexConsumer {
+    void accept(long offset, int id, String title);
+  }
+
+  /**
+   * Reads a multistream index, whose lines are "offset:id:title".
+   * @param index path to index file
+   * @param consumer receives the entries, in the order of the index
+   * @throws IOException if any file-related errors are encountered
+   */
+  static void readIndex(File index, IndexConsumer consumer) throws IOException {
+    try (InputStream in = new FileInputStream(index)) {
+      in.skip(2); // "B", "Z" bytes from commandline tools
+      BufferedReader reader = new BufferedReader(new InputStreamReader(
+          new CBZip2InputStream(new BufferedInputStream(in), true), StandardCharsets.UTF_8));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int colon = line.indexOf(':');
+        int second = line.indexOf(':', colon + 1);
+        if (colon <= 0 || second < 0) {
+          continue;
+        }
+        consumer.accept(Long.parseLong(line.substring(0, colon)),
+            Integer.parseInt(line.substring(colon + 1, second)), line.substring(second + 1));
+      }
+    }
+  }
+
+  // Reads the distinct stream offsets from the index.
+  private static long[] readOffsets(File index) throws IOException {
+    LongList offsets = new LongList();
+    readIndex(index, (offset, id, title) -> {
+      if (offsets.size == 0 || offsets.values[offsets.size - 1] != offset) {
+        offsets.add(offset);
+      }
+    });
+    long[] sorted = Arrays.copyOf(offsets.values, offsets.size);
+    // The index is sorted by offset, but sort anyway since order is all that the reader relies on.
+    Arrays.sort(sorted);
+    return sorted;
+  }
+
+  // Growable array of longs.
+  static final class LongList {
+    long[] values = new long[1024];
+    int size = 0;
+
+    void add(long value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+  }
+
+  /**
+   * Decompresses the pages of the stream in the given range of a multistream dump.
+   * @param channel dump file
+   * @param start offset of the stream
+   * @param end offset of the next stream, or length of the file
+   * @return pages of the stream
+   * @throws IOException if any file-related errors are encountered
+   */
+  static List<String> decompress(FileChannel channel, long start, long end)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, start + buffer.position()) < 0) {
+        break;
+      }
+    }
+    if (buffer.position() < 2) {
+      return Collections.emptyList();
+    }
+
+    // Skip the "B", "Z" bytes; the range may run into the stream closing the dump.
+    PageSplitter splitter = new PageSplitter(new CBZip2InputStream(
+        new ByteArrayInputStream(buffer.array(), 2, buffer.position() - 2), true),
+        Math.max(64 * 1024, 5 * buffer.position()));
+    List<String> pages = new ArrayList<>(128);
+    while (splitter.next()) {
+      pages.add(splitter.page());
+    }
+    return pages;
+  }
+
+  private final class Pages implements Iterator<String> {
+    private final FileChannel channel;
+    private final ExecutorService executor;
+    private final ArrayDeque<Future<List<String>>> pending = new ArrayDeque<>();
+    private Iterator<String> current = Collections.emptyIterator();
+    private int submitted = 0;
+    private int consumed = 0;
+
+    Pages() throws IOException {
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      executor = Executors.newFixedThreadPool(threads, runnable -> {
+        Thread thread = new Thread(runnable, "wikiclean-bz2");
+        thread.setDaemon(true);
+        return thread;
+      });
+      open.add(this);
+      while (submitted < offsets.length && pending.size() < threads * STREAMS_PER_THREAD) {
+        submit();
+      }
+      if (offsets.length == 0) {
+        close();
+      }
+    }
+
+    public boolean hasNext() {
+      while (!current.hasNext()) {
+        if (pending.isEmpty()) {
+          return false;
+        }
+        current = take().iterator();
+      }
+      return true;
+    }
+
+    public String next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return current.next();
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    // Number of bytes of the dump file read so far.
+    long position() {
+      return consumed < offsets.length ? offsets[consumed] : length;
+    }
+
+    private void submit() {
+      long start = offsets[submitted];
+      long end = submitted + 1 < offsets.length ? offsets[submitted + 1] : length;
+      pending.add(executor.submit(() -> decompress(channel, start, end)));
+      submitted++;
+    }
+
+    private List<String> take() {
+      try {
+        List<String> pages = pending.remove().get();
+        consumed++;
+        if (submitted < offsets.length) {
+          submit();
+        } else if (pending.isEmpty()) {
+          close();
+        }
+        return pages;
+      } catch (InterruptedException e) {
+        close();
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      } catch (ExecutionException e) {
+        close();
+        if (e.getCause() instanceof IOException) {
+          throw new UncheckedIOException((IOException) e.getCause());
+        }
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+
+    private void close() {
+      open.remove(this);
+      executor.shutdownNow();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // Nothing left to read.
+      }
+    }
+  }
+}
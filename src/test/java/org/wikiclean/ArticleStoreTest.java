@@ -0,0 +1,86 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ArticleStoreTest {
+  private static File table;
+
+  @BeforeClass
+  public static void createDump() throws IOException {
+    WikipediaMultistreamDumpTest.createDump();
+    table = new File(WikipediaMultistreamDumpTest.index.getPath() + ".table");
+  }
+
+  @AfterClass
+  public static void deleteDump() {
+    WikipediaMultistreamDumpTest.deleteDump();
+    table.delete();
+  }
+
+  @Test
+  public void testGet() throws IOException {
+    WikiClean cleaner = new WikiClean.Builder().build();
+    try (ArticleStore store = new ArticleStore(WikipediaMultistreamDumpTest.dump,
+        WikipediaMultistreamDumpTest.index)) {
+      assertTrue(table.exists());
+      assertEquals(WikipediaMultistreamDumpTest.pages.size(), store.size());
+
+      for (String page : WikipediaMultistreamDumpTest.pages) {
+        assertEquals(page, store.get(Long.parseLong(cleaner.getId(page))));
+        assertEquals(page, store.get(cleaner.getTitle(page)));
+      }
+      assertNull(store.get(-1));
+      assertNull(store.get(123456789L));
+      assertNull(store.get("No such page"));
+    }
+  }
+
+  @Test
+  public void testExistingTable() throws IOException {
+    File other = File.createTempFile("wikiclean", ".table");
+    other.delete();
+    try (ArticleStore store = new ArticleStore(WikipediaMultistreamDumpTest.dump,
+        WikipediaMultistreamDumpTest.index, other, 1)) {
+      assertEquals("Anarchism", new WikiClean.Builder().build().getTitle(store.get(12)));
+    }
+
+    // The table is reused once built.
+    long modified = other.lastModified();
+    try (ArticleStore store = new ArticleStore(WikipediaMultistreamDumpTest.dump,
+        WikipediaMultistreamDumpTest.index, other, 1)) {
+      assertEquals(modified, other.lastModified());
+      assertEquals("Anarchism", new WikiClean.Builder().build().getTitle(store.get("Anarchism")));
+    }
+    other.delete();
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ArticleStoreTest.class);
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+import org.wikiclean.BulkJsonWriter.Field;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BulkJsonWriterTest {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  @Test
+  public void testDefaultFields() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BulkJsonWriter writer = new BulkJsonWriter.Builder().build(out);
+    writer.write(12, "Anarchism", "Anarchism is a \"political philosophy\".\n");
+    writer.write(7, "Zürich (Stadt)", "Zürich – 中文\tand \\ more");
+    writer.close();
+
+    assertEquals("{\"index\":{\"_id\":12}}\n"
+        + "{\"Title\":\"Anarchism\",\"Article\":\"Anarchism is a \\\"political philosophy\\\".\\n\","
+        + "\"URL\":\"https://en.wikipedia.org/wiki/Anarchism\"}\n"
+        + "{\"index\":{\"_id\":7}}\n"
+        + "{\"Title\":\"Zürich (Stadt)\",\"Article\":\"Zürich – 中文\\tand \\\\ more\","
+        + "\"URL\":\"https://en.wikipedia.org/wiki/Zürich_(Stadt)\"}\n",
+        new String(out.toByteArray(), StandardCharsets.UTF_8));
+    assertEquals(2, writer.documents());
+  }
+
+  @Test
+  public void testFields() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BulkJsonWriter writer = new BulkJsonWriter.Builder().withFields(Field.ID, Field.URL, Field.ID)
+        .withIndex("wiki").withUrlPrefix("https://de.wikipedia.org/wiki/").build(out);
+    assertEquals(2, writer.fields().size());
+
+    WikiPage page = WikiPage.of("<page>\n<title>A &amp; B</title>\n<ns>0</ns>\n<id>5</id>\n"
+        + "<revision>\n<id>9</id>\n<text xml:space=\"preserve\">x</text>\n</revision>\n</page>\n");
+    writer.write(page, "ignored");
+    writer.close();
+
+    assertEquals("{\"index\":{\"_index\":\"wiki\",\"_id\":5}}\n"
+        + "{\"id\":5,\"URL\":\"https://de.wikipedia.org/wiki/A_&_B\"}\n",
+        new String(out.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testConcurrentWrites() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BulkJsonWriter writer = new BulkJsonWriter.Builder()
+        .withFields(Field.ID, Field.TITLE, Field.ARTICLE).build(out);
+
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final int offset = t * 1000;
+      threads.add(new Thread(() -> {
+        try {
+          for (int i = offset; i < offset + 1000; i++) {
+            writer.write(i, "Title " + i, "Article " + i + " with a longer body of text.");
+          }
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    writer.close();
+
+    String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    assertEquals(8000, lines.length);
+    Set<Long> ids = new HashSet<>();
+    for (int i = 0; i < lines.length; i += 2) {
+      long id = MAPPER.readTree(lines[i]).path("index").path("_id").asLong();
+      JsonNode source = MAPPER.readTree(lines[i + 1]);
+      assertEquals(id, source.path("id").asLong());
+      assertEquals("Title " + id, source.path("Title").asText());
+      assertTrue(ids.add(id));
+    }
+    assertEquals(4000, ids.size());
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BulkJsonWriterTest.class);
+  }
+}
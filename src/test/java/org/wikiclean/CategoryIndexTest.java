@@ -0,0 +1,106 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import junit.framework.JUnit4TestAdapter;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.wikiclean.WikiClean.WikiLanguage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CategoryIndexTest {
+  private static List<String> categories(WikiLanguage lang, String markup) {
+    List<String> names = new ArrayList<>();
+    new WikiClean.Builder().withLanguage(lang).build().categories(markup, names::add);
+    return names;
+  }
+
+  @Test
+  public void testCategories() throws IOException {
+    assertEquals(Arrays.asList("Anarchism", "Political culture", "Greek loanwords"),
+        categories(WikiLanguage.EN, "Text [[Category:Anarchism| ]] [[:Category:Linked]] "
+            + "[[category:political_culture]] [[de:Anarchismus]] [[Category:]] "
+            + "[[Category:Greek loanwords|Anarchism]] [[Category:Unclosed"));
+    assertEquals(Arrays.asList("Pseudonym", "Fiktive Person"), categories(WikiLanguage.DE,
+        "[[Kategorie:Pseudonym]] [[Category:Fiktive Person|Smithee, Alan]]"));
+    assertEquals(Arrays.asList("Pseudonym"), categories(WikiLanguage.EN, "[[Kategorie:X]] "
+        + "[[Category:Pseudonym]]"));
+
+    // Categories follow the footer, so they are captured from the whole page as it is cleaned.
+    WikiPage page = WikiPage.of(FileUtils.readFileToString(
+        new File("src/test/resources/enwiki-20120104-id12.xml"), "UTF-8"));
+    WikiClean cleaner = new WikiClean.Builder().build();
+    StringBuilder out = new StringBuilder();
+    List<String> names = new ArrayList<>();
+    cleaner.clean(page, out, null, names::add);
+    assertEquals(cleaner.clean(page), out.toString());
+    assertEquals(Arrays.asList("Anarchism", "Political culture", "Political ideologies",
+        "Social theories", "Anti-fascism", "Greek loanwords"), names);
+  }
+
+  @Test
+  public void testIndex() throws IOException {
+    CategoryIndex.Builder builder = new CategoryIndex.Builder();
+    builder.add(30, "Zebras").add(12, "Animals").add(30, "Animals").add(12, "Animals")
+        .add(7, "Zebras").add(12, "Mammals");
+    CategoryIndex index = builder.build();
+    assertIndex(index);
+
+    File file = File.createTempFile("wikiclean", ".categories");
+    index.write(file);
+    assertIndex(CategoryIndex.read(file));
+    file.delete();
+  }
+
+  private static void assertIndex(CategoryIndex index) {
+    assertEquals(3, index.categories());
+    assertEquals(3, index.pages());
+    assertEquals(5, index.memberships());
+    assertEquals("Animals", index.name(0));
+    assertEquals("Mammals", index.name(1));
+    assertEquals(2, index.id("Zebras"));
+    assertEquals(-1, index.id("Birds"));
+
+    assertArrayEquals(new int[] { 0, 1 }, index.categories(12));
+    assertArrayEquals(new int[] { 0, 2 }, index.categories(30));
+    assertArrayEquals(new int[] { 2 }, index.categories(7));
+    assertArrayEquals(new int[0], index.categories(8));
+    assertArrayEquals(new int[] { 12, 30 }, index.pages(0));
+    assertArrayEquals(new int[] { 12 }, index.pages(1));
+    assertArrayEquals(new int[] { 7, 30 }, index.pages(2));
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotAnIndex() throws IOException {
+    File file = File.createTempFile("wikiclean", ".categories");
+    file.deleteOnExit();
+    FileUtils.writeStringToFile(file, "not an index", "UTF-8");
+    CategoryIndex.read(file);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CategoryIndexTest.class);
+  }
+}
@@ -0,0 +1,173 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import junit.framework.JUnit4TestAdapter;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.wikiclean.WikiClean.Engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CleanCacheTest {
+  private static WikiPage page(int id, String sha1, String text) {
+    return Fixtures.page(id, "Page " + id, 0, 1000 + id, null, sha1, text);
+  }
+
+  @Test
+  public void testHitsAndMisses() throws IOException {
+    File directory = Files.createTempDirectory("wikiclean").toFile();
+    WikiClean cleaner = new WikiClean.Builder().build();
+    WikiClean titled = new WikiClean.Builder().withTitle(true).build();
+    WikiPage page = page(12, "abc", "'''Bold''' [[Anarchism|text]].");
+    try (CleanCache cache = new CleanCache.Builder().build(directory)) {
+      assertEquals(cleaner.clean(page), cache.clean(cleaner, page));
+      assertEquals(cleaner.clean(page), cache.clean(cleaner, page));
+      assertEquals(1, cache.misses());
+      assertEquals(1, cache.hits());
+
+      // The title is not cached, so both cleaners share the entry.
+      assertEquals(titled.clean(page), cache.clean(titled, page));
+      assertEquals(2, cache.hits());
+
+      // Neither is the markup when there is a sha1, which stands for it.
+      assertEquals(cleaner.clean(page), cache.clean(cleaner, page(12, "abc", "Changed.")));
+      assertEquals(1, cache.size());
+
+      // Other configurations and other revisions miss.
+      WikiClean footer = new WikiClean.Builder().withFooter(true).build();
+      WikiClean lexer = new WikiClean.Builder().withEngine(Engine.LEXER).build();
+      cache.clean(footer, page);
+      cache.clean(lexer, page);
+      assertEquals("Changed.", cache.clean(cleaner, page(12, "abd", "Changed.")));
+      assertEquals(4, cache.misses());
+
+      // Without a sha1, the markup is the key.
+      assertEquals("One.", cache.clean(cleaner, page(39, "", "One.")));
+      assertEquals("Two.", cache.clean(cleaner, page(39, "", "Two.")));
+      assertEquals(6, cache.size());
+    }
+
+    // Entries persist across runs.
+    try (CleanCache cache = new CleanCache.Builder().build(directory)) {
+      assertEquals(6, cache.size());
+      assertEquals(cleaner.clean(page), cache.clean(cleaner, page));
+      assertEquals("Two.", cache.clean(cleaner, page(39, "", "Two.")));
+      assertEquals(2, cache.hits());
+      assertEquals(0, cache.misses());
+    }
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Test(expected = IOException.class)
+  public void testLocked() throws IOException {
+    File directory = Files.createTempDirectory("wikiclean").toFile();
+    try (CleanCache cache = new CleanCache.Builder().build(directory)) {
+      assertEquals(0, cache.size());
+      new CleanCache.Builder().build(directory);
+    } finally {
+      FileUtils.deleteDirectory(directory);
+    }
+  }
+
+  @Test
+  public void testEviction() throws IOException {
+    File directory = Files.createTempDirectory("wikiclean").toFile();
+    WikiClean cleaner = new WikiClean.Builder().build();
+    String text = new String(new char[1000]).replace('\0', 'x');
+    CleanCache.Builder builder = new CleanCache.Builder().withSegmentBytes(16 * 1024)
+        .withMaxBytes(64 * 1024);
+    try (CleanCache cache = builder.build(directory)) {
+      cache.clean(cleaner, page(1, "first", text));
+      for (int i = 2; i <= 200; i++) {
+        cache.clean(cleaner, page(i, "sha" + i, text));
+        // Read entries are kept.
+        cache.clean(cleaner, page(1, "first", text));
+      }
+      assertTrue(cache.bytes() <= 64 * 1024);
+      assertTrue(cache.size() < 70);
+      assertEquals(200, cache.misses());
+      assertEquals(199, cache.hits());
+
+      cache.clean(cleaner, page(2, "sha2", text));
+      assertEquals(201, cache.misses());
+      cache.clean(cleaner, page(200, "sha200", text));
+      assertEquals(200, cache.hits());
+    }
+
+    try (CleanCache cache = builder.build(directory)) {
+      assertTrue(cache.bytes() <= 64 * 1024);
+      assertEquals(text, cache.clean(cleaner, page(1, "first", text)));
+      assertEquals(1, cache.hits());
+    }
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Test
+  public void testConcurrentWorkers() throws Exception {
+    File directory = Files.createTempDirectory("wikiclean").toFile();
+    WikiClean cleaner = new WikiClean.Builder().build();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    CleanCache.Builder builder = new CleanCache.Builder().withSegmentBytes(64 * 1024)
+        .withMaxBytes(1024 * 1024);
+    try (CleanCache cache = builder.build(directory)) {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 500; i++) {
+            WikiPage page = page(i, "sha" + i, "'''Page''' " + i + ".");
+            assertEquals("Page " + i + ".", cache.clean(cleaner, page));
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      assertEquals(500, cache.size());
+      assertEquals(2000, cache.hits() + cache.misses());
+      assertTrue(cache.misses() >= 500);
+    } finally {
+      executor.shutdown();
+    }
+
+    // What the workers added survives reopening.
+    try (CleanCache cache = builder.build(directory)) {
+      assertEquals(500, cache.size());
+      for (int i = 0; i < 500; i++) {
+        assertEquals("Page " + i + ".", cache.clean(cleaner, page(i, "sha" + i, "Changed.")));
+      }
+      assertEquals(500, cache.hits());
+      assertEquals(0, cache.misses());
+    }
+    FileUtils.deleteDirectory(directory);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CleanCacheTest.class);
+  }
+}
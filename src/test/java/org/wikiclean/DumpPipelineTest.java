@@ -0,0 +1,207 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import junit.framework.JUnit4TestAdapter;
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.wikiclean.DumpPipeline.Stage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DumpPipelineTest {
+  private static File dump;
+  private static List<String> expected;
+
+  @BeforeClass
+  public static void createDump() throws IOException {
+    dump = WikipediaArticlesDumpTest.createDump(60);
+    WikiClean cleaner = new WikiClean.Builder().build();
+    expected = new WikipediaArticlesDump(dump, null).pages()
+        .map(page -> page.id() + "\t" + cleaner.clean(page)).collect(Collectors.toList());
+  }
+
+  @AfterClass
+  public static void deleteDump() {
+    dump.delete();
+  }
+
+  @Test
+  public void testOrderedOutput() throws IOException {
+    WikiClean cleaner = new WikiClean.Builder().build();
+    AtomicInteger workers = new AtomicInteger();
+    List<String> output = new ArrayList<>();
+
+    // Small queues, so that stages block on each other.
+    DumpPipeline.Stats stats = new DumpPipeline.Builder().withWorkers(3)
+        .withDecompressionThreads(2).withQueueBytes(128 * 1024).build()
+        .run(dump, () -> {
+          workers.incrementAndGet();
+          return page -> page.id() + "\t" + cleaner.clean(page);
+        }, output::add);
+
+    assertEquals(expected, output);
+    assertEquals(3, workers.get());
+    assertEquals(3, stats.threads(Stage.WORK));
+    assertEquals(60, stats.items(Stage.SPLIT));
+    assertEquals(60, stats.items(Stage.WORK));
+    assertEquals(60, stats.items(Stage.WRITE));
+    assertEquals(stats.bytes(Stage.SPLIT), stats.bytes(Stage.WORK));
+    assertTrue(stats.bytes(Stage.DECOMPRESS) > stats.bytes(Stage.SPLIT));
+    for (Stage stage : Stage.values()) {
+      assertTrue(stats.utilization(stage) >= 0 && stats.utilization(stage) <= 1);
+      assertTrue(stats.waitingNanos(stage) >= 0 && stats.blockedNanos(stage) >= 0);
+      assertTrue(stats.report().contains(stage.toString()));
+    }
+    assertTrue(stats.elapsedNanos() > 0);
+  }
+
+  @Test
+  public void testFilterAndSkip() throws IOException {
+    List<Long> ids = new ArrayList<>();
+    new DumpPipeline.Builder().withWorkers(2).build()
+        .run(dump, () -> page -> page.id() % 2 == 0 ? page.id() : null, ids::add);
+    assertEquals(expected.stream().map(line -> Long.parseLong(line.substring(0, line.indexOf('\t'))))
+        .filter(id -> id % 2 == 0).collect(Collectors.toList()), ids);
+
+    List<WikiPage> pages = new ArrayList<>();
+    new DumpPipeline.Builder().withFilter(new PageFilter.Builder().withNamespaces(1).build()).build()
+        .run(dump, () -> page -> page, pages::add);
+    assertTrue(pages.isEmpty());
+  }
+
+  @Test(timeout = 60000)
+  public void testFailure() {
+    AtomicInteger processed = new AtomicInteger();
+    try {
+      new DumpPipeline.Builder().withWorkers(2).withQueueBytes(64 * 1024).build()
+          .run(dump, () -> page -> {
+            if (processed.incrementAndGet() == 10) {
+              throw new IOException("Failed on purpose");
+            }
+            return page.title();
+          }, title -> {});
+      fail();
+    } catch (IOException e) {
+      assertEquals("Failed on purpose", e.getMessage());
+    }
+
+    try {
+      new DumpPipeline.Builder().build().run(dump, () -> page -> page.title(), title -> {
+        throw new IllegalStateException("Sink failed");
+      });
+      fail();
+    } catch (IOException | IllegalStateException e) {
+      assertEquals("Sink failed", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testCheckpointAndResume() throws IOException {
+    // Small blocks, and pages with ids of their own.
+    Random random = new Random(42);
+    List<String> pages = new ArrayList<>();
+    for (int id = 1; id <= 400; id++) {
+      StringBuilder text = new StringBuilder();
+      for (int i = 0; i < 200; i++) {
+        text.append(' ').append(random.nextInt(1000));
+      }
+      pages.add(Fixtures.xml(id, "Page " + id, 0, id + 1000, null, null, text.toString()));
+    }
+    File dump = Fixtures.dump(1, pages);
+    File output = File.createTempFile("wikiclean", ".txt");
+    File checkpoint = new File(output.getPath() + ".checkpoint");
+
+    // Crashes after a while, with more written than at the last checkpoint.
+    AtomicInteger written = new AtomicInteger();
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8)) {
+      new DumpPipeline.Builder().withWorkers(2).withQueueBytes(64 * 1024)
+          .withCheckpoints(checkpoint, writer, output).withCheckpointInterval(0).build()
+          .run(dump, () -> page -> page.id() % 3 == 0 ? null : page.id() + "\n", line -> {
+            try {
+              writer.write(line);
+              if (written.incrementAndGet() == 150) {
+                writer.write("partial line");
+                writer.flush();
+                throw new IllegalStateException("Crashed on purpose");
+              }
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("Crashed on purpose", e.getMessage());
+    }
+
+    Checkpoint last = Checkpoint.read(checkpoint);
+    assertEquals(223, last.pageId());
+    assertEquals(223, last.pages());
+    assertTrue(last.bit() > 32);
+    assertEquals(Collections.singletonMap(output.getPath(), output.length() - 4 - 12),
+        last.outputs());
+
+    last.truncate();
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(output, true), StandardCharsets.UTF_8)) {
+      new DumpPipeline.Builder().withWorkers(2)
+          .withCheckpoints(checkpoint, writer, output).withResume(last).build()
+          .run(dump, () -> page -> page.id() % 3 == 0 ? null : page.id() + "\n", line -> {
+            try {
+              writer.write(line);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+    }
+
+    List<String> ids = new ArrayList<>();
+    for (int id = 1; id <= 400; id++) {
+      if (id % 3 != 0) {
+        ids.add(Integer.toString(id));
+      }
+    }
+    assertEquals(ids, FileUtils.readLines(output, "UTF-8"));
+    assertEquals(400, Checkpoint.read(checkpoint).pages());
+    assertEquals(400, Checkpoint.read(checkpoint).pageId());
+
+    dump.delete();
+    output.delete();
+    checkpoint.delete();
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(DumpPipelineTest.class);
+  }
+}
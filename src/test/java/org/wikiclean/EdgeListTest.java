@@ -0,0 +1,87 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EdgeListTest {
+  @Test
+  public void testRoundTrip() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (EdgeListWriter writer = new EdgeListWriter(bytes)) {
+      writer.write(12, new int[] { 39, 12, 290, 39, 1 }, 5);
+      writer.write(39, new int[] { 7, 8 }, 1);
+      // Pages may come in any order.
+      writer.write(5, new int[0], 0);
+      writer.write(Integer.MAX_VALUE, new int[] { Integer.MAX_VALUE, 0 }, 2);
+      assertEquals(4, writer.pages());
+      assertEquals(7, writer.edges());
+    }
+
+    try (EdgeListReader reader = new EdgeListReader(new ByteArrayInputStream(bytes.toByteArray()))) {
+      assertTrue(reader.next());
+      assertEquals(12, reader.source());
+      assertArrayEquals(new int[] { 1, 12, 39, 290 }, Arrays.copyOf(reader.targets(), reader.count()));
+      assertTrue(reader.next());
+      assertEquals(39, reader.source());
+      assertArrayEquals(new int[] { 7 }, Arrays.copyOf(reader.targets(), reader.count()));
+      assertTrue(reader.next());
+      assertEquals(5, reader.source());
+      assertEquals(0, reader.count());
+      assertTrue(reader.next());
+      assertEquals(Integer.MAX_VALUE, reader.source());
+      assertArrayEquals(new int[] { 0, Integer.MAX_VALUE }, Arrays.copyOf(reader.targets(), reader.count()));
+      assertFalse(reader.next());
+    }
+  }
+
+  @Test
+  public void testCompact() throws IOException {
+    // Consecutive pages with nearby targets take a few bytes each.
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (EdgeListWriter writer = new EdgeListWriter(bytes)) {
+      int[] targets = new int[10];
+      for (int page = 1000000; page < 1001000; page++) {
+        for (int i = 0; i < targets.length; i++) {
+          targets[i] = page + 100 * i;
+        }
+        writer.write(page, targets, targets.length);
+      }
+    }
+    assertTrue(bytes.size() < 1000 * 16);
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotAnEdgeList() throws IOException {
+    new EdgeListReader(new ByteArrayInputStream(new byte[] { 'B', 'Z', 'h', '9' }));
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(EdgeListTest.class);
+  }
+}
@@ -0,0 +1,295 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.JUnit4TestAdapter;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ElasticsearchBulkSinkTest {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private HttpServer server;
+  private ExecutorService executor;
+  private RestClient client;
+
+  // What the stub received and how it should answer.
+  private final Map<String, AtomicInteger> indexed = new ConcurrentHashMap<>();
+  private final List<Integer> batchSizes = new ArrayList<>();
+  private final List<Integer> batchBytes = new ArrayList<>();
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicInteger maxActive = new AtomicInteger();
+  private final AtomicInteger requestFailures = new AtomicInteger();
+  private final AtomicInteger itemFailures = new AtomicInteger();
+  private volatile int failureStatus = 429;
+  private volatile int itemStatus = 429;
+  private volatile String path;
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    executor = Executors.newFixedThreadPool(8);
+    server.setExecutor(executor);
+    server.createContext("/", this::handle);
+    server.start();
+    client = RestClient.builder(new HttpHost("localhost", server.getAddress().getPort(), "http"))
+        .build();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    client.close();
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    int now = active.incrementAndGet();
+    maxActive.accumulateAndGet(now, Math::max);
+    try {
+      path = exchange.getRequestURI().getPath();
+      byte[] body = IOUtils.toByteArray(exchange.getRequestBody());
+      Thread.sleep(20);
+      if (requestFailures.getAndDecrement() > 0) {
+        respond(exchange, failureStatus, "{\"error\":\"busy\",\"status\":" + failureStatus + "}");
+        return;
+      }
+
+      BufferedReader lines = new BufferedReader(new StringReader(
+          new String(body, StandardCharsets.UTF_8)));
+      StringBuilder items = new StringBuilder();
+      boolean errors = false;
+      int documents = 0;
+      String action;
+      while ((action = lines.readLine()) != null) {
+        JsonNode source = MAPPER.readTree(lines.readLine());
+        String id = MAPPER.readTree(action).path("index").path("_id").asText();
+        assertEquals(id, source.path("id").asText());
+        int status = 201;
+        if (itemFailures.getAndDecrement() > 0) {
+          status = itemStatus;
+          errors = true;
+        } else {
+          indexed.computeIfAbsent(id, key -> new AtomicInteger()).incrementAndGet();
+        }
+        items.append(documents++ == 0 ? "" : ",")
+            .append("{\"index\":{\"_id\":\"").append(id).append("\",\"status\":").append(status)
+            .append("}}");
+      }
+      synchronized (batchSizes) {
+        batchSizes.add(documents);
+        batchBytes.add(body.length);
+      }
+      respond(exchange, 200, "{\"took\":1,\"errors\":" + errors + ",\"items\":[" + items + "]}");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      active.decrementAndGet();
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private ElasticsearchBulkSink.Builder builder() {
+    return new ElasticsearchBulkSink.Builder().withIndex("wiki").withType("page")
+        .withInitialBackoff(10);
+  }
+
+  private static String source(int id) {
+    return "{\"id\":\"" + id + "\",\"text\":\"Some text with \\\"quotes\\\" and é.\"}";
+  }
+
+  @Test
+  public void testBatches() throws IOException {
+    ElasticsearchBulkSink sink = builder().withMaxDocuments(7).withMaxBytes(700)
+        .withConcurrentRequests(3).build(client);
+    for (int i = 0; i < 100; i++) {
+      sink.add(Integer.toString(i), source(i));
+    }
+    sink.close();
+
+    assertEquals("/wiki/page/_bulk", path);
+    assertEquals(100, sink.documents());
+    assertEquals(0, sink.failedDocuments());
+    assertEquals(100, indexed.size());
+    for (AtomicInteger count : indexed.values()) {
+      assertEquals(1, count.get());
+    }
+    int total = 0;
+    for (int i = 0; i < batchSizes.size(); i++) {
+      assertTrue(batchSizes.get(i) <= 7);
+      assertTrue(batchBytes.get(i) <= 700);
+      total += batchSizes.get(i);
+    }
+    assertEquals(100, total);
+    assertEquals(batchSizes.size(), sink.requests());
+    assertTrue(maxActive.get() <= 3);
+  }
+
+  @Test
+  public void testRetryRequests() throws IOException {
+    requestFailures.set(3);
+    ElasticsearchBulkSink sink = builder().withMaxDocuments(10).withConcurrentRequests(2)
+        .build(client);
+    for (int i = 0; i < 50; i++) {
+      sink.add(Integer.toString(i), source(i));
+    }
+    sink.close();
+
+    assertEquals(3, sink.retries());
+    assertEquals(8, sink.requests());
+    assertEquals(0, sink.failedDocuments());
+    assertEquals(50, indexed.size());
+    for (AtomicInteger count : indexed.values()) {
+      assertEquals(1, count.get());
+    }
+  }
+
+  @Test
+  public void testRetryDocuments() throws IOException {
+    itemFailures.set(4);
+    ElasticsearchBulkSink sink = builder().withMaxDocuments(10).withConcurrentRequests(1)
+        .build(client);
+    for (int i = 0; i < 30; i++) {
+      sink.add(Integer.toString(i), source(i));
+    }
+    sink.close();
+
+    // The first four documents are rejected once and sent again on their own.
+    assertEquals(1, sink.retries());
+    assertEquals(Integer.valueOf(4), batchSizes.get(1));
+    assertEquals(30, indexed.size());
+    for (AtomicInteger count : indexed.values()) {
+      assertEquals(1, count.get());
+    }
+  }
+
+  @Test
+  public void testFailure() throws IOException {
+    requestFailures.set(Integer.MAX_VALUE);
+    ElasticsearchBulkSink sink = builder().withMaxDocuments(5).withMaxRetries(2).build(client);
+    try {
+      for (int i = 0; i < 10; i++) {
+        sink.add(Integer.toString(i), source(i));
+      }
+      sink.close();
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("429"));
+    }
+    assertTrue(sink.failedDocuments() > 0);
+    assertTrue(sink.failed("0"));
+    assertTrue(indexed.isEmpty());
+
+    // Client errors are not retried.
+    requestFailures.set(Integer.MAX_VALUE);
+    failureStatus = 400;
+    ElasticsearchBulkSink other = builder().build(client);
+    other.add("1", source(1));
+    try {
+      other.close();
+      fail();
+    } catch (IOException e) {
+      assertEquals(0, other.retries());
+      assertEquals(1, other.failedDocuments());
+      assertTrue(other.failed("1"));
+      assertFalse(other.failed("2"));
+    }
+  }
+
+  @Test
+  public void testRejectedDocument() throws IOException {
+    itemFailures.set(1);
+    itemStatus = 400;
+    ElasticsearchBulkSink sink = builder().withMaxDocuments(5).withConcurrentRequests(1)
+        .build(client);
+    for (int i = 0; i < 5; i++) {
+      sink.add(Integer.toString(i), source(i));
+    }
+    sink.await();
+    assertTrue(sink.failed("0"));
+
+    // Later documents are still indexed, and the rejection is reported at the end.
+    for (int i = 5; i < 20; i++) {
+      sink.add(Integer.toString(i), source(i));
+    }
+    try {
+      sink.close();
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getMessage().startsWith("1 documents"));
+    }
+    assertEquals(0, sink.retries());
+    assertEquals(1, sink.failedDocuments());
+    assertFalse(sink.failed("1"));
+    assertEquals(19, indexed.size());
+  }
+
+  @Test
+  public void testAwait() throws IOException {
+    ElasticsearchBulkSink sink = builder().withMaxDocuments(4).withConcurrentRequests(2)
+        .build(client);
+    for (int i = 0; i < 10; i++) {
+      sink.add(Integer.toString(i), source(i));
+    }
+    // Everything added so far is indexed, and the sink takes more.
+    sink.await();
+    assertEquals(10, indexed.size());
+    assertFalse(sink.failed("9"));
+    sink.add("10", source(10));
+    sink.close();
+    assertEquals(11, indexed.size());
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ElasticsearchBulkSinkTest.class);
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import org.apache.tools.bzip2.CBZip2OutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fixtures shared by the tests: pages in the XML of the dumps, and bz2 files made of them.
+ */
+final class Fixtures {
+  private Fixtures() {}
+
+  /**
+   * Writes what a bz2 stream compresses.
+   */
+  interface Content {
+    void writeTo(OutputStream out) throws IOException;
+  }
+
+  /**
+   * Returns the XML of a page, laid out as in the dumps.
+   * @param id page id
+   * @param title title, escaped
+   * @param namespace namespace
+   * @param revisionId revision id
+   * @param redirect target of the redirect element, or null for none
+   * @param sha1 sha1 of the revision, or null for none
+   * @param text markup, escaped
+   * @return the XML of the page
+   */
+  static String xml(long id, String title, int namespace, long revisionId, String redirect,
+      String sha1, String text) {
+    return "  <page>\n    <title>" + title + "</title>\n    <ns>" + namespace + "</ns>\n    <id>" + id
+        + "</id>\n" + (redirect == null ? "" : "    <redirect title=\"" + redirect + "\" />\n")
+        + "    <revision>\n      <id>" + revisionId + "</id>\n      <text xml:space=\"preserve\">"
+        + text + "</text>\n" + (sha1 == null ? "" : "      <sha1>" + sha1 + "</sha1>\n")
+        + "    </revision>\n  </page>\n";
+  }
+
+  /**
+   * Returns a page, as read from a dump.
+   * @see #xml(long, String, int, long, String, String, String)
+   */
+  static WikiPage page(long id, String title, int namespace, long revisionId, String redirect,
+      String sha1, String text) {
+    return WikiPage.of(xml(id, title, namespace, revisionId, redirect, sha1, text));
+  }
+
+  /**
+   * Writes a bz2 stream, "BZ" included, as the command-line tools do. The output is left open, so
+   * that streams can be concatenated.
+   * @param out where the stream is written
+   * @param blockSize block size, in units of 100k
+   * @param content what the stream compresses
+   * @return the number of bytes written
+   * @throws IOException if writing fails
+   */
+  static int writeStream(OutputStream out, int blockSize, Content content) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write('B');
+    bytes.write('Z');
+    try (CBZip2OutputStream bz2 = new CBZip2OutputStream(bytes, blockSize)) {
+      content.writeTo(bz2);
+    }
+    bytes.writeTo(out);
+    return bytes.size();
+  }
+
+  /**
+   * Writes a temporary bz2 file of a single stream.
+   * @param blockSize block size, in units of 100k
+   * @param content what the file compresses
+   * @return the file
+   * @throws IOException if writing fails
+   */
+  static File bz2(int blockSize, Content content) throws IOException {
+    File file = File.createTempFile("wikiclean", ".bz2");
+    try (OutputStream out = new FileOutputStream(file)) {
+      writeStream(out, blockSize, content);
+    }
+    return file;
+  }
+
+  /**
+   * Writes a temporary dump of pages.
+   * @param blockSize block size, in units of 100k
+   * @param pages XML of the pages
+   * @return the dump
+   * @throws IOException if writing fails
+   */
+  static File dump(int blockSize, Iterable<String> pages) throws IOException {
+    return bz2(blockSize, out -> {
+      out.write("<mediawiki>\n".getBytes(StandardCharsets.UTF_8));
+      for (String page : pages) {
+        out.write(page.getBytes(StandardCharsets.UTF_8));
+      }
+      out.write("</mediawiki>\n".getBytes(StandardCharsets.UTF_8));
+    });
+  }
+}
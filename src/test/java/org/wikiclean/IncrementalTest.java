@@ -0,0 +1,189 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+import org.wikiclean.Incremental.Change;
+import org.wikiclean.Incremental.Kind;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class IncrementalTest {
+  private static final PageFilter ARTICLES =
+      new PageFilter.Builder().withNamespaces(0).withRedirects(false).build();
+
+  private static String page(int id, int revision, String sha1, String text) {
+    return Fixtures.xml(id, "Page " + id, 0, revision, text.startsWith("#REDIRECT") ? "Page" : null,
+        sha1, text);
+  }
+
+  // A page with an older revision before the newer one, as in the adds-changes dumps.
+  private static String page(int id, int oldRevision, String oldSha1, String oldText, int revision,
+      String sha1, String text) {
+    String older = page(id, oldRevision, oldSha1, oldText);
+    String newer = page(id, revision, sha1, text);
+    return older.substring(0, older.indexOf("  </page>"))
+        + newer.substring(newer.indexOf("    <revision>"));
+  }
+
+  private static File dump(String... pages) throws IOException {
+    return Fixtures.dump(9, Arrays.asList(pages));
+  }
+
+  // Runs over a dump, and returns the changes as "+id" and "-id".
+  private static List<String> run(RevisionState state, File dump, boolean complete,
+      AtomicInteger cleaned) throws IOException {
+    List<String> changes = new ArrayList<>();
+    Incremental<String> incremental = new Incremental<>(state, ARTICLES);
+    new DumpPipeline.Builder().withWorkers(2).build().run(dump, incremental.workers(() -> page -> {
+      cleaned.incrementAndGet();
+      return page.text();
+    }), incremental.sink(change -> changes.add(describe(change))));
+    if (complete) {
+      incremental.deleteUnseen(change -> changes.add(describe(change)));
+    }
+    incremental.commit();
+    dump.delete();
+    return changes;
+  }
+
+  private static String describe(Change<String> change) {
+    return (change.kind() == Kind.UPSERT ? "+" : "-") + change.id()
+        + (change.result() == null ? "" : " " + change.result());
+  }
+
+  @Test
+  public void testIncremental() throws IOException {
+    File file = File.createTempFile("wikiclean", ".state");
+    file.delete();
+    AtomicInteger cleaned = new AtomicInteger();
+    try (RevisionState state = RevisionState.open(file)) {
+      List<String> changes = run(state, dump(page(1, 11, "a1", "one"), page(2, 21, "b1", "two"),
+          page(3, 31, "c1", "three"), page(4, 41, "d1", "#REDIRECT [[Page 1]]")), false, cleaned);
+      assertEquals("[+1 one, +2 two, +3 three]", changes.toString());
+      assertEquals(3, cleaned.get());
+      assertEquals(3, state.size());
+
+      // Page 1 is unchanged, page 2 has a new revision with the same content, page 3 changed,
+      // page 4 is still a redirect, and page 5 is new.
+      cleaned.set(0);
+      changes = run(state, dump(page(1, 11, "a1", "one"), page(2, 22, "b1", "two"),
+          page(3, 32, "c2", "three again"), page(4, 42, "d2", "#REDIRECT [[Page 2]]"),
+          page(5, 51, "e1", "five")), false, cleaned);
+      assertEquals("[+3 three again, +5 five]", changes.toString());
+      assertEquals(2, cleaned.get());
+      assertEquals(22, state.revisionId(2));
+      assertEquals(32, state.revisionId(3));
+
+      // Page 3 becomes a redirect, and the dump, complete, no longer has pages 1 and 2.
+      cleaned.set(0);
+      changes = run(state, dump(page(3, 33, "c3", "#REDIRECT [[Page 5]]"),
+          page(5, 51, "e1", "five")), true, cleaned);
+      assertEquals("[-3, -1, -2]", sorted(changes));
+      assertEquals(0, cleaned.get());
+      assertEquals(1, state.size());
+      assertEquals(51, state.revisionId(5));
+    }
+    file.delete();
+  }
+
+  @Test
+  public void testRevisions() throws IOException {
+    File file = File.createTempFile("wikiclean", ".state");
+    file.delete();
+    AtomicInteger cleaned = new AtomicInteger();
+    try (RevisionState state = RevisionState.open(file)) {
+      // The newest revision of the day is the one written and recorded.
+      List<String> changes = run(state, dump(page(1, 11, "a1", "old", 12, "a2", "new"),
+          page(2, 21, "b1", "two")), false, cleaned);
+      assertEquals("[+1 new, +2 two]", sorted(changes));
+      assertEquals(12, state.revisionId(1));
+
+      // So the next run finds it unchanged.
+      cleaned.set(0);
+      changes = run(state, dump(page(1, 12, "a2", "new")), false, cleaned);
+      assertEquals("[]", changes.toString());
+      assertEquals(0, cleaned.get());
+    }
+    file.delete();
+  }
+
+  @Test
+  public void testFailedSink() throws IOException {
+    File file = File.createTempFile("wikiclean", ".state");
+    file.delete();
+    File dump = dump(page(1, 11, "a1", "one"), page(2, 21, "b1", "two"),
+        page(3, 31, "c1", "three"), page(4, 41, "d1", "four"));
+    try (RevisionState state = RevisionState.open(file)) {
+      // The sink fails on the third change, so nothing is committed.
+      List<String> changes = new ArrayList<>();
+      Incremental<String> incremental = new Incremental<>(state, ARTICLES);
+      try {
+        new DumpPipeline.Builder().withWorkers(2).build().run(dump,
+            incremental.workers(() -> WikiPage::text), incremental.sink(change -> {
+              if (changes.size() == 2) {
+                throw new UncheckedIOException(new IOException("Disk full."));
+              }
+              changes.add(describe(change));
+            }));
+        fail();
+      } catch (IOException | RuntimeException e) {
+        // Expected.
+      }
+      assertEquals(2, incremental.pending());
+      assertEquals(0, state.size());
+
+      // The next run sends every page again, and the sink fails to write the second.
+      changes.clear();
+      incremental = new Incremental<>(state, ARTICLES);
+      new DumpPipeline.Builder().withWorkers(2).build().run(dump,
+          incremental.workers(() -> WikiPage::text), incremental.sink(change -> changes.add(describe(change))));
+      assertEquals("[+1 one, +2 two, +3 three, +4 four]", changes.toString());
+      incremental.commit(id -> id == 2);
+      assertEquals(3, state.size());
+      assertFalse(state.contains(2));
+
+      // Then only that page comes back.
+      assertEquals("[+2 two]", run(state, dump, false, new AtomicInteger()).toString());
+      assertEquals(4, state.size());
+    }
+    file.delete();
+  }
+
+  // Deletes of unseen pages come in no particular order.
+  private static String sorted(List<String> changes) {
+    List<String> tail = new ArrayList<>(changes.subList(1, changes.size()));
+    tail.sort(null);
+    tail.add(0, changes.get(0));
+    return tail.toString();
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IncrementalTest.class);
+  }
+}
@@ -0,0 +1,97 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PageSplitterTest {
+  private static final String DUMP = "<mediawiki>\n  <siteinfo>\n  </siteinfo>\n"
+      + "  <page>\n    <title>A</title>\n    <text>&lt;page&gt; é</text>\n  </page>\n"
+      + "  <page>\n    <title>B</title>\n  </page>\n"
+      + "</mediawiki>\n";
+
+  @Test
+  public void testPages() throws IOException {
+    List<String> expected = Arrays.asList(
+        "  <page>\n    <title>A</title>\n    <text>&lt;page&gt; é</text>\n  </page>\n",
+        "  <page>\n    <title>B</title>\n  </page>\n");
+    // Small buffers make the pages span reads, and grow the buffer.
+    for (int size : new int[] { 1, 7, 16, 1024 }) {
+      assertEquals(expected, split(DUMP, size));
+    }
+  }
+
+  @Test
+  public void testTagsAtEndOfLine() throws IOException {
+    // Only tags that end a line count.
+    assertEquals(Arrays.asList("x<page>\n<page>y\n</page>z\n</page>\n"),
+        split("<page>z\nx<page>\n<page>y\n</page>z\n</page>\n", 4));
+    assertEquals(Arrays.asList("<page>\na</page>z\n</page>\n"),
+        split("<page>\na</page>z\n</page>\n", 4));
+  }
+
+  @Test
+  public void testUnterminated() throws IOException {
+    assertEquals(Arrays.asList("<page>\ntext\n"), split("<page>\ntext", 3));
+    assertEquals(Arrays.asList("<page>\n</page>\n"), split("<page>\n</page>", 3));
+    assertEquals(Arrays.asList(), split("no pages\n", 3));
+    assertEquals(Arrays.asList(), split("", 3));
+  }
+
+  @Test
+  public void testSlice() throws IOException {
+    byte[] bytes = DUMP.getBytes(StandardCharsets.UTF_8);
+    PageSplitter splitter = new PageSplitter(new ByteArrayInputStream(bytes));
+    assertTrue(splitter.next());
+    byte[] page = "  <page>\n    <title>A</title>\n    <text>&lt;page&gt; é</text>\n  </page>\n"
+        .getBytes(StandardCharsets.UTF_8);
+    assertEquals(page.length, splitter.length());
+    assertArrayEquals(page, splitter.bytes());
+    assertArrayEquals(page, Arrays.copyOfRange(splitter.buffer(), splitter.start(),
+        splitter.start() + splitter.length()));
+    assertTrue(splitter.next());
+    assertFalse(splitter.next());
+    assertFalse(splitter.next());
+  }
+
+  private static List<String> split(String dump, int bufferSize) throws IOException {
+    PageSplitter splitter = new PageSplitter(
+        new ByteArrayInputStream(dump.getBytes(StandardCharsets.UTF_8)), bufferSize);
+    List<String> pages = new ArrayList<>();
+    while (splitter.next()) {
+      pages.add(splitter.page());
+    }
+    return pages;
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PageSplitterTest.class);
+  }
+}
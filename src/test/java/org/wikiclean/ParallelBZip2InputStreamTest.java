@@ -0,0 +1,189 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import junit.framework.JUnit4TestAdapter;
+import org.apache.commons.io.IOUtils;
+import org.apache.tools.bzip2.CBZip2InputStream;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelBZip2InputStreamTest {
+
+  @Test
+  public void testSingleBlock() throws IOException {
+    assertSameAsSequential(new File("src/test/resources/article-stubs.xml.bz2"), 2);
+  }
+
+  @Test
+  public void testManyBlocks() throws IOException {
+    // Several 900k blocks, with text as well as incompressible bytes.
+    Random random = new Random(42);
+    byte[] noise = new byte[1500 * 1000];
+    random.nextBytes(noise);
+    File file = Fixtures.bz2(9, bz2 -> {
+      for (int i = 0; i < 200000; i++) {
+        bz2.write(("line " + random.nextInt(100000) + "\n").getBytes("UTF-8"));
+      }
+      bz2.write(noise);
+    });
+    assertSameAsSequential(file, 1);
+    assertSameAsSequential(file, 3);
+    file.delete();
+  }
+
+  @Test
+  public void testConcatenatedStreams() throws IOException {
+    File file = File.createTempFile("wikiclean", ".bz2");
+    try (OutputStream out = new FileOutputStream(file)) {
+      for (String text : new String[] { "first\n", "", "second\n", "third\n" }) {
+        Fixtures.writeStream(out, 9, bz2 -> bz2.write(text.getBytes("UTF-8")));
+      }
+    }
+    try (InputStream in = new ParallelBZip2InputStream(file.toPath(), 2)) {
+      assertEquals("first\nsecond\nthird\n", IOUtils.toString(in, "UTF-8"));
+    }
+    file.delete();
+  }
+
+  @Test
+  public void testPosition() throws IOException {
+    File file = new File("src/test/resources/article-stubs.xml.bz2");
+    ParallelBZip2InputStream in = new ParallelBZip2InputStream(file.toPath(), 1);
+    assertEquals(0, in.position());
+    IOUtils.toByteArray(in);
+    assertEquals(file.length(), in.position());
+    in.close();
+  }
+
+  @Test
+  public void testBlockStart() throws IOException {
+    Random random = new Random(7);
+    File file = Fixtures.bz2(1, bz2 -> {
+      for (int i = 0; i < 60000; i++) {
+        bz2.write(("line " + random.nextInt(100000) + "\n").getBytes("UTF-8"));
+      }
+    });
+
+    // Remembers where each block starts, and what follows from there.
+    List<Long> starts = new ArrayList<>();
+    List<Integer> offsets = new ArrayList<>();
+    byte[] all;
+    try (ParallelBZip2InputStream in = new ParallelBZip2InputStream(file.toPath(), 2)) {
+      assertEquals(-1, in.blockStart());
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int n;
+      while ((n = in.read(buffer, 0, buffer.length)) > 0) {
+        if (starts.isEmpty() || starts.get(starts.size() - 1) != in.blockStart()) {
+          starts.add(in.blockStart());
+          offsets.add(out.size());
+        }
+        out.write(buffer, 0, n);
+      }
+      all = out.toByteArray();
+    }
+    assertTrue(starts.size() > 2);
+    assertEquals(32, (long) starts.get(0));
+
+    for (int i = 1; i < starts.size(); i++) {
+      try (InputStream in = new ParallelBZip2InputStream(file.toPath(), 2, starts.get(i))) {
+        assertArrayEquals(Arrays.copyOfRange(all, offsets.get(i), all.length), IOUtils.toByteArray(in));
+      }
+    }
+    file.delete();
+  }
+
+  @Test
+  public void testCorruptBlock() throws IOException {
+    Random random = new Random(7);
+    File file = Fixtures.bz2(1, bz2 -> {
+      for (int i = 0; i < 60000; i++) {
+        bz2.write(("line " + random.nextInt(100000) + "\n").getBytes("UTF-8"));
+      }
+    });
+    // Flips a byte of the first block, which no merge with the following ones repairs.
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(1000);
+      int b = raf.read();
+      raf.seek(1000);
+      raf.write(b ^ 0xff);
+    }
+    try (InputStream in = new ParallelBZip2InputStream(file.toPath(), 2)) {
+      IOUtils.toByteArray(in);
+      fail();
+    } catch (IOException e) {
+      assertEquals("Corrupt bz2 block at bit 32", e.getMessage());
+    }
+    file.delete();
+  }
+
+  @Test
+  public void testFalseBlockMagic() throws IOException {
+    // Two streams; the block of the second, at bit 440, holds a byte set whose symbol map spells
+    // out the block magic at bit 545. Decoding from there fails, and the two parts are merged.
+    File file = new File("src/test/resources/false-block-magic.bz2");
+    assertSameAsSequential(file, 1);
+    assertSameAsSequential(file, 2);
+
+    try (ParallelBZip2InputStream in = new ParallelBZip2InputStream(file.toPath(), 2)) {
+      assertEquals("<mediawiki>\n", IOUtils.toString(IOUtils.toByteArray(in, 12), "UTF-8"));
+      assertEquals(32, in.blockStart());
+      in.read();
+      assertEquals(440, in.blockStart());
+      assertEquals(299, IOUtils.toByteArray(in).length);
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotBZip2() throws IOException {
+    new ParallelBZip2InputStream(new File("src/test/resources/enwiki-20120104-id12.xml").toPath());
+  }
+
+  private static void assertSameAsSequential(File file, int threads) throws IOException {
+    byte[] expected;
+    try (InputStream in = new FileInputStream(file)) {
+      in.skip(2);
+      expected = IOUtils.toByteArray(new CBZip2InputStream(new BufferedInputStream(in), true));
+    }
+    try (InputStream in = new ParallelBZip2InputStream(file.toPath(), threads)) {
+      assertArrayEquals(expected, IOUtils.toByteArray(in));
+    }
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ParallelBZip2InputStreamTest.class);
+  }
+}
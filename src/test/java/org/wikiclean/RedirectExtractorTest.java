@@ -0,0 +1,138 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class RedirectExtractorTest {
+  private static WikiPage page(int id, String title, String redirect) {
+    return Fixtures.page(id, title, 0, 1, redirect, null,
+        redirect == null ? "Text." : "#REDIRECT [[" + redirect + "]]");
+  }
+
+  @Test
+  public void testNormalize() {
+    assertEquals("Anarchism", RedirectExtractor.normalize("Anarchism"));
+    assertEquals("Anarchism", RedirectExtractor.normalize("anarchism"));
+    assertEquals("Political philosophy", RedirectExtractor.normalize("political_philosophy#History"));
+    assertEquals("Émile Zola", RedirectExtractor.normalize("émile Zola"));
+    assertEquals("", RedirectExtractor.normalize("#Section"));
+  }
+
+  @Test
+  public void testResolve() throws IOException {
+    RedirectExtractor extractor = new RedirectExtractor();
+    extractor.add(page(12, "Anarchism", null));
+    extractor.add(page(39, "Albedo", null));
+    // A chain: 100 -> 101 -> 102 -> Anarchism.
+    extractor.add(page(100, "Anarchist", "Anarchists"));
+    extractor.add(page(101, "Anarchists", "anarchy#Etymology"));
+    extractor.add(page(102, "Anarchy", "Anarchism"));
+    // Direct, and to a page that comes later in the dump.
+    extractor.add(page(103, "Reflectivity ratio", "Albedo"));
+    extractor.add(page(104, "Abacus (tool)", "Abacus"));
+    // A cycle, a redirect into it, a redirect to itself, and one to a missing page.
+    extractor.add(page(200, "Loop A", "Loop B"));
+    extractor.add(page(201, "Loop B", "Loop A"));
+    extractor.add(page(202, "Into loop", "Loop A"));
+    extractor.add(page(203, "Self", "Self"));
+    extractor.add(page(204, "Broken", "Missing page"));
+    extractor.add(page(205, "Into broken", "Broken"));
+    extractor.add(page(655, "Abacus", null));
+
+    assertEquals(14, extractor.pages());
+    assertEquals(11, extractor.redirects());
+    RedirectMap map = extractor.resolve();
+    assertEquals(5, map.size());
+    assertEquals(4, extractor.cycles());
+    assertEquals(2, extractor.broken());
+
+    assertEquals(12, map.target(100));
+    assertEquals(12, map.target(101));
+    assertEquals(12, map.target(102));
+    assertEquals(39, map.target(103));
+    assertEquals(655, map.target(104));
+    assertEquals(-1, map.target(12));
+    assertEquals(-1, map.target(200));
+    assertEquals(-1, map.target(204));
+    assertEquals(12, map.resolve(12));
+    assertEquals(12, map.resolve(101));
+
+    File file = File.createTempFile("wikiclean", ".redirects");
+    map.write(file);
+    RedirectMap read = RedirectMap.read(file);
+    assertEquals(5, read.size());
+    assertEquals(655, read.target(104));
+    assertEquals(-1, read.target(204));
+    file.delete();
+  }
+
+  @Test
+  public void testMany() {
+    // A long chain, added from the end, over pages that are added again.
+    RedirectExtractor extractor = new RedirectExtractor();
+    for (int pass = 0; pass < 2; pass++) {
+      extractor.add(page(1, "Target", null));
+      for (int i = 100000; i > 1; i--) {
+        extractor.add(page(i, "Page " + i, i == 2 ? "Target" : "Page " + (i - 1)));
+      }
+    }
+    RedirectMap map = extractor.resolve();
+    assertEquals(99999, map.size());
+    for (int i = 2; i <= 100000; i++) {
+      assertEquals(1, map.target(i));
+    }
+  }
+
+  @Test
+  public void testThreads() throws InterruptedException {
+    // Each thread adds articles and redirects to the articles of the next thread.
+    RedirectExtractor extractor = new RedirectExtractor();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      int first = t * 10000;
+      int next = (t + 1) % threads.length * 10000;
+      threads[t] = new Thread(() -> {
+        for (int i = 1; i < 5000; i++) {
+          extractor.add(page(first + i, "Article " + (first + i), null));
+          extractor.add(page(first + 5000 + i, "Redirect " + (first + i), "Article " + (next + i)));
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(4 * 9998, extractor.pages());
+    assertEquals(4 * 4999, extractor.redirects());
+    RedirectMap map = extractor.resolve();
+    assertEquals(4 * 4999, map.size());
+    assertEquals(0, extractor.broken());
+    assertEquals(10001, map.target(5001));
+    assertEquals(1, map.target(35001));
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(RedirectExtractorTest.class);
+  }
+}
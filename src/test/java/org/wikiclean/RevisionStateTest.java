@@ -0,0 +1,113 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RevisionStateTest {
+  private static final String SHA1 = "phoiac9h4m842xq45sp7s6u21eteeq1";
+
+  @Test
+  public void testPutAndRemove() throws IOException {
+    File file = File.createTempFile("wikiclean", ".state");
+    file.delete();
+    try (RevisionState state = RevisionState.open(file)) {
+      assertEquals(0, state.size());
+      assertFalse(state.contains(12));
+      assertEquals(-1, state.revisionId(12));
+      assertNull(state.sha1(12));
+
+      state.put(12, 1000, SHA1);
+      state.put(39, 1001, "");
+      assertEquals(2, state.size());
+      assertEquals(1000, state.revisionId(12));
+      assertEquals(SHA1, state.sha1(12));
+      assertEquals("", state.sha1(39));
+
+      // By sha1 when there is one, by revision id otherwise.
+      assertTrue(state.matches(12, 2000, SHA1));
+      assertFalse(state.matches(12, 1000, "0" + SHA1.substring(1)));
+      assertTrue(state.matches(39, 1001, ""));
+      assertFalse(state.matches(39, 1002, ""));
+      assertFalse(state.matches(40, 1001, ""));
+
+      state.put(12, 1002, "1");
+      assertEquals("0000000000000000000000000000001", state.sha1(12));
+      assertTrue(state.remove(12));
+      assertFalse(state.remove(12));
+      assertFalse(state.contains(12));
+      assertEquals(1, state.size());
+    }
+
+    // Updates are in place, in the file.
+    try (RevisionState state = RevisionState.open(file)) {
+      assertEquals(1, state.size());
+      assertEquals(1001, state.revisionId(39));
+      assertFalse(state.contains(12));
+    }
+    file.delete();
+  }
+
+  @Test
+  public void testGrowth() throws IOException {
+    File file = File.createTempFile("wikiclean", ".state");
+    file.delete();
+    try (RevisionState state = RevisionState.open(file)) {
+      for (int id = 1; id <= 200000; id++) {
+        state.put(id, id * 10L, Integer.toString(id, 36));
+      }
+      for (int id = 1; id <= 200000; id += 2) {
+        state.remove(id);
+      }
+      assertEquals(100000, state.size());
+    }
+    try (RevisionState state = RevisionState.open(file)) {
+      assertEquals(100000, state.size());
+      Set<Long> ids = new HashSet<>();
+      state.forEach(ids::add);
+      assertEquals(100000, ids.size());
+      for (int id = 2; id <= 200000; id += 2) {
+        assertTrue(ids.contains((long) id));
+        assertEquals(id * 10L, state.revisionId(id));
+        assertTrue(state.matches(id, 0, Integer.toString(id, 36)));
+      }
+      assertFalse(state.contains(1));
+    }
+    assertFalse(new File(file.getPath() + ".tmp").exists());
+    file.delete();
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotState() throws IOException {
+    RevisionState.open(new File("src/test/resources/enwiki-20120104-id12.xml"));
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(RevisionStateTest.class);
+  }
+}
@@ -0,0 +1,88 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.ling.SentenceUtils;
+import edu.stanford.nlp.process.DocumentPreprocessor;
+import junit.framework.JUnit4TestAdapter;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SentenceSplitterTest {
+  private static List<String> split(SentenceSplitter splitter, String text) {
+    List<String> sentences = new ArrayList<>();
+    splitter.split(text, sentences::add);
+    return sentences;
+  }
+
+  @Test
+  public void testCoreNlp() throws Exception {
+    WikiClean cleaner = new WikiClean.Builder().build();
+    SentenceSplitter splitter = SentenceSplitter.Type.CORENLP.create();
+    for (String file : new String[] { "enwiki-20120104-id12.xml", "enwiki-20120104-id39.xml" }) {
+      String raw = FileUtils.readFileToString(new File("src/test/resources/" + file), "UTF-8");
+      String content = cleaner.clean(raw);
+
+      // Same sentences as a preprocessor of its own, with the splitter reused across articles.
+      List<String> expected = new ArrayList<>();
+      for (List<HasWord> sentence : new DocumentPreprocessor(new StringReader(content))) {
+        expected.add(SentenceUtils.listToString(sentence));
+      }
+      assertEquals(file, expected, split(splitter, content));
+    }
+  }
+
+  @Test
+  public void testRules() {
+    SentenceSplitter splitter = SentenceSplitter.Type.RULES.create();
+    assertEquals(Arrays.asList("First sentence.", "Second one!", "A third?"),
+        split(splitter, "First sentence. Second one! A third?"));
+    assertEquals(Arrays.asList("He said \"stop.\"", "Then left."),
+        split(splitter, "He said \"stop.\" Then left."));
+    assertEquals(Arrays.asList("Dr. Smith met J. R. R. Tolkien in the U.S. in 1950.", "It was 3.5 hours."),
+        split(splitter, "Dr. Smith met J. R. R. Tolkien in the U.S. in 1950. It was 3.5 hours."));
+    assertEquals(Arrays.asList("Heading", "Body, e.g. this.", "(A remark.)", "Last"),
+        split(splitter, "Heading\n\nBody, e.g. this. (A remark.)\nLast\n"));
+    assertEquals(Arrays.asList("lower. case stays together."),
+        split(splitter, "lower. case stays together."));
+    assertEquals(Arrays.asList("第一句。", "第二句。"), split(splitter, "第一句。第二句。"));
+    assertEquals(Arrays.asList(), split(splitter, " \n\n "));
+  }
+
+  @Test
+  public void testLines() {
+    StringBuilder lines = new StringBuilder();
+    for (int count : new int[] { 0, 7, 42, 999, 1000, 12345 }) {
+      lines.setLength(0);
+      DumpEnWikiToParsedSentences.appendLine(lines, "Title", count, "A sentence .");
+      assertEquals(String.format("%s.%04d\t%s\n", "Title", count, "A sentence ."), lines.toString());
+    }
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SentenceSplitterTest.class);
+  }
+}
@@ -0,0 +1,226 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import junit.framework.JUnit4TestAdapter;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wikiclean.ShardedWriter.Part;
+import org.wikiclean.ShardedWriter.Routing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardedWriterTest {
+  private File directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("shards").toFile();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  private static String record(int id) {
+    return id + "\tArticle " + id + " with some text.\n";
+  }
+
+  // Reads back every record, by shard.
+  private Map<Integer, List<String>> read(ShardedWriter writer) throws IOException {
+    Map<Integer, List<String>> shards = new HashMap<>();
+    for (Part part : writer.parts()) {
+      File file = new File(directory, part.file());
+      assertEquals(part.bytes(), file.length());
+      List<String> lines = FileUtils.readLines(file, "UTF-8");
+      assertEquals(part.records(), lines.size());
+      shards.computeIfAbsent(part.shard(), shard -> new ArrayList<>()).addAll(lines);
+    }
+    return shards;
+  }
+
+  @Test
+  public void testHashRouting() throws IOException {
+    ShardedWriter writer = new ShardedWriter.Builder().withShards(4)
+        .build(new File(directory, "out.txt"));
+    for (int i = 0; i < 1000; i++) {
+      writer.write(i, record(i));
+    }
+    for (int i = 0; i < 1000; i++) {
+      writer.write(i, record(i));
+    }
+    writer.close();
+
+    Map<Integer, List<String>> shards = read(writer);
+    assertEquals(4, shards.size());
+    Set<String> seen = new HashSet<>();
+    for (List<String> lines : shards.values()) {
+      // Both copies of a record land in the same shard, and the shards are not too uneven.
+      assertTrue(lines.size() > 300);
+      for (String line : lines) {
+        seen.add(line);
+      }
+      assertEquals(lines.size(), 2 * new HashSet<>(lines).size());
+    }
+    assertEquals(1000, seen.size());
+    assertTrue(new File(directory, "out-00000-00000.txt").exists());
+  }
+
+  @Test
+  public void testRoundRobinAndRolling() throws IOException {
+    ShardedWriter writer = new ShardedWriter.Builder().withShards(3)
+        .withRouting(Routing.ROUND_ROBIN).withMaxBytes(1000).withQueueBytes(256)
+        .build(new File(directory, "out.json"));
+    for (int i = 0; i < 300; i++) {
+      writer.write(7, record(i));
+    }
+    writer.close();
+
+    Map<Integer, List<String>> shards = read(writer);
+    for (int shard = 0; shard < 3; shard++) {
+      assertEquals(100, shards.get(shard).size());
+      // Records keep their order within a shard.
+      assertEquals(record(shard).trim(), shards.get(shard).get(0));
+    }
+    int[] parts = new int[3];
+    for (Part part : writer.parts()) {
+      assertTrue(part.bytes() <= 1000);
+      assertEquals(parts[part.shard()]++, part.part());
+    }
+    assertTrue(parts[0] > 1);
+  }
+
+  @Test
+  public void testManifest() throws IOException {
+    ShardedWriter writer = new ShardedWriter.Builder().withShards(8).withMaxBytes(500)
+        .build(new File(directory, "out.json"));
+    for (int i = 0; i < 5; i++) {
+      writer.write(i, record(i));
+    }
+    writer.close();
+    assertEquals(new File(directory, "out.manifest.json"), writer.manifest());
+
+    JsonNode manifest = new ObjectMapper().readTree(writer.manifest());
+    assertEquals(8, manifest.path("shards").asInt());
+    assertEquals("HASH", manifest.path("routing").asText());
+    assertEquals(5, manifest.path("records").asLong());
+    // Shards without records have no files.
+    assertEquals(writer.parts().size(), manifest.path("files").size());
+    assertTrue(writer.parts().size() <= 5);
+    long bytes = 0;
+    for (JsonNode file : manifest.path("files")) {
+      assertTrue(new File(directory, file.path("file").asText()).exists());
+      bytes += file.path("bytes").asLong();
+    }
+    assertEquals(bytes, manifest.path("bytes").asLong());
+    assertFalse(new File(directory, "out.manifest.json.tmp").exists());
+  }
+
+  @Test
+  public void testConcurrentWrites() throws Exception {
+    ShardedWriter writer = new ShardedWriter.Builder().withShards(3).withQueueBytes(1024)
+        .build(new File(directory, "out"));
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final int offset = t * 500;
+      threads.add(new Thread(() -> {
+        try {
+          for (int i = offset; i < offset + 500; i++) {
+            writer.write(i, record(i));
+          }
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    writer.close();
+
+    Set<String> seen = new HashSet<>();
+    for (List<String> lines : read(writer).values()) {
+      seen.addAll(lines);
+    }
+    assertEquals(2000, seen.size());
+    assertTrue(new File(directory, "out-00000-00000").exists());
+  }
+
+  @Test
+  public void testWriteAfterClose() throws IOException {
+    ShardedWriter writer = new ShardedWriter.Builder().build(new File(directory, "out.txt"));
+    writer.write(1, record(1));
+    writer.close();
+    try {
+      writer.write(2, record(2));
+      fail();
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+    writer.close();
+    assertEquals(1, writer.parts().get(0).records());
+  }
+
+  @Test
+  public void testFailedShard() throws Exception {
+    // A directory where the first file goes makes the shard fail.
+    assertTrue(new File(directory, "out-00000-00000.txt").mkdir());
+    ShardedWriter writer = new ShardedWriter.Builder().build(new File(directory, "out.txt"));
+    try {
+      // The shard fails on its own thread, so records are refused from some point on.
+      for (int i = 0; i < 1000; i++) {
+        writer.write(i, record(i));
+        Thread.sleep(1);
+      }
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+    try {
+      writer.close();
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+    assertFalse(writer.manifest().exists());
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ShardedWriterTest.class);
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TitleIndexTest {
+  @Test
+  public void testLookups() throws IOException {
+    File file = File.createTempFile("wikiclean", ".titles");
+    new TitleIndex.Builder()
+        .add(12, "Anarchism")
+        .add(39, "Albedo")
+        .add(290, "A")
+        .add(303, "Alabama")
+        .add(586, "ASCII")
+        .add(655, "Abacus")
+        .add(700, "AscII")
+        .add(1718, "Zürich")
+        .add(13, "Anarchism")
+        .write(file);
+
+    try (TitleIndex index = TitleIndex.open(file)) {
+      assertEquals(8, index.size());
+      assertEquals(39, index.id("Albedo"));
+      assertEquals(290, index.id("A"));
+      assertEquals(1718, index.id("Zürich"));
+      // The last page added with a title is kept.
+      assertEquals(13, index.id("Anarchism"));
+      assertEquals(-1, index.id("albedo"));
+      assertEquals(-1, index.id("Missing"));
+      assertEquals(-1, index.id(""));
+
+      assertEquals(39, index.idIgnoreCase("albedo"));
+      assertEquals(1718, index.idIgnoreCase("ZÜRICH"));
+      assertEquals(303, index.idIgnoreCase("alabama_"));
+      // The lowest id, of several titles.
+      assertEquals(586, index.idIgnoreCase("ascii"));
+      assertEquals(-1, index.idIgnoreCase("missing"));
+
+      assertEquals("Anarchism", index.title(13));
+      assertEquals("AscII", index.title(700));
+      assertEquals("Zürich", index.title(1718));
+      assertNull(index.title(12));
+      assertNull(index.title(1L << 40));
+    }
+    file.delete();
+  }
+
+  @Test
+  public void testMany() throws IOException {
+    File file = File.createTempFile("wikiclean", ".titles");
+    TitleIndex.Builder builder = new TitleIndex.Builder().withBlockSize(8);
+    Random random = new Random(42);
+    String[] titles = new String[20000];
+    for (int i = 0; i < titles.length; i++) {
+      titles[i] = "Title " + Long.toString(random.nextLong() & Long.MAX_VALUE, 36) + " " + i;
+      builder.add(i * 3 + 1, titles[i]);
+    }
+    builder.write(file);
+
+    try (TitleIndex index = TitleIndex.open(file)) {
+      assertEquals(titles.length, index.size());
+      for (int i = 0; i < titles.length; i++) {
+        assertEquals(i * 3 + 1, index.id(titles[i]));
+        assertEquals(i * 3 + 1, index.idIgnoreCase(titles[i].toUpperCase()));
+        assertEquals(titles[i], index.title(i * 3 + 1));
+        assertNull(index.title(i * 3 + 2));
+        assertEquals(-1, index.id(titles[i] + "x"));
+      }
+    }
+    file.delete();
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    File file = File.createTempFile("wikiclean", ".titles");
+    new TitleIndex.Builder().write(file);
+    try (TitleIndex index = TitleIndex.open(file)) {
+      assertEquals(0, index.size());
+      assertEquals(-1, index.id("A"));
+      assertEquals(-1, index.idIgnoreCase("A"));
+      assertNull(index.title(1));
+    }
+    file.delete();
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotAnIndex() throws IOException {
+    File file = File.createTempFile("wikiclean", ".titles");
+    file.deleteOnExit();
+    TitleIndex.open(file);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TitleIndexTest.class);
+  }
+}
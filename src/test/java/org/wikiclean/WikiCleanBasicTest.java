@@ -19,8 +19,10 @@ package org.wikiclean;
 import junit.framework.JUnit4TestAdapter;
 import org.apache.commons.io.FileUtils;
 import org.junit.Test;
+import org.wikiclean.WikiClean.WikiLanguage;
 
 import java.io.File;
+import java.io.StringWriter;
 import java.lang.reflect.Method;
 
 import static org.junit.Assert.assertEquals;
@@ -48,113 +50,178 @@ public class WikiCleanBasicTest {
 
   @Test
   public void testRemoveImageCaption() throws Exception {
-    try {
-      // Accessing non-visible classes with reflection
-      // https://stackoverflow.com/questions/15015675/accessing-non-visible-classes-with-reflection
-      Class<?> innerClazz = Class.forName("org.wikiclean.WikiClean$ImageCaptionsRemover");
-
-      Class[] classArgs = new Class[1];
-      classArgs[0] = String.class;
-      Method method = innerClazz.getDeclaredMethod("remove", classArgs);
-      method.setAccessible(true);
-
-      assertEquals("abc", method.invoke("[[File: blah blah]]abc"));
-      assertEquals("abc", method.invoke("abc[[File: blah blah]]"));
-      assertEquals("", method.invoke("[[File: blah blah]]"));
-      assertEquals("abcdef", method.invoke("abc[[File: blah blah]]def"));
-      assertEquals("abcdef", method.invoke("abc[[File: [ ] [ ] [ [ ] ]]def"));
-      assertEquals("abcdef", method.invoke("abc[[File: blah [[nesting]] blah]]def"));
-      assertEquals("abcdef", method.invoke("abc[[File: blah [[nesting [[ ]] ]] blah]]def"));
-      assertEquals("abcdef", method.invoke("abc[[File: blah [[nesting]] [[blah]]]]def"));
-
-      assertEquals("", method.invoke("[[File: blah[[[[]]]] blah]]"));
-
-      // Unbalanced, removes everything until the end.
-      assertEquals("abc", method.invoke("abc[[File: blah [[nesting blah]]def"));
-
-      assertEquals("abcdef", method.invoke("abc[[File: here]][[File: blah blah]]def"));
-      assertEquals("abcdef", method.invoke("abc[[File: here]]d[[File: blah blah]]ef"));
-      assertEquals("", method.invoke("[[File: here]][[File: blah blah]]"));
-      assertEquals("abcdef", method.invoke("abc[[File: [[ blah ]] here]][[File: blah blah]]def"));
-
-      // Sprinkle in non-ASCII characters to make sure everything still works.
-      assertEquals("abc政府def", method.invoke("abc[[File: 政府 blah [[nesting]] blah政府]]政府def"));
-      assertEquals("abc政府def", method.invoke("abc[[File: blah [[nesting [[政府]] [政府[ ]x] ]] blah]]政府def"));
-    } catch (Exception e) {}
+    // Accessing non-visible classes with reflection
+    // https://stackoverflow.com/questions/15015675/accessing-non-visible-classes-with-reflection
+    Class<?> innerClazz = Class.forName("org.wikiclean.WikiClean$NestedConstructsRemover");
+
+    Class[] classArgs = new Class[1];
+    classArgs[0] = String.class;
+    Method method = innerClazz.getDeclaredMethod("removeImageCaptionsAndDoubleBraces", classArgs);
+    method.setAccessible(true);
+
+    assertEquals("abc", method.invoke(null, "[[File: blah blah]]abc"));
+    assertEquals("abc", method.invoke(null, "abc[[File: blah blah]]"));
+    assertEquals("", method.invoke(null, "[[File: blah blah]]"));
+    assertEquals("abcdef", method.invoke(null, "abc[[File: blah blah]]def"));
+    assertEquals("abcdef", method.invoke(null, "abc[[File: [ ] [ ] [ [ ] ]]def"));
+    assertEquals("abcdef", method.invoke(null, "abc[[File: blah [[nesting]] blah]]def"));
+    assertEquals("abcdef", method.invoke(null, "abc[[File: blah [[nesting [[ ]] ]] blah]]def"));
+    assertEquals("abcdef", method.invoke(null, "abc[[File: blah [[nesting]] [[blah]]]]def"));
+
+    assertEquals("", method.invoke(null, "[[File: blah[[[[]]]] blah]]"));
+
+    // Unbalanced, removes everything until the end.
+    assertEquals("abc", method.invoke(null, "abc[[File: blah [[nesting blah]]def"));
+
+    assertEquals("abcdef", method.invoke(null, "abc[[File: here]][[File: blah blah]]def"));
+    assertEquals("abcdef", method.invoke(null, "abc[[File: here]]d[[File: blah blah]]ef"));
+    assertEquals("", method.invoke(null, "[[File: here]][[File: blah blah]]"));
+    assertEquals("abcdef", method.invoke(null, "abc[[File: [[ blah ]] here]][[File: blah blah]]def"));
+
+    // Sprinkle in non-ASCII characters to make sure everything still works.
+    assertEquals("abc政府def", method.invoke(null, "abc[[File: 政府 blah [[nesting]] blah政府]]政府def"));
+    assertEquals("abc政府def", method.invoke(null, "abc[[File: blah [[nesting [[政府]] [政府[ ]x] ]] blah]]政府def"));
   }
 
   @Test
   public void testRemoveDoubleBraces() throws Exception {
-    try {
-      // Accessing non-visible classes with reflection
-      // https://stackoverflow.com/questions/15015675/accessing-non-visible-classes-with-reflection
-      Class<?> innerClazz = Class.forName("org.wikiclean.WikiClean$DoubleBracesRemover");
-
-      Class[] classArgs = new Class[1];
-      classArgs[0] = String.class;
-      Method method = innerClazz.getDeclaredMethod("remove", classArgs);
-      method.setAccessible(true);
-
-      assertEquals("abc", method.invoke("{{blah blah}}abc"));
-      assertEquals("abc", method.invoke("abc{{blah blah}}"));
-      assertEquals("", method.invoke("{{blah blah}}"));
-      assertEquals("abcdef", method.invoke("abc{{blah blah}}def"));
-      assertEquals("abcdef", method.invoke("abc{{{ } { } { } }}def"));
-      assertEquals("abcdef", method.invoke("abc{{blah {{nesting}} blah}}def"));
-      assertEquals("abcdef", method.invoke("abc{{blah {{nesting {{ }} }} blah}}def"));
-      assertEquals("abcdef", method.invoke("abc{{blah {{nesting}} {{blah}}}}def"));
-
-      assertEquals("", method.invoke("{{blah{{{{}}}} blah}}"));
-
-      // Unbalanced, removes everything until the end.
-      assertEquals("abc", method.invoke("abc{{blah {{nesting blah}}def"));
-
-      assertEquals("abcdef", method.invoke("abc{{here}}{{blah blah}}def"));
-      assertEquals("abcdef", method.invoke("abc{{here}}d{{blah blah}}ef"));
-      assertEquals("", method.invoke("{{here}}{{blah blah}}"));
-      assertEquals("abcdef", method.invoke("abc{{{{ blah }} here}}{{blah blah}}def"));
-
-      // Sprinkle in non-ASCII characters to make sure everything still works.
-      assertEquals("abc政府def", method.invoke("abc{{政府 blah {{nesting}} blah政府}}政府def"));
-      assertEquals("abc政府def", method.invoke("abc{{blah {{nesting {{政府}} [政府[ ]x] }} blah}}政府def"));
-    } catch (Exception e) {}
+    // Accessing non-visible classes with reflection
+    // https://stackoverflow.com/questions/15015675/accessing-non-visible-classes-with-reflection
+    Class<?> innerClazz = Class.forName("org.wikiclean.WikiClean$NestedConstructsRemover");
+
+    Class[] classArgs = new Class[1];
+    classArgs[0] = String.class;
+    Method method = innerClazz.getDeclaredMethod("removeImageCaptionsAndDoubleBraces", classArgs);
+    method.setAccessible(true);
+
+    assertEquals("abc", method.invoke(null, "{{blah blah}}abc"));
+    assertEquals("abc", method.invoke(null, "abc{{blah blah}}"));
+    assertEquals("", method.invoke(null, "{{blah blah}}"));
+    assertEquals("abcdef", method.invoke(null, "abc{{blah blah}}def"));
+    assertEquals("abcdef", method.invoke(null, "abc{{{ } { } { } }}def"));
+    assertEquals("abcdef", method.invoke(null, "abc{{blah {{nesting}} blah}}def"));
+    assertEquals("abcdef", method.invoke(null, "abc{{blah {{nesting {{ }} }} blah}}def"));
+    assertEquals("abcdef", method.invoke(null, "abc{{blah {{nesting}} {{blah}}}}def"));
+
+    assertEquals("", method.invoke(null, "{{blah{{{{}}}} blah}}"));
+
+    // Unbalanced, removes everything until the end.
+    assertEquals("abc", method.invoke(null, "abc{{blah {{nesting blah}}def"));
+
+    assertEquals("abcdef", method.invoke(null, "abc{{here}}{{blah blah}}def"));
+    assertEquals("abcdef", method.invoke(null, "abc{{here}}d{{blah blah}}ef"));
+    assertEquals("", method.invoke(null, "{{here}}{{blah blah}}"));
+    assertEquals("abcdef", method.invoke(null, "abc{{{{ blah }} here}}{{blah blah}}def"));
+
+    // Sprinkle in non-ASCII characters to make sure everything still works.
+    assertEquals("abc政府def", method.invoke(null, "abc{{政府 blah {{nesting}} blah政府}}政府def"));
+    assertEquals("abc政府def", method.invoke(null, "abc{{blah {{nesting {{政府}} [政府[ ]x] }} blah}}政府def"));
   }
 
   @Test
   public void testRemoveTables() throws Exception {
-    try {
-      // Accessing non-visible classes with reflection
-      // https://stackoverflow.com/questions/15015675/accessing-non-visible-classes-with-reflection
-      Class<?> innerClazz = Class.forName("org.wikiclean.WikiClean$TableRemover");
+    // Accessing non-visible classes with reflection
+    // https://stackoverflow.com/questions/15015675/accessing-non-visible-classes-with-reflection
+    Class<?> innerClazz = Class.forName("org.wikiclean.WikiClean$NestedConstructsRemover");
+
+    Class[] classArgs = new Class[1];
+    classArgs[0] = String.class;
+    Method method = innerClazz.getDeclaredMethod("removeTables", classArgs);
+    method.setAccessible(true);
+
+    assertEquals("abc", method.invoke(null, "{|blah blah|}abc"));
+    assertEquals("abc", method.invoke(null, "abc{|blah blah|}"));
+    assertEquals("", method.invoke(null, "{|blah blah|}"));
+    assertEquals("abcdef", method.invoke(null, "abc{|blah blah|}def"));
+    assertEquals("abcdef", method.invoke(null, "abc{|| | | | | | |}def"));
+    assertEquals("abcdef", method.invoke(null, "abc{|blah {|nesting|} blah|}def"));
+    assertEquals("abcdef", method.invoke(null, "abc{|blah {|nesting {| | | |} |} blah|}def"));
+    assertEquals("abcdef", method.invoke(null, "abc{|blah {|nesting|} {|blah|}|}def"));
+
+    assertEquals("", method.invoke(null, "{|blah{|{||}|} blah|}"));
+
+    // Unbalanced, removes everything until the end.
+    assertEquals("abc", method.invoke(null, "abc{|blah {|nesting blah|}def"));
+
+    assertEquals("abcdef", method.invoke(null, "abc{|here|}{|blah blah|}def"));
+    assertEquals("abcdef", method.invoke(null, "abc{|here|}d{|blah blah|}ef"));
+    assertEquals("", method.invoke(null, "{|here|}{|blah blah|}"));
+    assertEquals("abcdef", method.invoke(null, "abc{|{| blah |} here|}{|blah blah|}def"));
+
+    // Sprinkle in non-ASCII characters to make sure everything still works.
+    assertEquals("abc政府def", method.invoke(null, "abc{|政府 blah {|nesting|} blah政府|}政府def"));
+    assertEquals("abc政府def", method.invoke(null, "abc{|blah {|nesting {|政府|} [政府[ ]x] |} blah|}政府def"));
+  }
 
-      Class[] classArgs = new Class[1];
-      classArgs[0] = String.class;
-      Method method = innerClazz.getDeclaredMethod("remove", classArgs);
-      method.setAccessible(true);
+  @Test
+  public void testRemoveNestedConstructs() throws Exception {
+    Class<?> innerClazz = Class.forName("org.wikiclean.WikiClean$NestedConstructsRemover");
+
+    Class<?>[] classArgs = new Class<?>[1];
+    classArgs[0] = String.class;
+    Method method = innerClazz.getDeclaredMethod("removeImageCaptionsAndDoubleBraces", classArgs);
+    method.setAccessible(true);
+
+    assertEquals("abcdef", method.invoke(null, "abc[[File: x]]{{blah}}def"));
+    assertEquals("abcdef", method.invoke(null, "abc{{Infobox|image=[[Image: x [[y]]]]|a}}def"));
+    assertEquals("abcdef", method.invoke(null, "abc[[Datei:x {{blah}}]]def"));
+    // Tables are left to their own stage.
+    assertEquals("abc{|a|}def", method.invoke(null, "abc{{blah}}{|a|}def"));
+
+    // Removing a construct may form a new one from the text around it.
+    assertEquals("abcdef", method.invoke(null, "abc{[[File: x]]{blah}}def"));
+    assertEquals("abcdef", method.invoke(null, "abc[[Im[[File: x]]age: blah]]def"));
+
+    // Unbalanced, removes everything until the end.
+    assertEquals("abc", method.invoke(null, "abc{{blah [[File: x]] def"));
+    assertEquals("abc", method.invoke(null, "abc[[File: {{x}} def"));
+    assertEquals("abc[[Fil", method.invoke(null, "abc[[Fil"));
+  }
+
+  @Test
+  public void testRemoveFooter() throws Exception {
+    Class<?>[] classArgs = new Class<?>[1];
+    classArgs[0] = String.class;
+    Method method = WikiClean.class.getDeclaredMethod("removeFooter", classArgs);
+    method.setAccessible(true);
+
+    WikiClean cleaner = new WikiClean.Builder().build();
+    assertEquals("abc\n", method.invoke(cleaner, "abc\n==See also==\ndef"));
+    assertEquals("abc\n", method.invoke(cleaner, "abc\n== references ==\ndef\n==See also==\nghi"));
+    assertEquals("abc\n", method.invoke(cleaner, "abc\n==EXTERNAL LINKS==\ndef\n==References==\nghi"));
+    assertEquals("abc\n", method.invoke(cleaner, "abc\n==\tFurther reading\n==\ndef"));
+    assertEquals("abc\n==Seealso==\ndef", method.invoke(cleaner, "abc\n==Seealso==\ndef"));
+    assertEquals("abc\n==Weblinks==\ndef", method.invoke(cleaner, "abc\n==Weblinks==\ndef"));
+
+    cleaner = new WikiClean.Builder().withLanguage(WikiLanguage.DE).build();
+    assertEquals("abc\n", method.invoke(cleaner, "abc\n== Literatur ==\ndef\n== Weblinks ==\nghi"));
+    assertEquals("abc\n==See also==\ndef", method.invoke(cleaner, "abc\n==See also==\ndef"));
+
+    cleaner = new WikiClean.Builder().withLanguage(WikiLanguage.ZH).build();
+    assertEquals("abc\n", method.invoke(cleaner, "abc\n==参考书目==\ndef\n==参见==\nghi"));
+  }
 
-      assertEquals("abc", method.invoke("{|blah blah|}abc"));
-      assertEquals("abc", method.invoke("abc{|blah blah|}"));
-      assertEquals("", method.invoke("{|blah blah|}"));
-      assertEquals("abcdef", method.invoke("abc{|blah blah|}def"));
-      assertEquals("abcdef", method.invoke("abc{|| | | | | | |}def"));
-      assertEquals("abcdef", method.invoke("abc{|blah {|nesting|} blah|}def"));
-      assertEquals("abcdef", method.invoke("abc{|blah {|nesting {| | | |} |} blah|}def"));
-      assertEquals("abcdef", method.invoke("abc{|blah {|nesting|} {|blah|}|}def"));
+  @Test
+  public void testAppendableOutput() throws Exception {
+    String raw = FileUtils.readFileToString(new File("src/test/resources/enwiki-20120104-id12.xml"), "UTF-8");
 
-      assertEquals("", method.invoke("{|blah{|{||}|} blah|}"));
+    for (WikiClean.Engine engine : WikiClean.Engine.values()) {
+      WikiClean cleaner = new WikiClean.Builder().withTitle(true).withEngine(engine).build();
+      String expected = cleaner.clean(raw);
 
-      // Unbalanced, removes everything until the end.
-      assertEquals("abc", method.invoke("abc{|blah {|nesting blah|}def"));
+      // Page held in a StringBuilder, output appended to a StringBuilder with existing content.
+      StringBuilder out = new StringBuilder("prefix");
+      cleaner.clean(new StringBuilder(raw), out);
+      assertEquals("prefix" + expected, out.toString());
 
-      assertEquals("abcdef", method.invoke("abc{|here|}{|blah blah|}def"));
-      assertEquals("abcdef", method.invoke("abc{|here|}d{|blah blah|}ef"));
-      assertEquals("", method.invoke("{|here|}{|blah blah|}"));
-      assertEquals("abcdef", method.invoke("abc{|{| blah |} here|}{|blah blah|}def"));
+      StringWriter writer = new StringWriter();
+      cleaner.clean(raw, writer);
+      assertEquals(expected, writer.toString());
 
-      // Sprinkle in non-ASCII characters to make sure everything still works.
-      assertEquals("abc政府def", method.invoke("abc{|政府 blah {|nesting|} blah政府|}政府def"));
-      assertEquals("abc政府def", method.invoke("abc{|blah {|nesting {|政府|} [政府[ ]x] |} blah|}政府def"));
-    } catch (Exception e) {}
+      out.setLength(0);
+      cleaner.cleanMarkup(cleaner.getWikiMarkup((CharSequence) raw), out);
+      assertEquals(expected, "Anarchism\n\n" + out);
+    }
   }
 
   @Test
@@ -0,0 +1,105 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import junit.framework.JUnit4TestAdapter;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.wikiclean.WikiClean.Engine;
+import org.wikiclean.WikiClean.WikiLanguage;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+public class WikiCleanLexerTest {
+  private static final String[] EN = { "simplewiki-20161220-id6.xml", "enwiki-20120104-id12.xml",
+      "enwiki-20120104-id39.xml", "enwiki-20120104-id290.xml", "enwiki-20120104-id303.xml",
+      "enwiki-20120104-id586.xml", "enwiki-20120104-id655.xml", "enwiki-20120104-id1718.xml" };
+  private static final String[] DE = { "dewiki-20130602-id1.xml", "dewiki-20130602-id5.xml",
+      "dewiki-20130602-id81.xml", "dewiki-20130602-id89.xml", "dewiki-20130602-id111.xml" };
+  private static final String[] ZH = { "zhwiki-20150423-id13.xml" };
+
+  private static final String PAGE = "<page>\n<title>Test</title>\n<text xml:space=\"preserve\">%s</text>\n</page>";
+
+  @Test
+  public void testEngineSelection() {
+    assertEquals(Engine.REGEX, new WikiClean.Builder().build().engine());
+    assertEquals(Engine.LEXER, new WikiClean.Builder().withEngine(Engine.LEXER).build().engine());
+  }
+
+  @Test
+  public void testSameOutputEn() throws Exception {
+    for (String file : EN) {
+      assertSameOutput(file, WikiLanguage.EN);
+    }
+  }
+
+  @Test
+  public void testSameOutputDe() throws Exception {
+    for (String file : DE) {
+      assertSameOutput(file, WikiLanguage.DE);
+    }
+  }
+
+  @Test
+  public void testSameOutputZh() throws Exception {
+    for (String file : ZH) {
+      assertSameOutput(file, WikiLanguage.ZH);
+    }
+  }
+
+  @Test
+  public void testMarkup() {
+    assertSameMarkup("'''Bold''' and ''italic'' text.");
+    assertSameMarkup("See [[Anarchism|anarchists]] and [[Category:Political culture]] [[de:Anarchismus]].");
+    assertSameMarkup("Text.&lt;ref name=&quot;a&quot;&gt;Cite {{cite web|url=x}}&lt;/ref&gt; More.");
+    assertSameMarkup("==Heading==\nBody.\n===Sub===\nMore.");
+    assertSameMarkup("{{Infobox|a={{nested|b}}|c=[[File:X.jpg|thumb|caption [[link]]]]}}Text.");
+    assertSameMarkup("[[Image:X.jpg|thumb|A caption with [[nested]] links]]Text.");
+    assertSameMarkup("A {{convert|10|km|mi}} road.");
+    assertSameMarkup("Before\n{| class=\"wikitable\"\n|-\n| a || b\n|}\nAfter");
+    assertSameMarkup("&lt;!-- comment --&gt;Text &amp;amp; more &lt;math&gt;x^2&lt;/math&gt;.");
+    assertSameMarkup("Name ({{IPA-en|ˈnæm|}}) is __NOTOC__\n: indented\n\n\n\nText.");
+    assertSameMarkup("Unbalanced {{template [[link]] and {| table");
+    assertSameMarkup("[[x = y|x = y]] and a = b = c.");
+  }
+
+  private static void assertSameOutput(String file, WikiLanguage lang) throws Exception {
+    String raw = FileUtils.readFileToString(new File("src/test/resources/" + file), "UTF-8");
+    for (boolean footer : new boolean[] { false, true }) {
+      for (boolean title : new boolean[] { false, true }) {
+        WikiClean regex = new WikiClean.Builder().withLanguage(lang)
+            .withFooter(footer).withTitle(title).build();
+        WikiClean lexer = new WikiClean.Builder().withLanguage(lang)
+            .withFooter(footer).withTitle(title).withEngine(Engine.LEXER).build();
+        assertEquals(file, regex.clean(raw), lexer.clean(raw));
+      }
+    }
+  }
+
+  private static void assertSameMarkup(String markup) {
+    String page = String.format(PAGE, markup);
+    WikiClean regex = new WikiClean.Builder().build();
+    WikiClean lexer = new WikiClean.Builder().withEngine(Engine.LEXER).build();
+    assertEquals(markup, regex.clean(page), lexer.clean(page));
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(WikiCleanLexerTest.class);
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import junit.framework.JUnit4TestAdapter;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.wikiclean.WikiClean.Engine;
+import org.wikiclean.WikiClean.Stage;
+import org.wikiclean.WikiClean.WikiLanguage;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WikiCleanLinksTest {
+  private static final String[] FILES = { "enwiki-20120104-id12.xml", "enwiki-20120104-id39.xml",
+      "enwiki-20120104-id290.xml", "enwiki-20120104-id303.xml", "enwiki-20120104-id586.xml",
+      "enwiki-20120104-id655.xml", "enwiki-20120104-id1718.xml", "simplewiki-20161220-id6.xml",
+      "dewiki-20130602-id1.xml", "zhwiki-20150423-id13.xml" };
+
+  private static WikiPage page(String markup) {
+    return Fixtures.page(1, "Test", 0, 1, null, null, markup);
+  }
+
+  private static String clean(WikiClean cleaner, WikiPage page, LinkList links) throws IOException {
+    StringBuilder out = new StringBuilder();
+    links.clear();
+    cleaner.clean(page, out, links);
+    return out.toString();
+  }
+
+  @Test
+  public void testLinks() throws IOException {
+    WikiClean cleaner = new WikiClean.Builder().build();
+    LinkList links = new LinkList();
+    WikiPage page = page("'''Anarchism''' is a [[political philosophy]] that "
+        + "advocates [[self-governance|self-governed]] societies.\n\n== History ==\n"
+        + "[[Anarcho-capitalism|''Anarcho''-capitalism]] and [[Libertarian socialism#History|"
+        + "libertarian &amp;amp; socialism]]. [[Category:Anarchism]] [[de:Anarchismus]]");
+    String out = clean(cleaner, page, links);
+
+    assertEquals(cleaner.clean(page), out);
+    assertTrue(out.endsWith("Anarcho-capitalism and libertarian & socialism."));
+    assertEquals(4, links.size());
+    assertEquals("political philosophy", links.target(0));
+    assertEquals("political philosophy", links.anchor(0));
+    assertEquals(out.indexOf("political"), links.offset(0));
+    assertEquals("self-governance", links.target(1));
+    assertEquals("self-governed", links.anchor(1));
+    assertEquals(out.indexOf("self-governed"), links.offset(1));
+    assertEquals("Anarcho-capitalism", links.target(2));
+    assertEquals("Anarcho-capitalism", links.anchor(2));
+    assertEquals("Libertarian socialism#History", links.target(3));
+    assertEquals("libertarian & socialism", links.anchor(3));
+    assertEquals(out.indexOf("libertarian"), links.offset(3));
+
+    // Offsets count the title, when there is one.
+    WikiClean titled = new WikiClean.Builder().withTitle(true).build();
+    out = clean(titled, page("See [[Anarchism]]."), links);
+    assertEquals("Test\n\nSee Anarchism.", out);
+    assertEquals(1, links.size());
+    assertEquals(out.indexOf("Anarchism"), links.offset(0));
+  }
+
+  @Test
+  public void testSameOutput() throws Exception {
+    LinkList links = new LinkList();
+    for (String file : FILES) {
+      String raw = FileUtils.readFileToString(new File("src/test/resources/" + file), "UTF-8");
+      WikiLanguage lang = file.startsWith("de") ? WikiLanguage.DE
+          : file.startsWith("zh") ? WikiLanguage.ZH : WikiLanguage.EN;
+      WikiPage page = WikiPage.of(raw.substring(raw.indexOf("<page>")));
+      for (Engine engine : Engine.values()) {
+        for (boolean title : new boolean[] { false, true }) {
+          WikiClean cleaner = new WikiClean.Builder().withLanguage(lang).withEngine(engine)
+              .withTitle(title).build();
+          String out = clean(cleaner, page, links);
+          assertEquals(file, cleaner.clean(page), out);
+          assertTrue(file, links.size() > 0);
+          for (int i = 0; i < links.size(); i++) {
+            // Anchors are where the offsets say, unless they had trailing whitespace.
+            String anchor = links.anchor(i).trim();
+            assertEquals(file + " " + links.target(i), anchor, out.substring(links.offset(i),
+                links.offset(i) + anchor.length()));
+          }
+        }
+      }
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testCustomStages() throws IOException {
+    new WikiClean.Builder().withoutStages(Stage.TABLES).build()
+        .clean(page("[[a]]"), new StringBuilder(), new LinkList());
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(WikiCleanLinksTest.class);
+  }
+}
@@ -0,0 +1,118 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import junit.framework.JUnit4TestAdapter;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.wikiclean.WikiClean.Engine;
+import org.wikiclean.WikiClean.Stage;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WikiCleanStagesTest {
+  private static final String PAGE = "<page>\n<title>Test</title>\n<text xml:space=\"preserve\">"
+      + "'''Bold''' text.&lt;ref&gt;Cite&lt;/ref&gt;\n{| class=\"wikitable\"\n| cell\n|}\n"
+      + "See [[Anarchism|anarchists]] &amp;amp; more.</text>\n</page>";
+
+  @Test
+  public void testDefaultStages() {
+    WikiClean cleaner = new WikiClean.Builder().build();
+    assertEquals(Arrays.asList(Stage.values()), cleaner.stages());
+    assertEquals("Bold text.\n\nSee anarchists & more.", cleaner.clean(PAGE));
+  }
+
+  @Test
+  public void testWithoutStages() {
+    WikiClean cleaner = new WikiClean.Builder()
+        .withoutStages(Stage.TABLES, Stage.HTML_ENTITIES).build();
+    assertFalse(cleaner.stages().contains(Stage.TABLES));
+    assertEquals(Stage.values().length - 2, cleaner.stages().size());
+
+    String content = cleaner.clean(PAGE);
+    assertTrue(content.contains("{| class=\"wikitable\"\n| cell\n|}"));
+    assertTrue(content.contains("&amp;amp;"));
+  }
+
+  @Test
+  public void testWithStages() {
+    // Only links and emphasis are removed, in the order given.
+    WikiClean cleaner = new WikiClean.Builder().withStages(Stage.LINKS, Stage.EMPHASIS).build();
+    assertEquals(Arrays.asList(Stage.LINKS, Stage.EMPHASIS), cleaner.stages());
+    assertEquals("Bold text.&lt;ref&gt;Cite&lt;/ref&gt;\n{| class=\"wikitable\"\n| cell\n|}\n"
+        + "See anarchists &amp;amp; more.", cleaner.clean(PAGE));
+
+    // Reordering changes the result: headings are removed before the links would be.
+    String page = "<page>\n<text xml:space=\"preserve\">[[a = b|c = d]]</text>\n</page>";
+    assertEquals("c \n d", new WikiClean.Builder().build().clean(page));
+    assertEquals("c = d", new WikiClean.Builder()
+        .withStages(Stage.LINKS, Stage.HEADINGS).build().clean(page));
+  }
+
+  @Test
+  public void testCustomStage() {
+    CleaningStage upperCase = (cleaner, content) -> content.toUpperCase();
+    WikiClean cleaner = new WikiClean.Builder().withStages(Stage.EMPHASIS, upperCase).build();
+    assertEquals(Arrays.asList(Stage.EMPHASIS, upperCase), cleaner.stages());
+    assertTrue(cleaner.clean(PAGE).startsWith("BOLD TEXT."));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testLexerStages() {
+    new WikiClean.Builder().withEngine(Engine.LEXER).withoutStages(Stage.TABLES).build();
+  }
+
+  @Test
+  public void testProfiler() throws Exception {
+    String raw = FileUtils.readFileToString(new File("src/test/resources/enwiki-20120104-id12.xml"), "UTF-8");
+    StageProfiler profiler = new StageProfiler();
+    WikiClean cleaner = new WikiClean.Builder().withProfiler(profiler).build();
+
+    // Profiling does not change the output.
+    assertEquals(new WikiClean.Builder().build().clean(raw), cleaner.clean(raw));
+    cleaner.clean(raw);
+
+    assertEquals(2, profiler.articles());
+    assertEquals(2 * cleaner.getWikiMarkup(raw).length(), profiler.chars());
+    assertTrue(profiler.stages().contains("FOOTER"));
+    assertTrue(profiler.stages().contains("REFS"));
+    assertTrue(profiler.stages().contains("IMAGE_CAPTIONS+DOUBLE_BRACES"));
+    assertTrue(profiler.stages().contains("TRIM"));
+
+    double share = 0;
+    for (String stage : profiler.stages()) {
+      assertTrue(profiler.nanos(stage) >= 0);
+      share += profiler.share(stage);
+    }
+    assertEquals(1.0, share, 1e-9);
+    assertTrue(profiler.report().contains("REFS"));
+
+    profiler.reset();
+    new WikiClean.Builder().withEngine(Engine.LEXER).withFooter(true).withProfiler(profiler)
+        .build().clean(raw);
+    assertEquals(Arrays.asList("LEXER"), profiler.stages());
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(WikiCleanStagesTest.class);
+  }
+}
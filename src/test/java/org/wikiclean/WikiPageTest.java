@@ -0,0 +1,187 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import junit.framework.JUnit4TestAdapter;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.wikiclean.WikiClean.Engine;
+import org.wikiclean.WikiPage.Type;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WikiPageTest {
+  private static final String REDIRECT = "  <page>\n    <title>AccessibleComputing</title>\n"
+      + "    <ns>0</ns>\n    <id>10</id>\n    <redirect title=\"Computer accessibility\" />\n"
+      + "    <revision>\n      <id>631144794</id>\n      <parentid>381202555</parentid>\n"
+      + "      <timestamp>2014-10-26T04:50:23Z</timestamp>\n"
+      + "      <contributor>\n        <username>Paine Ellsworth</username>\n        <id>9092818</id>\n"
+      + "      </contributor>\n      <model>wikitext</model>\n"
+      + "      <text bytes=\"111\" xml:space=\"preserve\">#REDIRECT [[Computer accessibility]]\n\n"
+      + "{{Redr|move|from CamelCase|up}}</text>\n"
+      + "      <sha1>4ro7vvppa5kmm0o1egfjztzcwd0vabw</sha1>\n    </revision>\n  </page>\n";
+
+  @Test
+  public void testFields() throws Exception {
+    String raw = FileUtils.readFileToString(new File("src/test/resources/enwiki-20120104-id12.xml"), "UTF-8");
+    WikiPage page = WikiPage.of(raw);
+    assertEquals(12, page.id());
+    assertEquals(0, page.namespace());
+    assertEquals("Anarchism", page.title());
+    assertFalse(page.isRedirect());
+    assertEquals("", page.redirect());
+    assertEquals(469305320L, page.revisionId());
+    assertEquals("2012-01-03T12:05:52Z", page.timestamp());
+    assertEquals("", page.sha1());
+
+    WikiClean cleaner = new WikiClean.Builder().build();
+    assertEquals(cleaner.getWikiMarkup(raw), page.text());
+    assertEquals(raw, page.xml());
+  }
+
+  @Test
+  public void testRedirect() {
+    WikiPage page = WikiPage.of(REDIRECT);
+    assertEquals(10, page.id());
+    assertEquals("AccessibleComputing", page.title());
+    assertTrue(page.isRedirect());
+    assertEquals("Computer accessibility", page.redirect());
+    // The contributor id is not the revision id.
+    assertEquals(631144794L, page.revisionId());
+    assertEquals("2014-10-26T04:50:23Z", page.timestamp());
+    assertEquals("4ro7vvppa5kmm0o1egfjztzcwd0vabw", page.sha1());
+    assertEquals("#REDIRECT [[Computer accessibility]]\n\n{{Redr|move|from CamelCase|up}}", page.text());
+  }
+
+  @Test
+  public void testRevisions() {
+    // The last revision is the newest, and fields missing from it are not taken from older ones.
+    WikiPage page = WikiPage.of("<page>\n<title>Page</title>\n<id>1</id>\n<revision>\n<id>11</id>\n"
+        + "<timestamp>2014-10-26T04:50:23Z</timestamp>\n<text>Old.</text>\n<sha1>a1</sha1>\n"
+        + "</revision>\n<revision>\n<id>12</id>\n<text>New.</text>\n</revision>\n</page>\n");
+    assertEquals(1, page.id());
+    assertEquals(12, page.revisionId());
+    assertEquals("New.", page.text());
+    assertEquals("", page.sha1());
+    assertEquals("", page.timestamp());
+  }
+
+  @Test
+  public void testEscapedAndMissingFields() {
+    WikiPage page = WikiPage.of("<page>\n<title>AT&amp;T &#9733;</title>\n<ns>-1</ns>\n"
+        + "<redirect />\n<revision>\n<text xml:space=\"preserve\" />\n</revision>\n</page>\n");
+    assertEquals("AT&T ★", page.title());
+    assertEquals(-1, page.namespace());
+    assertEquals(0, page.id());
+    assertTrue(page.isRedirect());
+    assertEquals("", page.redirect());
+    assertEquals("", page.text());
+    assertEquals(0, page.textLength());
+    assertEquals(0, page.revisionId());
+  }
+
+  @Test
+  public void testCopy() {
+    byte[] buffer = ("xxx" + REDIRECT + "yyy").getBytes();
+    WikiPage view = WikiPage.parse(buffer, 3, buffer.length - 6);
+    WikiPage copy = view.copy();
+    Arrays.fill(buffer, (byte) ' ');
+    assertEquals("AccessibleComputing", copy.title());
+    assertEquals(REDIRECT, copy.xml());
+    assertEquals(631144794L, copy.revisionId());
+  }
+
+  @Test
+  public void testClean() throws Exception {
+    for (String file : new String[] { "enwiki-20120104-id12.xml", "enwiki-20120104-id39.xml",
+        "dewiki-20130602-id1.xml", "zhwiki-20150423-id13.xml" }) {
+      String raw = FileUtils.readFileToString(new File("src/test/resources/" + file), "UTF-8");
+      for (Engine engine : Engine.values()) {
+        WikiClean cleaner = new WikiClean.Builder().withTitle(true).withEngine(engine).build();
+        assertEquals(file, cleaner.clean(raw), cleaner.clean(WikiPage.of(raw)));
+      }
+    }
+  }
+
+  @Test
+  public void testFilter() {
+    List<WikiPage> pages = Arrays.asList(WikiPage.of(REDIRECT),
+        WikiPage.of("<page>\n<title>A</title>\n<id>1</id>\n</page>\n"),
+        WikiPage.of("<page>\n<title>Talk:A</title>\n<ns>1</ns>\n<id>2</id>\n</page>\n"));
+
+    assertEquals(3, pages.stream().filter(PageFilter.ALL).count());
+    assertEquals(Arrays.asList(10L, 1L), ids(pages, new PageFilter.Builder().withNamespaces(0).build()));
+    assertEquals(Arrays.asList(1L, 2L), ids(pages, new PageFilter.Builder().withRedirects(false).build()));
+    assertEquals(Arrays.asList(2L), ids(pages, new PageFilter.Builder().withNamespaces(1, 2)
+        .withRedirects(false).build()));
+  }
+
+  @Test
+  public void testType() throws Exception {
+    for (String file : new String[] { "enwiki-20120104-id12.xml", "dewiki-20130602-id1.xml",
+        "zhwiki-20150423-id13.xml" }) {
+      String raw = FileUtils.readFileToString(new File("src/test/resources/" + file), "UTF-8");
+      assertEquals(file, Type.ARTICLE, WikiPage.of(raw).type());
+    }
+    assertEquals(Type.REDIRECT, WikiPage.of(REDIRECT).type());
+
+    // Redirects without the element, from the start of the markup.
+    assertEquals(Type.REDIRECT, type("A", 0, "#REDIRECT [[B]]"));
+    assertEquals(Type.REDIRECT, type("A", 0, "\n #redirect[[B]]"));
+    assertEquals(Type.REDIRECT, type("A", 0, "#WEITERLEITUNG [[B]]"));
+    assertEquals(Type.REDIRECT, type("A", 0, "#重定向 [[B]]"));
+    assertEquals(Type.ARTICLE, type("A", 0, "See #REDIRECT [[B]]"));
+
+    assertEquals(Type.DISAMBIGUATION, type("Mercury", 0, "'''Mercury''' may refer to:\n{{disambiguation}}"));
+    assertEquals(Type.DISAMBIGUATION, type("Mercury", 0, "Text\n{{ Dab |geo}}"));
+    assertEquals(Type.DISAMBIGUATION, type("Bank", 0, "Text\n{{Begriffsklärung}}"));
+    assertEquals(Type.DISAMBIGUATION, type("Mercury (disambiguation)", 0, "Text"));
+    assertEquals(Type.ARTICLE, type("Mercury", 0, "{{Dablink|x}} {{Disambiguation needed}} text"));
+
+    assertEquals(Type.NAMESPACE, type("Talk:Mercury", 1, "#REDIRECT [[B]]"));
+    assertEquals(Type.NAMESPACE, type("Category:Planets", 14, "{{disambiguation}}"));
+
+    List<WikiPage> pages = Arrays.asList(WikiPage.of(REDIRECT), page("A", 0, "Text"),
+        page("A (disambiguation)", 0, "Text"), page("Talk:A", 1, "Text"));
+    assertEquals(Arrays.asList(1L), ids(pages, new PageFilter.Builder().withTypes(Type.ARTICLE).build()));
+    assertEquals(Arrays.asList(1L, 1L), ids(pages, new PageFilter.Builder()
+        .withTypes(Type.ARTICLE, Type.DISAMBIGUATION).build()));
+  }
+
+  private static WikiPage page(String title, int namespace, String markup) {
+    return Fixtures.page(1, title, namespace, 1, null, null, markup);
+  }
+
+  private static Type type(String title, int namespace, String markup) {
+    return page(title, namespace, markup).type();
+  }
+
+  private static List<Long> ids(List<WikiPage> pages, PageFilter filter) {
+    return pages.stream().filter(filter).map(WikiPage::id).collect(Collectors.toList());
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(WikiPageTest.class);
+  }
+}
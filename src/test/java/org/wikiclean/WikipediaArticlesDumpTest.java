@@ -16,16 +16,28 @@
 
 package org.wikiclean;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class WikipediaArticlesDumpTest {
   @Test(expected = NoSuchElementException.class)
@@ -81,4 +93,153 @@ public class WikipediaArticlesDumpTest {
     // Should get a NoSuchElementException.
     iter.next();
   }
+
+  @Test
+  public void testParallelStream() throws IOException {
+    File dump = createDump(200);
+    WikiClean cleaner = new WikiClean.Builder().build();
+
+    List<String> expected = new WikipediaArticlesDump(dump, null).stream()
+        .map(cleaner::getId).collect(Collectors.toList());
+    assertEquals(200, expected.size());
+
+    // Small batches, so that the stream is actually split.
+    List<String> ordered = new WikipediaArticlesDump(dump, null).parallelStream(true, 64 * 1024)
+        .map(cleaner::getId).collect(Collectors.toList());
+    assertEquals(expected, ordered);
+
+    List<String> unordered = new WikipediaArticlesDump(dump, null).parallelStream(false, 64 * 1024)
+        .map(cleaner::getId).collect(Collectors.toList());
+    Collections.sort(expected);
+    Collections.sort(unordered);
+    assertEquals(expected, unordered);
+
+    assertEquals(200, new WikipediaArticlesDump(dump, null).parallelStream().count());
+    assertEquals(200, new WikipediaArticlesDump(dump, null).stream().parallel().count());
+    dump.delete();
+  }
+
+  @Test
+  public void testSpliterator() throws IOException {
+    File dump = createDump(100);
+    WikipediaArticlesDump wikipedia = new WikipediaArticlesDump(dump, null);
+    Spliterator<String> spliterator = wikipedia.parallelStream(true, 256 * 1024).spliterator();
+
+    assertTrue(spliterator.hasCharacteristics(Spliterator.ORDERED));
+    assertTrue(spliterator.estimateSize() > 0);
+
+    int pages = 0;
+    Spliterator<String> batch;
+    while ((batch = spliterator.trySplit()) != null) {
+      assertTrue(batch.hasCharacteristics(Spliterator.SIZED));
+      assertTrue(batch.estimateSize() > 0);
+      pages += batch.estimateSize();
+    }
+    assertEquals(100, pages);
+    assertEquals(0, spliterator.estimateSize());
+    assertFalse(spliterator.tryAdvance(page -> {}));
+    dump.delete();
+  }
+
+  @Test
+  public void testPages() throws IOException {
+    File dump = createDump(30);
+    List<String> expected = new WikipediaArticlesDump(dump, null).stream()
+        .collect(Collectors.toList());
+    List<WikiPage> pages = new WikipediaArticlesDump(dump, null).pages()
+        .collect(Collectors.toList());
+    assertEquals(expected, pages.stream().map(WikiPage::xml).collect(Collectors.toList()));
+
+    WikiClean cleaner = new WikiClean.Builder().build();
+    for (int i = 0; i < pages.size(); i++) {
+      assertEquals(cleaner.getTitle(expected.get(i)), pages.get(i).title());
+      assertEquals(cleaner.getId(expected.get(i)), Long.toString(pages.get(i).id()));
+    }
+
+    assertEquals(5, new WikipediaArticlesDump(new File("src/test/resources/article-stubs.xml.bz2"), null)
+        .pages(new PageFilter.Builder().withNamespaces(0).build()).count());
+    assertEquals(0, new WikipediaArticlesDump(new File("src/test/resources/article-stubs.xml.bz2"), null)
+        .pages(new PageFilter.Builder().withNamespaces(1).build()).count());
+    dump.delete();
+  }
+
+  @Test
+  public void testMarkupRedirects() throws Exception {
+    // Older exports mark redirects by their markup only.
+    File dump = Fixtures.dump(9, Arrays.asList(
+        Fixtures.xml(1, "Article", 0, 11, null, null, "Some text."),
+        Fixtures.xml(2, "Redirect", 0, 21, null, null, "#REDIRECT [[Article]]")));
+    File output = File.createTempFile("wikiclean", ".json");
+    WikipediaArticlesDump.main(new String[] { "-input", dump.getPath(), "-output", output.getPath() });
+    String json = FileUtils.readFileToString(output, "UTF-8");
+    assertTrue(json.contains("\"_id\":1}"));
+    assertFalse(json.contains("\"_id\":2}"));
+    dump.delete();
+    output.delete();
+    new File(output.getPath() + ".checkpoint").delete();
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    File dump = createDump(100);
+    int threads = WikipediaMultistreamDumpTest.decompressionThreads();
+    try (WikipediaArticlesDump wikipedia = new WikipediaArticlesDump(dump, null, 3)) {
+      // Nothing is read until the first page is asked for.
+      Stream<WikiPage> pages = wikipedia.pages();
+      assertEquals(threads, WikipediaMultistreamDumpTest.decompressionThreads());
+      try (Stream<WikiPage> stream = pages) {
+        assertEquals(2, stream.limit(2).count());
+      }
+      WikipediaMultistreamDumpTest.assertThreadsStop(threads);
+
+      // Each iterator reads the dump from the start, and the dump closes those left behind.
+      Iterator<String> first = wikipedia.iterator();
+      Iterator<String> second = wikipedia.iterator();
+      assertEquals(first.next(), second.next());
+      assertTrue(WikipediaMultistreamDumpTest.decompressionThreads() > threads);
+    }
+    WikipediaMultistreamDumpTest.assertThreadsStop(threads);
+    dump.delete();
+  }
+
+  @Test
+  public void testTruncated() throws Exception {
+    Random random = new Random(42);
+    List<String> pages = new ArrayList<>();
+    for (int id = 1; id <= 400; id++) {
+      StringBuilder text = new StringBuilder();
+      for (int i = 0; i < 200; i++) {
+        text.append(' ').append(random.nextInt(1000));
+      }
+      pages.add(Fixtures.xml(id, "Page " + id, 0, id + 1000, null, null, text.toString()));
+    }
+    File dump = Fixtures.dump(1, pages);
+    try (RandomAccessFile file = new RandomAccessFile(dump, "rw")) {
+      file.setLength(file.length() / 2);
+    }
+
+    // The truncated end fails the read, rather than look like the end of the dump.
+    int read = 0;
+    try (WikipediaArticlesDump wikipedia = new WikipediaArticlesDump(dump, null, 2)) {
+      for (Iterator<String> articles = wikipedia.iterator(); articles.hasNext(); ) {
+        articles.next();
+        read++;
+      }
+      fail();
+    } catch (UncheckedIOException e) {
+      assertTrue(read < 400);
+    }
+    dump.delete();
+  }
+
+  // Builds a dump from the test articles, repeated to the given number of pages.
+  static File createDump(int pages) throws IOException {
+    File[] articles = new File("src/test/resources").listFiles((dir, name) -> name.endsWith(".xml"));
+    Arrays.sort(articles);
+    List<String> xml = new ArrayList<>();
+    for (int i = 0; i < pages; i++) {
+      xml.add(FileUtils.readFileToString(articles[i % articles.length], "UTF-8"));
+    }
+    return Fixtures.dump(9, xml);
+  }
 }
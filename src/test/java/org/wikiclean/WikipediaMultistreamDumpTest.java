@@ -0,0 +1,173 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean;
+
+import junit.framework.JUnit4TestAdapter;
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WikipediaMultistreamDumpTest {
+  private static final int PAGES = 100;
+  private static final int PAGES_PER_STREAM = 15;
+
+  static final List<String> pages = new ArrayList<>();
+  static File dump;
+  static File index;
+
+  @BeforeClass
+  public static void createDump() throws IOException {
+    File[] articles = new File("src/test/resources").listFiles((dir, name) -> name.endsWith(".xml"));
+    Arrays.sort(articles);
+    pages.clear();
+    for (int i = 0; i < PAGES; i++) {
+      pages.add(FileUtils.readFileToString(articles[i % articles.length], "UTF-8"));
+    }
+
+    WikiClean cleaner = new WikiClean.Builder().build();
+    dump = File.createTempFile("wikiclean", "-multistream.xml.bz2");
+    index = File.createTempFile("wikiclean", "-multistream-index.txt.bz2");
+    try (OutputStream out = new FileOutputStream(dump);
+         OutputStream indexOut = new FileOutputStream(index)) {
+      long offset = 0;
+      offset += writeStream(out, "<mediawiki>\n  <siteinfo>\n  </siteinfo>\n");
+      for (int i = 0; i < PAGES; i += PAGES_PER_STREAM) {
+        StringBuilder text = new StringBuilder();
+        StringBuilder entries = new StringBuilder();
+        for (String page : pages.subList(i, Math.min(i + PAGES_PER_STREAM, PAGES))) {
+          text.append(page);
+          entries.append(offset).append(':').append(cleaner.getId(page)).append(':')
+              .append(cleaner.getTitle(page)).append('\n');
+        }
+        offset += writeStream(out, text.toString());
+        // Like the real index, a concatenation of streams.
+        writeStream(indexOut, entries.toString());
+      }
+      writeStream(out, "</mediawiki>\n");
+    }
+  }
+
+  @AfterClass
+  public static void deleteDump() {
+    dump.delete();
+    index.delete();
+  }
+
+  private static int writeStream(OutputStream out, String text) throws IOException {
+    return Fixtures.writeStream(out, 9, bz2 -> bz2.write(text.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void testIterator() throws IOException {
+    WikipediaMultistreamDump wikipedia = new WikipediaMultistreamDump(dump, index, 3);
+    assertEquals((PAGES + PAGES_PER_STREAM - 1) / PAGES_PER_STREAM, wikipedia.streams());
+
+    List<String> read = new ArrayList<>();
+    for (String page : wikipedia) {
+      read.add(page);
+    }
+    assertEquals(pages, read);
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void testIteratorEnd() throws IOException {
+    Iterator<String> iter = new WikipediaMultistreamDump(dump, index, 1).iterator();
+    while (iter.hasNext()) {
+      iter.next();
+    }
+    assertFalse(iter.hasNext());
+    iter.next();
+  }
+
+  @Test
+  public void testStreams() throws IOException {
+    assertEquals(pages, new WikipediaMultistreamDump(dump, index).stream()
+        .collect(Collectors.toList()));
+    assertEquals(pages, new WikipediaMultistreamDump(dump, index).parallelStream()
+        .collect(Collectors.toList()));
+
+    List<String> unordered = new WikipediaMultistreamDump(dump, index, 2).parallelStream(false)
+        .collect(Collectors.toList());
+    List<String> expected = new ArrayList<>(pages);
+    Collections.sort(expected);
+    Collections.sort(unordered);
+    assertEquals(expected, unordered);
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    int threads = decompressionThreads();
+    try (WikipediaMultistreamDump wikipedia = new WikipediaMultistreamDump(dump, index, 3)) {
+      try (Stream<String> stream = wikipedia.stream()) {
+        assertEquals(pages.get(0), stream.findFirst().get());
+      }
+      assertThreadsStop(threads);
+
+      // The dump closes the iterators left behind.
+      Iterator<String> iter = wikipedia.iterator();
+      assertEquals(pages.get(0), iter.next());
+      assertTrue(decompressionThreads() > threads);
+    }
+    assertThreadsStop(threads);
+  }
+
+  static int decompressionThreads() {
+    int count = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().equals("wikiclean-bz2") && thread.isAlive()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  static void assertThreadsStop(int threads) throws InterruptedException {
+    for (int i = 0; i < 100 && decompressionThreads() > threads; i++) {
+      Thread.sleep(20);
+    }
+    assertEquals(threads, decompressionThreads());
+  }
+
+  @Test
+  public void testSameAsSequentialReader() throws IOException {
+    // The sequential reader decompresses the whole multistream dump as concatenated streams.
+    assertEquals(pages, new WikipediaArticlesDump(dump, null).stream().collect(Collectors.toList()));
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(WikipediaMultistreamDumpTest.class);
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean.benchmarks;
+
+import org.apache.commons.io.IOUtils;
+import org.wikiclean.WikiClean.WikiLanguage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The articles of the test cases, bundled with the benchmarks.
+ */
+final class Articles {
+  private static final String[] EN = { "simplewiki-20161220-id6.xml", "enwiki-20120104-id12.xml",
+      "enwiki-20120104-id39.xml", "enwiki-20120104-id290.xml", "enwiki-20120104-id303.xml",
+      "enwiki-20120104-id586.xml", "enwiki-20120104-id655.xml", "enwiki-20120104-id1718.xml" };
+  private static final String[] DE = { "dewiki-20130602-id1.xml", "dewiki-20130602-id5.xml",
+      "dewiki-20130602-id81.xml", "dewiki-20130602-id89.xml", "dewiki-20130602-id111.xml" };
+  private static final String[] ZH = { "zhwiki-20150423-id13.xml" };
+
+  private Articles() {}
+
+  static List<String> load(WikiLanguage lang) throws IOException {
+    String[] names = lang.equals(WikiLanguage.DE) ? DE : lang.equals(WikiLanguage.ZH) ? ZH : EN;
+    List<String> articles = new ArrayList<>(names.length);
+    for (String name : names) {
+      articles.add(read(name));
+    }
+    return articles;
+  }
+
+  static List<String> loadAll() throws IOException {
+    List<String> articles = new ArrayList<>();
+    for (WikiLanguage lang : WikiLanguage.values()) {
+      articles.addAll(load(lang));
+    }
+    return articles;
+  }
+
+  static String read(String name) throws IOException {
+    try (InputStream in = Articles.class.getResourceAsStream("/articles/" + name)) {
+      if (in == null) {
+        throw new IOException("Missing resource: " + name);
+      }
+      return IOUtils.toString(in, StandardCharsets.UTF_8);
+    }
+  }
+
+  // Throughput is reported for the UTF-8 encoded input, as it is stored in a dump.
+  static long bytes(CharSequence s) {
+    long bytes = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        bytes += 1;
+      } else if (c < 0x800) {
+        bytes += 2;
+      } else if (Character.isHighSurrogate(c)) {
+        bytes += 4;
+        i++;
+      } else {
+        bytes += 3;
+      }
+    }
+    return bytes;
+  }
+}
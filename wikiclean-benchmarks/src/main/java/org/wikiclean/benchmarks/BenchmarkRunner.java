@@ -0,0 +1,72 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean.benchmarks;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Runs the benchmarks with the gc profiler and prints the throughput in MB/s and the allocation per
+ * article. Takes the usual JMH command-line options, e.g., a regular expression selecting the
+ * benchmarks to run.
+ */
+public class BenchmarkRunner {
+  private BenchmarkRunner() {}
+
+  public static void main(String[] argv) throws Exception {
+    Options options = new OptionsBuilder()
+        .parent(new CommandLineOptions(argv))
+        .addProfiler(GCProfiler.class)
+        .build();
+    Collection<RunResult> results = new Runner(options).run();
+
+    System.out.println();
+    System.out.println(String.format("%-80s %10s %14s", "Benchmark", "MB/s", "bytes/article"));
+    for (RunResult result : results) {
+      Map<String, Result> secondary = result.getSecondaryResults();
+      double bytes = score(secondary, "bytes");
+      double articles = score(secondary, "articles");
+      // MB/sec, as reported by the gc profiler.
+      double allocated = score(secondary, "gc.alloc.rate") * 1024 * 1024;
+
+      System.out.println(String.format("%-80s %10.2f %14s", label(result.getParams()),
+          bytes / 1e6, articles > 0 ? String.format("%.0f", allocated / articles) : "-"));
+    }
+  }
+
+  private static double score(Map<String, Result> results, String name) {
+    Result result = results.get(name);
+    return result == null ? 0 : result.getScore();
+  }
+
+  private static String label(BenchmarkParams params) {
+    StringBuilder sb = new StringBuilder(params.getBenchmark().replace("org.wikiclean.benchmarks.", ""));
+    for (String key : params.getParamsKeys()) {
+      sb.append(' ').append(key).append('=').append(params.getParam(key));
+    }
+    return sb.toString();
+  }
+}
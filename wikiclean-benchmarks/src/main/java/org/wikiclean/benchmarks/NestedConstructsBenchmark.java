@@ -0,0 +1,93 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wikiclean.WikiClean;
+import org.wikiclean.WikiClean.Stage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes nested constructs from synthetic markup of growing size and nesting depth, e.g., to check
+ * that the removers stay linear in the size of the input.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NestedConstructsBenchmark {
+  @Param({ "IMAGE_CAPTIONS", "DOUBLE_BRACES", "TABLES" })
+  public Stage stage;
+
+  @Param({ "1000", "100000", "1000000" })
+  public int size;
+
+  @Param({ "1", "8", "64" })
+  public int depth;
+
+  private WikiClean cleaner;
+  private String input;
+  private long bytes;
+
+  @Setup
+  public void setup() {
+    cleaner = new WikiClean.Builder().build();
+    input = markup(stage, size, depth);
+    bytes = Articles.bytes(input);
+  }
+
+  // Alternates plain text and constructs nested depth levels deep until size is reached.
+  static String markup(Stage stage, int size, int depth) {
+    String outer = stage == Stage.IMAGE_CAPTIONS ? "[[File:" : stage == Stage.TABLES ? "{|" : "{{";
+    String open = stage == Stage.IMAGE_CAPTIONS ? "[[" : outer;
+    String close = stage == Stage.IMAGE_CAPTIONS ? "]]" : stage == Stage.TABLES ? "|}" : "}}";
+
+    StringBuilder construct = new StringBuilder(outer).append("x.jpg|cell ");
+    for (int i = 1; i < depth; i++) {
+      construct.append(open).append("level ").append(i).append(" | ");
+    }
+    for (int i = 1; i < depth; i++) {
+      construct.append(" text").append(close);
+    }
+    construct.append(" caption").append(close);
+
+    StringBuilder sb = new StringBuilder(size + construct.length());
+    while (sb.length() < size) {
+      sb.append("Some plain text between the constructs. ").append(construct).append('\n');
+    }
+    return sb.toString();
+  }
+
+  @Benchmark
+  public String remove(Counters counters) {
+    counters.bytes += bytes;
+    return stage.apply(cleaner, input);
+  }
+}
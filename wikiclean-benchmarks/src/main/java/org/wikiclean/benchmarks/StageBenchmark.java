@@ -0,0 +1,115 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wikiclean.CleaningStage;
+import org.wikiclean.WikiClean;
+import org.wikiclean.WikiClean.Stage;
+import org.wikiclean.WikiClean.WikiLanguage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a single stage of the regex engine, one article per operation. Each stage sees the output of
+ * the stages before it, as in a full run. FOOTER stands for footer removal and trimming, which are
+ * applied around the stages.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StageBenchmark {
+  @Param({ "EN", "DE", "ZH" })
+  public WikiLanguage lang;
+
+  @Param({ "FOOTER", "REFS", "INTER_WIKI_LINKS", "PARENTHETICALS", "UNIT_CONVERSION",
+      "IMAGE_CAPTIONS", "DOUBLE_BRACES", "HTML_COMMENTS", "EMPHASIS", "HEADINGS", "CATEGORY_LINKS",
+      "LINKS", "MATH", "GALLERY", "NO_TOC", "INDENTATION", "TABLES", "HTML_ENTITIES", "HTML_TAGS",
+      "MULTIPLE_NEWLINES" })
+  public String stage;
+
+  private WikiClean cleaner;
+  private WikiClean footer;
+  private CleaningStage cleaningStage;
+  private String[] inputs;
+  private long[] bytes;
+  private int next;
+  private final StringBuilder out = new StringBuilder();
+
+  @Setup
+  public void setup() throws IOException {
+    cleaner = new WikiClean.Builder().withLanguage(lang).build();
+    // No stages at all, only footer removal and trimming.
+    footer = new WikiClean.Builder().withLanguage(lang).withStages().build();
+    cleaningStage = stage.equals("FOOTER") ? null : Stage.valueOf(stage);
+
+    List<String> articles = Articles.load(lang);
+    inputs = new String[articles.size()];
+    bytes = new long[inputs.length];
+    for (int i = 0; i < inputs.length; i++) {
+      String input = articles.get(i);
+      if (cleaningStage == null) {
+        input = cleaner.getWikiMarkup(input);
+      } else {
+        input = footer.clean(input);
+        for (Stage before : Stage.values()) {
+          if (before == cleaningStage) {
+            break;
+          }
+          input = before.apply(cleaner, input);
+        }
+      }
+      inputs[i] = input;
+      bytes[i] = Articles.bytes(input);
+    }
+  }
+
+  @Benchmark
+  public Object run(Counters counters) {
+    int i = next;
+    next = (next + 1) % inputs.length;
+    counters.bytes += bytes[i];
+    counters.articles++;
+
+    if (cleaningStage != null) {
+      return cleaningStage.apply(cleaner, inputs[i]);
+    }
+    out.setLength(0);
+    try {
+      footer.cleanMarkup(inputs[i], out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out;
+  }
+}
@@ -0,0 +1,90 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wikiclean.WikiClean;
+import org.wikiclean.WikiClean.Engine;
+import org.wikiclean.WikiClean.WikiLanguage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cleans whole articles, one article per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WikiCleanBenchmark {
+  @Param({ "EN", "DE", "ZH" })
+  public WikiLanguage lang;
+
+  @Param({ "REGEX", "LEXER" })
+  public Engine engine;
+
+  private WikiClean cleaner;
+  private String[] pages;
+  private long[] bytes;
+  private int next;
+  private final StringBuilder out = new StringBuilder();
+
+  @Setup
+  public void setup() throws IOException {
+    cleaner = new WikiClean.Builder().withLanguage(lang).withEngine(engine).build();
+    List<String> articles = Articles.load(lang);
+    pages = articles.toArray(new String[articles.size()]);
+    bytes = new long[pages.length];
+    for (int i = 0; i < pages.length; i++) {
+      bytes[i] = Articles.bytes(pages[i]);
+    }
+  }
+
+  private int advance(Counters counters) {
+    int i = next;
+    next = (next + 1) % pages.length;
+    counters.bytes += bytes[i];
+    counters.articles++;
+    return i;
+  }
+
+  @Benchmark
+  public String clean(Counters counters) {
+    return cleaner.clean(pages[advance(counters)]);
+  }
+
+  @Benchmark
+  public StringBuilder cleanAppendable(Counters counters) throws IOException {
+    out.setLength(0);
+    cleaner.clean(pages[advance(counters)], out);
+    return out;
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * WikiClean: A Java Wikipedia markup to plain text converter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wikiclean.benchmarks;
+
+import org.apache.tools.bzip2.CBZip2OutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.wikiclean.WikipediaArticlesDump;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterates over a bz2-compressed dump, one pass over the dump per operation. The dump is built from
+ * the bundled articles, repeated to the number of pages requested.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WikipediaArticlesDumpBenchmark {
+  @Param({ "100" })
+  public int pages;
+
+  private File dump;
+  private long length;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    List<String> articles = Articles.loadAll();
+    dump = File.createTempFile("wikiclean-benchmark", ".xml.bz2");
+
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(dump))) {
+      // Written by the command-line tools, skipped by WikipediaArticlesDump.
+      out.write('B');
+      out.write('Z');
+      try (CBZip2OutputStream bz2 = new CBZip2OutputStream(out)) {
+        bz2.write(bytes("<mediawiki>\n"));
+        for (int i = 0; i < pages; i++) {
+          bz2.write(bytes(articles.get(i % articles.size())));
+        }
+        bz2.write(bytes("</mediawiki>\n"));
+      }
+    }
+  }
+
+  private byte[] bytes(String s) {
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    length += b.length;
+    return b;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    dump.delete();
+  }
+
+  @Benchmark
+  public void iterate(Counters counters, Blackhole blackhole) throws IOException {
+    for (String page : new WikipediaArticlesDump(dump, null)) {
+      blackhole.consume(page);
+      counters.articles++;
+    }
+    counters.bytes += length;
+  }
+}